@@ -0,0 +1,265 @@
+package com.nospeak.app;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Front for NIP-44 decrypts through an external signer (Amber), where every call is a
+ * cross-process ContentResolver query.
+ *
+ * Identical ciphertexts share one IPC: a request that matches one in flight waits for its
+ * result, and recent successful results are kept in a small in-memory LRU keyed by a SHA-256
+ * of recipient, sender and ciphertext, so replays and cross-relay copies that reach the signer
+ * again (Amber failures are retried when an event is seen again) cost a hash. IPCs run on a
+ * small dedicated pool, so at most {@code workerCount} queries are outstanding against the
+ * signer however many decrypt workers are waiting. The pool's queue is bounded: queries left
+ * behind by timed-out callers would otherwise pile up behind a stalled signer, so once
+ * {@code queueCapacity} are waiting new requests fail at once. Failures are never cached: a
+ * locked or busy signer should be asked again next time.
+ *
+ * Cached plaintexts never leave memory and are dropped by {@link #clear()}.
+ */
+public final class AmberDecryptBroker {
+
+    private static final String THREAD_NAME_PREFIX = "nospeak-amber-";
+
+    public interface Signer {
+        /**
+         * @return the plaintext, or null if the signer rejected or failed the request
+         */
+        String nip44Decrypt(String ciphertext, String senderPubkeyHex, String recipientPubkeyHex);
+    }
+
+    private final Signer signer;
+    private final ThreadPoolExecutor executor;
+    private final long timeoutMs;
+    private final int maxCachedResults;
+    private final LinkedHashMap<String, String> results;
+    private final ConcurrentHashMap<String, FutureTask<String>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong cacheHitCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong timedOutCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private long ipcCount;
+    private long ipcTotalNanos;
+    private long ipcMaxNanos;
+
+    public AmberDecryptBroker(Signer signer, int workerCount, int queueCapacity, int maxCachedResults, long timeoutMs) {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("workerCount must be positive");
+        }
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("queueCapacity must be positive");
+        }
+        if (maxCachedResults <= 0) {
+            throw new IllegalArgumentException("maxCachedResults must be positive");
+        }
+
+        this.signer = signer;
+        this.timeoutMs = timeoutMs;
+        this.maxCachedResults = maxCachedResults;
+        this.results = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > AmberDecryptBroker.this.maxCachedResults;
+            }
+        };
+
+        final AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+                workerCount,
+                workerCount,
+                30L,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queueCapacity),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + threadIndex.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }
+        );
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Blocks the calling (decrypt worker) thread until the plaintext is available.
+     *
+     * @return the plaintext, or null on signer failure, timeout, a full queue or shutdown
+     */
+    public String decrypt(final String ciphertext, final String senderPubkeyHex, final String recipientPubkeyHex) {
+        if (ciphertext == null || senderPubkeyHex == null) {
+            return null;
+        }
+
+        requestCount.incrementAndGet();
+        final String key = cacheKey(ciphertext, senderPubkeyHex, recipientPubkeyHex);
+        String cached = getCached(key);
+        if (cached != null) {
+            cacheHitCount.incrementAndGet();
+            return cached;
+        }
+
+        final FutureTask<String> task = new FutureTask<>(new Callable<String>() {
+            @Override
+            public String call() {
+                try {
+                    return query(key, ciphertext, senderPubkeyHex, recipientPubkeyHex);
+                } finally {
+                    // Leave before the result is published: a caller that saw this task fail and
+                    // asks again must start a new query, not join the finished one.
+                    inFlight.remove(key);
+                }
+            }
+        });
+        FutureTask<String> existing = inFlight.putIfAbsent(key, task);
+        FutureTask<String> awaited = existing != null ? existing : task;
+        if (existing != null) {
+            coalescedCount.incrementAndGet();
+        } else {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // Queue full (signer stalled) or shut down; the event is retried when seen again.
+                inFlight.remove(key, task);
+                rejectedCount.incrementAndGet();
+                return null;
+            }
+        }
+
+        try {
+            return awaited.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // The IPC keeps running; a later copy joins it or finds its result cached.
+            timedOutCount.incrementAndGet();
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    private String query(String key, String ciphertext, String senderPubkeyHex, String recipientPubkeyHex) {
+        long startNanos = System.nanoTime();
+        String plaintext = null;
+        try {
+            plaintext = signer.nip44Decrypt(ciphertext, senderPubkeyHex, recipientPubkeyHex);
+        } catch (RuntimeException ignored) {
+            // reported as a failure below
+        }
+        recordIpc(System.nanoTime() - startNanos);
+
+        if (plaintext == null || plaintext.isEmpty()) {
+            failedCount.incrementAndGet();
+            return null;
+        }
+        putCached(key, plaintext);
+        return plaintext;
+    }
+
+    private synchronized String getCached(String key) {
+        return results.get(key);
+    }
+
+    private synchronized void putCached(String key, String plaintext) {
+        results.put(key, plaintext);
+    }
+
+    private synchronized void recordIpc(long nanos) {
+        if (nanos < 0L) {
+            return;
+        }
+        ipcCount++;
+        ipcTotalNanos += nanos;
+        if (nanos > ipcMaxNanos) {
+            ipcMaxNanos = nanos;
+        }
+    }
+
+    /**
+     * Drops every cached plaintext, e.g. when the account or signer changes.
+     */
+    public synchronized void clear() {
+        results.clear();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        clear();
+    }
+
+    public synchronized int size() {
+        return results.size();
+    }
+
+    public synchronized Snapshot snapshot() {
+        long avgMicros = ipcCount > 0L ? (ipcTotalNanos / ipcCount) / 1000L : 0L;
+        return new Snapshot(
+                requestCount.get(),
+                cacheHitCount.get(),
+                coalescedCount.get(),
+                failedCount.get(),
+                timedOutCount.get(),
+                rejectedCount.get(),
+                new GiftWrapDecryptPipeline.LatencySnapshot(ipcCount, avgMicros, ipcMaxNanos / 1000L)
+        );
+    }
+
+    static String cacheKey(String ciphertext, String senderPubkeyHex, String recipientPubkeyHex) {
+        String material = (recipientPubkeyHex != null ? recipientPubkeyHex : "") + '\n' + senderPubkeyHex + '\n' + ciphertext;
+        return NostrEvents.bytesToHex(NostrEvents.sha256(material.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public static final class Snapshot {
+
+        public final long requests;
+        public final long cacheHits;
+        public final long coalesced;
+        public final long failed;
+        public final long timedOut;
+        public final long rejected;
+        public final GiftWrapDecryptPipeline.LatencySnapshot ipc;
+
+        Snapshot(long requests, long cacheHits, long coalesced, long failed, long timedOut, long rejected,
+                 GiftWrapDecryptPipeline.LatencySnapshot ipc) {
+            this.requests = requests;
+            this.cacheHits = cacheHits;
+            this.coalesced = coalesced;
+            this.failed = failed;
+            this.timedOut = timedOut;
+            this.rejected = rejected;
+            this.ipc = ipc;
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + requests
+                    + " cacheHits=" + cacheHits
+                    + " coalesced=" + coalesced
+                    + " failed=" + failed
+                    + " timedOut=" + timedOut
+                    + " rejected=" + rejected
+                    + " ipc[" + ipc + "]";
+        }
+    }
+}
@@ -17,6 +17,7 @@ import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.CapacitorPlugin;
 
 import org.json.JSONException;
+import org.json.JSONObject;
 
 @CapacitorPlugin(name = "AndroidBackgroundMessaging")
 public class AndroidBackgroundMessagingPlugin extends Plugin {
@@ -29,6 +30,11 @@ public class AndroidBackgroundMessagingPlugin extends Plugin {
         String summary = call.getString("summary", "Connected to read relays");
         Boolean notificationsEnabledValue = call.getBoolean("notificationsEnabled", false);
         boolean notificationsEnabled = notificationsEnabledValue != null && notificationsEnabledValue;
+        String syncMode = call.getString("syncMode", AndroidBackgroundMessagingPrefs.SYNC_MODE_PERSISTENT);
+        Integer syncIntervalMinutesValue = call.getInt("syncIntervalMinutes", AndroidBackgroundMessagingPrefs.MIN_SYNC_INTERVAL_MINUTES);
+        int syncIntervalMinutes = syncIntervalMinutesValue != null
+                ? syncIntervalMinutesValue
+                : AndroidBackgroundMessagingPrefs.MIN_SYNC_INTERVAL_MINUTES;
 
         if (pubkeyHex == null || pubkeyHex.isEmpty()) {
             call.reject("pubkeyHex is required");
@@ -55,6 +61,22 @@ public class AndroidBackgroundMessagingPlugin extends Plugin {
         AndroidBackgroundMessagingPrefs.saveNotificationBaselineSeconds(getContext(), baselineSeconds);
 
         AndroidBackgroundMessagingPrefs.saveStartConfig(getContext(), mode, pubkeyHex, relays, summary, notificationsEnabled);
+        AndroidBackgroundMessagingPrefs.saveSyncMode(getContext(), syncMode, syncIntervalMinutes);
+
+        if (AndroidBackgroundMessagingPrefs.SYNC_MODE_PERIODIC.equals(syncMode)) {
+            // No persistent sockets: drop a running service and let WorkManager batch the syncs.
+            getContext().stopService(new Intent(getContext(), NativeBackgroundMessagingService.class));
+            PeriodicSyncWorker.schedule(getContext(), syncIntervalMinutes);
+
+            Intent syncIntent = AndroidBackgroundMessagingPrefs.buildSyncOnceServiceIntent(getContext());
+            if (syncIntent != null) {
+                ContextCompat.startForegroundService(getContext(), syncIntent);
+            }
+            call.resolve();
+            return;
+        }
+
+        PeriodicSyncWorker.cancel(getContext());
 
         Intent intent = new Intent(getContext(), NativeBackgroundMessagingService.class);
         intent.setAction(NativeBackgroundMessagingService.ACTION_START);
@@ -78,6 +100,11 @@ public class AndroidBackgroundMessagingPlugin extends Plugin {
 
         AndroidBackgroundMessagingPrefs.saveSummary(getContext(), summary);
 
+        if (!isServiceExpected()) {
+            call.resolve();
+            return;
+        }
+
         Intent intent = new Intent(getContext(), NativeBackgroundMessagingService.class);
         intent.setAction(NativeBackgroundMessagingService.ACTION_UPDATE);
         intent.putExtra(NativeBackgroundMessagingService.EXTRA_SUMMARY, summary);
@@ -111,7 +138,7 @@ public class AndroidBackgroundMessagingPlugin extends Plugin {
         if (picture != null && !picture.trim().isEmpty()) {
             NativeBackgroundMessagingService service = NativeBackgroundMessagingService.getInstance();
             if (service != null) {
-                service.prefetchAvatar(pubkeyHex, picture);
+                service.prefetchAvatar(pubkeyHex, picture, updatedAt);
             }
         }
 
@@ -224,6 +251,11 @@ public class AndroidBackgroundMessagingPlugin extends Plugin {
     public void setActiveConversation(PluginCall call) {
         String pubkeyHex = call.getString("pubkeyHex", null);
 
+        if (!isServiceExpected()) {
+            call.resolve();
+            return;
+        }
+
         Intent intent = new Intent(getContext(), NativeBackgroundMessagingService.class);
         intent.setAction(NativeBackgroundMessagingService.ACTION_SET_ACTIVE_CONVERSATION);
         intent.putExtra(NativeBackgroundMessagingService.EXTRA_ACTIVE_CONVERSATION_PUBKEY, pubkeyHex);
@@ -231,12 +263,51 @@ public class AndroidBackgroundMessagingPlugin extends Plugin {
         call.resolve();
     }
 
+    @PluginMethod
+    public void getMetrics(PluginCall call) {
+        JSObject result = new JSObject();
+        NativeBackgroundMessagingService service = NativeBackgroundMessagingService.getInstance();
+        result.put("running", service != null);
+        if (service != null) {
+            try {
+                result.put("metrics", JSObject.fromJSONObject(service.getMetricsSnapshot()));
+            } catch (JSONException ignored) {
+                // ignore
+            }
+        }
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void getLastSyncCycle(PluginCall call) {
+        JSObject result = new JSObject();
+        JSONObject report = AndroidBackgroundMessagingPrefs.loadLastSyncCycle(getContext());
+        if (report != null) {
+            try {
+                result.put("cycle", JSObject.fromJSONObject(report));
+            } catch (JSONException ignored) {
+                // ignore
+            }
+        }
+        call.resolve(result);
+    }
+
     @PluginMethod
     public void stop(PluginCall call) {
         AndroidBackgroundMessagingPrefs.setEnabled(getContext(), false);
+        PeriodicSyncWorker.cancel(getContext());
 
         Intent intent = new Intent(getContext(), NativeBackgroundMessagingService.class);
         getContext().stopService(intent);
         call.resolve();
     }
+
+    /**
+     * In the periodic sync mode the service only runs during a cycle; starting it just to forward
+     * a summary or the active conversation would leave it in the foreground.
+     */
+    private boolean isServiceExpected() {
+        return !AndroidBackgroundMessagingPrefs.load(getContext()).isPeriodicSync()
+                || NativeBackgroundMessagingService.getInstance() != null;
+    }
 }
@@ -6,6 +6,7 @@ import android.content.SharedPreferences;
 
 import org.json.JSONArray;
 import org.json.JSONException;
+import org.json.JSONObject;
 
 public final class AndroidBackgroundMessagingPrefs {
 
@@ -18,6 +19,17 @@ public final class AndroidBackgroundMessagingPrefs {
     private static final String KEY_SUMMARY = "summary";
     private static final String KEY_NOTIFICATIONS_ENABLED = "notificationsEnabled";
     private static final String KEY_NOTIFICATION_BASELINE_SECONDS = "notificationBaselineSeconds";
+    private static final String KEY_RELAY_SINCE_CURSORS_JSON = "relaySinceCursorsJson";
+    private static final String KEY_SYNC_MODE = "syncMode";
+    private static final String KEY_SYNC_INTERVAL_MINUTES = "syncIntervalMinutes";
+    private static final String KEY_LAST_SYNC_CYCLE_JSON = "lastSyncCycleJson";
+
+    // Keep relay sockets open in a foreground service.
+    public static final String SYNC_MODE_PERSISTENT = "persistent";
+    // Wake on a WorkManager cadence, catch up with every relay, notify and stop.
+    public static final String SYNC_MODE_PERIODIC = "periodic";
+    // WorkManager's minimum periodic interval.
+    public static final int MIN_SYNC_INTERVAL_MINUTES = 15;
 
     private AndroidBackgroundMessagingPrefs() {
     }
@@ -30,6 +42,8 @@ public final class AndroidBackgroundMessagingPrefs {
         public final String[] readRelays;
         public final String summary;
         public final boolean notificationsEnabled;
+        public final String syncMode;
+        public final int syncIntervalMinutes;
 
         public Config(
                 boolean enabled,
@@ -37,7 +51,9 @@ public final class AndroidBackgroundMessagingPrefs {
                 String pubkeyHex,
                 String[] readRelays,
                 String summary,
-                boolean notificationsEnabled
+                boolean notificationsEnabled,
+                String syncMode,
+                int syncIntervalMinutes
         ) {
             this.enabled = enabled;
             this.mode = mode;
@@ -45,6 +61,12 @@ public final class AndroidBackgroundMessagingPrefs {
             this.readRelays = readRelays;
             this.summary = summary;
             this.notificationsEnabled = notificationsEnabled;
+            this.syncMode = syncMode;
+            this.syncIntervalMinutes = syncIntervalMinutes;
+        }
+
+        public boolean isPeriodicSync() {
+            return SYNC_MODE_PERIODIC.equals(syncMode);
         }
     }
 
@@ -84,6 +106,43 @@ public final class AndroidBackgroundMessagingPrefs {
         editor.apply();
     }
 
+    /**
+     * Selects how background messaging runs; unknown modes fall back to persistent sockets.
+     */
+    public static void saveSyncMode(Context context, String syncMode, int intervalMinutes) {
+        SharedPreferences.Editor editor = getPrefs(context).edit();
+        editor.putString(KEY_SYNC_MODE, SYNC_MODE_PERIODIC.equals(syncMode) ? SYNC_MODE_PERIODIC : SYNC_MODE_PERSISTENT);
+        editor.putInt(KEY_SYNC_INTERVAL_MINUTES, Math.max(MIN_SYNC_INTERVAL_MINUTES, intervalMinutes));
+        editor.apply();
+    }
+
+    /**
+     * Stores the report of the latest periodic sync cycle.
+     */
+    public static void saveLastSyncCycle(Context context, JSONObject report) {
+        if (report == null) {
+            return;
+        }
+        SharedPreferences.Editor editor = getPrefs(context).edit();
+        editor.putString(KEY_LAST_SYNC_CYCLE_JSON, report.toString());
+        editor.apply();
+    }
+
+    /**
+     * Returns the latest periodic sync cycle report, or null if no cycle has run.
+     */
+    public static JSONObject loadLastSyncCycle(Context context) {
+        String raw = getPrefs(context).getString(KEY_LAST_SYNC_CYCLE_JSON, null);
+        if (raw == null) {
+            return null;
+        }
+        try {
+            return new JSONObject(raw);
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
     public static void saveSummary(Context context, String summary) {
         if (summary == null) {
             return;
@@ -109,6 +168,47 @@ public final class AndroidBackgroundMessagingPrefs {
         return getPrefs(context).getLong(KEY_NOTIFICATION_BASELINE_SECONDS, 0L);
     }
 
+    /**
+     * Persists per-relay subscription high-water marks for the given account.
+     */
+    public static void saveRelaySinceCursors(Context context, String pubkeyHex, JSONObject cursors) {
+        if (pubkeyHex == null || cursors == null) {
+            return;
+        }
+
+        try {
+            JSONObject json = new JSONObject();
+            json.put("pubkeyHex", pubkeyHex);
+            json.put("relays", cursors);
+
+            SharedPreferences.Editor editor = getPrefs(context).edit();
+            editor.putString(KEY_RELAY_SINCE_CURSORS_JSON, json.toString());
+            editor.apply();
+        } catch (JSONException ignored) {
+            // ignore
+        }
+    }
+
+    /**
+     * Loads per-relay high-water marks; returns null if none are stored for this account.
+     */
+    public static JSONObject loadRelaySinceCursors(Context context, String pubkeyHex) {
+        String raw = getPrefs(context).getString(KEY_RELAY_SINCE_CURSORS_JSON, null);
+        if (raw == null || pubkeyHex == null) {
+            return null;
+        }
+
+        try {
+            JSONObject json = new JSONObject(raw);
+            if (!pubkeyHex.equalsIgnoreCase(json.optString("pubkeyHex", ""))) {
+                return null;
+            }
+            return json.optJSONObject("relays");
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
     public static Config load(Context context) {
         SharedPreferences prefs = getPrefs(context);
 
@@ -117,6 +217,11 @@ public final class AndroidBackgroundMessagingPrefs {
         String pubkeyHex = prefs.getString(KEY_PUBKEY_HEX, null);
         String summary = prefs.getString(KEY_SUMMARY, null);
         boolean notificationsEnabled = prefs.getBoolean(KEY_NOTIFICATIONS_ENABLED, false);
+        String syncMode = prefs.getString(KEY_SYNC_MODE, SYNC_MODE_PERSISTENT);
+        int syncIntervalMinutes = Math.max(
+                MIN_SYNC_INTERVAL_MINUTES,
+                prefs.getInt(KEY_SYNC_INTERVAL_MINUTES, MIN_SYNC_INTERVAL_MINUTES)
+        );
 
         String[] readRelays = new String[0];
         String relaysJsonRaw = prefs.getString(KEY_READ_RELAYS_JSON, null);
@@ -138,11 +243,33 @@ public final class AndroidBackgroundMessagingPrefs {
             summary = defaultSummary(readRelays);
         }
 
-        return new Config(enabled, mode, pubkeyHex, readRelays, summary, notificationsEnabled);
+        return new Config(enabled, mode, pubkeyHex, readRelays, summary, notificationsEnabled, syncMode, syncIntervalMinutes);
     }
 
+    /**
+     * Builds the intent that keeps relay sockets open; null when background messaging is off or
+     * runs in the periodic sync mode.
+     */
     public static Intent buildStartServiceIntent(Context context) {
         Config config = load(context);
+        if (config.isPeriodicSync()) {
+            return null;
+        }
+        return buildServiceIntent(context, config, NativeBackgroundMessagingService.ACTION_START);
+    }
+
+    /**
+     * Builds the intent for one periodic sync cycle; null unless the periodic sync mode is on.
+     */
+    public static Intent buildSyncOnceServiceIntent(Context context) {
+        Config config = load(context);
+        if (!config.isPeriodicSync()) {
+            return null;
+        }
+        return buildServiceIntent(context, config, NativeBackgroundMessagingService.ACTION_SYNC_ONCE);
+    }
+
+    private static Intent buildServiceIntent(Context context, Config config, String action) {
         if (!config.enabled) {
             return null;
         }
@@ -157,7 +284,7 @@ public final class AndroidBackgroundMessagingPrefs {
         }
 
         Intent serviceIntent = new Intent(context, NativeBackgroundMessagingService.class);
-        serviceIntent.setAction(NativeBackgroundMessagingService.ACTION_START);
+        serviceIntent.setAction(action);
         serviceIntent.putExtra(NativeBackgroundMessagingService.EXTRA_MODE, config.mode);
         if (config.pubkeyHex != null) {
             serviceIntent.putExtra(NativeBackgroundMessagingService.EXTRA_PUBKEY_HEX, config.pubkeyHex);
@@ -3,11 +3,7 @@ package com.nospeak.app;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.BitmapShader;
 import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.graphics.Shader;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 
@@ -30,10 +26,6 @@ import com.getcapacitor.annotation.CapacitorPlugin;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
@@ -51,7 +43,7 @@ public class AndroidSharingShortcutsPlugin extends Plugin {
 
     private static final String LOG_TAG = "SharingShortcuts";
     private static final String SHARE_TARGET_CATEGORY = "com.nospeak.app.category.SHARE_TARGET";
-    private static final int AVATAR_SIZE_PX = 108; // Standard shortcut icon size
+    private static final int AVATAR_SIZE_PX = AvatarRepository.SIZE_SHORTCUT_PX; // Standard shortcut icon size
     private static final int MAX_SHORTCUTS = 4;
 
     private final ExecutorService executor = Executors.newSingleThreadExecutor();
@@ -88,6 +80,16 @@ public class AndroidSharingShortcutsPlugin extends Plugin {
                 List<ShortcutInfoCompat> shortcuts = new ArrayList<>();
                 int count = Math.min(contactsArray.length(), MAX_SHORTCUTS);
 
+                // Start all missing avatar downloads at once; buildShortcut then waits for each.
+                AvatarRepository avatars = AvatarRepository.getInstance(getContext());
+                for (int i = 0; i < count; i++) {
+                    JSONObject contact = contactsArray.optJSONObject(i);
+                    String avatarUrl = contact != null ? contact.optString("avatarUrl", null) : null;
+                    if (avatarUrl != null && !avatarUrl.isEmpty() && !"group_default".equals(avatarUrl)) {
+                        avatars.fetch(avatarUrl, null);
+                    }
+                }
+
                 for (int i = 0; i < count; i++) {
                     try {
                         JSONObject contact = contactsArray.getJSONObject(i);
@@ -158,21 +160,16 @@ public class AndroidSharingShortcutsPlugin extends Plugin {
                 Canvas canvas = new Canvas(avatar);
                 drawable.setBounds(0, 0, AVATAR_SIZE_PX, AVATAR_SIZE_PX);
                 drawable.draw(canvas);
+                avatar = AvatarRepository.makeCircular(avatar);
             }
         } else if (avatarUrl != null && !avatarUrl.isEmpty()) {
-            // First try cached avatar from profile prefs
-            avatar = loadCachedAvatar(conversationId);
-            
-            // If no cached avatar, try to load from URL (blocking, but we're on background thread)
-            if (avatar == null) {
-                avatar = loadAvatarFromUrl(avatarUrl);
-            }
+            // Shared with notification avatars: already circular, and only downloaded once
+            // (blocking, but we're on background thread)
+            avatar = AvatarRepository.getInstance(getContext()).load(avatarUrl, AVATAR_SIZE_PX);
         }
 
         if (avatar != null) {
-            Bitmap circularAvatar = makeCircular(avatar);
-            IconCompat icon = IconCompat.createWithBitmap(circularAvatar);
-            personBuilder.setIcon(icon);
+            personBuilder.setIcon(IconCompat.createWithBitmap(avatar));
         }
 
         Person person = personBuilder.build();
@@ -194,82 +191,7 @@ public class AndroidSharingShortcutsPlugin extends Plugin {
                 .setLongLived(true)
                 .setPerson(person)
                 .setCategories(categories)
-                .setIcon(avatar != null ? IconCompat.createWithBitmap(makeCircular(avatar)) : null)
+                .setIcon(avatar != null ? IconCompat.createWithBitmap(avatar) : null)
                 .build();
     }
-
-    /**
-     * Try to load avatar from the profile cache (SharedPreferences).
-     * This is fast and doesn't require network.
-     */
-    private Bitmap loadCachedAvatar(String conversationId) {
-        // The conversation ID for 1-on-1 chats is the npub, we need the hex pubkey
-        // For simplicity, we'll skip the cache lookup here since we get avatarUrl from web layer
-        return null;
-    }
-
-    /**
-     * Load avatar from URL. This is a blocking operation.
-     */
-    private Bitmap loadAvatarFromUrl(String urlString) {
-        if (urlString == null || urlString.isEmpty()) {
-            return null;
-        }
-
-        HttpURLConnection connection = null;
-        InputStream inputStream = null;
-
-        try {
-            URL url = new URL(urlString);
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setConnectTimeout(5000);
-            connection.setReadTimeout(5000);
-            connection.setDoInput(true);
-            connection.connect();
-
-            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
-                return null;
-            }
-
-            inputStream = connection.getInputStream();
-            Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
-
-            if (bitmap != null) {
-                // Scale to appropriate size
-                return Bitmap.createScaledBitmap(bitmap, AVATAR_SIZE_PX, AVATAR_SIZE_PX, true);
-            }
-
-            return null;
-
-        } catch (IOException e) {
-            Log.w(LOG_TAG, "Failed to load avatar from " + urlString, e);
-            return null;
-        } finally {
-            if (inputStream != null) {
-                try {
-                    inputStream.close();
-                } catch (IOException ignored) {}
-            }
-            if (connection != null) {
-                connection.disconnect();
-            }
-        }
-    }
-
-    /**
-     * Make a bitmap circular (for contact avatars).
-     */
-    private Bitmap makeCircular(Bitmap source) {
-        int size = Math.min(source.getWidth(), source.getHeight());
-        Bitmap output = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
-
-        Canvas canvas = new Canvas(output);
-        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        paint.setShader(new BitmapShader(source, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP));
-
-        float radius = size / 2f;
-        canvas.drawCircle(radius, radius, radius, paint);
-
-        return output;
-    }
 }
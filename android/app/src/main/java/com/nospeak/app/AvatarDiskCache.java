@@ -0,0 +1,300 @@
+package com.nospeak.app;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Size-bounded disk tier for avatar images, keyed by the hash of the picture URL.
+ *
+ * Entries are kept in least-recently-used order and evicted oldest first once their total
+ * size exceeds the quota. Order and sizes survive restarts in a small append-only journal
+ * ({@code P key bytes} on write, {@code A key} on access, {@code D key} on removal) that is
+ * rewritten as one line per entry when it grows to several times the entry count. Without a
+ * readable journal the directory is indexed by file modification time instead.
+ */
+public final class AvatarDiskCache {
+
+    static final String JOURNAL_FILE_NAME = "journal";
+    private static final String JOURNAL_HEADER = "nospeak-avatar-journal 1";
+    private static final String FILE_SUFFIX = ".png";
+    private static final int COMPACT_MIN_REDUNDANT_LINES = 200;
+
+    private final File dir;
+    private final File journalFile;
+    private final long maxBytes;
+    // Access-ordered: the eldest entry is the least recently used.
+    private final LinkedHashMap<String, Long> sizes = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes;
+    private int journalLines;
+    private Writer journal;
+
+    public AvatarDiskCache(File dir, long maxBytes) {
+        if (maxBytes <= 0L) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.dir = dir;
+        this.journalFile = new File(dir, JOURNAL_FILE_NAME);
+        this.maxBytes = maxBytes;
+
+        //noinspection ResultOfMethodCallIgnored
+        dir.mkdirs();
+        if (!readJournal()) {
+            indexDirectory();
+        }
+        // Files written while the journal was not updated (or deleted behind our back).
+        reconcileWithDirectory();
+        trimToSize();
+        rewriteJournal();
+    }
+
+    /**
+     * @return the file to write a new entry to; report it with {@link #onWritten} afterwards
+     */
+    public File fileFor(String key) {
+        return new File(dir, key + FILE_SUFFIX);
+    }
+
+    /**
+     * @return the cached file, or null; a hit counts as an access
+     */
+    public synchronized File get(String key) {
+        if (key == null || !sizes.containsKey(key)) {
+            return null;
+        }
+        File file = fileFor(key);
+        if (!file.exists()) {
+            removeEntry(key);
+            return null;
+        }
+        sizes.get(key);
+        appendJournal("A " + key);
+        return file;
+    }
+
+    public synchronized boolean contains(String key) {
+        return key != null && sizes.containsKey(key);
+    }
+
+    public synchronized void onWritten(String key) {
+        File file = fileFor(key);
+        if (!file.exists()) {
+            return;
+        }
+        long bytes = file.length();
+        Long previous = sizes.put(key, bytes);
+        totalBytes += bytes - (previous != null ? previous : 0L);
+        appendJournal("P " + key + " " + bytes);
+        trimToSize();
+    }
+
+    public synchronized void remove(String key) {
+        if (sizes.containsKey(key)) {
+            removeEntry(key);
+        }
+    }
+
+    public synchronized long getSizeBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return sizes.size();
+    }
+
+    public synchronized void close() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException ignored) {
+                // ignore
+            }
+            journal = null;
+        }
+    }
+
+    private void removeEntry(String key) {
+        Long bytes = sizes.remove(key);
+        if (bytes != null) {
+            totalBytes -= bytes;
+        }
+        //noinspection ResultOfMethodCallIgnored
+        fileFor(key).delete();
+        appendJournal("D " + key);
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = sizes.entrySet().iterator();
+        List<String> evicted = new ArrayList<>();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            evicted.add(eldest.getKey());
+            totalBytes -= eldest.getValue();
+            iterator.remove();
+        }
+        for (String key : evicted) {
+            //noinspection ResultOfMethodCallIgnored
+            fileFor(key).delete();
+            appendJournal("D " + key);
+        }
+    }
+
+    // ---- Journal ----
+
+    private boolean readJournal() {
+        if (!journalFile.exists()) {
+            return false;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), StandardCharsets.UTF_8));
+            if (!JOURNAL_HEADER.equals(reader.readLine())) {
+                return false;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                journalLines++;
+                String[] parts = line.split(" ");
+                if (parts.length == 3 && "P".equals(parts[0])) {
+                    Long previous = sizes.put(parts[1], Long.parseLong(parts[2]));
+                    totalBytes += Long.parseLong(parts[2]) - (previous != null ? previous : 0L);
+                } else if (parts.length == 2 && "A".equals(parts[0])) {
+                    sizes.get(parts[1]);
+                } else if (parts.length == 2 && "D".equals(parts[0])) {
+                    Long previous = sizes.remove(parts[1]);
+                    if (previous != null) {
+                        totalBytes -= previous;
+                    }
+                }
+                // A torn last line from a crash is simply skipped.
+            }
+            return true;
+        } catch (IOException | NumberFormatException e) {
+            sizes.clear();
+            totalBytes = 0L;
+            journalLines = 0;
+            return false;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private void indexDirectory() {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isFile() && name.endsWith(FILE_SUFFIX)) {
+                long bytes = file.length();
+                sizes.put(name.substring(0, name.length() - FILE_SUFFIX.length()), bytes);
+                totalBytes += bytes;
+            }
+        }
+    }
+
+    private void reconcileWithDirectory() {
+        Iterator<Map.Entry<String, Long>> iterator = sizes.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (!fileFor(entry.getKey()).exists()) {
+                totalBytes -= entry.getValue();
+                iterator.remove();
+            }
+        }
+
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!file.isFile() || !name.endsWith(FILE_SUFFIX)) {
+                continue;
+            }
+            String key = name.substring(0, name.length() - FILE_SUFFIX.length());
+            if (!sizes.containsKey(key)) {
+                // A file the journal missed (e.g. written by an older version) is still counted.
+                sizes.put(key, file.length());
+                totalBytes += file.length();
+            }
+        }
+    }
+
+    private void appendJournal(String line) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.write(line);
+            journal.write('\n');
+            journal.flush();
+            journalLines++;
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        if (journalLines >= COMPACT_MIN_REDUNDANT_LINES && journalLines > 4 * sizes.size()) {
+            rewriteJournal();
+        }
+    }
+
+    private void rewriteJournal() {
+        close();
+        File tmp = new File(dir, JOURNAL_FILE_NAME + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8));
+            writer.write(JOURNAL_HEADER);
+            writer.write('\n');
+            for (Map.Entry<String, Long> entry : sizes.entrySet()) {
+                writer.write("P " + entry.getKey() + " " + entry.getValue() + "\n");
+            }
+            writer.close();
+            writer = null;
+            if (!tmp.renameTo(journalFile)) {
+                return;
+            }
+            journalLines = sizes.size();
+            journal = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFile, true), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            journal = null;
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignored) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
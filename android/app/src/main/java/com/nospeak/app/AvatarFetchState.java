@@ -0,0 +1,247 @@
+package com.nospeak.app;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * HTTP validators and failure history of avatar URLs, keyed like {@link AvatarDiskCache}.
+ *
+ * A cached picture is served as is until it is older than the revalidation TTL, then fetched
+ * again conditionally ({@code If-None-Match} / {@code If-Modified-Since}); an unchanged picture
+ * answers 304 and costs no body. Failed fetches (404s, timeouts, oversized or undecodable
+ * responses) are remembered with an exponentially growing retry delay, so a dead URL is not
+ * requested again on every notification refresh. A failed revalidation keeps serving the
+ * cached picture under the same backoff.
+ *
+ * Entries are bounded and kept in least-recently-used order; the state is saved as JSON
+ * by {@link #flush} when it changed.
+ */
+public final class AvatarFetchState {
+
+    public enum Action {
+        /** Cached and fresh (or revalidation is backing off): use the cached picture. */
+        USE_CACHED,
+        /** Cached but stale: serve it and fetch conditionally. */
+        REVALIDATE,
+        /** Not cached: fetch unconditionally. */
+        FETCH,
+        /** Not cached and the last fetch failed recently: do not ask again yet. */
+        BACK_OFF
+    }
+
+    private static final class Entry {
+        String etag;
+        String lastModified;
+        long validatedAtMs;
+        int failures;
+        long retryAtMs;
+    }
+
+    private final File file;
+    private final long revalidateAfterMs;
+    private final long backoffBaseMs;
+    private final long backoffMaxMs;
+    private final LinkedHashMap<String, Entry> entries;
+    private boolean dirty = false;
+
+    /**
+     * @param file where the state is kept across restarts, or null to keep it in memory only
+     */
+    public AvatarFetchState(File file, final int maxEntries, long revalidateAfterMs, long backoffBaseMs, long backoffMaxMs) {
+        this.file = file;
+        this.revalidateAfterMs = revalidateAfterMs;
+        this.backoffBaseMs = backoffBaseMs;
+        this.backoffMaxMs = backoffMaxMs;
+        this.entries = new LinkedHashMap<String, Entry>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        load();
+    }
+
+    public synchronized Action decide(String key, boolean cached, long nowMs) {
+        Entry entry = entries.get(key);
+        if (cached) {
+            if (entry == null) {
+                // Cached before validators were kept: start its TTL now.
+                entry = new Entry();
+                entry.validatedAtMs = nowMs;
+                entries.put(key, entry);
+                dirty = true;
+                return Action.USE_CACHED;
+            }
+            if (entry.retryAtMs > nowMs || nowMs - entry.validatedAtMs < revalidateAfterMs) {
+                return Action.USE_CACHED;
+            }
+            return Action.REVALIDATE;
+        }
+        if (entry != null && entry.retryAtMs > nowMs) {
+            return Action.BACK_OFF;
+        }
+        return Action.FETCH;
+    }
+
+    public synchronized String getEtag(String key) {
+        Entry entry = entries.get(key);
+        return entry != null ? entry.etag : null;
+    }
+
+    public synchronized String getLastModified(String key) {
+        Entry entry = entries.get(key);
+        return entry != null ? entry.lastModified : null;
+    }
+
+    /**
+     * A full response was stored; its validators replace the previous ones.
+     */
+    public synchronized void onStored(String key, String etag, String lastModified, long nowMs) {
+        Entry entry = new Entry();
+        entry.etag = etag;
+        entry.lastModified = lastModified;
+        entry.validatedAtMs = nowMs;
+        entries.put(key, entry);
+        dirty = true;
+    }
+
+    public synchronized void onNotModified(String key, long nowMs) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(key, entry);
+        }
+        entry.validatedAtMs = nowMs;
+        entry.failures = 0;
+        entry.retryAtMs = 0L;
+        dirty = true;
+    }
+
+    /**
+     * @return the delay before the URL is tried again
+     */
+    public synchronized long onFailed(String key, long nowMs) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(key, entry);
+        }
+        entry.failures++;
+        long delay = backoffBaseMs << Math.min(entry.failures - 1, 30);
+        if (delay <= 0L || delay > backoffMaxMs) {
+            delay = backoffMaxMs;
+        }
+        entry.retryAtMs = nowMs + delay;
+        dirty = true;
+        return delay;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the state if it changed since the last flush.
+     */
+    public synchronized void flush() {
+        if (file == null || !dirty) {
+            return;
+        }
+
+        JSONObject json = new JSONObject();
+        try {
+            for (Map.Entry<String, Entry> item : entries.entrySet()) {
+                Entry entry = item.getValue();
+                JSONObject value = new JSONObject();
+                value.put("etag", entry.etag);
+                value.put("lastModified", entry.lastModified);
+                value.put("validatedAt", entry.validatedAtMs);
+                value.put("failures", entry.failures);
+                value.put("retryAt", entry.retryAtMs);
+                json.put(item.getKey(), value);
+            }
+        } catch (JSONException e) {
+            return;
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+            out.close();
+            out = null;
+            if (tmp.renameTo(file)) {
+                dirty = false;
+            }
+        } catch (IOException ignored) {
+            // Kept dirty; the next flush tries again.
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private void load() {
+        if (file == null || !file.exists()) {
+            return;
+        }
+
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            byte[] bytes = new byte[(int) file.length()];
+            int read = 0;
+            while (read < bytes.length) {
+                int n = in.read(bytes, read, bytes.length - read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            JSONObject json = new JSONObject(new String(bytes, 0, read, StandardCharsets.UTF_8));
+            Iterator<String> keys = json.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                JSONObject value = json.optJSONObject(key);
+                if (value == null) {
+                    continue;
+                }
+                Entry entry = new Entry();
+                entry.etag = value.isNull("etag") ? null : value.optString("etag", null);
+                entry.lastModified = value.isNull("lastModified") ? null : value.optString("lastModified", null);
+                entry.validatedAtMs = value.optLong("validatedAt", 0L);
+                entry.failures = value.optInt("failures", 0);
+                entry.retryAtMs = value.optLong("retryAt", 0L);
+                entries.put(key, entry);
+            }
+        } catch (IOException | JSONException e) {
+            // A damaged file only costs some revalidations.
+            entries.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
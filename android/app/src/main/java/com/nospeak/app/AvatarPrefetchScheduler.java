@@ -0,0 +1,194 @@
+package com.nospeak.app;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Queues contact avatar prefetches and runs a bounded number at a time, most useful first.
+ *
+ * Opening the app caches dozens of profiles at once; instead of starting a download for each,
+ * requests wait here (one per contact, the latest picture wins) and are started in priority
+ * order: contacts with a recent conversation (newest first) are the ones whose avatar a
+ * notification will show, then everyone else by profile update time. Low-priority items only
+ * start on an unmetered network when {@code lowPriorityUnmeteredOnly} is set.
+ *
+ * {@link #setSuspended} drops everything queued and refuses new work; the service suspends the
+ * queue while the locked energy profile is active. Downloads already started run to
+ * completion.
+ */
+public final class AvatarPrefetchScheduler {
+
+    public interface Fetcher {
+        /**
+         * Starts the download; {@code done} must be run exactly once when it finishes, on any
+         * thread.
+         */
+        void fetch(String pictureUrl, Runnable done);
+    }
+
+    private static final class Item {
+        final String pubkeyHex;
+        final String pictureUrl;
+        final long lastConversationMs;
+        final long profileUpdatedAtMs;
+        final long sequence;
+
+        Item(String pubkeyHex, String pictureUrl, long lastConversationMs, long profileUpdatedAtMs, long sequence) {
+            this.pubkeyHex = pubkeyHex;
+            this.pictureUrl = pictureUrl;
+            this.lastConversationMs = lastConversationMs;
+            this.profileUpdatedAtMs = profileUpdatedAtMs;
+            this.sequence = sequence;
+        }
+    }
+
+    private final Fetcher fetcher;
+    private final int maxConcurrent;
+    private final long recentConversationWindowMs;
+    private final boolean lowPriorityUnmeteredOnly;
+    private final Map<String, Item> pending = new HashMap<>();
+    private int running = 0;
+    private boolean unmetered = false;
+    private boolean suspended = false;
+    private long sequence = 0L;
+    private long now = 0L;
+    private long startedCount = 0L;
+    private long cancelledCount = 0L;
+
+    public AvatarPrefetchScheduler(Fetcher fetcher, int maxConcurrent, long recentConversationWindowMs, boolean lowPriorityUnmeteredOnly) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("maxConcurrent must be positive");
+        }
+        this.fetcher = fetcher;
+        this.maxConcurrent = maxConcurrent;
+        this.recentConversationWindowMs = recentConversationWindowMs;
+        this.lowPriorityUnmeteredOnly = lowPriorityUnmeteredOnly;
+    }
+
+    /**
+     * @param lastConversationMs when the contact's conversation last had activity, or 0
+     * @param profileUpdatedAtMs when the contact's profile was last updated, or 0
+     */
+    public void submit(String pubkeyHex, String pictureUrl, long lastConversationMs, long profileUpdatedAtMs, long nowMs) {
+        if (pubkeyHex == null || pictureUrl == null || pictureUrl.trim().isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            if (suspended) {
+                return;
+            }
+            now = Math.max(now, nowMs);
+            pending.put(pubkeyHex, new Item(pubkeyHex, pictureUrl.trim(), lastConversationMs, profileUpdatedAtMs, sequence++));
+        }
+        pump();
+    }
+
+    public void setUnmetered(boolean unmetered) {
+        synchronized (this) {
+            if (this.unmetered == unmetered) {
+                return;
+            }
+            this.unmetered = unmetered;
+        }
+        pump();
+    }
+
+    /**
+     * Suspending cancels every queued prefetch; resuming accepts new ones.
+     */
+    public synchronized void setSuspended(boolean suspended) {
+        this.suspended = suspended;
+        if (suspended) {
+            cancelledCount += pending.size();
+            pending.clear();
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public synchronized int getRunningCount() {
+        return running;
+    }
+
+    public synchronized long getStartedCount() {
+        return startedCount;
+    }
+
+    public synchronized long getCancelledCount() {
+        return cancelledCount;
+    }
+
+    private boolean isHighPriority(long lastConversationMs, long nowMs) {
+        return lastConversationMs > 0L && nowMs - lastConversationMs <= recentConversationWindowMs;
+    }
+
+    private void pump() {
+        List<Item> toStart = new ArrayList<>();
+        synchronized (this) {
+            while (!suspended && running < maxConcurrent) {
+                Item next = pollNext();
+                if (next == null) {
+                    break;
+                }
+                running++;
+                startedCount++;
+                toStart.add(next);
+            }
+        }
+
+        // Outside the lock: a fetcher may complete synchronously (cache hit) and re-enter.
+        for (Item item : toStart) {
+            fetcher.fetch(item.pictureUrl, new Runnable() {
+                private boolean finished = false;
+
+                @Override
+                public void run() {
+                    synchronized (AvatarPrefetchScheduler.this) {
+                        if (finished) {
+                            return;
+                        }
+                        finished = true;
+                        running--;
+                    }
+                    pump();
+                }
+            });
+        }
+    }
+
+    private Item pollNext() {
+        Item best = null;
+        boolean bestHigh = false;
+        for (Item item : pending.values()) {
+            boolean high = isHighPriority(item.lastConversationMs, now);
+            if (!high && lowPriorityUnmeteredOnly && !unmetered) {
+                continue;
+            }
+            if (best == null || compare(item, high, best, bestHigh) < 0) {
+                best = item;
+                bestHigh = high;
+            }
+        }
+        if (best != null) {
+            pending.remove(best.pubkeyHex);
+        }
+        return best;
+    }
+
+    private static int compare(Item a, boolean aHigh, Item b, boolean bHigh) {
+        if (aHigh != bHigh) {
+            return aHigh ? -1 : 1;
+        }
+        if (aHigh && a.lastConversationMs != b.lastConversationMs) {
+            return a.lastConversationMs > b.lastConversationMs ? -1 : 1;
+        }
+        if (a.profileUpdatedAtMs != b.profileUpdatedAtMs) {
+            return a.profileUpdatedAtMs > b.profileUpdatedAtMs ? -1 : 1;
+        }
+        return Long.compare(a.sequence, b.sequence);
+    }
+}
@@ -0,0 +1,546 @@
+package com.nospeak.app;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+
+/**
+ * Process-wide avatar store shared by the background service (notification avatars) and
+ * {@link AndroidSharingShortcutsPlugin} (share sheet shortcuts).
+ *
+ * A picture URL is fetched once over a shared OkHttp client; concurrent requests for the same
+ * URL join the fetch in flight. The download is decoded with a sample size close to the target
+ * instead of at full resolution, normalized to a {@link #SIZE_NOTIFICATION_PX} circle and
+ * stored once in the disk tier. Smaller variants ({@link #SIZE_SHORTCUT_PX}) are scaled from
+ * that file on demand; every variant lives in a byte-bounded memory tier keyed by URL hash and
+ * size.
+ *
+ * Each URL's validators and failures are kept in {@link AvatarFetchState}: a stored picture is
+ * revalidated with a conditional request once a day (an unchanged one answers 304 with no
+ * body), and a URL that failed is left alone under exponential backoff. Responses above
+ * {@link #MAX_RESPONSE_BYTES} and images above {@link #MAX_DECODE_DIMENSION_PX} are rejected
+ * as failures. The state file is rewritten at most once per {@link #FETCH_STATE_FLUSH_DELAY_MS}
+ * (a prefetch burst is one write) and on {@link #flushState()}.
+ */
+public final class AvatarRepository {
+
+    public interface Listener {
+        /**
+         * Called on an OkHttp thread (or the caller's thread for a cache hit).
+         */
+        void onAvatarFetched(String pictureUrl, boolean success);
+    }
+
+    public static final int SIZE_NOTIFICATION_PX = 192;
+    public static final int SIZE_SHORTCUT_PX = 108;
+
+    private static final String LOG_TAG = "AvatarRepository";
+    private static final String CACHE_DIR_NAME = "nospeak_avatar_cache";
+    // About 50 decoded 192px avatars (~147 KB each).
+    private static final int MEMORY_CACHE_MAX_BYTES = 8 * 1024 * 1024;
+    private static final long DISK_CACHE_MAX_BYTES = 16L * 1024L * 1024L;
+    private static final long FETCH_TIMEOUT_MS = 10_000L;
+    private static final String FETCH_STATE_FILE_NAME = "fetch-state.json";
+    private static final int FETCH_STATE_MAX_ENTRIES = 1024;
+    static final long FETCH_STATE_FLUSH_DELAY_MS = 5_000L;
+    private static final long REVALIDATE_AFTER_MS = 24L * 60L * 60L * 1000L;
+    private static final long RETRY_BACKOFF_BASE_MS = 60_000L;
+    private static final long RETRY_BACKOFF_MAX_MS = 24L * 60L * 60L * 1000L;
+    static final long MAX_RESPONSE_BYTES = 4L * 1024L * 1024L;
+    static final int MAX_DECODE_DIMENSION_PX = 8192;
+
+    private static volatile AvatarRepository sInstance;
+
+    private final boolean debug;
+    private final OkHttpClient client;
+    private final AvatarDiskCache diskCache;
+    private final AvatarFetchState fetchState;
+    private final LruCache<String, Bitmap> memoryCache = new LruCache<String, Bitmap>(MEMORY_CACHE_MAX_BYTES) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return value.getByteCount();
+        }
+    };
+    // Waiters by URL hash; a key is present while its fetch is in flight.
+    private final Map<String, List<Listener>> inFlight = new HashMap<>();
+    private final ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "nospeak-avatar-state");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled.set(false);
+            fetchState.flush();
+        }
+    };
+
+    private AvatarRepository(Context context) {
+        this.debug = (context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        this.client = new OkHttpClient.Builder()
+                .connectTimeout(FETCH_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .readTimeout(FETCH_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .callTimeout(FETCH_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .build();
+        File dir = new File(context.getCacheDir(), CACHE_DIR_NAME);
+        this.diskCache = new AvatarDiskCache(dir, DISK_CACHE_MAX_BYTES);
+        this.fetchState = new AvatarFetchState(
+                new File(dir, FETCH_STATE_FILE_NAME),
+                FETCH_STATE_MAX_ENTRIES,
+                REVALIDATE_AFTER_MS,
+                RETRY_BACKOFF_BASE_MS,
+                RETRY_BACKOFF_MAX_MS
+        );
+    }
+
+    public static AvatarRepository getInstance(Context context) {
+        AvatarRepository instance = sInstance;
+        if (instance != null) {
+            return instance;
+        }
+        synchronized (AvatarRepository.class) {
+            if (sInstance == null) {
+                sInstance = new AvatarRepository(context.getApplicationContext());
+            }
+            return sInstance;
+        }
+    }
+
+    /**
+     * @return the cache key of a picture URL (SHA-256 hex), or null for an empty URL
+     */
+    public static String keyFor(String pictureUrl) {
+        if (pictureUrl == null || pictureUrl.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(pictureUrl.trim().getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the circular avatar for a picture URL at the given size from memory or disk;
+     * contacts sharing a picture share the entry. Never touches the network.
+     */
+    public Bitmap getCached(String pictureUrl, int sizePx) {
+        String key = keyFor(pictureUrl);
+        if (key == null) {
+            return null;
+        }
+
+        String variantKey = key + "@" + sizePx;
+        Bitmap cached = memoryCache.get(variantKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        File file = diskCache.get(key);
+        if (file == null) {
+            return null;
+        }
+
+        Bitmap decoded = decodeSampled(file, sizePx);
+        if (decoded == null) {
+            diskCache.remove(key);
+            return null;
+        }
+
+        Bitmap sized = decoded.getWidth() == sizePx && decoded.getHeight() == sizePx
+                ? decoded
+                : Bitmap.createScaledBitmap(decoded, sizePx, sizePx, true);
+        memoryCache.put(variantKey, sized);
+        return sized;
+    }
+
+    /**
+     * Makes sure the picture is in the disk tier, downloading it unless it already is, a
+     * download for the same URL is in flight, or the URL is backing off after a failure. A
+     * stale cached picture counts as available and is revalidated in the background. The
+     * listener may be null.
+     */
+    public void fetch(final String pictureUrl, Listener listener) {
+        final String key = keyFor(pictureUrl);
+        if (key == null) {
+            if (listener != null) {
+                listener.onAvatarFetched(pictureUrl, false);
+            }
+            return;
+        }
+
+        AvatarFetchState.Action action = fetchState.decide(key, diskCache.contains(key), System.currentTimeMillis());
+        if (action == AvatarFetchState.Action.BACK_OFF || action == AvatarFetchState.Action.USE_CACHED) {
+            if (listener != null) {
+                listener.onAvatarFetched(pictureUrl, action == AvatarFetchState.Action.USE_CACHED);
+            }
+            return;
+        }
+        final boolean conditional = action == AvatarFetchState.Action.REVALIDATE;
+        if (conditional && listener != null) {
+            listener.onAvatarFetched(pictureUrl, true);
+            listener = null;
+        }
+
+        synchronized (inFlight) {
+            List<Listener> waiters = inFlight.get(key);
+            if (waiters != null) {
+                if (listener != null) {
+                    waiters.add(listener);
+                }
+                return;
+            }
+            waiters = new ArrayList<>();
+            if (listener != null) {
+                waiters.add(listener);
+            }
+            inFlight.put(key, waiters);
+        }
+
+        Request.Builder builder;
+        try {
+            builder = new Request.Builder().url(pictureUrl.trim());
+        } catch (IllegalArgumentException e) {
+            fetchState.onFailed(key, System.currentTimeMillis());
+            scheduleStateFlush();
+            completeFetch(key, pictureUrl, false);
+            return;
+        }
+        if (conditional) {
+            String etag = fetchState.getEtag(key);
+            String lastModified = fetchState.getLastModified(key);
+            if (etag != null) {
+                builder.header("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                builder.header("If-Modified-Since", lastModified);
+            }
+        }
+
+        client.newCall(builder.build()).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                onFetchFinished(key, pictureUrl, false, "error " + e.getMessage());
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                boolean success = false;
+                String reason = "HTTP " + response.code();
+                try {
+                    long now = System.currentTimeMillis();
+                    ResponseBody body = response.body();
+                    if (conditional && response.code() == 304) {
+                        fetchState.onNotModified(key, now);
+                        success = true;
+                    } else if (response.isSuccessful() && body != null) {
+                        byte[] bytes = readCapped(body);
+                        if (bytes == null) {
+                            reason = "response too large";
+                        } else if (!storeDownloaded(key, bytes)) {
+                            reason = "undecodable or oversized image";
+                        } else {
+                            fetchState.onStored(key, response.header("ETag"), response.header("Last-Modified"), now);
+                            success = true;
+                        }
+                    }
+                } catch (IOException e) {
+                    reason = "error " + e.getMessage();
+                } finally {
+                    response.close();
+                    onFetchFinished(key, pictureUrl, success, reason);
+                }
+            }
+        });
+    }
+
+    /**
+     * Blocking variant of {@link #fetch} followed by {@link #getCached}, for callers already on
+     * a background thread.
+     */
+    public Bitmap load(String pictureUrl, int sizePx) {
+        Bitmap cached = getCached(pictureUrl, sizePx);
+        if (cached != null) {
+            return cached;
+        }
+
+        final CountDownLatch done = new CountDownLatch(1);
+        fetch(pictureUrl, new Listener() {
+            @Override
+            public void onAvatarFetched(String url, boolean success) {
+                done.countDown();
+            }
+        });
+        try {
+            if (!done.await(FETCH_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return getCached(pictureUrl, sizePx);
+    }
+
+    /**
+     * Returns the circular identicon for a seed, rendering it on the first request. Identicons
+     * share the memory tier with avatars but are not written to disk: rendering one from its
+     * 5x5 mask is cheaper than decoding a PNG.
+     */
+    public Bitmap getIdenticon(String seed, int sizePx) {
+        if (seed == null || seed.isEmpty()) {
+            return null;
+        }
+
+        String cacheKey = "identicon:" + seed + "@" + sizePx;
+        Bitmap cached = memoryCache.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        Bitmap identicon = IdenticonGenerator.generate(seed, sizePx, true);
+        if (identicon != null) {
+            memoryCache.put(cacheKey, identicon);
+        }
+        return identicon;
+    }
+
+    public void trimMemory(int level) {
+        // Avatars are reloaded from disk on demand; give memory back when the system asks.
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            memoryCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            memoryCache.trimToSize(MEMORY_CACHE_MAX_BYTES / 4);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            memoryCache.trimToSize(MEMORY_CACHE_MAX_BYTES / 2);
+        }
+    }
+
+    public void evictMemory() {
+        memoryCache.evictAll();
+    }
+
+    /**
+     * Writes pending fetch state now (e.g. when the service stops) instead of after the delay.
+     */
+    public void flushState() {
+        fetchState.flush();
+    }
+
+    public static Bitmap makeCircular(Bitmap bitmap) {
+        if (bitmap == null) {
+            return null;
+        }
+
+        int size = Math.min(bitmap.getWidth(), bitmap.getHeight());
+        if (size <= 0) {
+            return null;
+        }
+
+        Bitmap output = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(output);
+
+        Paint paint = new Paint();
+        paint.setAntiAlias(true);
+        paint.setShader(new BitmapShader(bitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP));
+
+        float radius = size / 2f;
+        canvas.drawCircle(radius, radius, radius, paint);
+
+        return output;
+    }
+
+    /**
+     * Largest power-of-two sample size that keeps both dimensions of the decoded image at or
+     * above the target, so the final scale-down never enlarges.
+     */
+    static int computeSampleSize(int width, int height, int targetPx) {
+        int sampleSize = 1;
+        if (width <= 0 || height <= 0 || targetPx <= 0) {
+            return sampleSize;
+        }
+        while (width / (sampleSize * 2) >= targetPx && height / (sampleSize * 2) >= targetPx) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private void onFetchFinished(String key, String pictureUrl, boolean success, String reason) {
+        if (!success) {
+            long delayMs = fetchState.onFailed(key, System.currentTimeMillis());
+            if (debug) {
+                Log.d(LOG_TAG, "Avatar fetch failed (" + reason + "), next try in " + (delayMs / 1000L) + "s");
+            }
+        }
+        scheduleStateFlush();
+        completeFetch(key, pictureUrl, success);
+    }
+
+    /**
+     * Writes the fetch state once the current burst of fetches has settled.
+     */
+    private void scheduleStateFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            flushExecutor.schedule(flushRunnable, FETCH_STATE_FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void completeFetch(String key, String pictureUrl, boolean success) {
+        List<Listener> waiters;
+        synchronized (inFlight) {
+            waiters = inFlight.remove(key);
+        }
+        if (waiters == null) {
+            return;
+        }
+        for (Listener waiter : waiters) {
+            try {
+                waiter.onAvatarFetched(pictureUrl, success);
+            } catch (RuntimeException e) {
+                Log.w(LOG_TAG, "Avatar listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * @return the body, or null if it is larger than {@link #MAX_RESPONSE_BYTES}
+     */
+    private static byte[] readCapped(ResponseBody body) throws IOException {
+        if (body.contentLength() > MAX_RESPONSE_BYTES) {
+            return null;
+        }
+        BufferedSource source = body.source();
+        if (source.request(MAX_RESPONSE_BYTES + 1L)) {
+            return null;
+        }
+        return source.readByteArray();
+    }
+
+    private boolean storeDownloaded(String key, byte[] bytes) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0
+                || bounds.outWidth > MAX_DECODE_DIMENSION_PX || bounds.outHeight > MAX_DECODE_DIMENSION_PX) {
+            return false;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = computeSampleSize(bounds.outWidth, bounds.outHeight, SIZE_NOTIFICATION_PX);
+        Bitmap decoded = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        if (decoded == null) {
+            return false;
+        }
+
+        Bitmap normalized = normalize(decoded, SIZE_NOTIFICATION_PX);
+        if (normalized == null) {
+            return false;
+        }
+        // A revalidation replaces a live file that readers may be decoding: write aside, then
+        // swap it in. The ".tmp" name is not indexed by the disk cache.
+        File file = diskCache.fileFor(key);
+        File tmp = new File(file.getPath() + ".tmp");
+        if (!writePng(tmp, normalized) || !tmp.renameTo(file)) {
+            tmp.delete();
+            return false;
+        }
+        diskCache.onWritten(key);
+        // A revalidation may have replaced the picture; drop variants scaled from the old one.
+        for (String variantKey : memoryCache.snapshot().keySet()) {
+            if (variantKey.startsWith(key + "@")) {
+                memoryCache.remove(variantKey);
+            }
+        }
+        memoryCache.put(key + "@" + SIZE_NOTIFICATION_PX, normalized);
+        return true;
+    }
+
+    private static Bitmap decodeSampled(File file, int sizePx) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), bounds);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = computeSampleSize(bounds.outWidth, bounds.outHeight, sizePx);
+        return BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+    }
+
+    private static Bitmap normalize(Bitmap bitmap, int targetPx) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+
+        int size = Math.min(width, height);
+        int left = Math.max(0, (width - size) / 2);
+        int top = Math.max(0, (height - size) / 2);
+
+        Bitmap square = Bitmap.createBitmap(bitmap, left, top, size, size);
+        Bitmap scaled = Bitmap.createScaledBitmap(square, targetPx, targetPx, true);
+
+        return makeCircular(scaled);
+    }
+
+    private static boolean writePng(File file, Bitmap bitmap) {
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            return bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
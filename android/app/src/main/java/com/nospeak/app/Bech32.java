@@ -1,8 +1,8 @@
 package com.nospeak.app;
 
 /**
- * Minimal Bech32 encoder for converting a 32-byte hex pubkey to an npub string.
- * Implements only the subset needed for NIP-19 npub encoding.
+ * Minimal Bech32 codec for converting between a 32-byte hex pubkey and an npub string.
+ * Implements only the subset needed for NIP-19 npub encoding and decoding.
  */
 public final class Bech32 {
 
@@ -38,6 +38,48 @@ public final class Bech32 {
         return encode(NPUB_HRP, words);
     }
 
+    /**
+     * Converts a bech32-encoded npub string back to a 32-byte hex-encoded public key.
+     *
+     * @param npub bech32-encoded npub string
+     * @return 64-character lowercase hex string, or null if input is invalid
+     */
+    public static String npubToPubkeyHex(String npub) {
+        if (npub == null || npub.length() != 63) {
+            return null;
+        }
+
+        String lower = npub.toLowerCase();
+        if (!lower.equals(npub) && !npub.toUpperCase().equals(npub)) {
+            return null; // mixed case is not allowed
+        }
+
+        int separator = lower.lastIndexOf('1');
+        if (separator != NPUB_HRP.length() || !lower.startsWith(NPUB_HRP)) {
+            return null;
+        }
+
+        int[] values = new int[lower.length() - separator - 1];
+        for (int i = 0; i < values.length; i++) {
+            int v = CHARSET.indexOf(lower.charAt(separator + 1 + i));
+            if (v < 0) {
+                return null;
+            }
+            values[i] = v;
+        }
+
+        if (!verifyChecksum(NPUB_HRP, values)) {
+            return null;
+        }
+
+        byte[] data = wordsToBytes(values, values.length - 6);
+        if (data == null || data.length != 32) {
+            return null;
+        }
+
+        return bytesToHex(data);
+    }
+
     private static String encode(String hrp, int[] data) {
         int[] checksum = createChecksum(hrp, data);
         StringBuilder sb = new StringBuilder(hrp.length() + 1 + data.length + checksum.length);
@@ -66,6 +108,14 @@ public final class Bech32 {
         return checksum;
     }
 
+    private static boolean verifyChecksum(String hrp, int[] data) {
+        int[] hrpExpanded = hrpExpand(hrp);
+        int[] values = new int[hrpExpanded.length + data.length];
+        System.arraycopy(hrpExpanded, 0, values, 0, hrpExpanded.length);
+        System.arraycopy(data, 0, values, hrpExpanded.length, data.length);
+        return polymod(values) == 1;
+    }
+
     private static int[] hrpExpand(String hrp) {
         int[] result = new int[hrp.length() * 2 + 1];
         for (int i = 0; i < hrp.length(); i++) {
@@ -119,6 +169,38 @@ public final class Bech32 {
         return trimmed;
     }
 
+    /**
+     * Converts the first {@code length} 5-bit words back to bytes, rejecting non-zero padding.
+     */
+    private static byte[] wordsToBytes(int[] words, int length) {
+        int acc = 0;
+        int bits = 0;
+        byte[] result = new byte[length * 5 / 8];
+        int idx = 0;
+        for (int i = 0; i < length; i++) {
+            acc = ((acc << 5) | words[i]) & 0xfff;
+            bits += 5;
+            if (bits >= 8) {
+                bits -= 8;
+                result[idx++] = (byte) ((acc >>> bits) & 0xff);
+            }
+        }
+        if (bits >= 5 || (acc & ((1 << bits) - 1)) != 0) {
+            return null;
+        }
+        return result;
+    }
+
+    private static String bytesToHex(byte[] bytes) {
+        char[] hexChars = "0123456789abcdef".toCharArray();
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = hexChars[(bytes[i] >>> 4) & 0x0f];
+            out[i * 2 + 1] = hexChars[bytes[i] & 0x0f];
+        }
+        return new String(out);
+    }
+
     private static byte[] hexToBytes(String hex) {
         int len = hex.length();
         byte[] bytes = new byte[len / 2];
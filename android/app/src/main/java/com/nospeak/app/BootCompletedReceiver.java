@@ -19,6 +19,16 @@ public class BootCompletedReceiver extends BroadcastReceiver {
             return;
         }
 
+        AndroidBackgroundMessagingPrefs.Config config = AndroidBackgroundMessagingPrefs.load(context);
+        if (config.isPeriodicSync()) {
+            // WorkManager keeps periodic work across reboots; re-enqueue after an update in case the
+            // interval changed. Nothing to start here.
+            if (config.enabled) {
+                PeriodicSyncWorker.schedule(context, config.syncIntervalMinutes);
+            }
+            return;
+        }
+
         Intent serviceIntent = AndroidBackgroundMessagingPrefs.buildStartServiceIntent(context);
         if (serviceIntent == null) {
             return;
@@ -0,0 +1,107 @@
+package com.nospeak.app;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of NIP-44 conversation keys keyed by peer pubkey hex.
+ *
+ * Deriving a conversation key costs a full secp256k1 scalar multiplication plus
+ * HKDF-extract, so a burst of gift wraps from the same seal sender (or a relay
+ * replay after reconnect) should only pay for it once. Key material is copied in
+ * and out of the cache and zero-filled on eviction and on {@link #clear()}.
+ */
+public final class ConversationKeyCache {
+
+    private final int maxEntries;
+    private final LinkedHashMap<String, byte[]> entries;
+
+    private long hitCount = 0L;
+    private long missCount = 0L;
+
+    public ConversationKeyCache(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                if (size() <= ConversationKeyCache.this.maxEntries) {
+                    return false;
+                }
+                wipe(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns a copy of the cached conversation key for the peer, or null on a miss.
+     */
+    public synchronized byte[] get(String peerPubkeyHex) {
+        String key = normalizeKey(peerPubkeyHex);
+        byte[] cached = key != null ? entries.get(key) : null;
+        if (cached == null) {
+            missCount++;
+            return null;
+        }
+
+        hitCount++;
+        return Arrays.copyOf(cached, cached.length);
+    }
+
+    public synchronized void put(String peerPubkeyHex, byte[] conversationKey) {
+        String key = normalizeKey(peerPubkeyHex);
+        if (key == null || conversationKey == null) {
+            return;
+        }
+
+        byte[] previous = entries.put(key, Arrays.copyOf(conversationKey, conversationKey.length));
+        wipe(previous);
+    }
+
+    /**
+     * Drops and wipes every cached key. Must be called whenever the local secret key changes.
+     */
+    public synchronized void clear() {
+        for (byte[] value : entries.values()) {
+            wipe(value);
+        }
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    private static String normalizeKey(String peerPubkeyHex) {
+        if (peerPubkeyHex == null) {
+            return null;
+        }
+
+        String trimmed = peerPubkeyHex.trim();
+        if (trimmed.isEmpty()) {
+            return null;
+        }
+
+        return trimmed.toLowerCase(Locale.ROOT);
+    }
+
+    private static void wipe(byte[] value) {
+        if (value != null) {
+            Arrays.fill(value, (byte) 0);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.nospeak.app;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coalesces conversation notification updates so a burst of messages renders each conversation
+ * once.
+ *
+ * Decrypt workers {@link #offer} an update per message; the first offer of an idle window asks
+ * the caller to schedule a flush, and the flush {@link #drain}s one update per conversation
+ * (the latest sender wins; message counts and previews live with the caller). A backlog of
+ * hundreds of messages after a reconnect thus costs one rebuild and one {@code notify} per
+ * conversation per window instead of one per message, which also keeps the app under the
+ * system's notification rate limit.
+ */
+public final class ConversationNotificationBatcher {
+
+    public static final class Update {
+        public final String conversationId;
+        public final String senderPubkeyHex;
+
+        Update(String conversationId, String senderPubkeyHex) {
+            this.conversationId = conversationId;
+            this.senderPubkeyHex = senderPubkeyHex;
+        }
+    }
+
+    private final LinkedHashMap<String, String> pending = new LinkedHashMap<>();
+    private boolean flushScheduled = false;
+    private long offeredCount = 0L;
+    private long renderedCount = 0L;
+
+    /**
+     * @return true if this update opened a new window and the caller must schedule a flush
+     */
+    public synchronized boolean offer(String conversationId, String senderPubkeyHex) {
+        if (conversationId == null || conversationId.isEmpty()) {
+            return false;
+        }
+        offeredCount++;
+        pending.put(conversationId, senderPubkeyHex);
+        if (flushScheduled) {
+            return false;
+        }
+        flushScheduled = true;
+        return true;
+    }
+
+    /**
+     * Takes the window's updates, one per conversation in order of first arrival, and closes
+     * the window.
+     */
+    public synchronized List<Update> drain() {
+        List<Update> updates = new ArrayList<>(pending.size());
+        for (Map.Entry<String, String> entry : pending.entrySet()) {
+            updates.add(new Update(entry.getKey(), entry.getValue()));
+        }
+        pending.clear();
+        flushScheduled = false;
+        renderedCount += updates.size();
+        return updates;
+    }
+
+    public synchronized boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    public synchronized void clear() {
+        pending.clear();
+        flushScheduled = false;
+    }
+
+    public synchronized long getOfferedCount() {
+        return offeredCount;
+    }
+
+    public synchronized long getRenderedCount() {
+        return renderedCount;
+    }
+}
@@ -0,0 +1,81 @@
+package com.nospeak.app;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * NIP-59 unwrapping: gift wrap (kind 1059) -> seal (kind 13) -> rumor.
+ *
+ * The actual NIP-44 decryption is delegated to a {@link Decryptor} so the same code path
+ * serves local (nsec) keys, Amber, and JVM benchmarks.
+ */
+public final class GiftWrap {
+
+    public static final int KIND_GIFT_WRAP = 1059;
+    public static final int KIND_SEAL = 13;
+
+    private GiftWrap() {
+    }
+
+    public interface Decryptor {
+        /**
+         * @return the decrypted plaintext, or null if the payload could not be decrypted
+         */
+        String decrypt(String ciphertext, String senderPubkeyHex);
+    }
+
+    public static final class Rumor {
+        public int kind;
+        public String pubkeyHex;
+        public String content;
+        public JSONArray tags;
+        public long createdAtSeconds;
+    }
+
+    /**
+     * Decrypts the gift wrap and the seal inside it.
+     *
+     * @return the rumor, or null if either layer fails to decrypt or parse
+     */
+    public static Rumor unwrap(String wrapPubkeyHex, String wrapContent, Decryptor decryptor) {
+        if (wrapPubkeyHex == null || wrapContent == null || decryptor == null) {
+            return null;
+        }
+
+        String decryptedGiftWrap = decryptor.decrypt(wrapContent, wrapPubkeyHex);
+        if (decryptedGiftWrap == null) {
+            return null;
+        }
+
+        try {
+            JSONObject seal = new JSONObject(decryptedGiftWrap);
+            int sealKind = seal.optInt("kind", -1);
+            if (sealKind != KIND_SEAL) {
+                return null;
+            }
+
+            String sealPubkeyHex = seal.optString("pubkey", null);
+            String sealCiphertext = seal.optString("content", null);
+            if (sealPubkeyHex == null || sealCiphertext == null) {
+                return null;
+            }
+
+            String decryptedSeal = decryptor.decrypt(sealCiphertext, sealPubkeyHex);
+            if (decryptedSeal == null) {
+                return null;
+            }
+
+            JSONObject rumor = new JSONObject(decryptedSeal);
+            Rumor result = new Rumor();
+            result.kind = rumor.optInt("kind", -1);
+            result.pubkeyHex = rumor.optString("pubkey", null);
+            result.content = rumor.optString("content", "");
+            result.tags = rumor.optJSONArray("tags");
+            result.createdAtSeconds = rumor.optLong("created_at", 0L);
+            return result;
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package com.nospeak.app;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded worker stage that takes gift-wrap decryption off the relay socket reader threads.
+ *
+ * All relay listeners feed one bounded queue drained by a small pool of worker threads sized to
+ * the available cores; workers take live events before backlog replays (events received before
+ * EOSE). Only backlog work is ever dropped. A backlog submit never blocks: when the queue is
+ * full it evicts the oldest queued replay, or gives way itself if only live work is queued. A
+ * live submit applies short backpressure to the submitting socket thread, then evicts the
+ * oldest replay, or is queued past the capacity if there is none, since a live event is not
+ * replayed until the relay's next subscription.
+ *
+ * Work that is dropped (or still queued at shutdown) never runs; its {@code onDropped} callback
+ * runs instead, so the caller can release the event and keep the relay's since cursor from
+ * moving past it, letting the next subscription redeliver it.
+ */
+public final class GiftWrapDecryptPipeline {
+
+    private static final String THREAD_NAME_PREFIX = "nospeak-decrypt-";
+
+    // Both queues are guarded by lock; it is also the monitor for waiting workers and submitters.
+    private final Object lock = new Object();
+    private final ArrayDeque<QueuedTask> liveQueue = new ArrayDeque<>();
+    private final ArrayDeque<QueuedTask> backlogQueue = new ArrayDeque<>();
+    private final int queueCapacity;
+    private final Thread[] workers;
+    private final long liveBackpressureNanos;
+    private volatile boolean running = true;
+
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong processedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    private final StageLatency queueWaitLatency = new StageLatency();
+    private final StageLatency decryptLatency = new StageLatency();
+    private final StageLatency processLatency = new StageLatency();
+
+    public GiftWrapDecryptPipeline(int workerCount, int queueCapacity, long liveBackpressureMs) {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("workerCount must be positive");
+        }
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("queueCapacity must be positive");
+        }
+
+        this.queueCapacity = queueCapacity;
+        this.liveBackpressureNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, liveBackpressureMs));
+        this.workers = new Thread[workerCount];
+
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    drainLoop();
+                }
+            }, THREAD_NAME_PREFIX + i);
+            worker.setDaemon(true);
+            workers[i] = worker;
+            worker.start();
+        }
+    }
+
+    /**
+     * Returns a worker count sized to the device cores, clamped to {@code [1, maxWorkers]}.
+     */
+    public static int defaultWorkerCount(int maxWorkers) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(cores, maxWorkers));
+    }
+
+    public boolean submit(Runnable work, boolean backlog) {
+        return submit(work, null, backlog);
+    }
+
+    /**
+     * Enqueues work for a worker thread.
+     *
+     * @param work      the decrypt-and-handle task
+     * @param onDropped run instead of {@code work} if the task is later evicted from the queue
+     *                  or discarded at shutdown; may be null
+     * @param backlog   true for events received before EOSE (replays); these never block
+     * @return false if the task was not queued (pipeline shut down, caller interrupted, or a
+     *         backlog task met a queue full of live work); {@code onDropped} is not run in that
+     *         case
+     */
+    public boolean submit(Runnable work, Runnable onDropped, boolean backlog) {
+        if (!running || work == null) {
+            return false;
+        }
+
+        QueuedTask task = new QueuedTask(work, onDropped, System.nanoTime());
+        submittedCount.incrementAndGet();
+
+        QueuedTask evicted = null;
+        synchronized (lock) {
+            if (backlog) {
+                if (depthLocked() >= queueCapacity) {
+                    evicted = backlogQueue.pollFirst();
+                    if (evicted == null) {
+                        droppedCount.incrementAndGet();
+                        return false;
+                    }
+                }
+                backlogQueue.addLast(task);
+            } else {
+                long deadline = System.nanoTime() + liveBackpressureNanos;
+                while (running && depthLocked() >= queueCapacity) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0L) {
+                        break;
+                    }
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        droppedCount.incrementAndGet();
+                        return false;
+                    }
+                }
+                if (!running) {
+                    return false;
+                }
+                if (depthLocked() >= queueCapacity) {
+                    evicted = backlogQueue.pollFirst();
+                }
+                liveQueue.addLast(task);
+            }
+            recordQueueDepth(depthLocked());
+            lock.notifyAll();
+        }
+
+        if (evicted != null) {
+            droppedCount.incrementAndGet();
+            evicted.dropped();
+        }
+        return true;
+    }
+
+    /**
+     * Records how long the decrypt portion of a task took, so it can be reported separately
+     * from queue wait and total processing time.
+     */
+    public void recordDecryptNanos(long nanos) {
+        decryptLatency.record(nanos);
+    }
+
+    public int getQueueDepth() {
+        synchronized (lock) {
+            return depthLocked();
+        }
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(
+                getQueueDepth(),
+                maxQueueDepth.get(),
+                submittedCount.get(),
+                processedCount.get(),
+                droppedCount.get(),
+                failedCount.get(),
+                queueWaitLatency.snapshot(),
+                decryptLatency.snapshot(),
+                processLatency.snapshot()
+        );
+    }
+
+    public void shutdown() {
+        List<QueuedTask> discarded = new ArrayList<>();
+        synchronized (lock) {
+            running = false;
+            discarded.addAll(liveQueue);
+            discarded.addAll(backlogQueue);
+            liveQueue.clear();
+            backlogQueue.clear();
+            lock.notifyAll();
+        }
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (QueuedTask task : discarded) {
+            task.dropped();
+        }
+    }
+
+    private int depthLocked() {
+        return liveQueue.size() + backlogQueue.size();
+    }
+
+    private void recordQueueDepth(int depth) {
+        int previous;
+        do {
+            previous = maxQueueDepth.get();
+            if (depth <= previous) {
+                return;
+            }
+        } while (!maxQueueDepth.compareAndSet(previous, depth));
+    }
+
+    private void drainLoop() {
+        while (running) {
+            QueuedTask task;
+            synchronized (lock) {
+                while (running && depthLocked() == 0) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!running) {
+                    return;
+                }
+                task = liveQueue.pollFirst();
+                if (task == null) {
+                    task = backlogQueue.pollFirst();
+                }
+                // Wakes a live submitter waiting for capacity.
+                lock.notifyAll();
+            }
+
+            long startNanos = System.nanoTime();
+            queueWaitLatency.record(startNanos - task.enqueuedAtNanos);
+
+            try {
+                task.work.run();
+            } catch (RuntimeException e) {
+                failedCount.incrementAndGet();
+            } finally {
+                processLatency.record(System.nanoTime() - startNanos);
+                processedCount.incrementAndGet();
+            }
+        }
+    }
+
+    private static final class QueuedTask {
+
+        final Runnable work;
+        final Runnable onDropped;
+        final long enqueuedAtNanos;
+
+        QueuedTask(Runnable work, Runnable onDropped, long enqueuedAtNanos) {
+            this.work = work;
+            this.onDropped = onDropped;
+            this.enqueuedAtNanos = enqueuedAtNanos;
+        }
+
+        void dropped() {
+            if (onDropped == null) {
+                return;
+            }
+            try {
+                onDropped.run();
+            } catch (RuntimeException ignored) {
+                // ignore
+            }
+        }
+    }
+
+    private static final class StageLatency {
+
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        synchronized void record(long nanos) {
+            if (nanos < 0L) {
+                return;
+            }
+            count++;
+            totalNanos += nanos;
+            if (nanos > maxNanos) {
+                maxNanos = nanos;
+            }
+        }
+
+        synchronized LatencySnapshot snapshot() {
+            long avgMicros = count > 0L ? (totalNanos / count) / 1000L : 0L;
+            return new LatencySnapshot(count, avgMicros, maxNanos / 1000L);
+        }
+    }
+
+    public static final class LatencySnapshot {
+
+        public final long count;
+        public final long avgMicros;
+        public final long maxMicros;
+
+        LatencySnapshot(long count, long avgMicros, long maxMicros) {
+            this.count = count;
+            this.avgMicros = avgMicros;
+            this.maxMicros = maxMicros;
+        }
+
+        @Override
+        public String toString() {
+            return "n=" + count + " avg=" + avgMicros + "us max=" + maxMicros + "us";
+        }
+    }
+
+    public static final class Snapshot {
+
+        public final int queueDepth;
+        public final int maxQueueDepth;
+        public final long submitted;
+        public final long processed;
+        public final long dropped;
+        public final long failed;
+        public final LatencySnapshot queueWait;
+        public final LatencySnapshot decrypt;
+        public final LatencySnapshot process;
+
+        Snapshot(
+                int queueDepth,
+                int maxQueueDepth,
+                long submitted,
+                long processed,
+                long dropped,
+                long failed,
+                LatencySnapshot queueWait,
+                LatencySnapshot decrypt,
+                LatencySnapshot process
+        ) {
+            this.queueDepth = queueDepth;
+            this.maxQueueDepth = maxQueueDepth;
+            this.submitted = submitted;
+            this.processed = processed;
+            this.dropped = dropped;
+            this.failed = failed;
+            this.queueWait = queueWait;
+            this.decrypt = decrypt;
+            this.process = process;
+        }
+
+        @Override
+        public String toString() {
+            return "depth=" + queueDepth
+                    + " maxDepth=" + maxQueueDepth
+                    + " submitted=" + submitted
+                    + " processed=" + processed
+                    + " dropped=" + dropped
+                    + " failed=" + failed
+                    + " queueWait[" + queueWait + "]"
+                    + " decrypt[" + decrypt + "]"
+                    + " process[" + process + "]";
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.nospeak.app;
+
+/**
+ * The path every gift wrap frame takes from a relay's socket reader thread to a decrypted
+ * rumor, without Android dependencies so tests can drive it as the service does.
+ *
+ * A frame first moves the relay's since cursor, then is skipped if its id was already
+ * processed (exact store, then the rotating Bloom filter) or is being decrypted for a copy from
+ * another relay. Otherwise it is unwrapped on the {@link GiftWrapDecryptPipeline}; frames
+ * received before EOSE are backlog and never block the reader. A frame dropped from the queue
+ * is released and holds back the cursor of every relay that delivered it (see
+ * {@link RelaySinceCursors#onEventDropped}).
+ */
+public final class GiftWrapFrameHandler {
+
+    // Sizing used by the service (and the relay soak test).
+    static final int DECRYPT_MAX_WORKERS = 4;
+    static final int DECRYPT_QUEUE_CAPACITY = 512;
+    static final long DECRYPT_LIVE_BACKPRESSURE_MS = 250L;
+    static final long IN_FLIGHT_EVENT_STALE_MS = 60_000L;
+    static final int CONVERSATION_KEY_CACHE_SIZE = 128;
+
+    public interface Listener {
+        /**
+         * @return false to skip decrypting for now (e.g. no account); the wrap stays unprocessed
+         */
+        boolean isAcceptingGiftWraps();
+
+        /**
+         * Decrypts one NIP-44 layer (seal or rumor) on a worker thread, or returns null.
+         */
+        String decrypt(String ciphertext, String senderPubkeyHex);
+
+        /**
+         * @return true if a failed decrypt would fail again (local key), so the wrap is recorded
+         *         as processed; signer failures may be transient and are retried on redelivery
+         */
+        boolean isDecryptFailurePermanent();
+
+        void onDecryptFailed(String relayUrl, String eventId);
+
+        /**
+         * A wrap was decrypted and recorded as processed for the first time (worker thread).
+         */
+        void onGiftWrapOpened(String relayUrl, String eventId, GiftWrap.Rumor rumor);
+
+        /**
+         * A wrap was dropped under load and will be requested again.
+         *
+         * @param cursorsChanged whether a stored since cursor moved back and should be saved
+         */
+        void onGiftWrapDropped(String eventId, boolean cursorsChanged);
+    }
+
+    private final GiftWrapDecryptPipeline pipeline;
+    private final RelaySinceCursors cursors;
+    private final InFlightEventCoalescer inFlight;
+    private final RelayMetrics metrics;
+    private final Listener listener;
+    private volatile SeenEventIdStore seenEventIds;
+    private volatile RotatingBloomFilter processedFilter;
+
+    public GiftWrapFrameHandler(GiftWrapDecryptPipeline pipeline, RelaySinceCursors cursors,
+                                InFlightEventCoalescer inFlight, RelayMetrics metrics, Listener listener) {
+        this.pipeline = pipeline;
+        this.cursors = cursors;
+        this.inFlight = inFlight;
+        this.metrics = metrics;
+        this.listener = listener;
+    }
+
+    /**
+     * Sets the processed-id stores; either may be null (nothing is deduplicated by it). The
+     * caller keeps ownership and detaches them before closing.
+     */
+    public void setProcessedStores(SeenEventIdStore seenEventIds, RotatingBloomFilter processedFilter) {
+        this.seenEventIds = seenEventIds;
+        this.processedFilter = processedFilter;
+    }
+
+    public GiftWrapDecryptPipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * A subscription (REQ or negentropy sync) was sent to the relay.
+     */
+    public void onSubscribed(String relayUrl) {
+        cursors.onSubscribed(relayUrl, System.currentTimeMillis() / 1000L);
+    }
+
+    /**
+     * @return true if the relay's since cursor advanced and should be saved
+     */
+    public boolean onEose(String relayUrl) {
+        boolean changed = cursors.onEose(relayUrl, System.currentTimeMillis() / 1000L);
+        SeenEventIdStore store = seenEventIds;
+        if (store != null) {
+            store.flush();
+        }
+        RotatingBloomFilter filter = processedFilter;
+        if (filter != null) {
+            filter.flush();
+        }
+        inFlight.pruneStale(System.currentTimeMillis());
+        return changed;
+    }
+
+    /**
+     * @return true if the relay's since cursor advanced and should be saved
+     */
+    public boolean onDisconnected(String relayUrl) {
+        return cursors.onDisconnected(relayUrl, System.currentTimeMillis() / 1000L);
+    }
+
+    /**
+     * Called on the relay's socket reader thread for every gift wrap it delivers.
+     */
+    public void onFrame(String relayUrl, RelayFrameParser.Frame frame, boolean backlog) {
+        final String id = frame.eventId;
+        cursors.onEvent(relayUrl, frame.createdAt, System.currentTimeMillis() / 1000L);
+
+        // Copies of an already handled gift wrap (from other relays or replays) cost a lookup, not two ECDHs.
+        if (isProcessed(id)) {
+            metrics.onDuplicate(relayUrl);
+            return;
+        }
+
+        // The same gift wrap usually arrives from several relays at once; only the first one decrypts.
+        final long leaderToken = inFlight.begin(id, relayUrl, System.currentTimeMillis());
+        if (leaderToken == InFlightEventCoalescer.ATTACHED) {
+            metrics.onDuplicate(relayUrl);
+            return;
+        }
+
+        // Decrypt off the socket reader thread; events before EOSE are backlog replays.
+        final String wrapPubkeyHex = frame.pubkey;
+        final String wrapContent = frame.content;
+        final long wrapCreatedAt = frame.createdAt;
+        final String sourceRelayUrl = relayUrl;
+        Runnable onDropped = new Runnable() {
+            @Override
+            public void run() {
+                drop(id, leaderToken, wrapCreatedAt);
+            }
+        };
+        boolean submitted = pipeline.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    open(sourceRelayUrl, id, wrapCreatedAt, wrapPubkeyHex, wrapContent);
+                } finally {
+                    inFlight.complete(id, leaderToken);
+                }
+            }
+        }, onDropped, backlog);
+        if (!submitted) {
+            onDropped.run();
+        }
+    }
+
+    public boolean isProcessed(String id) {
+        SeenEventIdStore store = seenEventIds;
+        if (store != null && store.contains(id)) {
+            return true;
+        }
+        RotatingBloomFilter filter = processedFilter;
+        return filter != null && filter.mightContain(id);
+    }
+
+    /**
+     * @param createdAt the gift wrap's created_at, kept so the id can take part in negentropy syncs
+     * @return true if the id was not yet in the exact tier (the caller is the first to handle it)
+     */
+    public boolean markProcessed(String id, long createdAt) {
+        RotatingBloomFilter filter = processedFilter;
+        if (filter != null) {
+            filter.put(id);
+        }
+        SeenEventIdStore store = seenEventIds;
+        return store == null || store.add(id, createdAt);
+    }
+
+    private void open(String relayUrl, String eventId, long wrapCreatedAt, String wrapPubkeyHex, String wrapContent) {
+        if (!listener.isAcceptingGiftWraps()) {
+            return;
+        }
+
+        long decryptStartNanos = System.nanoTime();
+        GiftWrap.Rumor rumor = GiftWrap.unwrap(wrapPubkeyHex, wrapContent, new GiftWrap.Decryptor() {
+            @Override
+            public String decrypt(String ciphertext, String senderPubkeyHex) {
+                if (ciphertext == null || senderPubkeyHex == null) {
+                    return null;
+                }
+                return listener.decrypt(ciphertext, senderPubkeyHex);
+            }
+        });
+        long decryptNanos = System.nanoTime() - decryptStartNanos;
+        metrics.onDecrypt(relayUrl, rumor != null, decryptNanos);
+        pipeline.recordDecryptNanos(decryptNanos);
+        if (rumor == null) {
+            if (listener.isDecryptFailurePermanent()) {
+                markProcessed(eventId, wrapCreatedAt);
+            }
+            listener.onDecryptFailed(relayUrl, eventId);
+            return;
+        }
+
+        // Every outcome after this is final, so record the event now; if another worker already
+        // handled a copy of it, stop here.
+        if (!markProcessed(eventId, wrapCreatedAt)) {
+            return;
+        }
+        listener.onGiftWrapOpened(relayUrl, eventId, rumor);
+    }
+
+    /**
+     * The decrypt will not run (queue overflow or shutdown): release the id so copies are not
+     * suppressed, and keep every relay that delivered it from advancing its since cursor past
+     * it, so the next subscription delivers it again.
+     */
+    private void drop(String eventId, long leaderToken, long wrapCreatedAt) {
+        boolean cursorsChanged = false;
+        for (String relayUrl : inFlight.abandon(eventId, leaderToken)) {
+            cursorsChanged |= cursors.onEventDropped(relayUrl, wrapCreatedAt);
+        }
+        listener.onGiftWrapDropped(eventId, cursorsChanged);
+    }
+}
@@ -0,0 +1,167 @@
+package com.nospeak.app;
+
+import java.util.Arrays;
+
+/**
+ * Renders identicons straight into an ARGB pixel buffer, without android.graphics.
+ *
+ * Same layout as {@link IdenticonGenerator}'s original Canvas drawing: a pastel background and
+ * the minidenticons 5x5 mirrored mask in the viewBox {@code -1.5 -1.5 8 8}. Cell edges are
+ * snapped to whole pixels, which matches the Canvas output exactly when the size is a multiple
+ * of 16 (the 192px notification size is). The optional circular crop anti-aliases its edge
+ * over one pixel like {@code AvatarRepository.makeCircular}.
+ */
+public final class IdenticonRaster {
+
+    static final int GRID = 5;
+
+    private static final int COLORS_NB = 9;
+    private static final int DEFAULT_SATURATION = 95;
+    private static final int DEFAULT_LIGHTNESS = 45;
+
+    // Pastel background parameters (matching identicon.ts seedToHue)
+    private static final int BG_SATURATION = 80;
+    private static final int BG_LIGHTNESS = 85;
+
+    // The minidenticons viewBox is -1.5 -1.5 8 8, grid cells are 1x1 at positions 0-4
+    private static final float VIEWBOX_OFFSET = 1.5f;
+    private static final float VIEWBOX_SIZE = 8.0f;
+
+    private IdenticonRaster() {
+    }
+
+    /**
+     * Bit {@code y * 5 + x} is set when grid cell (x, y) is filled.
+     */
+    static int mask(int hash) {
+        int mask = 0;
+        for (int i = 0; i < 25; i++) {
+            // Test the 15 lowest weight bits of the hash
+            if ((hash & (1 << (i % 15))) != 0) {
+                int y = i % 5;
+                // Columns 3 and 4 mirror columns 1 and 0
+                int x = i > 14 ? 7 - (i / 5) : i / 5;
+                mask |= 1 << (y * GRID + x);
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Fills the first {@code sizePx * sizePx} entries of {@code pixels} row by row.
+     *
+     * @return false if the seed is empty or the buffer too small
+     */
+    public static boolean render(String seed, int sizePx, boolean circular, int[] pixels) {
+        if (seed == null || seed.isEmpty() || sizePx <= 0 || pixels == null || pixels.length < sizePx * sizePx) {
+            return false;
+        }
+
+        int hash = IdenticonSeed.simpleHash(seed);
+        // Foreground color: matching minidenticons defaults
+        int fgHue = ((hash % COLORS_NB) + COLORS_NB) % COLORS_NB * (360 / COLORS_NB);
+        int fgColor = IdenticonSeed.hslToArgb(fgHue, DEFAULT_SATURATION, DEFAULT_LIGHTNESS);
+        // Background color: matching identicon.ts seedToHue
+        int bgColor = IdenticonSeed.hslToArgb(IdenticonSeed.seedToHue(seed), BG_SATURATION, BG_LIGHTNESS);
+        int mask = mask(hash);
+
+        float scale = sizePx / VIEWBOX_SIZE;
+        int cellY = -1;
+        int nextEdgeY = edge(0, scale);
+        int previousRowMask = -1;
+        for (int py = 0; py < sizePx; py++) {
+            while (cellY < GRID && py >= nextEdgeY) {
+                cellY++;
+                nextEdgeY = edge(cellY + 1, scale);
+            }
+            int rowMask = cellY >= 0 && cellY < GRID ? (mask >>> (cellY * GRID)) & 0x1f : 0;
+            int offset = py * sizePx;
+            if (rowMask == previousRowMask) {
+                // Rows within one cell row (and margin rows) are identical.
+                System.arraycopy(pixels, offset - sizePx, pixels, offset, sizePx);
+                continue;
+            }
+            previousRowMask = rowMask;
+            if (rowMask == 0) {
+                for (int px = 0; px < sizePx; px++) {
+                    pixels[offset + px] = bgColor;
+                }
+                continue;
+            }
+            int cellX = -1;
+            int nextEdgeX = edge(0, scale);
+            for (int px = 0; px < sizePx; px++) {
+                while (cellX < GRID && px >= nextEdgeX) {
+                    cellX++;
+                    nextEdgeX = edge(cellX + 1, scale);
+                }
+                boolean filled = cellX >= 0 && cellX < GRID && (rowMask & (1 << cellX)) != 0;
+                pixels[offset + px] = filled ? fgColor : bgColor;
+            }
+        }
+
+        if (circular) {
+            cropCircle(pixels, sizePx);
+        }
+        return true;
+    }
+
+    /**
+     * @return the pixel where grid line {@code k} (0-5) starts
+     */
+    private static int edge(int k, float scale) {
+        return Math.round((VIEWBOX_OFFSET + k) * scale);
+    }
+
+    private static void cropCircle(int[] pixels, int sizePx) {
+        float radius = sizePx / 2f;
+        float innerSq = (radius - 0.5f) * (radius - 0.5f);
+        float outerSq = (radius + 0.5f) * (radius + 0.5f);
+        for (int py = 0; py < sizePx; py++) {
+            float dy = py + 0.5f - radius;
+            int offset = py * sizePx;
+            float halfChordSq = outerSq - dy * dy;
+            if (halfChordSq <= 0f) {
+                Arrays.fill(pixels, offset, offset + sizePx, 0);
+                continue;
+            }
+            // Pixels beyond the outer chord are cleared outright; from there, walk in from both
+            // ends of the row until the pixels are fully inside the circle.
+            int outside = (int) Math.floor(radius - 0.5f - (float) Math.sqrt(halfChordSq)) + 1;
+            outside = Math.max(0, Math.min(outside, sizePx / 2));
+            Arrays.fill(pixels, offset, offset + outside, 0);
+            Arrays.fill(pixels, offset + sizePx - outside, offset + sizePx, 0);
+            int px = outside;
+            for (; px < sizePx - outside; px++) {
+                if (!cropPixel(pixels, offset + px, px + 0.5f - radius, dy, radius, innerSq, outerSq)) {
+                    break;
+                }
+            }
+            for (int right = sizePx - 1 - outside; right > px; right--) {
+                if (!cropPixel(pixels, offset + right, right + 0.5f - radius, dy, radius, innerSq, outerSq)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false if the pixel is fully inside the circle and was left alone
+     */
+    private static boolean cropPixel(int[] pixels, int index, float dx, float dy, float radius, float innerSq, float outerSq) {
+        float distanceSq = dx * dx + dy * dy;
+        if (distanceSq <= innerSq) {
+            return false;
+        }
+        if (distanceSq >= outerSq) {
+            pixels[index] = 0;
+            return true;
+        }
+        // Only the one-pixel band around the edge is blended.
+        float coverage = radius - (float) Math.sqrt(distanceSq) + 0.5f;
+        int color = pixels[index];
+        int alpha = (int) ((color >>> 24) * coverage + 0.5f);
+        pixels[index] = (alpha << 24) | (color & 0x00ffffff);
+        return true;
+    }
+}
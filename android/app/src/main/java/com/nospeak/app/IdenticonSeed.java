@@ -0,0 +1,77 @@
+package com.nospeak.app;
+
+/**
+ * Pure-Java seed hashing and color math behind {@link IdenticonGenerator}, kept free of
+ * android.graphics so it can be unit tested and benchmarked on the JVM.
+ */
+public final class IdenticonSeed {
+
+    private static final int MAGIC_NUMBER = 5;
+
+    private IdenticonSeed() {
+    }
+
+    /**
+     * Exact port of minidenticons' simpleHash function.
+     * Uses XOR and multiply by -MAGIC_NUMBER, then unsigned right shift by 2.
+     */
+    public static int simpleHash(String str) {
+        int hash = MAGIC_NUMBER;
+        for (int i = 0; i < str.length(); i++) {
+            hash = (hash ^ str.charAt(i)) * -MAGIC_NUMBER;
+        }
+        return hash >>> 2; // unsigned right shift for 32-bit unsigned integer
+    }
+
+    /**
+     * Matching identicon.ts seedToHue function.
+     * Produces a hue value (0-359) from the seed string.
+     */
+    public static int seedToHue(String seed) {
+        int hash = 0;
+        for (int i = 0; i < seed.length(); i++) {
+            hash = seed.charAt(i) + ((hash << 5) - hash);
+        }
+        return Math.abs(hash) % 360;
+    }
+
+    /**
+     * Converts HSL color values to an opaque ARGB integer (same packing as Color.argb).
+     *
+     * @param h Hue (0-360)
+     * @param s Saturation (0-100)
+     * @param l Lightness (0-100)
+     * @return ARGB color integer
+     */
+    public static int hslToArgb(int h, int s, int l) {
+        float hf = h / 360.0f;
+        float sf = s / 100.0f;
+        float lf = l / 100.0f;
+
+        float r, g, b;
+
+        if (sf == 0) {
+            r = g = b = lf;
+        } else {
+            float q = lf < 0.5f ? lf * (1 + sf) : lf + sf - lf * sf;
+            float p = 2 * lf - q;
+            r = hueToRgb(p, q, hf + 1.0f / 3.0f);
+            g = hueToRgb(p, q, hf);
+            b = hueToRgb(p, q, hf - 1.0f / 3.0f);
+        }
+
+        return (255 << 24)
+                | (Math.round(r * 255) << 16)
+                | (Math.round(g * 255) << 8)
+                | Math.round(b * 255);
+    }
+
+    private static float hueToRgb(float p, float q, float t) {
+        if (t < 0) t += 1;
+        if (t > 1) t -= 1;
+        if (t < 1.0f / 6.0f) return p + (q - p) * 6 * t;
+        if (t < 1.0f / 2.0f) return q;
+        if (t < 2.0f / 3.0f) return p + (q - p) * (2.0f / 3.0f - t) * 6;
+        return p;
+    }
+}
@@ -0,0 +1,185 @@
+package com.nospeak.app;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Coalesces concurrent deliveries of the same event from several relays.
+ *
+ * The first relay to deliver an event becomes its leader and does the work (decrypt and
+ * notify); copies that arrive from other relays while the leader is still running attach to
+ * the pending entry instead of decrypting again. Each attached copy is counted against the
+ * relay that delivered it as a saved decrypt.
+ *
+ * Once the leader finishes, {@link #complete} removes the entry; later copies are expected to
+ * be caught by the processed-event dedupe instead. A leader whose work will not run (its task
+ * was dropped from a full queue) is released with {@link #abandon}, which reports every relay
+ * that delivered the event. A leader that never reports back at all stops blocking copies
+ * after {@code staleAfterMs}, and the next delivery takes over.
+ *
+ * Every leader gets its own token, and {@code complete} and {@code abandon} only act on the
+ * entry of the leader holding it: a stale leader that reports back late leaves its successor's
+ * entry, and the relays attached to it, alone.
+ */
+public final class InFlightEventCoalescer {
+
+    /**
+     * Returned by {@link #begin} when the delivery attached to a pending leader.
+     */
+    public static final long ATTACHED = 0L;
+
+    private static final class Pending {
+        final long token;
+        final String leaderRelayUrl;
+        final long startedAtMs;
+        final Set<String> relayUrls = new LinkedHashSet<>();
+        int attachedCount;
+
+        Pending(long token, String leaderRelayUrl, long startedAtMs) {
+            this.token = token;
+            this.leaderRelayUrl = leaderRelayUrl;
+            this.startedAtMs = startedAtMs;
+            if (leaderRelayUrl != null) {
+                relayUrls.add(leaderRelayUrl);
+            }
+        }
+    }
+
+    private final long staleAfterMs;
+    private final Map<String, Pending> inFlight = new HashMap<>();
+    private final Map<String, Long> savedByRelay = new HashMap<>();
+    private long totalSaved = 0L;
+    private long nextToken = ATTACHED;
+
+    public InFlightEventCoalescer(long staleAfterMs) {
+        if (staleAfterMs <= 0L) {
+            throw new IllegalArgumentException("staleAfterMs must be positive");
+        }
+        this.staleAfterMs = staleAfterMs;
+    }
+
+    /**
+     * Registers a delivery of {@code eventId} from {@code relayUrl}.
+     *
+     * @return the leader's token if the caller is the leader and must do the work and then call
+     *         {@link #complete} or {@link #abandon} with it; {@link #ATTACHED} if the delivery
+     *         attached to a pending leader
+     */
+    public synchronized long begin(String eventId, String relayUrl, long nowMs) {
+        long token = ++nextToken;
+        String key = normalizeKey(eventId);
+        if (key == null) {
+            return token;
+        }
+
+        Pending pending = inFlight.get(key);
+        if (pending == null || nowMs - pending.startedAtMs >= staleAfterMs) {
+            inFlight.put(key, new Pending(token, relayUrl, nowMs));
+            return token;
+        }
+
+        pending.attachedCount++;
+        totalSaved++;
+        if (relayUrl != null) {
+            pending.relayUrls.add(relayUrl);
+            Long saved = savedByRelay.get(relayUrl);
+            savedByRelay.put(relayUrl, saved != null ? saved + 1L : 1L);
+        }
+        return ATTACHED;
+    }
+
+    /**
+     * Ends the work of the leader holding {@code token} for {@code eventId}.
+     *
+     * @return the number of deliveries that attached while it was in flight; 0 if that leader
+     *         no longer owns the entry
+     */
+    public synchronized int complete(String eventId, long token) {
+        Pending pending = removeLeader(eventId, token);
+        return pending != null ? pending.attachedCount : 0;
+    }
+
+    /**
+     * Releases {@code eventId} without it having been handled by the leader holding
+     * {@code token}.
+     *
+     * @return the relays that delivered it (leader first); none of them saw it processed. Empty
+     *         if that leader no longer owns the entry
+     */
+    public synchronized Set<String> abandon(String eventId, long token) {
+        Pending pending = removeLeader(eventId, token);
+        if (pending == null) {
+            return Collections.emptySet();
+        }
+        return pending.relayUrls;
+    }
+
+    private Pending removeLeader(String eventId, long token) {
+        String key = normalizeKey(eventId);
+        Pending pending = key != null ? inFlight.get(key) : null;
+        if (pending == null || pending.token != token) {
+            return null;
+        }
+        inFlight.remove(key);
+        return pending;
+    }
+
+    /**
+     * Drops entries whose leader has been running for longer than the stale timeout.
+     */
+    public synchronized void pruneStale(long nowMs) {
+        for (Iterator<Pending> it = inFlight.values().iterator(); it.hasNext(); ) {
+            if (nowMs - it.next().startedAtMs >= staleAfterMs) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the relay currently leading {@code eventId}, or null if it is not in flight.
+     */
+    public synchronized String leaderFor(String eventId) {
+        String key = normalizeKey(eventId);
+        Pending pending = key != null ? inFlight.get(key) : null;
+        return pending != null ? pending.leaderRelayUrl : null;
+    }
+
+    public synchronized int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    public synchronized long getSavedCount(String relayUrl) {
+        Long saved = savedByRelay.get(relayUrl);
+        return saved != null ? saved : 0L;
+    }
+
+    public synchronized long getTotalSavedCount() {
+        return totalSaved;
+    }
+
+    /**
+     * Returns a copy of the saved-decrypt counters, keyed by relay URL.
+     */
+    public synchronized Map<String, Long> getSavedCountsByRelay() {
+        return new HashMap<>(savedByRelay);
+    }
+
+    /**
+     * Drops in-flight entries (e.g. on shutdown); the saved counters are kept.
+     */
+    public synchronized void clearInFlight() {
+        inFlight.clear();
+    }
+
+    private static String normalizeKey(String eventId) {
+        if (eventId == null || eventId.isEmpty()) {
+            return null;
+        }
+        return eventId.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,111 @@
+package com.nospeak.app;
+
+import java.util.Arrays;
+
+/**
+ * NIP-44 decryption with the locally stored secret key (nsec mode), backed by a
+ * {@link ConversationKeyCache}.
+ *
+ * Decrypt workers never use the key array itself: each operation works on a private copy taken
+ * under the lock, so {@link #setSecretKey} can wipe the previous key while decrypts are still
+ * running. The cache is cleared, looked up and filled under the same lock as the key swap, so a
+ * cached conversation key always belongs to the secret the worker copied, and keys derived
+ * from a secret that was replaced meanwhile are not cached.
+ */
+public final class LocalNip44Decryptor {
+
+    private final Object lock = new Object();
+    private final ConversationKeyCache conversationKeyCache;
+    private byte[] secretKey;
+
+    public LocalNip44Decryptor(int conversationKeyCacheSize) {
+        this.conversationKeyCache = new ConversationKeyCache(conversationKeyCacheSize);
+    }
+
+    /**
+     * Takes ownership of {@code secretKey} (or clears it with null) and wipes the previous key.
+     * Re-delivering the current key keeps the warm conversation key cache.
+     *
+     * @return true if the key changed and the conversation key cache was cleared
+     */
+    public boolean setSecretKey(byte[] secretKey) {
+        synchronized (lock) {
+            byte[] previous = this.secretKey;
+            if (previous != null && secretKey != null && Arrays.equals(previous, secretKey)) {
+                if (previous != secretKey) {
+                    Arrays.fill(secretKey, (byte) 0);
+                }
+                return false;
+            }
+
+            this.secretKey = secretKey;
+
+            if (previous != null && previous != secretKey) {
+                Arrays.fill(previous, (byte) 0);
+            }
+            conversationKeyCache.clear();
+        }
+        return true;
+    }
+
+    public boolean hasSecretKey() {
+        synchronized (lock) {
+            return secretKey != null;
+        }
+    }
+
+    /**
+     * @return a copy of the current secret key for one operation (the caller wipes it), or null
+     */
+    public byte[] copySecretKey() {
+        synchronized (lock) {
+            return secretKey != null ? secretKey.clone() : null;
+        }
+    }
+
+    public String decrypt(String payload, String senderPubkeyHex) {
+        if (payload == null || senderPubkeyHex == null) {
+            return null;
+        }
+
+        byte[] current;
+        byte[] key;
+        byte[] conversationKey;
+        synchronized (lock) {
+            current = secretKey;
+            if (current == null || current.length != 32) {
+                return null;
+            }
+            key = current.clone();
+            conversationKey = conversationKeyCache.get(senderPubkeyHex);
+        }
+
+        try {
+            if (conversationKey == null) {
+                conversationKey = Nip44.getConversationKey(key, senderPubkeyHex);
+                // Only cache keys derived from the secret that is still current.
+                synchronized (lock) {
+                    if (current == secretKey) {
+                        conversationKeyCache.put(senderPubkeyHex, conversationKey);
+                    }
+                }
+            }
+            return Nip44.decrypt(payload, conversationKey);
+        } catch (Exception e) {
+            return null;
+        } finally {
+            if (conversationKey != null) {
+                Arrays.fill(conversationKey, (byte) 0);
+            }
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+
+    public long getCacheHitCount() {
+        return conversationKeyCache.getHitCount();
+    }
+
+    public long getCacheMissCount() {
+        return conversationKeyCache.getMissCount();
+    }
+}
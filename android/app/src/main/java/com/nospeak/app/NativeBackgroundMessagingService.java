@@ -17,19 +17,16 @@ import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.BitmapShader;
-import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.graphics.Shader;
 import android.media.AudioAttributes;
 import android.media.RingtoneManager;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
 import android.net.Uri;
 import android.os.BatteryManager;
 import android.os.Build;
 import android.os.PowerManager;
 import android.service.notification.StatusBarNotification;
-import android.util.Base64;
 import android.util.Log;
 import android.os.Handler;
 import android.os.IBinder;
@@ -48,40 +45,21 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.util.Arrays;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-
-import org.bouncycastle.asn1.sec.SECNamedCurves;
-import org.bouncycastle.asn1.x9.X9ECParameters;
-import org.bouncycastle.crypto.engines.ChaCha7539Engine;
-import org.bouncycastle.crypto.params.KeyParameter;
-import org.bouncycastle.crypto.params.ParametersWithIV;
-import org.bouncycastle.math.ec.ECPoint;
 import java.security.NoSuchAlgorithmException;
-import java.util.ArrayDeque;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
-import okhttp3.Call;
-import okhttp3.Callback;
 import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.Response;
-import okhttp3.ResponseBody;
-import okhttp3.WebSocket;
-import okhttp3.WebSocketListener;
-import okio.ByteString;
 
 
 public class NativeBackgroundMessagingService extends Service {
@@ -100,6 +78,8 @@ public class NativeBackgroundMessagingService extends Service {
 
     public static final String ACTION_START = "com.nospeak.app.NATIVE_BG_MSG_START";
     public static final String ACTION_UPDATE = "com.nospeak.app.NATIVE_BG_MSG_UPDATE";
+    // Periodic sync mode: connect, catch up, notify and stop.
+    public static final String ACTION_SYNC_ONCE = "com.nospeak.app.NATIVE_BG_MSG_SYNC_ONCE";
 
     public static final String EXTRA_MODE = "mode"; // "nsec" or "amber"
     public static final String EXTRA_PUBKEY_HEX = "pubkeyHex";
@@ -116,38 +96,89 @@ public class NativeBackgroundMessagingService extends Service {
 
     private static final String ROUTE_KIND_CHAT = "chat";
 
+    // Messages arriving within this window of the first one are rendered in one pass.
+    private static final long NOTIFICATION_BATCH_WINDOW_MS = 400L;
+
     private static final String CHANNEL_ID = "nospeak_background_service";
     private static final String CHANNEL_MESSAGES_ID = "nospeak_background_messages";
     private static final int NOTIFICATION_ID = 1001;
 
     private static final int PREVIEW_TRUNCATE_CHARS = 160;
+    // Legacy JSON dedupe list; imported into the seen-id ring file once, then removed.
     private static final String DEDUPE_PREFS_NAME = "nospeak_background_messaging_dedupe";
     private static final String DEDUPE_PREFS_KEY_IDS = "seenEventIdsJson";
-    private static final int MAX_PERSISTED_EVENT_IDS = 500;
+    private static final String SEEN_EVENT_IDS_FILE_NAME = "nospeak_seen_event_ids.bin";
+    private static final int SEEN_EVENT_ID_CAPACITY = 32768;
+    // Older processed ids fall back to a Bloom filter: 2 x 65536 ids in ~460 KB.
+    private static final String PROCESSED_EVENT_FILTER_FILE_NAME = "nospeak_processed_event_ids.bloom";
+    private static final int PROCESSED_EVENT_FILTER_GENERATION_CAPACITY = 65536;
+    private static final double PROCESSED_EVENT_FILTER_FALSE_POSITIVE_RATE = 1e-6;
 
     private static final long MAX_NOTIFICATION_BACKLOG_SECONDS = 15L * 60L;
+    // Periodic cycles notify everything since the previous cycle (Doze can stretch the period),
+    // but never more than a day back.
+    private static final long PERIODIC_MAX_NOTIFICATION_BACKLOG_SECONDS = 24L * 60L * 60L;
+    private static final long SYNC_CYCLE_TIMEOUT_MS = 45_000L;
+    private static final long SYNC_CYCLE_DRAIN_TIMEOUT_MS = 10_000L;
+    private static final long SYNC_CYCLE_DRAIN_POLL_MS = 100L;
+
+    // Amber decrypts: concurrent signer queries, cached plaintexts, and how long a decrypt worker
+    // waits for the signer.
+    private static final int AMBER_DECRYPT_WORKERS = 2;
+    private static final int AMBER_DECRYPT_QUEUE_CAPACITY = 32;
+    private static final int AMBER_DECRYPT_CACHE_SIZE = 256;
+    private static final long AMBER_DECRYPT_TIMEOUT_MS = 10_000L;
+
+    private static final int AVATAR_PREFETCH_MAX_CONCURRENT = 3;
+    // Contacts with conversation activity this recent are prefetched first, on any network.
+    private static final long AVATAR_PREFETCH_RECENT_CONVERSATION_MS = 7L * 24L * 60L * 60L * 1000L;
 
     private static final int ACTIVE_PING_SECONDS = 120;
     private static final int LOCKED_PING_SECONDS = 300;
     private static final long LOCK_GRACE_MS = 60_000L;
+    // Live sockets keep their ping interval until re-paced; wait out lock/unlock flapping first,
+    // then move relays over one at a time.
+    private static final long REPACE_DEBOUNCE_MS = 30_000L;
+    private static final long REPACE_STAGGER_MS = 2_000L;
+    // Locked profile keeps only the relays covering the most recent events, plus one rotating slot.
+    private static final int LOCKED_RELAY_FANOUT = 3;
+    private static final long LOCKED_RELAY_ROTATION_MS = 30L * 60L * 1000L;
+    private static final int RELAY_COVERAGE_WINDOW = 1024;
+
+    private static final long RECONNECT_BASE_DELAY_MS = 1_000L;
+    private static final long RECONNECT_MAX_DELAY_MS = 300_000L;
+    private static final long RECONNECT_WAVE_STAGGER_MS = 750L;
+    private static final long AUTH_RETRY_DELAY_MS = 5_000L;
+    private static final long RELAY_POOL_SHUTDOWN_TIMEOUT_MS = 500L;
 
     private String currentSummary = "Connected to read relays";
 
-    private OkHttpClient client;
-    private final Set<WebSocket> sockets = new HashSet<>();
+    // Long-lived client owning the connection pool, dispatcher and TLS session cache.
+    private OkHttpClient baseClient;
 
-    private final Set<String> seenEventIds = new HashSet<>();
-    private final ArrayDeque<String> seenEventIdQueue = new ArrayDeque<>();
+    // Gift wraps that have been fully handled (notified or skipped): an exact ring of recent ids
+    // plus a Bloom filter for older ones.
+    private volatile SeenEventIdStore seenEventIdStore;
+    private volatile RotatingBloomFilter processedEventFilter;
+    // Gift wraps currently being decrypted, so copies from other relays attach instead of decrypting again.
+    private final InFlightEventCoalescer inFlightGiftWraps = new InFlightEventCoalescer(GiftWrapFrameHandler.IN_FLIGHT_EVENT_STALE_MS);
 
 
 
     private final Map<String, Integer> conversationActivityCounts = new HashMap<>();
     private final Map<String, String> conversationLastPreview = new HashMap<>();
     private final Map<String, Long> conversationLastTimestampMs = new HashMap<>();
+    private final ConversationNotificationBatcher notificationBatcher = new ConversationNotificationBatcher();
+    private final Runnable notificationFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushConversationNotifications();
+        }
+    };
 
-    private final Map<String, Bitmap> avatarBitmaps = new HashMap<>();
-    private final Map<String, String> avatarBitmapKeys = new HashMap<>();
-    private final Set<String> avatarFetchInFlight = new HashSet<>();
+    // Shared with the sharing shortcuts plugin; owns the avatar caches and fetches.
+    private AvatarRepository avatarRepository;
+    private AvatarPrefetchScheduler avatarPrefetchScheduler;
 
     private final Set<String> conversationShortcutsPublished = new HashSet<>();
     private final Map<String, String> conversationShortcutAvatarKeys = new HashMap<>();
@@ -155,9 +186,10 @@ public class NativeBackgroundMessagingService extends Service {
     private String currentPubkeyHex;
     private String currentMode = "amber";
     private boolean notificationsEnabled = false;
-    private long notificationCutoffSeconds = 0L;
+    private volatile long notificationCutoffSeconds = 0L;
+    private final RelaySinceCursors relaySinceCursors = new RelaySinceCursors();
 
-    private byte[] localSecretKey;
+    private final LocalNip44Decryptor localDecryptor = new LocalNip44Decryptor(GiftWrapFrameHandler.CONVERSATION_KEY_CACHE_SIZE);
 
     private int configuredRelaysCount = 0;
     private String[] configuredRelays = new String[0];
@@ -173,24 +205,160 @@ public class NativeBackgroundMessagingService extends Service {
     private BroadcastReceiver deviceStateReceiver;
     private Runnable lockGraceRunnable;
  
-    private final Map<String, WebSocket> activeSockets = new HashMap<>();
-    private final Map<String, Integer> retryAttempts = new HashMap<>();
+    // Sockets, NIP-42 auth, reconnects, re-pacing and fan-out all live on the relay pool's thread.
+    private ScheduledThreadPoolExecutor relayExecutor;
+    private RelayPool relayPool;
+    private final RelayHealthTracker relayHealth = new RelayHealthTracker(RELAY_COVERAGE_WINDOW);
+    private final RelayMetrics relayMetrics = new RelayMetrics(System.currentTimeMillis());
+    private final RelayReconnectScheduler reconnectScheduler = new RelayReconnectScheduler(
+            RECONNECT_BASE_DELAY_MS,
+            RECONNECT_MAX_DELAY_MS,
+            RECONNECT_WAVE_STAGGER_MS,
+            new java.security.SecureRandom()
+    );
+    private ConnectivityManager.NetworkCallback networkCallback;
+    // Main thread only: the default network last seen validated, or null while offline.
+    private Network validatedNetwork;
+    // Dedupe, coalescing, since cursors and the decrypt pipeline for incoming gift wraps.
+    private volatile GiftWrapFrameHandler giftWrapFrames;
+    private AmberDecryptBroker amberDecryptBroker;
     private Handler handler;
     private boolean serviceRunning = false;
 
-    // NIP-42 authentication state
-    private final Map<String, String> relayChallenges = new HashMap<>();      // relayUrl -> challenge
-    private final Map<String, String> relayAuthStatus = new HashMap<>();      // relayUrl -> status (none, required, pending, authenticated, failed)
-    private final Map<String, String> pendingAuthEventIds = new HashMap<>();  // eventId -> relayUrl
-    private final Set<String> authRetryScheduled = new HashSet<>();           // relayUrls with pending retry
+    // Periodic sync mode: the running batch cycle, or null. Set on the main thread, read by the
+    // relay pool thread.
+    private volatile PeriodicSyncCycle syncCycle;
+    private long syncCycleDrainDeadlineMs = 0L;
+    private final Runnable syncCycleTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            finishSyncCycle();
+        }
+    };
+    private final Runnable syncCycleDrainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            drainSyncCycle();
+        }
+    };
 
-    private OkHttpClient buildOkHttpClient(int pingSeconds) {
+    private OkHttpClient buildBaseOkHttpClient() {
         return new OkHttpClient.Builder()
-                .pingInterval(pingSeconds, TimeUnit.SECONDS)
                 .readTimeout(0, TimeUnit.MILLISECONDS)
                 .build();
     }
 
+    private RelayPool createRelayPool() {
+        relayExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "nospeak-relay-pool");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        relayExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+
+        RelayPool.Settings settings = new RelayPool.Settings();
+        settings.repaceDebounceMs = REPACE_DEBOUNCE_MS;
+        settings.repaceStaggerMs = REPACE_STAGGER_MS;
+        settings.authRetryDelayMs = AUTH_RETRY_DELAY_MS;
+        settings.lockedFanOut = LOCKED_RELAY_FANOUT;
+        settings.lockedRotationMs = LOCKED_RELAY_ROTATION_MS;
+
+        return new RelayPool(
+                new OkHttpRelayTransport(baseClient),
+                new RelayPool.ExecutorScheduler(relayExecutor),
+                new RelayPool.Listener() {
+                    @Override
+                    public String buildSubscription(String relayUrl, boolean liveOnly) {
+                        String pubkeyHex = currentPubkeyHex;
+                        return pubkeyHex != null ? buildSubscriptionRequest(relayUrl, pubkeyHex, liveOnly) : null;
+                    }
+
+                    @Override
+                    public RelayPool.SyncPlan planSync(String relayUrl) {
+                        String pubkeyHex = currentPubkeyHex;
+                        return pubkeyHex != null ? buildSyncPlan(relayUrl, pubkeyHex) : null;
+                    }
+
+                    @Override
+                    public void onSyncReconciled(String relayUrl, int missingCount) {
+                        if (isDebugBuild()) {
+                            Log.d(LOG_TAG, "Negentropy sync with " + relayUrl + ": " + missingCount + " missing");
+                        }
+                    }
+
+                    @Override
+                    public void onSyncFallback(String relayUrl, String reason) {
+                        if (isDebugBuild()) {
+                            Log.d(LOG_TAG, "Negentropy unavailable on " + relayUrl + " (" + reason + "); using REQ");
+                        }
+                    }
+
+                    @Override
+                    public String signAuthEvent(String relayUrl, String challenge) {
+                        String unsignedEventJson = buildAuthEvent(relayUrl, challenge);
+                        return unsignedEventJson != null ? signEvent(unsignedEventJson) : null;
+                    }
+
+                    @Override
+                    public void onEvent(String relayUrl, RelayFrameParser.Frame frame, boolean backlog) {
+                        PeriodicSyncCycle cycle = syncCycle;
+                        if (cycle != null) {
+                            cycle.onEvent();
+                        }
+                        GiftWrapFrameHandler frames = giftWrapFrames;
+                        if (frames != null) {
+                            frames.onFrame(relayUrl, frame, backlog);
+                        }
+                    }
+
+                    @Override
+                    public void onEose(String relayUrl) {
+                        handleRelayEose(relayUrl);
+                        PeriodicSyncCycle cycle = syncCycle;
+                        if (cycle != null && cycle.onEose(relayUrl)) {
+                            postFinishSyncCycle();
+                        }
+                    }
+
+                    @Override
+                    public void onConnected(String relayUrl) {
+                        if (isDebugBuild()) {
+                            Log.d(LOG_TAG, "Relay connected: " + relayUrl);
+                        }
+                    }
+
+                    @Override
+                    public void onDisconnected(String relayUrl, boolean wasOpen, String detail) {
+                        GiftWrapFrameHandler frames = giftWrapFrames;
+                        if (frames != null && frames.onDisconnected(relayUrl)) {
+                            persistRelaySinceCursors();
+                        }
+                        PeriodicSyncCycle cycle = syncCycle;
+                        if (cycle != null && cycle.onRelayFailed(relayUrl)) {
+                            postFinishSyncCycle();
+                        }
+                        if (isDebugBuild()) {
+                            String suffix = detail != null && !detail.trim().isEmpty() ? (" (" + detail + ")") : "";
+                            Log.d(LOG_TAG, "Relay disconnected: " + relayUrl + suffix);
+                        }
+                    }
+
+                    @Override
+                    public void onConnectionCountChanged(int connectedCount) {
+                        updateServiceNotificationForHealth();
+                    }
+                },
+                reconnectScheduler,
+                relayHealth,
+                relayMetrics,
+                settings,
+                GiftWrap.KIND_GIFT_WRAP
+        );
+    }
+
     private boolean isDebugBuild() {
         return (getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
     }
@@ -261,7 +429,8 @@ public class NativeBackgroundMessagingService extends Service {
     }
 
     private void evaluateAndApplyEnergyProfile(String reason) {
-        if (!serviceRunning) {
+        // A sync cycle keeps every relay at the active pace for its short lifetime.
+        if (!serviceRunning || syncCycle != null) {
             return;
         }
 
@@ -277,7 +446,13 @@ public class NativeBackgroundMessagingService extends Service {
 
         currentPingSeconds = desiredPingSeconds;
         lockedProfileActive = desiredLockedProfileActive;
-        client = buildOkHttpClient(desiredPingSeconds);
+        if (relayPool != null) {
+            relayPool.setProfile(desiredPingSeconds, desiredLockedProfileActive);
+        }
+        if (avatarPrefetchScheduler != null) {
+            // Queued prefetches are not worth waking the radio for while the device is idle.
+            avatarPrefetchScheduler.setSuspended(desiredLockedProfileActive);
+        }
 
         if (isDebugBuild()) {
             long screenOffAgeMs = screenOffAtMs > 0L ? (System.currentTimeMillis() - screenOffAtMs) : 0L;
@@ -306,14 +481,56 @@ public class NativeBackgroundMessagingService extends Service {
 
         currentPingSeconds = ACTIVE_PING_SECONDS;
         lockedProfileActive = false;
-        client = buildOkHttpClient(currentPingSeconds);
+        baseClient = buildBaseOkHttpClient();
 
         handler = new Handler(Looper.getMainLooper());
+        relayPool = createRelayPool();
+        giftWrapFrames = new GiftWrapFrameHandler(
+                new GiftWrapDecryptPipeline(
+                        GiftWrapDecryptPipeline.defaultWorkerCount(GiftWrapFrameHandler.DECRYPT_MAX_WORKERS),
+                        GiftWrapFrameHandler.DECRYPT_QUEUE_CAPACITY,
+                        GiftWrapFrameHandler.DECRYPT_LIVE_BACKPRESSURE_MS
+                ),
+                relaySinceCursors,
+                inFlightGiftWraps,
+                relayMetrics,
+                createGiftWrapListener()
+        );
+        amberDecryptBroker = new AmberDecryptBroker(
+                new AmberDecryptBroker.Signer() {
+                    @Override
+                    public String nip44Decrypt(String ciphertext, String senderPubkeyHex, String recipientPubkeyHex) {
+                        return amberNip44Decrypt(ciphertext, senderPubkeyHex, recipientPubkeyHex);
+                    }
+                },
+                AMBER_DECRYPT_WORKERS,
+                AMBER_DECRYPT_QUEUE_CAPACITY,
+                AMBER_DECRYPT_CACHE_SIZE,
+                AMBER_DECRYPT_TIMEOUT_MS
+        );
         serviceRunning = true;
         sInstance = this;
 
         createNotificationChannel();
+        avatarRepository = AvatarRepository.getInstance(this);
+        avatarPrefetchScheduler = new AvatarPrefetchScheduler(
+                new AvatarPrefetchScheduler.Fetcher() {
+                    @Override
+                    public void fetch(String pictureUrl, final Runnable done) {
+                        avatarRepository.fetch(pictureUrl, new AvatarRepository.Listener() {
+                            @Override
+                            public void onAvatarFetched(String url, boolean success) {
+                                done.run();
+                            }
+                        });
+                    }
+                },
+                AVATAR_PREFETCH_MAX_CONCURRENT,
+                AVATAR_PREFETCH_RECENT_CONVERSATION_MS,
+                true
+        );
         loadPersistedSeenEventIds();
+        registerNetworkCallback();
 
         refreshChargingState();
 
@@ -399,50 +616,19 @@ public class NativeBackgroundMessagingService extends Service {
             return START_STICKY;
         }
 
-        if (ACTION_START.equals(action) || action == null) {
-            String summary = intent.getStringExtra(EXTRA_SUMMARY);
-            if (summary != null) {
-                currentSummary = summary;
-            }
-
-            currentMode = intent.getStringExtra(EXTRA_MODE);
-            if (currentMode == null) {
-                currentMode = "amber";
-            }
-
-            currentPubkeyHex = intent.getStringExtra(EXTRA_PUBKEY_HEX);
-            notificationsEnabled = intent.getBooleanExtra(EXTRA_NOTIFICATIONS_ENABLED, false);
-            String[] relays = intent.getStringArrayExtra(EXTRA_READ_RELAYS);
-            configuredRelays = relays != null ? relays : new String[0];
-            configuredRelaysCount = configuredRelays.length;
-
-            long persistedBaselineSeconds = AndroidBackgroundMessagingPrefs.loadNotificationBaselineSeconds(getApplicationContext());
-            long nowSeconds = System.currentTimeMillis() / 1000L;
-            long maxBacklogCutoffSeconds = Math.max(0L, nowSeconds - MAX_NOTIFICATION_BACKLOG_SECONDS);
-            notificationCutoffSeconds = Math.max(persistedBaselineSeconds, maxBacklogCutoffSeconds);
-
-            Notification notification = buildNotification(currentSummary);
-            startForeground(NOTIFICATION_ID, notification);
-
-            if ("nsec".equalsIgnoreCase(currentMode)) {
-                String secretKeyHex = AndroidLocalSecretStore.getSecretKeyHex(getApplicationContext());
-                if (secretKeyHex == null) {
-                    disableBackgroundMessagingDueToMissingSecret();
-                    return START_NOT_STICKY;
-                }
+        if (ACTION_SYNC_ONCE.equals(action)) {
+            return startSyncCycle(intent);
+        }
 
-                try {
-                    localSecretKey = hexToBytes(secretKeyHex);
-                } catch (Exception e) {
-                    disableBackgroundMessagingDueToMissingSecret();
-                    return START_NOT_STICKY;
-                }
-            } else {
-                localSecretKey = null;
+        if (ACTION_START.equals(action) || action == null) {
+            // Switching to persistent sockets ends a periodic cycle in progress.
+            cancelSyncCycle();
+            if (!applyStartConfig(intent, buildNotification(currentSummary), MAX_NOTIFICATION_BACKLOG_SECONDS)) {
+                return START_NOT_STICKY;
             }
 
             if (currentPubkeyHex != null && configuredRelays.length > 0) {
-                startRelayConnections(configuredRelays, currentPubkeyHex);
+                startRelayConnections(configuredRelays);
             } else {
                 // No valid relays; still keep notification accurate.
                 updateServiceNotificationForHealth();
@@ -472,12 +658,189 @@ public class NativeBackgroundMessagingService extends Service {
         return START_STICKY;
     }
 
+    /**
+     * Applies the account, relays and notification settings carried by a start intent and enters
+     * the foreground.
+     *
+     * @return false if the service has to stop (the local key is missing)
+     */
+    private boolean applyStartConfig(Intent intent, Notification foregroundNotification, long maxBacklogSeconds) {
+        String summary = intent.getStringExtra(EXTRA_SUMMARY);
+        if (summary != null) {
+            currentSummary = summary;
+        }
+
+        String previousMode = currentMode;
+        String previousPubkeyHex = currentPubkeyHex;
+        currentMode = intent.getStringExtra(EXTRA_MODE);
+        if (currentMode == null) {
+            currentMode = "amber";
+        }
+
+        currentPubkeyHex = intent.getStringExtra(EXTRA_PUBKEY_HEX);
+        AmberDecryptBroker broker = amberDecryptBroker;
+        if (broker != null && (!currentMode.equalsIgnoreCase(previousMode)
+                || (currentPubkeyHex != null ? !currentPubkeyHex.equalsIgnoreCase(previousPubkeyHex) : previousPubkeyHex != null))) {
+            // Another account or signer: the previous one's plaintexts must not stay in memory.
+            broker.clear();
+        }
+        notificationsEnabled = intent.getBooleanExtra(EXTRA_NOTIFICATIONS_ENABLED, false);
+        String[] relays = intent.getStringArrayExtra(EXTRA_READ_RELAYS);
+        configuredRelays = relays != null ? relays : new String[0];
+        configuredRelaysCount = configuredRelays.length;
+
+        long persistedBaselineSeconds = AndroidBackgroundMessagingPrefs.loadNotificationBaselineSeconds(getApplicationContext());
+        long nowSeconds = System.currentTimeMillis() / 1000L;
+        long maxBacklogCutoffSeconds = Math.max(0L, nowSeconds - maxBacklogSeconds);
+        notificationCutoffSeconds = Math.max(persistedBaselineSeconds, maxBacklogCutoffSeconds);
+
+        relaySinceCursors.load(
+                AndroidBackgroundMessagingPrefs.loadRelaySinceCursors(getApplicationContext(), currentPubkeyHex),
+                nowSeconds
+        );
+        relaySinceCursors.retainRelays(Arrays.asList(configuredRelays));
+
+        startForeground(NOTIFICATION_ID, foregroundNotification);
+
+        if ("nsec".equalsIgnoreCase(currentMode)) {
+            String secretKeyHex = AndroidLocalSecretStore.getSecretKeyHex(getApplicationContext());
+            if (secretKeyHex == null) {
+                disableBackgroundMessagingDueToMissingSecret();
+                return false;
+            }
+
+            try {
+                setLocalSecretKey(hexToBytes(secretKeyHex));
+            } catch (Exception e) {
+                setLocalSecretKey(null);
+                disableBackgroundMessagingDueToMissingSecret();
+                return false;
+            }
+        } else {
+            setLocalSecretKey(null);
+        }
+        return true;
+    }
+
+    // ---- Periodic sync mode ----
+
+    /**
+     * Starts one batch cycle: every relay at once, since-based (or negentropy) catch-up, and a
+     * hard deadline; the service stops itself once the cycle's decrypts have drained.
+     */
+    private int startSyncCycle(Intent intent) {
+        if (syncCycle != null) {
+            return START_NOT_STICKY;
+        }
+
+        long nowMs = System.currentTimeMillis();
+        long maxBacklogSeconds = PERIODIC_MAX_NOTIFICATION_BACKLOG_SECONDS;
+        JSONObject lastCycle = AndroidBackgroundMessagingPrefs.loadLastSyncCycle(getApplicationContext());
+        // After an incomplete cycle, look as far back as a first cycle would.
+        if (lastCycle != null && lastCycle.optBoolean("complete", false)
+                && lastCycle.optLong("startedAtMs", 0L) > 0L) {
+            long sinceLastCycleSeconds = Math.max(0L, (nowMs - lastCycle.optLong("startedAtMs", 0L)) / 1000L);
+            maxBacklogSeconds = Math.min(
+                    PERIODIC_MAX_NOTIFICATION_BACKLOG_SECONDS,
+                    sinceLastCycleSeconds + MAX_NOTIFICATION_BACKLOG_SECONDS
+            );
+        }
+
+        if (!applyStartConfig(intent, buildNotification("Checking for new messages"), maxBacklogSeconds)) {
+            return START_NOT_STICKY;
+        }
+
+        RelayPool pool = relayPool;
+        if (pool == null || currentPubkeyHex == null || configuredRelays.length == 0) {
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+
+        syncCycle = new PeriodicSyncCycle(Arrays.asList(configuredRelays), nowMs, pool.getBytesReceived(), pool.getBytesSent());
+        currentPingSeconds = ACTIVE_PING_SECONDS;
+        lockedProfileActive = false;
+        pool.start(configuredRelays, ACTIVE_PING_SECONDS, false);
+        handler.postDelayed(syncCycleTimeoutRunnable, SYNC_CYCLE_TIMEOUT_MS);
+        return START_NOT_STICKY;
+    }
+
+    private void postFinishSyncCycle() {
+        postToMainThread(new Runnable() {
+            @Override
+            public void run() {
+                finishSyncCycle();
+            }
+        });
+    }
+
+    /**
+     * Every relay caught up or failed, or the deadline passed: let queued decrypts finish (and
+     * notify) before stopping.
+     */
+    private void finishSyncCycle() {
+        if (syncCycle == null || syncCycleDrainDeadlineMs > 0L) {
+            return;
+        }
+        handler.removeCallbacks(syncCycleTimeoutRunnable);
+        syncCycleDrainDeadlineMs = System.currentTimeMillis() + SYNC_CYCLE_DRAIN_TIMEOUT_MS;
+        drainSyncCycle();
+    }
+
+    private void drainSyncCycle() {
+        PeriodicSyncCycle cycle = syncCycle;
+        if (cycle == null) {
+            return;
+        }
+
+        GiftWrapFrameHandler frames = giftWrapFrames;
+        boolean drained = (frames == null || frames.getPipeline().getQueueDepth() == 0)
+                && inFlightGiftWraps.getInFlightCount() == 0
+                && !notificationBatcher.hasPending();
+        long nowMs = System.currentTimeMillis();
+        if (!drained && nowMs < syncCycleDrainDeadlineMs) {
+            handler.postDelayed(syncCycleDrainRunnable, SYNC_CYCLE_DRAIN_POLL_MS);
+            return;
+        }
+
+        RelayPool pool = relayPool;
+        PeriodicSyncCycle.Report report = cycle.finish(
+                nowMs,
+                pool != null ? pool.getBytesReceived() : 0L,
+                pool != null ? pool.getBytesSent() : 0L,
+                drained
+        );
+        syncCycle = null;
+        syncCycleDrainDeadlineMs = 0L;
+        AndroidBackgroundMessagingPrefs.saveLastSyncCycle(getApplicationContext(), report.toJson());
+        if (isDebugBuild()) {
+            Log.d(LOG_TAG, "Periodic sync cycle " + (report.isComplete() ? "finished: " : "incomplete: ") + report);
+        }
+        stopSelf();
+    }
+
+    private void cancelSyncCycle() {
+        if (handler != null) {
+            handler.removeCallbacks(syncCycleTimeoutRunnable);
+            handler.removeCallbacks(syncCycleDrainRunnable);
+        }
+        syncCycle = null;
+        syncCycleDrainDeadlineMs = 0L;
+    }
+
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
         return null;
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (avatarRepository != null) {
+            avatarRepository.trimMemory(level);
+        }
+    }
+
     @Override
     public void onDestroy() {
         serviceRunning = false;
@@ -485,6 +848,9 @@ public class NativeBackgroundMessagingService extends Service {
 
         cancelLockGraceTimer();
         lockGraceRunnable = null;
+        cancelSyncCycle();
+        unregisterNetworkCallback();
+        validatedNetwork = null;
 
         if (deviceStateReceiver != null) {
             try {
@@ -501,24 +867,73 @@ public class NativeBackgroundMessagingService extends Service {
             handler.removeCallbacksAndMessages(null);
         }
  
-        synchronized (activeSockets) {
-            for (WebSocket socket : activeSockets.values()) {
-                socket.close(1000, "Service destroyed");
-            }
-            activeSockets.clear();
+        // Let the pool close its sockets (advancing their cursors) before persisting them.
+        if (relayPool != null) {
+            relayPool.stop();
+            relayPool = null;
         }
-        sockets.clear();
-        seenEventIds.clear();
-        seenEventIdQueue.clear();
+        if (relayExecutor != null) {
+            relayExecutor.shutdown();
+            try {
+                relayExecutor.awaitTermination(RELAY_POOL_SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            relayExecutor = null;
+        }
+        GiftWrapFrameHandler frames = giftWrapFrames;
+        if (frames != null) {
+            // Discarded work pulls its relays' cursors back before they are saved.
+            frames.getPipeline().shutdown();
+            frames.setProcessedStores(null, null);
+            giftWrapFrames = null;
+        }
+        persistRelaySinceCursors();
+        if (amberDecryptBroker != null) {
+            amberDecryptBroker.shutdown();
+            amberDecryptBroker = null;
+        }
+        inFlightGiftWraps.clearInFlight();
+        SeenEventIdStore store = seenEventIdStore;
+        seenEventIdStore = null;
+        if (store != null) {
+            store.close();
+        }
+        RotatingBloomFilter filter = processedEventFilter;
+        processedEventFilter = null;
+        if (filter != null) {
+            filter.close();
+        }
+        notificationBatcher.clear();
         conversationActivityCounts.clear();
         conversationLastPreview.clear();
         conversationLastTimestampMs.clear();
-        avatarBitmaps.clear();
-        avatarBitmapKeys.clear();
-        avatarFetchInFlight.clear();
+        if (avatarPrefetchScheduler != null) {
+            avatarPrefetchScheduler.setSuspended(true);
+        }
+        if (avatarRepository != null) {
+            avatarRepository.evictMemory();
+            avatarRepository.flushState();
+        }
         conversationShortcutsPublished.clear();
         conversationShortcutAvatarKeys.clear();
-        retryAttempts.clear();
+        setLocalSecretKey(null);
+    }
+
+    /**
+     * Replaces the local secret key, wiping the previous one and every conversation key
+     * derived from it. Decrypt and sign work on their own copy (see {@link LocalNip44Decryptor}),
+     * so wiping never pulls the key out from under an operation in flight.
+     */
+    private void setLocalSecretKey(@Nullable byte[] secretKey) {
+        if (localDecryptor.setSecretKey(secretKey) && isDebugBuild()
+                && (localDecryptor.getCacheHitCount() > 0L || localDecryptor.getCacheMissCount() > 0L)) {
+            Log.d(
+                    LOG_TAG,
+                    "Conversation key cache cleared (hits=" + localDecryptor.getCacheHitCount()
+                            + " misses=" + localDecryptor.getCacheMissCount() + ")"
+            );
+        }
     }
  
     private void createNotificationChannel() {
@@ -570,240 +985,310 @@ public class NativeBackgroundMessagingService extends Service {
     }
  
  
-     private void startRelayConnections(String[] relays, String pubkeyHex) {
-        synchronized (activeSockets) {
-            for (WebSocket socket : activeSockets.values()) {
-                socket.close(1000, "Restarting connections");
-            }
-            activeSockets.clear();
-        }
-        sockets.clear();
-        retryAttempts.clear();
- 
-        if (relays == null) {
-            updateServiceNotificationForHealth();
+    private void startRelayConnections(String[] relays) {
+        if (relayPool == null) {
             return;
         }
- 
-        for (String relayUrl : relays) {
-            connectRelay(relayUrl, pubkeyHex);
-        }
+
+        relayPool.start(relays, currentPingSeconds, lockedProfileActive);
         updateServiceNotificationForHealth();
     }
  
-    private void connectRelay(final String relayUrl, final String pubkeyHex) {
-        if (!serviceRunning) {
-            return;
-        }
-        if (relayUrl == null || relayUrl.isEmpty()) {
-            return;
-        }
- 
-        Request request = new Request.Builder()
-                .url(relayUrl)
-                .build();
- 
-        WebSocket socket = client.newWebSocket(request, new WebSocketListener() {
-            @Override
-            public void onOpen(WebSocket webSocket, Response response) {
-                synchronized (activeSockets) {
-                    activeSockets.put(relayUrl, webSocket);
-                }
-                retryAttempts.put(relayUrl, 0);
-
-                // Initialize NIP-42 auth state for this relay
-                relayAuthStatus.put(relayUrl, "none");
-                relayChallenges.remove(relayUrl);
-                authRetryScheduled.remove(relayUrl);
- 
-                try {
-                    JSONArray filters = new JSONArray();
-                    JSONObject filter = new JSONObject();
-                    filter.put("kinds", new JSONArray().put(1059));
- 
-                    JSONArray pTag = new JSONArray();
-                    pTag.put(pubkeyHex);
-                    filter.put("#p", pTag);
-                    filters.put(filter);
- 
-                    JSONArray req = new JSONArray();
-                    req.put("REQ");
-                    req.put("nospeak-native-bg");
-                    req.put(filter);
- 
-                    webSocket.send(req.toString());
-                } catch (JSONException e) {
-                    // Ignore malformed JSON construction
-                }
+    /**
+     * Builds the gift wrap REQ for a relay, resuming from its persisted high-water mark. With
+     * {@code liveOnly} a negentropy sync covers the backlog, so the REQ only asks for new events.
+     */
+    private String buildSubscriptionRequest(String relayUrl, String pubkeyHex, boolean liveOnly) {
+        try {
+            JSONObject filter = buildGiftWrapFilter(relayUrl, pubkeyHex);
+            long since = filter.optLong("since", 0L);
+            if (liveOnly) {
+                filter.remove("since");
+                filter.put("limit", 0);
+            }
 
-                if (isDebugBuild()) {
-                    Log.d(LOG_TAG, "Relay connected: " + relayUrl);
-                }
+            JSONArray req = new JSONArray();
+            req.put("REQ");
+            req.put("nospeak-native-bg");
+            req.put(filter);
 
-                updateServiceNotificationForHealth();
-            }
- 
-            @Override
-            public void onMessage(WebSocket webSocket, String text) {
-                handleNostrMessage(relayUrl, webSocket, text);
-            }
- 
-            @Override
-            public void onMessage(WebSocket webSocket, ByteString bytes) {
-                handleNostrMessage(relayUrl, webSocket, bytes.utf8());
-            }
- 
-            @Override
-            public void onClosed(WebSocket webSocket, int code, String reason) {
-                onSocketClosedOrFailed(relayUrl, webSocket, "closed code=" + code + " reason=" + reason);
+            GiftWrapFrameHandler frames = giftWrapFrames;
+            if (frames != null) {
+                frames.onSubscribed(relayUrl);
             }
- 
-            @Override
-            public void onFailure(WebSocket webSocket, Throwable t, Response response) {
-                String detail = t != null ? ("failure " + t.getClass().getSimpleName() + ": " + t.getMessage()) : "failure";
-                onSocketClosedOrFailed(relayUrl, webSocket, detail);
+            if (isDebugBuild()) {
+                String range = liveOnly ? " (live only)" : (since > 0L ? " since=" + since : " (full history)");
+                Log.d(LOG_TAG, "Subscribing to " + relayUrl + range);
             }
-        });
- 
-        sockets.add(socket);
-    }
- 
-    private void onSocketClosedOrFailed(final String relayUrl, WebSocket socket) {
-        onSocketClosedOrFailed(relayUrl, socket, null);
+            return req.toString();
+        } catch (JSONException e) {
+            // Ignore malformed JSON construction
+            return null;
+        }
     }
 
-    private void onSocketClosedOrFailed(final String relayUrl, WebSocket socket, @Nullable String detail) {
-        synchronized (activeSockets) {
-            WebSocket current = activeSockets.get(relayUrl);
-            if (current == socket) {
-                activeSockets.remove(relayUrl);
-            }
+    /**
+     * Plans a NIP-77 catch-up over the same window the REQ would replay, against the gift wrap
+     * IDs already processed from that window.
+     */
+    private RelayPool.SyncPlan buildSyncPlan(String relayUrl, String pubkeyHex) {
+        SeenEventIdStore store = seenEventIdStore;
+        if (store == null) {
+            return null;
+        }
+        try {
+            JSONObject filter = buildGiftWrapFilter(relayUrl, pubkeyHex);
+            Negentropy.Storage known = new Negentropy.Storage();
+            store.exportSince(filter.optLong("since", 0L), known);
+            return new RelayPool.SyncPlan(filter, known);
+        } catch (JSONException e) {
+            return null;
         }
+    }
 
-        // Clear NIP-42 auth state for this relay
-        relayChallenges.remove(relayUrl);
-        relayAuthStatus.remove(relayUrl);
-        authRetryScheduled.remove(relayUrl);
-        // Clean up any pending auth event IDs for this relay
-        pendingAuthEventIds.values().removeIf(url -> url.equals(relayUrl));
+    private JSONObject buildGiftWrapFilter(String relayUrl, String pubkeyHex) throws JSONException {
+        JSONObject filter = new JSONObject();
+        filter.put("kinds", new JSONArray().put(GiftWrap.KIND_GIFT_WRAP));
 
-        if (isDebugBuild()) {
-            String suffix = detail != null && !detail.trim().isEmpty() ? (" (" + detail + ")") : "";
-            Log.d(LOG_TAG, "Relay disconnected: " + relayUrl + suffix);
+        JSONArray pTag = new JSONArray();
+        pTag.put(pubkeyHex);
+        filter.put("#p", pTag);
+
+        long since = relaySinceCursors.sinceFor(relayUrl);
+        if (since > 0L) {
+            filter.put("since", since);
         }
- 
-        if (!serviceRunning || handler == null) {
-            updateServiceNotificationForHealth();
+        return filter;
+    }
+
+    private void persistRelaySinceCursors() {
+        String pubkeyHex = currentPubkeyHex;
+        if (pubkeyHex == null || pubkeyHex.isEmpty()) {
             return;
         }
- 
-        int attempt = retryAttempts.containsKey(relayUrl) ? retryAttempts.get(relayUrl) : 0;
-        int delaySeconds = (int) Math.pow(2, attempt);
-        if (delaySeconds > 300) {
-            delaySeconds = 300;
+        AndroidBackgroundMessagingPrefs.saveRelaySinceCursors(getApplicationContext(), pubkeyHex, relaySinceCursors.toJson());
+    }
+
+    private void registerNetworkCallback() {
+        ConnectivityManager connectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            return;
         }
-        retryAttempts.put(relayUrl, attempt + 1);
- 
-        updateServiceNotificationForHealth();
- 
-        handler.postDelayed(new Runnable() {
+
+        networkCallback = new ConnectivityManager.NetworkCallback() {
             @Override
-            public void run() {
-                if (!serviceRunning || currentPubkeyHex == null) {
-                    return;
+            public void onCapabilitiesChanged(final Network network, NetworkCapabilities capabilities) {
+                final boolean validated = capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
+                AvatarPrefetchScheduler scheduler = avatarPrefetchScheduler;
+                if (scheduler != null) {
+                    scheduler.setUnmetered(capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED));
                 }
-                connectRelay(relayUrl, currentPubkeyHex);
+                postToMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onDefaultNetworkChanged(network, validated);
+                    }
+                });
             }
-        }, delaySeconds * 1000L);
-    }
 
+            @Override
+            public void onLost(final Network network) {
+                AvatarPrefetchScheduler scheduler = avatarPrefetchScheduler;
+                if (scheduler != null) {
+                    scheduler.setUnmetered(false);
+                }
+                postToMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onDefaultNetworkLost(network);
+                    }
+                });
+            }
+        };
 
-    private void handleNostrMessage(String relayUrl, WebSocket socket, String text) {
         try {
-            JSONArray arr = new JSONArray(text);
-            if (arr.length() < 2) return;
-
-            String type = arr.optString(0, "");
+            connectivityManager.registerDefaultNetworkCallback(networkCallback);
+        } catch (RuntimeException e) {
+            networkCallback = null;
+        }
+    }
 
-            if ("EOSE".equals(type)) {
-                return;
-            }
-
-            // Handle NIP-42 AUTH challenge from relay
-            if ("AUTH".equals(type)) {
-                String challenge = arr.optString(1, null);
-                if (challenge != null && !challenge.isEmpty()) {
-                    relayChallenges.put(relayUrl, challenge);
-                }
-                return;
-            }
+    private void unregisterNetworkCallback() {
+        if (networkCallback == null) {
+            return;
+        }
 
-            // Handle CLOSED message - check for auth-required
-            if ("CLOSED".equals(type) && arr.length() >= 3) {
-                String reason = arr.optString(2, "");
-                if (reason != null && reason.startsWith("auth-required:")) {
-                    relayAuthStatus.put(relayUrl, "required");
-                    attemptAuthentication(relayUrl, socket);
-                }
-                return;
+        ConnectivityManager connectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager != null) {
+            try {
+                connectivityManager.unregisterNetworkCallback(networkCallback);
+            } catch (RuntimeException ignored) {
+                // ignore
             }
+        }
+        networkCallback = null;
+    }
 
-            // Handle OK message - check for auth event confirmation
-            if ("OK".equals(type) && arr.length() >= 3) {
-                String eventId = arr.optString(1, null);
-                boolean success = arr.optBoolean(2, false);
-                if (eventId != null && pendingAuthEventIds.containsKey(eventId)) {
-                    String authRelayUrl = pendingAuthEventIds.remove(eventId);
-                    if (authRelayUrl != null && authRelayUrl.equals(relayUrl)) {
-                        handleAuthResponse(relayUrl, socket, success);
-                    }
-                }
-                return;
-            }
- 
-            if (!"EVENT".equals(type) || arr.length() < 3) return;
+    private void postToMainThread(Runnable runnable) {
+        Handler h = handler;
+        if (h != null) {
+            h.post(runnable);
+        }
+    }
 
-            JSONObject event = arr.optJSONObject(2);
-            if (event == null) return;
+    private void onDefaultNetworkChanged(Network network, boolean validated) {
+        if (!serviceRunning || !validated || network.equals(validatedNetwork)) {
+            return;
+        }
 
-            int kind = event.optInt("kind", -1);
-            if (kind != 1059) return;
+        validatedNetwork = network;
+        if (relayPool != null) {
+            relayPool.onNetworkAvailable();
+        }
 
-            String id = event.optString("id", null);
-            if (id == null) return;
+        if (isDebugBuild()) {
+            Log.d(LOG_TAG, "Validated network " + network + "; reconnecting parked relays; "
+                    + reconnectScheduler.snapshot());
+        }
+    }
 
-            synchronized (seenEventIds) {
-                if (seenEventIds.contains(id)) {
-                    return;
-                }
-            }
- 
-            handleLiveGiftWrapEvent(event, id);
+    private void onDefaultNetworkLost(Network network) {
+        if (!serviceRunning) {
+            return;
+        }
+        if (validatedNetwork != null && !network.equals(validatedNetwork)) {
+            return;
+        }
 
+        validatedNetwork = null;
+        if (relayPool != null) {
+            relayPool.onNetworkLost();
+        }
 
-        } catch (JSONException e) {
-            // Ignore malformed messages
+        if (isDebugBuild()) {
+            Log.d(LOG_TAG, "Default network lost; parking relay reconnects");
         }
     }
 
-    private void handleLiveGiftWrapEvent(JSONObject giftWrapEvent, String eventId) {
-        if (!shouldEmitMessageNotification()) {
-            return;
+    /**
+     * Reconnect attempt counts and time-to-reconnect for dropped relays.
+     */
+    public RelayReconnectScheduler.Stats getReconnectStats() {
+        return reconnectScheduler.snapshot();
+    }
+
+    /**
+     * Per-relay traffic, duplicate, decrypt, auth and connection-time counters since the service
+     * started, plus the pool's total traffic.
+     */
+    public JSONObject getMetricsSnapshot() {
+        JSONObject snapshot = relayMetrics.snapshot(System.currentTimeMillis());
+        RelayPool pool = relayPool;
+        try {
+            snapshot.put("bytesReceived", pool != null ? pool.getBytesReceived() : 0L);
+            snapshot.put("bytesSent", pool != null ? pool.getBytesSent() : 0L);
+            snapshot.put("connectedRelays", pool != null ? pool.getConnectedCount() : 0);
+
+            AmberDecryptBroker broker = amberDecryptBroker;
+            if (broker != null) {
+                AmberDecryptBroker.Snapshot amber = broker.snapshot();
+                JSONObject amberJson = new JSONObject();
+                amberJson.put("requests", amber.requests);
+                amberJson.put("cacheHits", amber.cacheHits);
+                amberJson.put("coalesced", amber.coalesced);
+                amberJson.put("failed", amber.failed);
+                amberJson.put("timedOut", amber.timedOut);
+                amberJson.put("rejected", amber.rejected);
+                amberJson.put("ipcCalls", amber.ipc.count);
+                amberJson.put("ipcAvgMicros", amber.ipc.avgMicros);
+                amberJson.put("ipcMaxMicros", amber.ipc.maxMicros);
+                snapshot.put("amberDecrypt", amberJson);
+            }
+
+            AvatarPrefetchScheduler scheduler = avatarPrefetchScheduler;
+            if (scheduler != null) {
+                JSONObject prefetchJson = new JSONObject();
+                prefetchJson.put("pending", scheduler.getPendingCount());
+                prefetchJson.put("running", scheduler.getRunningCount());
+                prefetchJson.put("started", scheduler.getStartedCount());
+                prefetchJson.put("cancelled", scheduler.getCancelledCount());
+                snapshot.put("avatarPrefetch", prefetchJson);
+            }
+        } catch (JSONException ignored) {
+            // ignore
         }
+        return snapshot;
+    }
 
-        if (currentPubkeyHex == null || currentPubkeyHex.isEmpty()) {
+
+    private void handleRelayEose(String relayUrl) {
+        GiftWrapFrameHandler frames = giftWrapFrames;
+        if (frames == null) {
             return;
         }
-
-        DecryptedRumor rumor = tryDecryptGiftWrapToRumor(giftWrapEvent, currentPubkeyHex);
-        if (rumor == null) {
-            if (isDebugBuild()) {
-                Log.d(LOG_TAG, "Skip gift wrap " + eventId + ": decrypt_failed");
+        if (frames.onEose(relayUrl)) {
+            persistRelaySinceCursors();
+        }
+        if (isDebugBuild()) {
+            Log.d(LOG_TAG, "EOSE from " + relayUrl + "; decrypt pipeline " + frames.getPipeline().snapshot()
+                    + "; decrypts saved by coalescing " + inFlightGiftWraps.getSavedCount(relayUrl));
+            AmberDecryptBroker broker = amberDecryptBroker;
+            if (broker != null && "amber".equalsIgnoreCase(currentMode)) {
+                Log.d(LOG_TAG, "Amber decrypts: " + broker.snapshot());
             }
-            // Testing-stage behavior: suppress generic "new encrypted message" notifications.
-            return;
         }
- 
+    }
+
+    private GiftWrapFrameHandler.Listener createGiftWrapListener() {
+        return new GiftWrapFrameHandler.Listener() {
+            @Override
+            public boolean isAcceptingGiftWraps() {
+                return shouldEmitMessageNotification() && currentPubkeyHex != null && !currentPubkeyHex.isEmpty();
+            }
+
+            @Override
+            public String decrypt(String ciphertext, String senderPubkeyHex) {
+                return decryptNip44(ciphertext, senderPubkeyHex, currentPubkeyHex);
+            }
+
+            @Override
+            public boolean isDecryptFailurePermanent() {
+                return "nsec".equalsIgnoreCase(currentMode) && localDecryptor.hasSecretKey();
+            }
+
+            @Override
+            public void onDecryptFailed(String relayUrl, String eventId) {
+                // Testing-stage behavior: suppress generic "new encrypted message" notifications.
+                if (isDebugBuild()) {
+                    Log.d(LOG_TAG, "Skip gift wrap " + eventId + ": decrypt_failed");
+                }
+            }
+
+            @Override
+            public void onGiftWrapOpened(String relayUrl, String eventId, GiftWrap.Rumor rumor) {
+                handleGiftWrapRumor(eventId, rumor);
+            }
+
+            @Override
+            public void onGiftWrapDropped(String eventId, boolean cursorsChanged) {
+                PeriodicSyncCycle cycle = syncCycle;
+                if (cycle != null) {
+                    cycle.onEventDropped();
+                }
+                if (cursorsChanged) {
+                    persistRelaySinceCursors();
+                }
+                if (isDebugBuild()) {
+                    Log.d(LOG_TAG, "Dropped gift wrap " + eventId + " under load; it will be requested again on the relay's next subscription");
+                }
+            }
+        };
+    }
+
+    /**
+     * Notifies for a freshly decrypted gift wrap (decrypt worker thread).
+     */
+    private void handleGiftWrapRumor(String eventId, GiftWrap.Rumor rumor) {
         long nowSeconds = System.currentTimeMillis() / 1000L;
         long rumorCreatedAtSeconds = rumor.createdAtSeconds > 0L ? rumor.createdAtSeconds : nowSeconds;
         if (rumorCreatedAtSeconds < notificationCutoffSeconds) {
@@ -853,10 +1338,6 @@ public class NativeBackgroundMessagingService extends Service {
             return;
         }
 
-        if (!markEventIdSeen(eventId)) {
-            return;
-        }
- 
         showConversationActivityNotification(senderPubkeyHex, conversationId, preview);
 
         if (rumorCreatedAtSeconds > notificationCutoffSeconds) {
@@ -865,10 +1346,9 @@ public class NativeBackgroundMessagingService extends Service {
         }
     }
 
-    private static final int AVATAR_TARGET_PX = 192;
-
     /**
-     * Shows a notification for conversation activity.
+     * Records conversation activity and queues the conversation's notification for the next
+     * batched render.
      * @param senderPubkeyHex The sender's pubkey (for profile lookup - name/avatar)
      * @param conversationId The conversation ID for navigation (pubkey hex for 1-on-1, 16-char hash for groups)
      * @param latestPreview The message preview text
@@ -878,6 +1358,39 @@ public class NativeBackgroundMessagingService extends Service {
             return;
         }
 
+        buildCombinedActivityBody(conversationId, latestPreview);
+        if (notificationBatcher.offer(conversationId, senderPubkeyHex)) {
+            Handler mainHandler = handler;
+            if (mainHandler != null) {
+                mainHandler.postDelayed(notificationFlushRunnable, NOTIFICATION_BATCH_WINDOW_MS);
+            }
+        }
+    }
+
+    /**
+     * Renders every conversation updated in the last batch window once (main thread).
+     */
+    private void flushConversationNotifications() {
+        java.util.List<ConversationNotificationBatcher.Update> updates = notificationBatcher.drain();
+        if (!shouldEmitMessageNotification()) {
+            return;
+        }
+
+        for (ConversationNotificationBatcher.Update update : updates) {
+            // The user may have opened the conversation during the window.
+            if (shouldSuppressNotificationForConversation(update.conversationId)) {
+                continue;
+            }
+            renderConversationNotification(update.senderPubkeyHex, update.conversationId);
+        }
+
+        if (isDebugBuild() && updates.size() > 1) {
+            Log.d(LOG_TAG, "Rendered " + updates.size() + " conversation notifications in one batch (messages="
+                    + notificationBatcher.getOfferedCount() + " renders=" + notificationBatcher.getRenderedCount() + ")");
+        }
+    }
+
+    private void renderConversationNotification(String senderPubkeyHex, String conversationId) {
         NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
         if (manager == null) {
             return;
@@ -887,7 +1400,7 @@ public class NativeBackgroundMessagingService extends Service {
         int notificationId = Math.abs(conversationId.hashCode());
         int requestCode = notificationId + 2000;
 
-        String body = buildCombinedActivityBody(conversationId, latestPreview);
+        String body = buildCurrentActivityBody(conversationId);
         // Use conversationId for navigation intent (opens correct chat - group or 1-on-1)
         PendingIntent pendingIntent = buildChatPendingIntent(conversationId, requestCode);
 
@@ -898,7 +1411,7 @@ public class NativeBackgroundMessagingService extends Service {
                 : "New activity";
         String pictureUrl = identity != null ? identity.pictureUrl : null;
 
-        Bitmap avatar = resolveCachedAvatarBitmap(senderPubkeyHex, pictureUrl);
+        Bitmap avatar = resolveCachedAvatarBitmap(pictureUrl);
 
         // Generate identicon fallback when no profile picture is available
         if (avatar == null) {
@@ -926,7 +1439,7 @@ public class NativeBackgroundMessagingService extends Service {
         messagingStyle.addMessage(new NotificationCompat.MessagingStyle.Message(body, timestampMs, senderPerson));
 
         String shortcutConversationId = buildShortcutConversationId(conversationId);
-        String avatarKey = pictureUrl != null ? computeAvatarKey(pictureUrl.trim()) : null;
+        String avatarKey = pictureUrl != null ? AvatarRepository.keyFor(pictureUrl) : null;
         boolean shortcutAvailable = false;
         if (!lockedProfileActive) {
             shortcutAvailable = ensureConversationShortcut(conversationId, title, senderPerson, avatar, avatarKey);
@@ -1198,7 +1711,7 @@ public class NativeBackgroundMessagingService extends Service {
                 : "New activity";
         String pictureUrl = identity != null ? identity.pictureUrl : null;
 
-        Bitmap avatar = resolveCachedAvatarBitmap(partnerPubkeyHex, pictureUrl);
+        Bitmap avatar = resolveCachedAvatarBitmap(pictureUrl);
 
         // Generate identicon fallback when no profile picture is available
         if (avatar == null) {
@@ -1227,7 +1740,7 @@ public class NativeBackgroundMessagingService extends Service {
         // For 1-on-1 chats, the conversationId is the partner's pubkey hex
         String conversationId = partnerPubkeyHex;
         String shortcutConversationId = buildShortcutConversationId(conversationId);
-        String avatarKey = pictureUrl != null ? computeAvatarKey(pictureUrl.trim()) : null;
+        String avatarKey = pictureUrl != null ? AvatarRepository.keyFor(pictureUrl) : null;
         boolean shortcutAvailable = false;
         if (!lockedProfileActive) {
             shortcutAvailable = ensureConversationShortcut(conversationId, title, senderPerson, avatar, avatarKey);
@@ -1254,40 +1767,15 @@ public class NativeBackgroundMessagingService extends Service {
         manager.notify(notificationId, builder.build());
     }
 
-    private Bitmap resolveCachedAvatarBitmap(String partnerPubkeyHex, String pictureUrl) {
-        if (pictureUrl == null || pictureUrl.isEmpty()) {
-            return null;
-        }
-
-        String key = computeAvatarKey(pictureUrl);
-        if (key == null) {
-            return null;
-        }
-
-        synchronized (avatarBitmaps) {
-            Bitmap cached = avatarBitmaps.get(partnerPubkeyHex);
-            String cachedKey = avatarBitmapKeys.get(partnerPubkeyHex);
-            if (cached != null && key.equals(cachedKey)) {
-                return cached;
-            }
-        }
-
-        File file = new File(getAvatarCacheDir(), key + ".png");
-        if (!file.exists()) {
-            return null;
-        }
-
-        Bitmap decoded = BitmapFactory.decodeFile(file.getAbsolutePath());
-        if (decoded == null) {
+    /**
+     * Returns the avatar for a picture URL from memory or disk; contacts sharing a picture
+     * share the entry.
+     */
+    private Bitmap resolveCachedAvatarBitmap(String pictureUrl) {
+        if (avatarRepository == null) {
             return null;
         }
-
-        synchronized (avatarBitmaps) {
-            avatarBitmaps.put(partnerPubkeyHex, decoded);
-            avatarBitmapKeys.put(partnerPubkeyHex, key);
-        }
-
-        return decoded;
+        return avatarRepository.getCached(pictureUrl, AvatarRepository.SIZE_NOTIFICATION_PX);
     }
 
     private void fetchConversationAvatar(final String partnerPubkeyHex, final String pictureUrl) {
@@ -1295,18 +1783,17 @@ public class NativeBackgroundMessagingService extends Service {
             return;
         }
 
-        if (!serviceRunning) {
-            return;
-        }
-
-        final String key = computeAvatarKey(pictureUrl);
-        if (key == null) {
+        if (!serviceRunning || avatarRepository == null) {
             return;
         }
 
-        File targetFile = new File(getAvatarCacheDir(), key + ".png");
-        if (targetFile.exists()) {
-            if (handler != null) {
+        // Cached pictures answer right away; otherwise this joins any fetch of the same URL.
+        avatarRepository.fetch(pictureUrl, new AvatarRepository.Listener() {
+            @Override
+            public void onAvatarFetched(String url, boolean success) {
+                if (!success || handler == null) {
+                    return;
+                }
                 handler.post(new Runnable() {
                     @Override
                     public void run() {
@@ -1314,259 +1801,39 @@ public class NativeBackgroundMessagingService extends Service {
                     }
                 });
             }
-            return;
-        }
-
-        synchronized (avatarFetchInFlight) {
-            if (avatarFetchInFlight.contains(partnerPubkeyHex)) {
-                return;
-            }
-            avatarFetchInFlight.add(partnerPubkeyHex);
-        }
-
-        Request request = new Request.Builder().url(pictureUrl).build();
-        client.newCall(request).enqueue(new Callback() {
-            @Override
-            public void onFailure(Call call, IOException e) {
-                synchronized (avatarFetchInFlight) {
-                    avatarFetchInFlight.remove(partnerPubkeyHex);
-                }
-            }
-
-            @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                try {
-                    if (!response.isSuccessful()) {
-                        return;
-                    }
-
-                    ResponseBody body = response.body();
-                    if (body == null) {
-                        return;
-                    }
-
-                    byte[] bytes = body.bytes();
-                    Bitmap decoded = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
-                    if (decoded == null) {
-                        return;
-                    }
-
-                    Bitmap normalized = normalizeAvatarBitmap(decoded, AVATAR_TARGET_PX);
-                    if (normalized == null) {
-                        return;
-                    }
-
-                    if (!writeAvatarBitmap(targetFile, normalized)) {
-                        return;
-                    }
-
-                    synchronized (avatarBitmaps) {
-                        avatarBitmaps.put(partnerPubkeyHex, normalized);
-                        avatarBitmapKeys.put(partnerPubkeyHex, key);
-                    }
-
-                    if (handler != null) {
-                        handler.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                refreshConversationActivityNotification(partnerPubkeyHex);
-                            }
-                        });
-                    }
-                } finally {
-                    synchronized (avatarFetchInFlight) {
-                        avatarFetchInFlight.remove(partnerPubkeyHex);
-                    }
-                    response.close();
-                }
-            }
         });
     }
 
     /**
-     * Pre-fetches an avatar for a pubkey, caching it to disk for future notifications.
-     * Unlike notification-time fetches, this ignores lockedProfileActive to ensure
-     * avatars are ready when notifications arrive.
+     * Queues a pre-fetch of a pubkey's avatar, caching it to disk for future notifications.
+     * Contacts with recent conversation activity go first; others wait for an unmetered
+     * network. The queue is dropped when the locked profile becomes active.
      * 
      * Called from the plugin when a profile is cached via cacheProfile().
      */
-    public void prefetchAvatar(final String pubkeyHex, final String pictureUrl) {
+    public void prefetchAvatar(String pubkeyHex, String pictureUrl, long profileUpdatedAtMs) {
         if (pictureUrl == null || pictureUrl.trim().isEmpty()) {
             return;
         }
 
-        if (!serviceRunning) {
-            return;
-        }
-
-        final String trimmedUrl = pictureUrl.trim();
-        final String key = computeAvatarKey(trimmedUrl);
-        if (key == null) {
-            return;
-        }
-
-        // Check if already cached on disk
-        final File targetFile = new File(getAvatarCacheDir(), key + ".png");
-        if (targetFile.exists()) {
-            // Already have it cached - load into memory if not present
-            synchronized (avatarBitmaps) {
-                if (!avatarBitmaps.containsKey(pubkeyHex)) {
-                    Bitmap decoded = BitmapFactory.decodeFile(targetFile.getAbsolutePath());
-                    if (decoded != null) {
-                        avatarBitmaps.put(pubkeyHex, decoded);
-                        avatarBitmapKeys.put(pubkeyHex, key);
-                    }
-                }
-            }
+        if (!serviceRunning || avatarPrefetchScheduler == null) {
             return;
         }
 
-        // Check if fetch already in flight
-        synchronized (avatarFetchInFlight) {
-            if (avatarFetchInFlight.contains(pubkeyHex)) {
-                return;
-            }
-            avatarFetchInFlight.add(pubkeyHex);
-        }
-
-        if (isDebugBuild()) {
-            Log.d(LOG_TAG, "Prefetching avatar for " + pubkeyHex);
-        }
-
-        // Fetch the avatar
-        Request request = new Request.Builder().url(trimmedUrl).build();
-        client.newCall(request).enqueue(new Callback() {
-            @Override
-            public void onFailure(Call call, IOException e) {
-                synchronized (avatarFetchInFlight) {
-                    avatarFetchInFlight.remove(pubkeyHex);
-                }
-                if (isDebugBuild()) {
-                    Log.d(LOG_TAG, "Avatar prefetch failed for " + pubkeyHex + ": " + e.getMessage());
-                }
-            }
-
-            @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                try {
-                    if (!response.isSuccessful()) {
-                        if (isDebugBuild()) {
-                            Log.d(LOG_TAG, "Avatar prefetch HTTP error for " + pubkeyHex + ": " + response.code());
-                        }
-                        return;
-                    }
-
-                    ResponseBody body = response.body();
-                    if (body == null) {
-                        return;
-                    }
-
-                    byte[] bytes = body.bytes();
-                    Bitmap decoded = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
-                    if (decoded == null) {
-                        if (isDebugBuild()) {
-                            Log.d(LOG_TAG, "Avatar prefetch decode failed for " + pubkeyHex);
-                        }
-                        return;
-                    }
-
-                    Bitmap normalized = normalizeAvatarBitmap(decoded, AVATAR_TARGET_PX);
-                    if (normalized == null) {
-                        return;
-                    }
-
-                    if (!writeAvatarBitmap(targetFile, normalized)) {
-                        return;
-                    }
-
-                    synchronized (avatarBitmaps) {
-                        avatarBitmaps.put(pubkeyHex, normalized);
-                        avatarBitmapKeys.put(pubkeyHex, key);
-                    }
-
-                    if (isDebugBuild()) {
-                        Log.d(LOG_TAG, "Avatar prefetched successfully for " + pubkeyHex);
-                    }
-                } finally {
-                    synchronized (avatarFetchInFlight) {
-                        avatarFetchInFlight.remove(pubkeyHex);
-                    }
-                    response.close();
-                }
-            }
-        });
-    }
-
-    private File getAvatarCacheDir() {
-        File dir = new File(getCacheDir(), "nospeak_avatar_cache");
-        if (!dir.exists()) {
-            //noinspection ResultOfMethodCallIgnored
-            dir.mkdirs();
-        }
-        return dir;
-    }
-
-    private String computeAvatarKey(String url) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(url.getBytes(StandardCharsets.UTF_8));
-            StringBuilder sb = new StringBuilder(hash.length * 2);
-            for (byte b : hash) {
-                sb.append(String.format("%02x", b));
-            }
-            return sb.toString();
-        } catch (NoSuchAlgorithmException e) {
-            return null;
-        }
-    }
-
-    private Bitmap normalizeAvatarBitmap(Bitmap bitmap, int targetPx) {
-        if (bitmap == null) {
-            return null;
-        }
-
-        int width = bitmap.getWidth();
-        int height = bitmap.getHeight();
-        if (width <= 0 || height <= 0) {
-            return null;
-        }
-
-        int size = Math.min(width, height);
-        int left = Math.max(0, (width - size) / 2);
-        int top = Math.max(0, (height - size) / 2);
-
-        Bitmap square = Bitmap.createBitmap(bitmap, left, top, size, size);
-        Bitmap scaled = Bitmap.createScaledBitmap(square, targetPx, targetPx, true);
-
-        return makeCircularBitmap(scaled);
-    }
-
-    private Bitmap makeCircularBitmap(Bitmap bitmap) {
-        if (bitmap == null) {
-            return null;
-        }
-
-        int size = Math.min(bitmap.getWidth(), bitmap.getHeight());
-        if (size <= 0) {
-            return null;
+        long lastConversationMs;
+        synchronized (conversationActivityCounts) {
+            Long timestamp = conversationLastTimestampMs.get(pubkeyHex);
+            lastConversationMs = timestamp != null ? timestamp : 0L;
         }
 
-        Bitmap output = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(output);
-
-        Paint paint = new Paint();
-        paint.setAntiAlias(true);
-        paint.setShader(new BitmapShader(bitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP));
-
-        float radius = size / 2f;
-        canvas.drawCircle(radius, radius, radius, paint);
-
-        return output;
+        // A fresh cached picture (possibly another contact's) costs nothing, a stale one is
+        // revalidated, and a URL that failed recently is skipped until its backoff expires.
+        avatarPrefetchScheduler.submit(pubkeyHex, pictureUrl, lastConversationMs, profileUpdatedAtMs, System.currentTimeMillis());
     }
 
     /**
-     * Generates an identicon bitmap for a pubkey hex, using the same seed derivation
-     * as the JS side (npub.slice(-10)).
+     * Returns the identicon for a pubkey hex (rendered once per seed, then cached), using
+     * the same seed derivation as the JS side (npub.slice(-10)).
      */
     private Bitmap generateIdenticonForPubkey(String pubkeyHex) {
         try {
@@ -1575,57 +1842,29 @@ public class NativeBackgroundMessagingService extends Service {
                 return null;
             }
             String seed = npub.substring(npub.length() - 10);
-            Bitmap identicon = IdenticonGenerator.generate(seed, AVATAR_TARGET_PX);
-            if (identicon == null) {
-                return null;
+            AvatarRepository repository = avatarRepository;
+            if (repository == null) {
+                return IdenticonGenerator.generate(seed, AvatarRepository.SIZE_NOTIFICATION_PX, true);
             }
-            return makeCircularBitmap(identicon);
+            return repository.getIdenticon(seed, AvatarRepository.SIZE_NOTIFICATION_PX);
         } catch (Exception e) {
             Log.w(LOG_TAG, "Failed to generate identicon for pubkey", e);
             return null;
         }
     }
 
-    private boolean writeAvatarBitmap(File file, Bitmap bitmap) {
-        if (file == null || bitmap == null) {
-            return false;
-        }
-
-        File parent = file.getParentFile();
-        if (parent != null && !parent.exists()) {
-            //noinspection ResultOfMethodCallIgnored
-            parent.mkdirs();
-        }
-
-        FileOutputStream out = null;
-        try {
-            out = new FileOutputStream(file);
-            return bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
-        } catch (IOException e) {
-            return false;
-        } finally {
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (IOException ignored) {
-                    // ignore
-                }
-            }
-        }
-    }
-
-    private String resolveRumorPreview(DecryptedRumor rumor) { 
-        if (rumor.kind == 14) {
-            // Check for location message (has 'location' tag or content starts with 'geo:')
-            String locationTag = getTagValue(rumor.tags, "location");
-            String content = rumor.content != null ? rumor.content.trim() : "";
-            if (locationTag != null || content.startsWith("geo:")) {
-                return "\uD83D\uDCCD Location";
-            }
-            if (content.isEmpty()) {
-                return "New message";
-            }
-            return truncatePreview(content);
+    private String resolveRumorPreview(GiftWrap.Rumor rumor) { 
+        if (rumor.kind == 14) {
+            // Check for location message (has 'location' tag or content starts with 'geo:')
+            String locationTag = getTagValue(rumor.tags, "location");
+            String content = rumor.content != null ? rumor.content.trim() : "";
+            if (locationTag != null || content.startsWith("geo:")) {
+                return "\uD83D\uDCCD Location";
+            }
+            if (content.isEmpty()) {
+                return "New message";
+            }
+            return truncatePreview(content);
         }
 
         if (rumor.kind == 15) {
@@ -1737,122 +1976,60 @@ public class NativeBackgroundMessagingService extends Service {
     }
 
     private void loadPersistedSeenEventIds() {
+        File file = new File(getNoBackupFilesDir(), SEEN_EVENT_IDS_FILE_NAME);
+        SeenEventIdStore store = SeenEventIdStore.open(file, SEEN_EVENT_ID_CAPACITY);
+        migrateLegacySeenEventIds(store);
+        seenEventIdStore = store;
+
+        RotatingBloomFilter filter = RotatingBloomFilter.open(
+                new File(getNoBackupFilesDir(), PROCESSED_EVENT_FILTER_FILE_NAME),
+                PROCESSED_EVENT_FILTER_GENERATION_CAPACITY,
+                PROCESSED_EVENT_FILTER_FALSE_POSITIVE_RATE
+        );
+        processedEventFilter = filter;
+        GiftWrapFrameHandler frames = giftWrapFrames;
+        if (frames != null) {
+            frames.setProcessedStores(store, filter);
+        }
+
+        if (isDebugBuild()) {
+            Log.d(LOG_TAG, "Loaded " + store.size() + " seen event ids (persistent=" + store.isPersistent()
+                    + ", bloom persistent=" + filter.isPersistent() + ")");
+        }
+    }
+
+    /**
+     * One-time import of the JSON id list previously kept in SharedPreferences.
+     */
+    private void migrateLegacySeenEventIds(SeenEventIdStore store) {
         SharedPreferences prefs = getSharedPreferences(DEDUPE_PREFS_NAME, MODE_PRIVATE);
         String raw = prefs.getString(DEDUPE_PREFS_KEY_IDS, null);
-        if (raw == null || raw.isEmpty()) {
+        if (raw == null) {
             return;
         }
 
         try {
             JSONArray ids = new JSONArray(raw);
-            synchronized (seenEventIds) {
-                seenEventIds.clear();
-                seenEventIdQueue.clear();
-
-                for (int i = 0; i < ids.length(); i++) {
-                    String id = ids.optString(i, null);
-                    if (id == null || id.isEmpty()) {
-                        continue;
-                    }
-                    if (seenEventIds.add(id)) {
-                        seenEventIdQueue.addLast(id);
-                    }
-                }
-
-                while (seenEventIdQueue.size() > MAX_PERSISTED_EVENT_IDS) {
-                    String removed = seenEventIdQueue.removeFirst();
-                    seenEventIds.remove(removed);
+            for (int i = 0; i < ids.length(); i++) {
+                String id = ids.optString(i, null);
+                if (id != null && !id.isEmpty()) {
+                    store.add(id);
                 }
             }
+            store.flush();
         } catch (JSONException ignored) {
             // ignore
         }
-    }
 
-    private boolean markEventIdSeen(String id) {
-        boolean added;
-        synchronized (seenEventIds) {
-            if (seenEventIds.contains(id)) {
-                return false;
-            }
-
-            added = seenEventIds.add(id);
-            if (added) {
-                seenEventIdQueue.addLast(id);
-                while (seenEventIdQueue.size() > MAX_PERSISTED_EVENT_IDS) {
-                    String removed = seenEventIdQueue.removeFirst();
-                    seenEventIds.remove(removed);
-                }
-            }
-        }
-
-        if (added) {
-            persistSeenEventIds();
-        }
-
-        return added;
-    }
-
-    private void persistSeenEventIds() {
-        JSONArray ids = new JSONArray();
-        synchronized (seenEventIds) {
-            for (String id : seenEventIdQueue) {
-                ids.put(id);
-            }
-        }
-
-        SharedPreferences prefs = getSharedPreferences(DEDUPE_PREFS_NAME, MODE_PRIVATE);
-        prefs.edit().putString(DEDUPE_PREFS_KEY_IDS, ids.toString()).apply();
+        prefs.edit().remove(DEDUPE_PREFS_KEY_IDS).apply();
     }
 
-
-
-    private DecryptedRumor tryDecryptGiftWrapToRumor(JSONObject giftWrapEvent, String currentUserPubkeyHex) {
-        if (giftWrapEvent == null) {
-            return null;
-        }
-
-        String outerSenderPubkeyHex = giftWrapEvent.optString("pubkey", null);
-        String giftWrapCiphertext = giftWrapEvent.optString("content", null);
-
-        if (outerSenderPubkeyHex == null || giftWrapCiphertext == null) {
-            return null;
-        }
-
-        String decryptedGiftWrap = decryptNip44(giftWrapCiphertext, outerSenderPubkeyHex, currentUserPubkeyHex);
-        if (decryptedGiftWrap == null) {
-            return null;
-        }
-
-        try {
-            JSONObject seal = new JSONObject(decryptedGiftWrap);
-            int sealKind = seal.optInt("kind", -1);
-            if (sealKind != 13) {
-                return null;
-            }
-
-            String sealPubkeyHex = seal.optString("pubkey", null);
-            String sealCiphertext = seal.optString("content", null);
-            if (sealPubkeyHex == null || sealCiphertext == null) {
-                return null;
-            }
-
-            String decryptedSeal = decryptNip44(sealCiphertext, sealPubkeyHex, currentUserPubkeyHex);
-            if (decryptedSeal == null) {
-                return null;
-            }
-
-            JSONObject rumor = new JSONObject(decryptedSeal);
-            DecryptedRumor result = new DecryptedRumor();
-            result.kind = rumor.optInt("kind", -1);
-            result.pubkeyHex = rumor.optString("pubkey", null);
-            result.content = rumor.optString("content", "");
-            result.tags = rumor.optJSONArray("tags");
-            result.createdAtSeconds = rumor.optLong("created_at", 0L);
-            return result;
-        } catch (JSONException e) {
-            return null;
-        }
+    /**
+     * Returns how many gift wrap decrypts each relay's duplicate deliveries were spared by
+     * attaching to an in-flight decrypt of the same event, keyed by relay URL.
+     */
+    public Map<String, Long> getSavedDecryptsByRelay() {
+        return inFlightGiftWraps.getSavedCountsByRelay();
     }
 
     private void disableBackgroundMessagingDueToMissingSecret() {
@@ -1880,199 +2057,17 @@ public class NativeBackgroundMessagingService extends Service {
         }
 
         if ("amber".equalsIgnoreCase(currentMode)) {
-            return amberNip44Decrypt(ciphertext, senderPubkeyHex, currentUserPubkeyHex);
+            AmberDecryptBroker broker = amberDecryptBroker;
+            return broker != null ? broker.decrypt(ciphertext, senderPubkeyHex, currentUserPubkeyHex) : null;
         }
 
         if ("nsec".equalsIgnoreCase(currentMode)) {
-            return localNip44Decrypt(ciphertext, senderPubkeyHex);
+            return localDecryptor.decrypt(ciphertext, senderPubkeyHex);
         }
 
         return null;
     }
 
-    private String localNip44Decrypt(String payload, String senderPubkeyHex) {
-        if (localSecretKey == null || localSecretKey.length != 32) {
-            return null;
-        }
-
-        if (payload == null || senderPubkeyHex == null) {
-            return null;
-        }
-
-        try {
-            byte[] conversationKey = getConversationKey(localSecretKey, senderPubkeyHex);
-            return nip44V2DecryptPayload(payload, conversationKey);
-        } catch (Exception e) {
-            return null;
-        }
-    }
-
-    private static byte[] getConversationKey(byte[] privateKey, String peerPubkeyHex) throws Exception {
-        if (privateKey == null || privateKey.length != 32) {
-            throw new IllegalArgumentException("invalid private key");
-        }
-
-        byte[] peerPubkeyX = hexToBytes(peerPubkeyHex);
-        if (peerPubkeyX.length != 32) {
-            throw new IllegalArgumentException("invalid peer pubkey");
-        }
-
-        byte[] sharedX = secp256k1Ecdh(privateKey, peerPubkeyX);
-        return hkdfExtract(sharedX, "nip44-v2".getBytes(StandardCharsets.UTF_8));
-    }
-
-    private static byte[] secp256k1Ecdh(byte[] privateKey, byte[] peerPubkeyX) throws Exception {
-        X9ECParameters params = SECNamedCurves.getByName("secp256k1");
-        if (params == null) {
-            throw new IllegalStateException("secp256k1 params not available");
-        }
-
-        byte[] compressed = new byte[33];
-        compressed[0] = 0x02; // even Y (BIP340-style lift)
-        System.arraycopy(peerPubkeyX, 0, compressed, 1, 32);
-
-        ECPoint peerPoint = params.getCurve().decodePoint(compressed);
-        BigInteger scalar = new BigInteger(1, privateKey);
-        if (scalar.signum() == 0) {
-            throw new IllegalArgumentException("invalid private key");
-        }
-
-        ECPoint sharedPoint = peerPoint.multiply(scalar).normalize();
-        byte[] x = sharedPoint.getAffineXCoord().getEncoded();
-
-        if (x.length == 32) {
-            return x;
-        }
-
-        if (x.length > 32) {
-            return Arrays.copyOfRange(x, x.length - 32, x.length);
-        }
-
-        byte[] out = new byte[32];
-        System.arraycopy(x, 0, out, 32 - x.length, x.length);
-        return out;
-    }
-
-    private static byte[] hkdfExtract(byte[] ikm, byte[] salt) throws Exception {
-        return hmacSha256(salt, ikm);
-    }
-
-    private static byte[] hkdfExpand(byte[] prk, byte[] info, int length) throws Exception {
-        if (length <= 0) {
-            throw new IllegalArgumentException("invalid length");
-        }
-
-        byte[] result = new byte[length];
-        int pos = 0;
-        byte[] previous = new byte[0];
-        int counter = 1;
-
-        while (pos < length) {
-            byte[] message = concat(previous, info, new byte[]{(byte) counter});
-            previous = hmacSha256(prk, message);
-
-            int toCopy = Math.min(previous.length, length - pos);
-            System.arraycopy(previous, 0, result, pos, toCopy);
-            pos += toCopy;
-            counter++;
-        }
-
-        return result;
-    }
-
-    private static byte[] hmacSha256(byte[] key, byte[] message) throws Exception {
-        Mac mac = Mac.getInstance("HmacSHA256");
-        mac.init(new SecretKeySpec(key, "HmacSHA256"));
-        return mac.doFinal(message);
-    }
-
-    private static String nip44V2DecryptPayload(String payload, byte[] conversationKey) throws Exception {
-        if (payload == null || payload.isEmpty()) {
-            return null;
-        }
-
-        byte[] data = Base64.decode(payload, Base64.DEFAULT);
-        if (data.length < 99) {
-            return null;
-        }
-
-        int version = data[0] & 0xFF;
-        if (version != 2) {
-            return null;
-        }
-
-        byte[] nonce = Arrays.copyOfRange(data, 1, 33);
-        byte[] mac = Arrays.copyOfRange(data, data.length - 32, data.length);
-        byte[] ciphertext = Arrays.copyOfRange(data, 33, data.length - 32);
-        if (ciphertext.length == 0) {
-            return null;
-        }
-
-        byte[] keys = hkdfExpand(conversationKey, nonce, 76);
-        byte[] chachaKey = Arrays.copyOfRange(keys, 0, 32);
-        byte[] chachaNonce = Arrays.copyOfRange(keys, 32, 44);
-        byte[] hmacKey = Arrays.copyOfRange(keys, 44, 76);
-
-        byte[] calculatedMac = hmacSha256(hmacKey, concat(nonce, ciphertext));
-        if (!MessageDigest.isEqual(calculatedMac, mac)) {
-            return null;
-        }
-
-        byte[] paddedPlaintext = chacha20Decrypt(chachaKey, chachaNonce, ciphertext);
-        return unpadNip44(paddedPlaintext);
-    }
-
-    private static byte[] chacha20Decrypt(byte[] key, byte[] nonce, byte[] ciphertext) {
-        ChaCha7539Engine engine = new ChaCha7539Engine();
-        engine.init(false, new ParametersWithIV(new KeyParameter(key), nonce));
-
-        byte[] out = new byte[ciphertext.length];
-        engine.processBytes(ciphertext, 0, ciphertext.length, out, 0);
-        return out;
-    }
-
-    private static String unpadNip44(byte[] padded) {
-        if (padded == null || padded.length < 2) {
-            return null;
-        }
-
-        int unpaddedLen = readUint16Be(padded, 0);
-        if (unpaddedLen <= 0) {
-            return null;
-        }
-
-        int expectedPaddedLen = calcPaddedLen(unpaddedLen);
-        if (padded.length != 2 + expectedPaddedLen) {
-            return null;
-        }
-
-        if (2 + unpaddedLen > padded.length) {
-            return null;
-        }
-
-        byte[] unpadded = Arrays.copyOfRange(padded, 2, 2 + unpaddedLen);
-        return new String(unpadded, StandardCharsets.UTF_8);
-    }
-
-    private static int calcPaddedLen(int unpaddedLen) {
-        if (unpaddedLen <= 32) {
-            return 32;
-        }
-
-        int value = unpaddedLen - 1;
-        int nextPower = 1;
-        while (nextPower <= value && nextPower > 0) {
-            nextPower <<= 1;
-        }
-
-        int chunk = nextPower <= 256 ? 32 : nextPower / 8;
-        return chunk * ((unpaddedLen - 1) / chunk + 1);
-    }
-
-    private static int readUint16Be(byte[] bytes, int offset) {
-        return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
-    }
-
     private static byte[] hexToBytes(String hex) {
         if (hex == null) {
             return new byte[0];
@@ -2092,60 +2087,8 @@ public class NativeBackgroundMessagingService extends Service {
         return out;
     }
 
-    private static byte[] concat(byte[]... chunks) {
-        int length = 0;
-        for (byte[] chunk : chunks) {
-            if (chunk != null) {
-                length += chunk.length;
-            }
-        }
-
-        byte[] out = new byte[length];
-        int pos = 0;
-        for (byte[] chunk : chunks) {
-            if (chunk == null || chunk.length == 0) {
-                continue;
-            }
-            System.arraycopy(chunk, 0, out, pos, chunk.length);
-            pos += chunk.length;
-        }
-        return out;
-    }
-
     // ========== NIP-42 Authentication Methods ==========
 
-    private static String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder(bytes.length * 2);
-        for (byte b : bytes) {
-            sb.append(String.format("%02x", b & 0xff));
-        }
-        return sb.toString();
-    }
-
-    private static byte[] sha256Bytes(byte[] input) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            return digest.digest(input);
-        } catch (NoSuchAlgorithmException e) {
-            return null;
-        }
-    }
-
-    /**
-     * Serialize event for ID computation per NIP-01.
-     * Returns JSON array: [0, pubkey, created_at, kind, tags, content]
-     */
-    private static String serializeEventForId(JSONObject event) throws JSONException {
-        JSONArray arr = new JSONArray();
-        arr.put(0);
-        arr.put(event.getString("pubkey"));
-        arr.put(event.getLong("created_at"));
-        arr.put(event.getInt("kind"));
-        arr.put(event.getJSONArray("tags"));
-        arr.put(event.getString("content"));
-        return arr.toString();
-    }
-
     /**
      * Build unsigned kind 22242 AUTH event for NIP-42.
      */
@@ -2154,24 +2097,7 @@ public class NativeBackgroundMessagingService extends Service {
             return null;
         }
 
-        try {
-            long createdAt = System.currentTimeMillis() / 1000L;
-
-            JSONArray tags = new JSONArray();
-            tags.put(new JSONArray().put("relay").put(relayUrl));
-            tags.put(new JSONArray().put("challenge").put(challenge));
-
-            JSONObject event = new JSONObject();
-            event.put("kind", 22242);
-            event.put("created_at", createdAt);
-            event.put("tags", tags);
-            event.put("content", "");
-            event.put("pubkey", currentPubkeyHex);
-
-            return event.toString();
-        } catch (JSONException e) {
-            return null;
-        }
+        return NostrEvents.buildAuthEvent(currentPubkeyHex, relayUrl, challenge, System.currentTimeMillis() / 1000L);
     }
 
     /**
@@ -2224,276 +2150,14 @@ public class NativeBackgroundMessagingService extends Service {
      * Sign event locally using nsec (BIP-340 Schnorr signature).
      */
     private String localSignEvent(String unsignedEventJson) {
-        if (localSecretKey == null || localSecretKey.length != 32) {
-            return null;
-        }
-
-        try {
-            JSONObject event = new JSONObject(unsignedEventJson);
-
-            // Compute event ID (SHA-256 of serialized event)
-            String serialized = serializeEventForId(event);
-            byte[] idBytes = sha256Bytes(serialized.getBytes(StandardCharsets.UTF_8));
-            if (idBytes == null) {
-                return null;
-            }
-            String id = bytesToHex(idBytes);
-
-            // Sign with Schnorr (BIP-340)
-            byte[] sig = schnorrSign(idBytes, localSecretKey);
-            if (sig == null) {
-                return null;
-            }
-            String sigHex = bytesToHex(sig);
-
-            // Add id and sig to event
-            event.put("id", id);
-            event.put("sig", sigHex);
-
-            return event.toString();
-        } catch (Exception e) {
-            return null;
-        }
-    }
-
-    /**
-     * BIP-340 Schnorr signature using BouncyCastle.
-     */
-    private static byte[] schnorrSign(byte[] message, byte[] privateKey) {
-        try {
-            X9ECParameters params = SECNamedCurves.getByName("secp256k1");
-            if (params == null) {
-                return null;
-            }
-            BigInteger n = params.getN();
-            ECPoint G = params.getG();
-
-            BigInteger d = new BigInteger(1, privateKey);
-            ECPoint P = G.multiply(d).normalize();
-
-            // If P.y is odd, negate d
-            if (P.getAffineYCoord().testBitZero()) {
-                d = n.subtract(d);
-            }
-
-            byte[] pBytes = P.getAffineXCoord().getEncoded();
-            if (pBytes.length > 32) {
-                pBytes = Arrays.copyOfRange(pBytes, pBytes.length - 32, pBytes.length);
-            } else if (pBytes.length < 32) {
-                byte[] tmp = new byte[32];
-                System.arraycopy(pBytes, 0, tmp, 32 - pBytes.length, pBytes.length);
-                pBytes = tmp;
-            }
-
-            // Generate deterministic nonce per BIP-340
-            byte[] dBytes = bigIntTo32Bytes(d);
-            byte[] aux = sha256Bytes(dBytes);
-            if (aux == null) return null;
-
-            byte[] t = xorBytes(aux, sha256Bytes(concat(dBytes, pBytes, message)));
-            if (t == null) return null;
-
-            byte[] kHash = sha256Bytes(concat(t, pBytes, message));
-            if (kHash == null) return null;
-
-            BigInteger k = new BigInteger(1, kHash).mod(n);
-            if (k.equals(BigInteger.ZERO)) {
-                return null;
-            }
-
-            ECPoint R = G.multiply(k).normalize();
-
-            // If R.y is odd, negate k
-            if (R.getAffineYCoord().testBitZero()) {
-                k = n.subtract(k);
-            }
-
-            byte[] rBytes = R.getAffineXCoord().getEncoded();
-            if (rBytes.length > 32) {
-                rBytes = Arrays.copyOfRange(rBytes, rBytes.length - 32, rBytes.length);
-            } else if (rBytes.length < 32) {
-                byte[] tmp = new byte[32];
-                System.arraycopy(rBytes, 0, tmp, 32 - rBytes.length, rBytes.length);
-                rBytes = tmp;
-            }
-
-            // e = sha256(R.x || P.x || m) mod n
-            byte[] eHash = sha256Bytes(concat(rBytes, pBytes, message));
-            if (eHash == null) return null;
-
-            BigInteger e = new BigInteger(1, eHash).mod(n);
-
-            // s = (k + e * d) mod n
-            BigInteger s = k.add(e.multiply(d)).mod(n);
-
-            // Signature is R.x || s (64 bytes)
-            byte[] sig = new byte[64];
-            System.arraycopy(rBytes, 0, sig, 0, 32);
-            byte[] sBytes = bigIntTo32Bytes(s);
-            System.arraycopy(sBytes, 0, sig, 32, 32);
-
-            return sig;
-        } catch (Exception e) {
-            return null;
-        }
-    }
-
-    private static byte[] bigIntTo32Bytes(BigInteger val) {
-        byte[] bytes = val.toByteArray();
-        if (bytes.length == 32) {
-            return bytes;
-        }
-        if (bytes.length > 32) {
-            return Arrays.copyOfRange(bytes, bytes.length - 32, bytes.length);
-        }
-        byte[] out = new byte[32];
-        System.arraycopy(bytes, 0, out, 32 - bytes.length, bytes.length);
-        return out;
-    }
-
-    private static byte[] xorBytes(byte[] a, byte[] b) {
-        if (a == null || b == null || a.length != b.length) {
+        byte[] secretKey = localDecryptor.copySecretKey();
+        if (secretKey == null) {
             return null;
         }
-        byte[] out = new byte[a.length];
-        for (int i = 0; i < a.length; i++) {
-            out[i] = (byte) (a[i] ^ b[i]);
-        }
-        return out;
-    }
-
-    /**
-     * Attempt NIP-42 authentication with a relay.
-     */
-    private void attemptAuthentication(String relayUrl, WebSocket socket) {
-        String challenge = relayChallenges.get(relayUrl);
-        if (challenge == null || challenge.isEmpty()) {
-            relayAuthStatus.put(relayUrl, "failed");
-            return;
-        }
-
-        if (currentPubkeyHex == null || currentPubkeyHex.isEmpty()) {
-            relayAuthStatus.put(relayUrl, "failed");
-            return;
-        }
-
-        relayAuthStatus.put(relayUrl, "pending");
-
-        // Build unsigned AUTH event
-        String unsignedEventJson = buildAuthEvent(relayUrl, challenge);
-        if (unsignedEventJson == null) {
-            relayAuthStatus.put(relayUrl, "failed");
-            scheduleAuthRetry(relayUrl);
-            return;
-        }
-
-        // Sign the event
-        String signedEventJson = signEvent(unsignedEventJson);
-        if (signedEventJson == null) {
-            relayAuthStatus.put(relayUrl, "failed");
-            scheduleAuthRetry(relayUrl);
-            return;
-        }
-
-        // Extract event ID for tracking
-        try {
-            JSONObject signedEvent = new JSONObject(signedEventJson);
-            String eventId = signedEvent.optString("id", null);
-            if (eventId != null) {
-                pendingAuthEventIds.put(eventId, relayUrl);
-            }
-        } catch (JSONException e) {
-            // Continue anyway
-        }
-
-        // Send AUTH message
         try {
-            JSONArray authMsg = new JSONArray();
-            authMsg.put("AUTH");
-            authMsg.put(new JSONObject(signedEventJson));
-            socket.send(authMsg.toString());
-        } catch (JSONException e) {
-            relayAuthStatus.put(relayUrl, "failed");
-            scheduleAuthRetry(relayUrl);
-        }
-    }
-
-    /**
-     * Handle AUTH response (OK message).
-     */
-    private void handleAuthResponse(String relayUrl, WebSocket socket, boolean success) {
-        if (success) {
-            relayAuthStatus.put(relayUrl, "authenticated");
-            authRetryScheduled.remove(relayUrl);
-            // Re-subscribe after successful auth
-            resubscribeToRelay(relayUrl, socket);
-        } else {
-            relayAuthStatus.put(relayUrl, "failed");
-            scheduleAuthRetry(relayUrl);
-        }
-    }
-
-    /**
-     * Schedule a single auth retry after 5 seconds.
-     */
-    private void scheduleAuthRetry(String relayUrl) {
-        if (handler == null || !serviceRunning) {
-            return;
-        }
-
-        // Only retry once per relay
-        if (authRetryScheduled.contains(relayUrl)) {
-            return;
-        }
-        authRetryScheduled.add(relayUrl);
-
-        handler.postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                if (!serviceRunning) {
-                    return;
-                }
-
-                WebSocket socket;
-                synchronized (activeSockets) {
-                    socket = activeSockets.get(relayUrl);
-                }
-                if (socket == null) {
-                    return;
-                }
-
-                String status = relayAuthStatus.get(relayUrl);
-                if ("failed".equals(status) || "required".equals(status)) {
-                    attemptAuthentication(relayUrl, socket);
-                }
-            }
-        }, 5000L);
-    }
-
-    /**
-     * Re-subscribe to relay after successful authentication.
-     */
-    private void resubscribeToRelay(String relayUrl, WebSocket socket) {
-        if (currentPubkeyHex == null || currentPubkeyHex.isEmpty()) {
-            return;
-        }
-
-        try {
-            JSONObject filter = new JSONObject();
-            filter.put("kinds", new JSONArray().put(1059));
-
-            JSONArray pTag = new JSONArray();
-            pTag.put(currentPubkeyHex);
-            filter.put("#p", pTag);
-
-            JSONArray req = new JSONArray();
-            req.put("REQ");
-            req.put("nospeak-native-bg");
-            req.put(filter);
-
-            socket.send(req.toString());
-        } catch (JSONException e) {
-            // Ignore
+            return NostrEvents.signEvent(unsignedEventJson, secretKey);
+        } finally {
+            Arrays.fill(secretKey, (byte) 0);
         }
     }
 
@@ -2537,14 +2201,6 @@ public class NativeBackgroundMessagingService extends Service {
         }
     }
 
-    private static final class DecryptedRumor {
-        int kind;
-        String pubkeyHex;
-        String content;
-        JSONArray tags;
-        long createdAtSeconds;
-    }
-
     /**
      * Extracts all p-tag values (pubkey hexes) from rumor tags.
      * @param tags The tags JSONArray from the rumor
@@ -2682,10 +2338,8 @@ public class NativeBackgroundMessagingService extends Service {
             return;
         }
  
-        int connectedCount;
-        synchronized (activeSockets) {
-            connectedCount = activeSockets.size();
-        }
+        RelayPool pool = relayPool;
+        int connectedCount = pool != null ? pool.getConnectedCount() : 0;
  
         String text;
         if (configuredRelaysCount == 0) {
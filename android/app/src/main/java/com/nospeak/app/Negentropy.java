@@ -0,0 +1,499 @@
+package com.nospeak.app;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Negentropy range-based set reconciliation (protocol version 1, as used by NIP-77).
+ *
+ * Both sides hold a sorted set of (created_at, event id) items. The initiator sends
+ * fingerprints of ranges; ranges whose fingerprints differ are split into smaller ranges or,
+ * once small enough, listed as ids, so each round trip narrows in on the differences and the
+ * bytes exchanged scale with what is missing rather than with the set size.
+ *
+ * One instance runs one reconciliation and is not thread-safe. Messages are hex strings, as
+ * carried in NEG-OPEN/NEG-MSG.
+ */
+public final class Negentropy {
+
+    public static final int PROTOCOL_VERSION = 0x61;
+    public static final int ID_SIZE = 32;
+
+    private static final int FINGERPRINT_SIZE = 16;
+    private static final int MODE_SKIP = 0;
+    private static final int MODE_FINGERPRINT = 1;
+    private static final int MODE_ID_LIST = 2;
+    private static final int BUCKETS = 16;
+    private static final long MAX_TIMESTAMP = Long.MAX_VALUE;
+
+    /**
+     * Sorted, de-duplicated set of items. Add everything, then {@link #seal()}.
+     */
+    public static final class Storage {
+        private long[] timestamps = new long[64];
+        private byte[] ids = new byte[64 * ID_SIZE];
+        private int size;
+        private boolean sealed;
+
+        public void add(long createdAtSeconds, byte[] id, int offset) {
+            if (sealed) {
+                throw new IllegalStateException("storage is sealed");
+            }
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                ids = Arrays.copyOf(ids, size * 2 * ID_SIZE);
+            }
+            timestamps[size] = Math.max(0L, createdAtSeconds);
+            System.arraycopy(id, offset, ids, size * ID_SIZE, ID_SIZE);
+            size++;
+        }
+
+        public void add(long createdAtSeconds, String idHex) {
+            byte[] id = Nip44.hexToBytes(idHex);
+            if (id.length != ID_SIZE) {
+                throw new IllegalArgumentException("invalid event id");
+            }
+            add(createdAtSeconds, id, 0);
+        }
+
+        public void seal() {
+            if (sealed) {
+                return;
+            }
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> compareItems(timestamps[a], ids, a * ID_SIZE, timestamps[b], ids, b * ID_SIZE, ID_SIZE));
+
+            long[] sortedTimestamps = new long[Math.max(size, 1)];
+            byte[] sortedIds = new byte[Math.max(size, 1) * ID_SIZE];
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                int src = order[i];
+                if (n > 0 && compareItems(sortedTimestamps[n - 1], sortedIds, (n - 1) * ID_SIZE,
+                        timestamps[src], ids, src * ID_SIZE, ID_SIZE) == 0) {
+                    continue;
+                }
+                sortedTimestamps[n] = timestamps[src];
+                System.arraycopy(ids, src * ID_SIZE, sortedIds, n * ID_SIZE, ID_SIZE);
+                n++;
+            }
+            timestamps = sortedTimestamps;
+            ids = sortedIds;
+            size = n;
+            sealed = true;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * First index in {@code [first, last)} whose item is not less than the bound.
+         */
+        int findLowerBound(int first, int last, long timestamp, byte[] idPrefix) {
+            int lo = first;
+            int hi = last;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compareItems(timestamps[mid], ids, mid * ID_SIZE, timestamp, idPrefix, 0, idPrefix.length) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        byte[] fingerprint(int lower, int upper) {
+            byte[] sum = new byte[ID_SIZE];
+            for (int i = lower; i < upper; i++) {
+                // Little-endian 256-bit addition, mod 2^256.
+                int carry = 0;
+                int base = i * ID_SIZE;
+                for (int j = 0; j < ID_SIZE; j++) {
+                    int next = (sum[j] & 0xFF) + (ids[base + j] & 0xFF) + carry;
+                    sum[j] = (byte) next;
+                    carry = next >>> 8;
+                }
+            }
+
+            ByteArrayOutputStream input = new ByteArrayOutputStream(ID_SIZE + 10);
+            input.write(sum, 0, ID_SIZE);
+            writeVarint(input, upper - lower);
+            return Arrays.copyOf(NostrEvents.sha256(input.toByteArray()), FINGERPRINT_SIZE);
+        }
+
+        void checkSealed() {
+            if (!sealed) {
+                throw new IllegalStateException("storage is not sealed");
+            }
+        }
+    }
+
+    private final Storage storage;
+    private final int frameSizeLimit;
+    private boolean initiator;
+    private long lastTimestampIn;
+    private long lastTimestampOut;
+
+    /**
+     * @param frameSizeLimit maximum bytes per message (before hex encoding), or 0 for no limit
+     */
+    public Negentropy(Storage storage, int frameSizeLimit) {
+        storage.checkSealed();
+        if (frameSizeLimit != 0 && frameSizeLimit < 4096) {
+            throw new IllegalArgumentException("frameSizeLimit too small");
+        }
+        this.storage = storage;
+        this.frameSizeLimit = frameSizeLimit;
+    }
+
+    /**
+     * Starts a reconciliation as the initiator (client).
+     *
+     * @return the initial message
+     */
+    public String initiate() {
+        initiator = true;
+        lastTimestampOut = 0L;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(PROTOCOL_VERSION);
+        splitRange(0, storage.size(), MAX_TIMESTAMP, new byte[0], out);
+        return NostrEvents.bytesToHex(out.toByteArray());
+    }
+
+    /**
+     * Processes a message from the other side.
+     *
+     * @param haveIds receives (initiator only) ids we have that the other side lacks
+     * @param needIds receives (initiator only) ids the other side has that we lack
+     * @return the next message to send, or null once the initiator is done
+     * @throws IllegalArgumentException if the message is malformed or uses another protocol version
+     */
+    public String reconcile(String messageHex, List<String> haveIds, List<String> needIds) {
+        byte[] message;
+        try {
+            message = Nip44.hexToBytes(messageHex);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("message is not hex");
+        }
+        Reader in = new Reader(message);
+        lastTimestampIn = 0L;
+        lastTimestampOut = 0L;
+
+        ByteArrayOutputStream fullOutput = new ByteArrayOutputStream();
+        fullOutput.write(PROTOCOL_VERSION);
+
+        int protocolVersion = in.readByte();
+        if (protocolVersion < 0x60 || protocolVersion > 0x6F) {
+            throw new IllegalArgumentException("invalid negentropy protocol version byte");
+        }
+        if (protocolVersion != PROTOCOL_VERSION) {
+            if (initiator) {
+                throw new IllegalArgumentException("unsupported negentropy protocol version " + (protocolVersion - 0x60));
+            }
+            return NostrEvents.bytesToHex(fullOutput.toByteArray());
+        }
+
+        int storageSize = storage.size();
+        long prevBoundTimestamp = 0L;
+        byte[] prevBoundId = new byte[0];
+        int prevIndex = 0;
+        boolean skip = false;
+
+        while (in.remaining() > 0) {
+            ByteArrayOutputStream o = new ByteArrayOutputStream();
+
+            long currTimestamp = decodeTimestampIn(in);
+            int prefixLength = (int) in.readVarint();
+            if (prefixLength > ID_SIZE) {
+                throw new IllegalArgumentException("bound id too long");
+            }
+            byte[] currId = in.readBytes(prefixLength);
+            long mode = in.readVarint();
+
+            int lower = prevIndex;
+            int upper = storage.findLowerBound(prevIndex, storageSize, currTimestamp, currId);
+
+            if (mode == MODE_SKIP) {
+                skip = true;
+            } else if (mode == MODE_FINGERPRINT) {
+                byte[] theirFingerprint = in.readBytes(FINGERPRINT_SIZE);
+                if (!Arrays.equals(theirFingerprint, storage.fingerprint(lower, upper))) {
+                    if (skip) {
+                        skip = false;
+                        encodeBound(o, prevBoundTimestamp, prevBoundId);
+                        writeVarint(o, MODE_SKIP);
+                    }
+                    splitRange(lower, upper, currTimestamp, currId, o);
+                } else {
+                    skip = true;
+                }
+            } else if (mode == MODE_ID_LIST) {
+                long numIds = in.readVarint();
+                if (numIds > in.remaining() / ID_SIZE) {
+                    throw new IllegalArgumentException("id list longer than message");
+                }
+                byte[][] theirIds = new byte[(int) numIds][];
+                for (int i = 0; i < numIds; i++) {
+                    theirIds[i] = in.readBytes(ID_SIZE);
+                }
+
+                if (initiator) {
+                    skip = true;
+                    diffIdList(lower, upper, theirIds, haveIds, needIds);
+                } else {
+                    if (skip) {
+                        skip = false;
+                        encodeBound(o, prevBoundTimestamp, prevBoundId);
+                        writeVarint(o, MODE_SKIP);
+                    }
+                    ByteArrayOutputStream responseIds = new ByteArrayOutputStream();
+                    int numResponseIds = 0;
+                    long endTimestamp = currTimestamp;
+                    byte[] endId = currId;
+                    for (int i = lower; i < upper; i++) {
+                        if (exceededFrameSizeLimit(fullOutput.size() + responseIds.size())) {
+                            endTimestamp = storage.timestamps[i];
+                            endId = Arrays.copyOfRange(storage.ids, i * ID_SIZE, (i + 1) * ID_SIZE);
+                            // The rest of the range is covered by the remaining-range fingerprint.
+                            upper = i;
+                            break;
+                        }
+                        responseIds.write(storage.ids, i * ID_SIZE, ID_SIZE);
+                        numResponseIds++;
+                    }
+                    encodeBound(o, endTimestamp, endId);
+                    writeVarint(o, MODE_ID_LIST);
+                    writeVarint(o, numResponseIds);
+                    byte[] responseBytes = responseIds.toByteArray();
+                    o.write(responseBytes, 0, responseBytes.length);
+                    byte[] chunk = o.toByteArray();
+                    fullOutput.write(chunk, 0, chunk.length);
+                    o = new ByteArrayOutputStream();
+                }
+            } else {
+                throw new IllegalArgumentException("unexpected mode " + mode);
+            }
+
+            if (exceededFrameSizeLimit(fullOutput.size() + o.size())) {
+                // Stop here and send a fingerprint for everything not yet covered.
+                byte[] remaining = storage.fingerprint(upper, storageSize);
+                encodeBound(fullOutput, MAX_TIMESTAMP, new byte[0]);
+                writeVarint(fullOutput, MODE_FINGERPRINT);
+                fullOutput.write(remaining, 0, remaining.length);
+                break;
+            }
+
+            byte[] chunk = o.toByteArray();
+            fullOutput.write(chunk, 0, chunk.length);
+            prevIndex = upper;
+            prevBoundTimestamp = currTimestamp;
+            prevBoundId = currId;
+        }
+
+        if (initiator && fullOutput.size() == 1) {
+            return null;
+        }
+        return NostrEvents.bytesToHex(fullOutput.toByteArray());
+    }
+
+    private void diffIdList(int lower, int upper, byte[][] theirIds, List<String> haveIds, List<String> needIds) {
+        boolean[] matched = new boolean[theirIds.length];
+        for (int i = lower; i < upper; i++) {
+            boolean found = false;
+            for (int j = 0; j < theirIds.length && !found; j++) {
+                if (!matched[j] && rangeEquals(storage.ids, i * ID_SIZE, theirIds[j])) {
+                    matched[j] = true;
+                    found = true;
+                }
+            }
+            if (!found && haveIds != null) {
+                haveIds.add(NostrEvents.bytesToHex(Arrays.copyOfRange(storage.ids, i * ID_SIZE, (i + 1) * ID_SIZE)));
+            }
+        }
+        for (int j = 0; j < theirIds.length; j++) {
+            if (!matched[j] && needIds != null) {
+                needIds.add(NostrEvents.bytesToHex(theirIds[j]));
+            }
+        }
+    }
+
+    private void splitRange(int lower, int upper, long upperTimestamp, byte[] upperId, ByteArrayOutputStream out) {
+        int numElems = upper - lower;
+        if (numElems < BUCKETS * 2) {
+            encodeBound(out, upperTimestamp, upperId);
+            writeVarint(out, MODE_ID_LIST);
+            writeVarint(out, numElems);
+            out.write(storage.ids, lower * ID_SIZE, numElems * ID_SIZE);
+            return;
+        }
+
+        int itemsPerBucket = numElems / BUCKETS;
+        int bucketsWithExtra = numElems % BUCKETS;
+        int curr = lower;
+        for (int i = 0; i < BUCKETS; i++) {
+            int bucketSize = itemsPerBucket + (i < bucketsWithExtra ? 1 : 0);
+            byte[] fingerprint = storage.fingerprint(curr, curr + bucketSize);
+            curr += bucketSize;
+
+            if (curr == upper) {
+                encodeBound(out, upperTimestamp, upperId);
+            } else {
+                encodeMinimalBound(out, curr - 1, curr);
+            }
+            writeVarint(out, MODE_FINGERPRINT);
+            out.write(fingerprint, 0, fingerprint.length);
+        }
+    }
+
+    /**
+     * Encodes the shortest bound separating item {@code prev} from item {@code curr}.
+     */
+    private void encodeMinimalBound(ByteArrayOutputStream out, int prev, int curr) {
+        long currTimestamp = storage.timestamps[curr];
+        if (currTimestamp != storage.timestamps[prev]) {
+            encodeBound(out, currTimestamp, new byte[0]);
+            return;
+        }
+        int shared = 0;
+        while (shared < ID_SIZE && storage.ids[prev * ID_SIZE + shared] == storage.ids[curr * ID_SIZE + shared]) {
+            shared++;
+        }
+        int length = Math.min(shared + 1, ID_SIZE);
+        encodeBound(out, currTimestamp, Arrays.copyOfRange(storage.ids, curr * ID_SIZE, curr * ID_SIZE + length));
+    }
+
+    private void encodeBound(ByteArrayOutputStream out, long timestamp, byte[] idPrefix) {
+        encodeTimestampOut(out, timestamp);
+        writeVarint(out, idPrefix.length);
+        out.write(idPrefix, 0, idPrefix.length);
+    }
+
+    private void encodeTimestampOut(ByteArrayOutputStream out, long timestamp) {
+        if (timestamp == MAX_TIMESTAMP) {
+            lastTimestampOut = MAX_TIMESTAMP;
+            writeVarint(out, 0L);
+            return;
+        }
+        long delta = timestamp - lastTimestampOut;
+        lastTimestampOut = timestamp;
+        writeVarint(out, delta + 1L);
+    }
+
+    private long decodeTimestampIn(Reader in) {
+        long encoded = in.readVarint();
+        long timestamp = encoded == 0L ? MAX_TIMESTAMP : encoded - 1L;
+        if (lastTimestampIn == MAX_TIMESTAMP || timestamp == MAX_TIMESTAMP) {
+            lastTimestampIn = MAX_TIMESTAMP;
+            return MAX_TIMESTAMP;
+        }
+        timestamp += lastTimestampIn;
+        if (timestamp < 0L) {
+            throw new IllegalArgumentException("timestamp overflow");
+        }
+        lastTimestampIn = timestamp;
+        return timestamp;
+    }
+
+    private boolean exceededFrameSizeLimit(int size) {
+        return frameSizeLimit != 0 && size > frameSizeLimit - 200;
+    }
+
+    // ---- Encoding ----
+
+    /**
+     * Base-128 varint, most significant group first, high bit set on all but the last byte.
+     */
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        if (value < 0L) {
+            throw new IllegalArgumentException("negative varint");
+        }
+        byte[] groups = new byte[10];
+        int n = 0;
+        do {
+            groups[n++] = (byte) (value & 0x7F);
+            value >>>= 7;
+        } while (value != 0L);
+        for (int i = n - 1; i >= 0; i--) {
+            out.write(i > 0 ? (groups[i] | 0x80) : groups[i]);
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] bytes;
+        private int pos;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int remaining() {
+            return bytes.length - pos;
+        }
+
+        int readByte() {
+            if (pos >= bytes.length) {
+                throw new IllegalArgumentException("message ends prematurely");
+            }
+            return bytes[pos++] & 0xFF;
+        }
+
+        byte[] readBytes(int length) {
+            if (length > remaining()) {
+                throw new IllegalArgumentException("message ends prematurely");
+            }
+            byte[] out = Arrays.copyOfRange(bytes, pos, pos + length);
+            pos += length;
+            return out;
+        }
+
+        long readVarint() {
+            long result = 0L;
+            for (int i = 0; i < 10; i++) {
+                int b = readByte();
+                result = (result << 7) | (b & 0x7F);
+                if ((b & 0x80) == 0) {
+                    if (result < 0L) {
+                        throw new IllegalArgumentException("varint overflow");
+                    }
+                    return result;
+                }
+            }
+            throw new IllegalArgumentException("varint too long");
+        }
+    }
+
+    /**
+     * Orders items by timestamp, then id bytes; a shorter id that is a prefix of a longer one
+     * sorts first.
+     */
+    private static int compareItems(long timestampA, byte[] idsA, int offsetA, long timestampB, byte[] idsB,
+                                    int offsetB, int lengthB) {
+        if (timestampA != timestampB) {
+            return timestampA < timestampB ? -1 : 1;
+        }
+        int lengthA = ID_SIZE;
+        int common = Math.min(lengthA, lengthB);
+        for (int i = 0; i < common; i++) {
+            int a = idsA[offsetA + i] & 0xFF;
+            int b = idsB[offsetB + i] & 0xFF;
+            if (a != b) {
+                return a < b ? -1 : 1;
+            }
+        }
+        return Integer.compare(lengthA, lengthB);
+    }
+
+    private static boolean rangeEquals(byte[] bytes, int offset, byte[] id) {
+        for (int i = 0; i < ID_SIZE; i++) {
+            if (bytes[offset + i] != id[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
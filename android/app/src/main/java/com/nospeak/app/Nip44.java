@@ -0,0 +1,439 @@
+package com.nospeak.app;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.engines.ChaCha7539Engine;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * NIP-44 v2 payload codec (decrypt and encrypt) shared by the native background service
+ * and plugins.
+ *
+ * Each thread keeps its own HMAC-SHA256 and ChaCha20 engines plus scratch buffers, so a
+ * decrypt only allocates the decoded plaintext (or nothing, when decoding into a
+ * caller-supplied buffer). Invalid payloads yield null / -1 rather than exceptions, matching
+ * how the background service treats undecryptable events.
+ */
+public final class Nip44 {
+
+    public static final int VERSION = 2;
+    public static final int MIN_PLAINTEXT_SIZE = 1;
+    public static final int MAX_PLAINTEXT_SIZE = 65535;
+
+    private static final int NONCE_SIZE = 32;
+    private static final int MAC_SIZE = 32;
+    private static final int MIN_PAYLOAD_CHARS = 132;
+    private static final int MAX_PAYLOAD_CHARS = 87472;
+    private static final int MIN_DATA_SIZE = 99;
+    private static final int MAX_DATA_SIZE = 65603;
+
+    private static final byte[] CONVERSATION_KEY_SALT = "nip44-v2".getBytes(StandardCharsets.UTF_8);
+
+    private static final char[] BASE64_ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final int[] BASE64_VALUES = new int[128];
+
+    static {
+        Arrays.fill(BASE64_VALUES, -1);
+        for (int i = 0; i < BASE64_ALPHABET.length; i++) {
+            BASE64_VALUES[BASE64_ALPHABET[i]] = i;
+        }
+    }
+
+    private static final ThreadLocal<Workspace> WORKSPACE = new ThreadLocal<Workspace>() {
+        @Override
+        protected Workspace initialValue() {
+            return new Workspace();
+        }
+    };
+
+    private static final class Workspace {
+        final HMac hmac = new HMac(new SHA256Digest());
+        final ChaCha7539Engine chacha = new ChaCha7539Engine();
+        final byte[] messageKeys = new byte[76];
+        final byte[] macOut = new byte[MAC_SIZE];
+        byte[] data = new byte[1024];
+        byte[] padded = new byte[1024];
+
+        byte[] data(int size) {
+            if (data.length < size) {
+                data = new byte[Math.max(size, data.length * 2)];
+            }
+            return data;
+        }
+
+        byte[] padded(int size) {
+            if (padded.length < size) {
+                padded = new byte[Math.max(size, padded.length * 2)];
+            }
+            return padded;
+        }
+    }
+
+    private static volatile SecureRandom secureRandom;
+
+    private Nip44() {
+    }
+
+    /**
+     * Derives the conversation key: HKDF-extract(salt = "nip44-v2", ikm = ECDH shared X).
+     */
+    public static byte[] getConversationKey(byte[] privateKey, String peerPubkeyHex) {
+        if (privateKey == null || privateKey.length != 32) {
+            throw new IllegalArgumentException("invalid private key");
+        }
+
+        byte[] peerPubkeyX = hexToBytes(peerPubkeyHex);
+        if (peerPubkeyX.length != 32) {
+            throw new IllegalArgumentException("invalid peer pubkey");
+        }
+
+        byte[] sharedX = Secp256k1.getInstance().ecdhX(privateKey, peerPubkeyX);
+        try {
+            HMac hmac = WORKSPACE.get().hmac;
+            hmac.init(new KeyParameter(CONVERSATION_KEY_SALT));
+            hmac.update(sharedX, 0, sharedX.length);
+            byte[] out = new byte[32];
+            hmac.doFinal(out, 0);
+            return out;
+        } finally {
+            Arrays.fill(sharedX, (byte) 0);
+        }
+    }
+
+    /**
+     * Decrypts a payload to a UTF-8 string, or returns null if the payload is invalid.
+     */
+    public static String decrypt(String payload, byte[] conversationKey) {
+        Workspace ws = WORKSPACE.get();
+        int offset = decryptPadded(ws, payload, conversationKey);
+        if (offset < 0) {
+            return null;
+        }
+
+        int length = readUint16Be(ws.padded, 0);
+        return new String(ws.padded, offset, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decrypts a payload into {@code out} (which must hold the plaintext, at most
+     * {@link #MAX_PLAINTEXT_SIZE} bytes) and returns the plaintext length, or -1 if the
+     * payload is invalid or {@code out} is too small.
+     */
+    public static int decrypt(String payload, byte[] conversationKey, byte[] out) {
+        if (out == null) {
+            return -1;
+        }
+
+        Workspace ws = WORKSPACE.get();
+        int offset = decryptPadded(ws, payload, conversationKey);
+        if (offset < 0) {
+            return -1;
+        }
+
+        int length = readUint16Be(ws.padded, 0);
+        if (length > out.length) {
+            return -1;
+        }
+
+        System.arraycopy(ws.padded, offset, out, 0, length);
+        return length;
+    }
+
+    /**
+     * Encrypts with a random 32-byte nonce.
+     */
+    public static String encrypt(String plaintext, byte[] conversationKey) {
+        byte[] nonce = new byte[NONCE_SIZE];
+        getSecureRandom().nextBytes(nonce);
+        return encrypt(plaintext, conversationKey, nonce);
+    }
+
+    /**
+     * Encrypts with the given nonce. Only use a fixed nonce for test vectors.
+     *
+     * @throws IllegalArgumentException if the plaintext size, key or nonce is invalid
+     */
+    public static String encrypt(String plaintext, byte[] conversationKey, byte[] nonce) {
+        if (plaintext == null) {
+            throw new IllegalArgumentException("plaintext is required");
+        }
+        if (conversationKey == null || conversationKey.length != 32) {
+            throw new IllegalArgumentException("invalid conversation key");
+        }
+        if (nonce == null || nonce.length != NONCE_SIZE) {
+            throw new IllegalArgumentException("invalid nonce");
+        }
+
+        byte[] unpadded = plaintext.getBytes(StandardCharsets.UTF_8);
+        if (unpadded.length < MIN_PLAINTEXT_SIZE || unpadded.length > MAX_PLAINTEXT_SIZE) {
+            throw new IllegalArgumentException("invalid plaintext size");
+        }
+
+        Workspace ws = WORKSPACE.get();
+        int paddedLength = 2 + calcPaddedLen(unpadded.length);
+
+        // version || nonce || ciphertext || mac
+        byte[] data = new byte[1 + NONCE_SIZE + paddedLength + MAC_SIZE];
+        data[0] = (byte) VERSION;
+        System.arraycopy(nonce, 0, data, 1, NONCE_SIZE);
+
+        byte[] padded = ws.padded(paddedLength);
+        padded[0] = (byte) (unpadded.length >>> 8);
+        padded[1] = (byte) unpadded.length;
+        System.arraycopy(unpadded, 0, padded, 2, unpadded.length);
+        Arrays.fill(padded, 2 + unpadded.length, paddedLength, (byte) 0);
+
+        deriveMessageKeys(ws, conversationKey, data, 1);
+
+        int ciphertextOffset = 1 + NONCE_SIZE;
+        ws.chacha.init(true, new ParametersWithIV(new KeyParameter(ws.messageKeys, 0, 32), ws.messageKeys, 32, 12));
+        ws.chacha.processBytes(padded, 0, paddedLength, data, ciphertextOffset);
+
+        computeMac(ws, data, 1, ciphertextOffset, paddedLength);
+        System.arraycopy(ws.macOut, 0, data, ciphertextOffset + paddedLength, MAC_SIZE);
+
+        Arrays.fill(padded, 0, paddedLength, (byte) 0);
+        Arrays.fill(ws.messageKeys, (byte) 0);
+
+        return base64Encode(data, data.length);
+    }
+
+    public static int calcPaddedLen(int unpaddedLen) {
+        if (unpaddedLen <= 32) {
+            return 32;
+        }
+
+        int value = unpaddedLen - 1;
+        int nextPower = 1;
+        while (nextPower <= value && nextPower > 0) {
+            nextPower <<= 1;
+        }
+
+        int chunk = nextPower <= 256 ? 32 : nextPower / 8;
+        return chunk * ((unpaddedLen - 1) / chunk + 1);
+    }
+
+    public static byte[] hexToBytes(String hex) {
+        if (hex == null) {
+            return new byte[0];
+        }
+
+        String normalized = hex.trim();
+        if ((normalized.length() % 2) != 0) {
+            throw new IllegalArgumentException("invalid hex");
+        }
+
+        int len = normalized.length() / 2;
+        byte[] out = new byte[len];
+        for (int i = 0; i < len; i++) {
+            int hi = Character.digit(normalized.charAt(i * 2), 16);
+            int lo = Character.digit(normalized.charAt(i * 2 + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new IllegalArgumentException("invalid hex");
+            }
+            out[i] = (byte) ((hi << 4) | lo);
+        }
+        return out;
+    }
+
+    /**
+     * Verifies and decrypts into {@code ws.padded}; returns the offset of the plaintext (2)
+     * or -1 when the payload is invalid.
+     */
+    private static int decryptPadded(Workspace ws, String payload, byte[] conversationKey) {
+        if (payload == null || payload.isEmpty() || payload.charAt(0) == '#') {
+            return -1;
+        }
+        if (conversationKey == null || conversationKey.length != 32) {
+            return -1;
+        }
+
+        int payloadLength = payload.length();
+        if (payloadLength < MIN_PAYLOAD_CHARS || payloadLength > MAX_PAYLOAD_CHARS) {
+            return -1;
+        }
+
+        byte[] data = ws.data((payloadLength / 4) * 3);
+        int dataLength = base64Decode(payload, data);
+        if (dataLength < MIN_DATA_SIZE || dataLength > MAX_DATA_SIZE) {
+            return -1;
+        }
+
+        if ((data[0] & 0xFF) != VERSION) {
+            return -1;
+        }
+
+        int ciphertextOffset = 1 + NONCE_SIZE;
+        int ciphertextLength = dataLength - ciphertextOffset - MAC_SIZE;
+
+        deriveMessageKeys(ws, conversationKey, data, 1);
+
+        computeMac(ws, data, 1, ciphertextOffset, ciphertextLength);
+        if (!constantTimeEquals(ws.macOut, data, ciphertextOffset + ciphertextLength)) {
+            Arrays.fill(ws.messageKeys, (byte) 0);
+            return -1;
+        }
+
+        byte[] padded = ws.padded(ciphertextLength);
+        ws.chacha.init(false, new ParametersWithIV(new KeyParameter(ws.messageKeys, 0, 32), ws.messageKeys, 32, 12));
+        ws.chacha.processBytes(data, ciphertextOffset, ciphertextLength, padded, 0);
+        Arrays.fill(ws.messageKeys, (byte) 0);
+
+        if (ciphertextLength < 2) {
+            return -1;
+        }
+
+        int unpaddedLength = readUint16Be(padded, 0);
+        if (unpaddedLength < MIN_PLAINTEXT_SIZE || ciphertextLength != 2 + calcPaddedLen(unpaddedLength)) {
+            return -1;
+        }
+
+        return 2;
+    }
+
+    /**
+     * HKDF-expand(prk = conversationKey, info = nonce, L = 76) into {@code ws.messageKeys}:
+     * chacha key (0..32), chacha nonce (32..44), hmac key (44..76).
+     */
+    private static void deriveMessageKeys(Workspace ws, byte[] conversationKey, byte[] nonce, int nonceOffset) {
+        HMac hmac = ws.hmac;
+        hmac.init(new KeyParameter(conversationKey));
+
+        byte[] out = ws.messageKeys;
+        byte[] block = ws.macOut;
+        int pos = 0;
+        for (int counter = 1; pos < out.length; counter++) {
+            if (counter > 1) {
+                hmac.update(block, 0, block.length);
+            }
+            hmac.update(nonce, nonceOffset, NONCE_SIZE);
+            hmac.update((byte) counter);
+            hmac.doFinal(block, 0);
+
+            int toCopy = Math.min(block.length, out.length - pos);
+            System.arraycopy(block, 0, out, pos, toCopy);
+            pos += toCopy;
+        }
+    }
+
+    /**
+     * HMAC-SHA256(hmacKey, nonce || ciphertext) into {@code ws.macOut}.
+     */
+    private static void computeMac(Workspace ws, byte[] data, int nonceOffset, int ciphertextOffset, int ciphertextLength) {
+        HMac hmac = ws.hmac;
+        hmac.init(new KeyParameter(ws.messageKeys, 44, 32));
+        hmac.update(data, nonceOffset, NONCE_SIZE);
+        hmac.update(data, ciphertextOffset, ciphertextLength);
+        hmac.doFinal(ws.macOut, 0);
+    }
+
+    private static boolean constantTimeEquals(byte[] expected, byte[] data, int offset) {
+        if (offset < 0 || offset + expected.length > data.length) {
+            return false;
+        }
+        int diff = 0;
+        for (int i = 0; i < expected.length; i++) {
+            diff |= expected[i] ^ data[offset + i];
+        }
+        return diff == 0;
+    }
+
+    private static int readUint16Be(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+    }
+
+    /**
+     * Strict standard-alphabet base64 decode into {@code out}; returns the decoded length or -1.
+     */
+    private static int base64Decode(String input, byte[] out) {
+        int length = input.length();
+        if (length == 0 || (length % 4) != 0) {
+            return -1;
+        }
+
+        int padding = 0;
+        if (input.charAt(length - 1) == '=') {
+            padding++;
+            if (input.charAt(length - 2) == '=') {
+                padding++;
+            }
+        }
+
+        int outLength = (length / 4) * 3 - padding;
+        if (out.length < outLength) {
+            return -1;
+        }
+
+        int outPos = 0;
+        for (int i = 0; i < length; i += 4) {
+            int a = base64Value(input.charAt(i));
+            int b = base64Value(input.charAt(i + 1));
+            char c2 = input.charAt(i + 2);
+            char c3 = input.charAt(i + 3);
+            boolean last = i + 4 == length;
+            int c = (last && padding >= 2 && c2 == '=') ? 0 : base64Value(c2);
+            int d = (last && padding >= 1 && c3 == '=') ? 0 : base64Value(c3);
+            if ((a | b | c | d) < 0) {
+                return -1;
+            }
+
+            int triple = (a << 18) | (b << 12) | (c << 6) | d;
+            out[outPos++] = (byte) (triple >>> 16);
+            if (outPos < outLength) {
+                out[outPos++] = (byte) (triple >>> 8);
+            }
+            if (outPos < outLength) {
+                out[outPos++] = (byte) triple;
+            }
+        }
+
+        return outLength;
+    }
+
+    private static int base64Value(char c) {
+        return c < 128 ? BASE64_VALUES[c] : -1;
+    }
+
+    private static String base64Encode(byte[] data, int length) {
+        char[] out = new char[((length + 2) / 3) * 4];
+        int outPos = 0;
+        int i = 0;
+        while (i + 2 < length) {
+            int triple = ((data[i] & 0xFF) << 16) | ((data[i + 1] & 0xFF) << 8) | (data[i + 2] & 0xFF);
+            out[outPos++] = BASE64_ALPHABET[(triple >>> 18) & 0x3F];
+            out[outPos++] = BASE64_ALPHABET[(triple >>> 12) & 0x3F];
+            out[outPos++] = BASE64_ALPHABET[(triple >>> 6) & 0x3F];
+            out[outPos++] = BASE64_ALPHABET[triple & 0x3F];
+            i += 3;
+        }
+
+        int remaining = length - i;
+        if (remaining > 0) {
+            int triple = (data[i] & 0xFF) << 16;
+            if (remaining == 2) {
+                triple |= (data[i + 1] & 0xFF) << 8;
+            }
+            out[outPos++] = BASE64_ALPHABET[(triple >>> 18) & 0x3F];
+            out[outPos++] = BASE64_ALPHABET[(triple >>> 12) & 0x3F];
+            out[outPos++] = remaining == 2 ? BASE64_ALPHABET[(triple >>> 6) & 0x3F] : '=';
+            out[outPos++] = '=';
+        }
+
+        return new String(out);
+    }
+
+    private static SecureRandom getSecureRandom() {
+        SecureRandom random = secureRandom;
+        if (random == null) {
+            random = new SecureRandom();
+            secureRandom = random;
+        }
+        return random;
+    }
+}
@@ -0,0 +1,111 @@
+package com.nospeak.app;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * NIP-01 event helpers used by the native background service: id serialization,
+ * the NIP-42 AUTH template and local (nsec) signing.
+ */
+public final class NostrEvents {
+
+    public static final int KIND_AUTH = 22242;
+
+    private NostrEvents() {
+    }
+
+    /**
+     * Serialize event for ID computation per NIP-01.
+     * Returns JSON array: [0, pubkey, created_at, kind, tags, content]
+     */
+    public static String serializeForId(JSONObject event) throws JSONException {
+        JSONArray arr = new JSONArray();
+        arr.put(0);
+        arr.put(event.getString("pubkey"));
+        arr.put(event.getLong("created_at"));
+        arr.put(event.getInt("kind"));
+        arr.put(event.getJSONArray("tags"));
+        arr.put(event.getString("content"));
+        return arr.toString();
+    }
+
+    /**
+     * Build unsigned kind 22242 AUTH event for NIP-42.
+     *
+     * @return the unsigned event JSON, or null if it could not be built
+     */
+    public static String buildAuthEvent(String pubkeyHex, String relayUrl, String challenge, long createdAtSeconds) {
+        try {
+            JSONArray tags = new JSONArray();
+            tags.put(new JSONArray().put("relay").put(relayUrl));
+            tags.put(new JSONArray().put("challenge").put(challenge));
+
+            JSONObject event = new JSONObject();
+            event.put("kind", KIND_AUTH);
+            event.put("created_at", createdAtSeconds);
+            event.put("tags", tags);
+            event.put("content", "");
+            event.put("pubkey", pubkeyHex);
+
+            return event.toString();
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sign an unsigned event with a local secret key: adds the NIP-01 id and a Schnorr sig.
+     *
+     * @return the signed event JSON, or null if signing failed
+     */
+    public static String signEvent(String unsignedEventJson, byte[] secretKey) {
+        if (secretKey == null || secretKey.length != 32) {
+            return null;
+        }
+
+        try {
+            JSONObject event = new JSONObject(unsignedEventJson);
+
+            // Compute event ID (SHA-256 of serialized event)
+            String serialized = serializeForId(event);
+            byte[] idBytes = sha256(serialized.getBytes(StandardCharsets.UTF_8));
+            if (idBytes == null) {
+                return null;
+            }
+
+            byte[] sig = Secp256k1.getInstance().schnorrSign(idBytes, secretKey);
+            if (sig == null) {
+                return null;
+            }
+
+            event.put("id", bytesToHex(idBytes));
+            event.put("sig", bytesToHex(sig));
+
+            return event.toString();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public static byte[] sha256(byte[] input) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return digest.digest(input);
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    public static String bytesToHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+}
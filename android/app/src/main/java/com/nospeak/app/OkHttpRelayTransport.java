@@ -0,0 +1,101 @@
+package com.nospeak.app;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okio.ByteString;
+
+/**
+ * {@link RelayPool.Transport} over OkHttp WebSockets.
+ *
+ * Every socket client is derived from one base client with newBuilder(), so all ping intervals
+ * share its connection pool, dispatcher and TLS session cache.
+ */
+public final class OkHttpRelayTransport implements RelayPool.Transport {
+
+    private final OkHttpClient baseClient;
+    private final Map<Integer, OkHttpClient> clientsByPingSeconds = new HashMap<>();
+
+    public OkHttpRelayTransport(OkHttpClient baseClient) {
+        this.baseClient = baseClient;
+    }
+
+    @Override
+    public RelayPool.RelaySocket open(String relayUrl, int pingSeconds, final RelayPool.SocketCallbacks callbacks) {
+        Request request;
+        try {
+            request = new Request.Builder()
+                    .url(relayUrl)
+                    .build();
+        } catch (IllegalArgumentException e) {
+            // Not an http(s)/ws(s) URL
+            return null;
+        }
+
+        final WebSocket webSocket = clientFor(pingSeconds).newWebSocket(request, new WebSocketListener() {
+            @Override
+            public void onOpen(WebSocket webSocket, Response response) {
+                callbacks.onOpen();
+            }
+
+            @Override
+            public void onMessage(WebSocket webSocket, String text) {
+                callbacks.onMessage(text);
+            }
+
+            @Override
+            public void onMessage(WebSocket webSocket, ByteString bytes) {
+                callbacks.onMessage(bytes.utf8());
+            }
+
+            @Override
+            public void onClosing(WebSocket webSocket, int code, String reason) {
+                // Complete the close handshake so the relay does not have to time it out.
+                webSocket.close(1000, null);
+            }
+
+            @Override
+            public void onClosed(WebSocket webSocket, int code, String reason) {
+                callbacks.onClosed("closed code=" + code + " reason=" + reason);
+            }
+
+            @Override
+            public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+                String detail = t != null ? ("failure " + t.getClass().getSimpleName() + ": " + t.getMessage()) : "failure";
+                callbacks.onClosed(detail);
+            }
+        });
+
+        return new RelayPool.RelaySocket() {
+            @Override
+            public boolean send(String text) {
+                return webSocket.send(text);
+            }
+
+            @Override
+            public void close(int code, String reason) {
+                if (!webSocket.close(code, reason)) {
+                    // Already closing or never opened
+                    webSocket.cancel();
+                }
+            }
+        };
+    }
+
+    private synchronized OkHttpClient clientFor(int pingSeconds) {
+        OkHttpClient client = clientsByPingSeconds.get(pingSeconds);
+        if (client == null) {
+            client = baseClient.newBuilder()
+                    .pingInterval(pingSeconds, TimeUnit.SECONDS)
+                    .build();
+            clientsByPingSeconds.put(pingSeconds, client);
+        }
+        return client;
+    }
+}
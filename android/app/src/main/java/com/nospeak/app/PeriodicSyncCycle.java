@@ -0,0 +1,176 @@
+package com.nospeak.app;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Tracks one batch sync in the periodic sync mode: every relay is opened at once, and the cycle
+ * is complete when each one has either reached EOSE or failed. The owner enforces the deadline
+ * and reports the cycle's wall time and traffic through {@link #finish}.
+ *
+ * A cycle only counts as a complete sync if every relay caught up or failed in time, its
+ * decrypts drained before the owner stopped waiting, and no event was dropped under load.
+ */
+public final class PeriodicSyncCycle {
+
+    public static final class Report {
+        public final long startedAtMs;
+        public final long wallTimeMs;
+        public final int relayCount;
+        public final int relaysCaughtUp;
+        public final int relaysFailed;
+        public final boolean timedOut;
+        public final boolean drainTimedOut;
+        public final long events;
+        public final long droppedEvents;
+        public final long bytesReceived;
+        public final long bytesSent;
+
+        Report(long startedAtMs, long wallTimeMs, int relayCount, int relaysCaughtUp, int relaysFailed,
+               boolean timedOut, boolean drainTimedOut, long events, long droppedEvents,
+               long bytesReceived, long bytesSent) {
+            this.startedAtMs = startedAtMs;
+            this.wallTimeMs = wallTimeMs;
+            this.relayCount = relayCount;
+            this.relaysCaughtUp = relaysCaughtUp;
+            this.relaysFailed = relaysFailed;
+            this.timedOut = timedOut;
+            this.drainTimedOut = drainTimedOut;
+            this.events = events;
+            this.droppedEvents = droppedEvents;
+            this.bytesReceived = bytesReceived;
+            this.bytesSent = bytesSent;
+        }
+
+        /**
+         * @return false if anything may have been left for the next cycle
+         */
+        public boolean isComplete() {
+            return !timedOut && !drainTimedOut && droppedEvents == 0L;
+        }
+
+        public JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            try {
+                json.put("startedAtMs", startedAtMs);
+                json.put("wallTimeMs", wallTimeMs);
+                json.put("relayCount", relayCount);
+                json.put("relaysCaughtUp", relaysCaughtUp);
+                json.put("relaysFailed", relaysFailed);
+                json.put("timedOut", timedOut);
+                json.put("drainTimedOut", drainTimedOut);
+                json.put("complete", isComplete());
+                json.put("events", events);
+                json.put("droppedEvents", droppedEvents);
+                json.put("bytesReceived", bytesReceived);
+                json.put("bytesSent", bytesSent);
+            } catch (JSONException ignored) {
+                // ignore
+            }
+            return json;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    Locale.ROOT,
+                    "wall=%dms relays=%d caughtUp=%d failed=%d timedOut=%s drainTimedOut=%s events=%d dropped=%d rx=%dB tx=%dB",
+                    wallTimeMs, relayCount, relaysCaughtUp, relaysFailed, timedOut, drainTimedOut, events,
+                    droppedEvents, bytesReceived, bytesSent
+            );
+        }
+    }
+
+    private final long startedAtMs;
+    private final long bytesReceivedAtStart;
+    private final long bytesSentAtStart;
+    private final Set<String> pending = new HashSet<>();
+    private final int relayCount;
+    private int caughtUp;
+    private int failed;
+    private long events;
+    private long droppedEvents;
+
+    /**
+     * @param bytesReceivedAtStart the pool's received-bytes counter when the cycle began
+     * @param bytesSentAtStart     the pool's sent-bytes counter when the cycle began
+     */
+    public PeriodicSyncCycle(Collection<String> relayUrls, long startedAtMs, long bytesReceivedAtStart, long bytesSentAtStart) {
+        for (String url : relayUrls) {
+            if (url != null && !url.isEmpty()) {
+                pending.add(url);
+            }
+        }
+        this.relayCount = pending.size();
+        this.startedAtMs = startedAtMs;
+        this.bytesReceivedAtStart = bytesReceivedAtStart;
+        this.bytesSentAtStart = bytesSentAtStart;
+    }
+
+    /**
+     * @return true if this EOSE completed the cycle
+     */
+    public synchronized boolean onEose(String relayUrl) {
+        if (!pending.remove(relayUrl)) {
+            return false;
+        }
+        caughtUp++;
+        return pending.isEmpty();
+    }
+
+    /**
+     * A relay that drops (or never connects) before EOSE is not waited for again this cycle.
+     *
+     * @return true if this failure completed the cycle
+     */
+    public synchronized boolean onRelayFailed(String relayUrl) {
+        if (!pending.remove(relayUrl)) {
+            return false;
+        }
+        failed++;
+        return pending.isEmpty();
+    }
+
+    public synchronized void onEvent() {
+        events++;
+    }
+
+    /**
+     * An event was dropped from the decrypt queue; it is left for the next cycle.
+     */
+    public synchronized void onEventDropped() {
+        droppedEvents++;
+    }
+
+    public synchronized boolean isComplete() {
+        return pending.isEmpty();
+    }
+
+    public long getStartedAtMs() {
+        return startedAtMs;
+    }
+
+    /**
+     * @param drained false if the owner stopped waiting for queued decrypts to finish
+     */
+    public synchronized Report finish(long nowMs, long bytesReceived, long bytesSent, boolean drained) {
+        return new Report(
+                startedAtMs,
+                Math.max(0L, nowMs - startedAtMs),
+                relayCount,
+                caughtUp,
+                failed,
+                !pending.isEmpty(),
+                !drained,
+                events,
+                droppedEvents,
+                Math.max(0L, bytesReceived - bytesReceivedAtStart),
+                Math.max(0L, bytesSent - bytesSentAtStart)
+        );
+    }
+}
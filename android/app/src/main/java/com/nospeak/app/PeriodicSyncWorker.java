@@ -0,0 +1,75 @@
+package com.nospeak.app;
+
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+import androidx.work.Constraints;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Kicks one batch sync of {@link NativeBackgroundMessagingService} per period in the periodic
+ * sync mode. WorkManager runs it in Doze maintenance windows once a network is available; the
+ * service then connects every relay, catches up, notifies and stops itself.
+ */
+public class PeriodicSyncWorker extends Worker {
+
+    private static final String LOG_TAG = "PeriodicSyncWorker";
+    private static final String UNIQUE_WORK_NAME = "nospeak_periodic_sync";
+
+    public PeriodicSyncWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        Intent intent = AndroidBackgroundMessagingPrefs.buildSyncOnceServiceIntent(context);
+        if (intent == null) {
+            return Result.success();
+        }
+
+        try {
+            ContextCompat.startForegroundService(context, intent);
+        } catch (IllegalStateException e) {
+            // Android 12+ only lets background work start a foreground service when the app is
+            // exempt from battery optimizations; the next period tries again.
+            Log.w(LOG_TAG, "Periodic sync could not start: " + e.getMessage());
+        }
+        return Result.success();
+    }
+
+    public static void schedule(Context context, int intervalMinutes) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .build();
+
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(
+                PeriodicSyncWorker.class,
+                Math.max(AndroidBackgroundMessagingPrefs.MIN_SYNC_INTERVAL_MINUTES, intervalMinutes),
+                TimeUnit.MINUTES
+        )
+                .setConstraints(constraints)
+                .build();
+
+        WorkManager.getInstance(context).enqueueUniquePeriodicWork(
+                UNIQUE_WORK_NAME,
+                ExistingPeriodicWorkPolicy.UPDATE,
+                request
+        );
+    }
+
+    public static void cancel(Context context) {
+        WorkManager.getInstance(context).cancelUniqueWork(UNIQUE_WORK_NAME);
+    }
+}
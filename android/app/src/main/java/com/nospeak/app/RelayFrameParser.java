@@ -0,0 +1,479 @@
+package com.nospeak.app;
+
+/**
+ * Single-pass parser for relay-to-client frames (NIP-01 / NIP-42 / NIP-77).
+ *
+ * Unlike building an org.json DOM, this classifies the frame from its first token and only
+ * extracts the fields the background service reads. For EVENT frames, string fields are first
+ * recorded as offsets into the frame; they are decoded only after the event's kind has been
+ * checked, so events of other kinds never allocate their content. Trailing array elements that
+ * the service does not use are not validated.
+ */
+public final class RelayFrameParser {
+
+    public static final int TYPE_UNKNOWN = 0;
+    public static final int TYPE_EVENT = 1;
+    public static final int TYPE_EOSE = 2;
+    public static final int TYPE_OK = 3;
+    public static final int TYPE_AUTH = 4;
+    public static final int TYPE_CLOSED = 5;
+    public static final int TYPE_NOTICE = 6;
+    public static final int TYPE_NEG_MSG = 7;
+    public static final int TYPE_NEG_ERR = 8;
+
+    public static final class Frame {
+        public int type = TYPE_UNKNOWN;
+        /** EVENT, EOSE, CLOSED, NEG-MSG and NEG-ERR. */
+        public String subscriptionId;
+        /** EVENT: kind of the event, or -1 if missing / not an integer. */
+        public int kind = -1;
+        /** EVENT: only set when the kind matched; OK: the acknowledged event id. */
+        public String eventId;
+        public String pubkey;
+        public String content;
+        public long createdAt;
+        /** OK: whether the relay accepted the event. */
+        public boolean accepted;
+        /** AUTH challenge, CLOSED reason, OK message, NOTICE text, NEG-MSG payload or NEG-ERR reason. */
+        public String message;
+    }
+
+    private static final class MalformedFrameException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        MalformedFrameException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final MalformedFrameException MALFORMED = new MalformedFrameException();
+
+    private final String text;
+    private final int length;
+    private int pos;
+
+    // Result of the last scanString(): [start, end) of the raw contents and whether it has escapes.
+    private int spanEnd;
+    private boolean spanEscaped;
+
+    private RelayFrameParser(String text) {
+        this.text = text;
+        this.length = text.length();
+    }
+
+    /**
+     * Parses a relay frame.
+     *
+     * @param acceptedEventKind the only event kind whose id, pubkey and content are extracted
+     * @return the frame, or null if it is malformed
+     */
+    public static Frame parse(String text, int acceptedEventKind) {
+        if (text == null) {
+            return null;
+        }
+        try {
+            return new RelayFrameParser(text).parseFrame(acceptedEventKind);
+        } catch (MalformedFrameException e) {
+            return null;
+        }
+    }
+
+    private Frame parseFrame(int acceptedEventKind) {
+        Frame frame = new Frame();
+
+        skipWhitespace();
+        expect('[');
+        skipWhitespace();
+        int typeStart = scanString();
+        frame.type = classify(typeStart, spanEnd, spanEscaped);
+        if (frame.type == TYPE_UNKNOWN) {
+            return frame;
+        }
+
+        nextElement();
+        switch (frame.type) {
+            case TYPE_EVENT:
+                frame.subscriptionId = readString();
+                nextElement();
+                parseEvent(frame, acceptedEventKind);
+                break;
+            case TYPE_EOSE:
+                frame.subscriptionId = readString();
+                break;
+            case TYPE_AUTH:
+            case TYPE_NOTICE:
+                frame.message = readString();
+                break;
+            case TYPE_CLOSED:
+            case TYPE_NEG_ERR:
+                frame.subscriptionId = readString();
+                frame.message = hasNextElement() ? readString() : "";
+                break;
+            case TYPE_NEG_MSG:
+                frame.subscriptionId = readString();
+                nextElement();
+                frame.message = readString();
+                break;
+            case TYPE_OK:
+                frame.eventId = readString();
+                nextElement();
+                frame.accepted = readBoolean();
+                frame.message = hasNextElement() ? readString() : "";
+                break;
+            default:
+                break;
+        }
+        return frame;
+    }
+
+    private int classify(int start, int end, boolean escaped) {
+        if (escaped) {
+            return TYPE_UNKNOWN;
+        }
+        int len = end - start;
+        if (len == 5 && text.startsWith("EVENT", start)) {
+            return TYPE_EVENT;
+        }
+        if (len == 4 && text.startsWith("EOSE", start)) {
+            return TYPE_EOSE;
+        }
+        if (len == 2 && text.startsWith("OK", start)) {
+            return TYPE_OK;
+        }
+        if (len == 4 && text.startsWith("AUTH", start)) {
+            return TYPE_AUTH;
+        }
+        if (len == 6 && text.startsWith("CLOSED", start)) {
+            return TYPE_CLOSED;
+        }
+        if (len == 6 && text.startsWith("NOTICE", start)) {
+            return TYPE_NOTICE;
+        }
+        if (len == 7 && text.startsWith("NEG-MSG", start)) {
+            return TYPE_NEG_MSG;
+        }
+        if (len == 7 && text.startsWith("NEG-ERR", start)) {
+            return TYPE_NEG_ERR;
+        }
+        return TYPE_UNKNOWN;
+    }
+
+    private void parseEvent(Frame frame, int acceptedEventKind) {
+        int idStart = -1, idEnd = 0;
+        boolean idEscaped = false;
+        int pubkeyStart = -1, pubkeyEnd = 0;
+        boolean pubkeyEscaped = false;
+        int contentStart = -1, contentEnd = 0;
+        boolean contentEscaped = false;
+
+        expect('{');
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return;
+        }
+
+        while (true) {
+            skipWhitespace();
+            int keyStart = scanString();
+            int keyLen = spanEnd - keyStart;
+            boolean keyEscaped = spanEscaped;
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+
+            if (!keyEscaped && keyLen == 4 && text.startsWith("kind", keyStart)) {
+                long kind = readInteger();
+                frame.kind = kind >= 0 && kind <= Integer.MAX_VALUE ? (int) kind : -1;
+            } else if (!keyEscaped && keyLen == 10 && text.startsWith("created_at", keyStart)) {
+                long createdAt = readInteger();
+                frame.createdAt = createdAt >= 0 ? createdAt : 0L;
+            } else if (!keyEscaped && keyLen == 2 && text.startsWith("id", keyStart) && peek() == '"') {
+                idStart = scanString();
+                idEnd = spanEnd;
+                idEscaped = spanEscaped;
+            } else if (!keyEscaped && keyLen == 6 && text.startsWith("pubkey", keyStart) && peek() == '"') {
+                pubkeyStart = scanString();
+                pubkeyEnd = spanEnd;
+                pubkeyEscaped = spanEscaped;
+            } else if (!keyEscaped && keyLen == 7 && text.startsWith("content", keyStart) && peek() == '"') {
+                contentStart = scanString();
+                contentEnd = spanEnd;
+                contentEscaped = spanEscaped;
+            } else {
+                skipValue();
+            }
+
+            skipWhitespace();
+            char c = next();
+            if (c == '}') {
+                break;
+            }
+            if (c != ',') {
+                throw MALFORMED;
+            }
+        }
+
+        if (frame.kind != acceptedEventKind) {
+            return;
+        }
+
+        if (idStart >= 0) {
+            frame.eventId = decode(idStart, idEnd, idEscaped);
+        }
+        if (pubkeyStart >= 0) {
+            frame.pubkey = decode(pubkeyStart, pubkeyEnd, pubkeyEscaped);
+        }
+        if (contentStart >= 0) {
+            frame.content = decode(contentStart, contentEnd, contentEscaped);
+        }
+    }
+
+    // ---- Tokenizer ----
+
+    private char peek() {
+        if (pos >= length) {
+            throw MALFORMED;
+        }
+        return text.charAt(pos);
+    }
+
+    private char next() {
+        if (pos >= length) {
+            throw MALFORMED;
+        }
+        return text.charAt(pos++);
+    }
+
+    private void expect(char expected) {
+        if (next() != expected) {
+            throw MALFORMED;
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < length) {
+            char c = text.charAt(pos);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private void nextElement() {
+        if (!hasNextElement()) {
+            throw MALFORMED;
+        }
+    }
+
+    /**
+     * Consumes the separator before the next array element; false if the array ends here.
+     */
+    private boolean hasNextElement() {
+        skipWhitespace();
+        char c = next();
+        if (c == ',') {
+            skipWhitespace();
+            return true;
+        }
+        if (c == ']') {
+            return false;
+        }
+        throw MALFORMED;
+    }
+
+    /**
+     * Scans a string token without decoding it. Returns the start of its contents; the end
+     * (exclusive, before the closing quote) is left in {@link #spanEnd}.
+     */
+    private int scanString() {
+        expect('"');
+        int start = pos;
+        boolean escaped = false;
+        while (true) {
+            char c = next();
+            if (c == '"') {
+                break;
+            }
+            if (c == '\\') {
+                escaped = true;
+                next();
+            } else if (c < 0x20) {
+                throw MALFORMED;
+            }
+        }
+        spanEnd = pos - 1;
+        spanEscaped = escaped;
+        return start;
+    }
+
+    private String readString() {
+        skipWhitespace();
+        int start = scanString();
+        return decode(start, spanEnd, spanEscaped);
+    }
+
+    private boolean readBoolean() {
+        if (text.startsWith("true", pos)) {
+            pos += 4;
+            return true;
+        }
+        if (text.startsWith("false", pos)) {
+            pos += 5;
+            return false;
+        }
+        throw MALFORMED;
+    }
+
+    /**
+     * Reads a JSON number; returns -1 for any other value, or a number that is not a
+     * non-negative integer that fits in a long (the value is still consumed).
+     */
+    private long readInteger() {
+        char c = peek();
+        if (c == '"' || c == '{' || c == '[' || c == 't' || c == 'f' || c == 'n') {
+            skipValue();
+            return -1L;
+        }
+        if (c != '-' && (c < '0' || c > '9')) {
+            // Not a JSON value; skipValue() would hand it straight back to us.
+            throw MALFORMED;
+        }
+
+        long value = 0L;
+        boolean valid = c != '-';
+        int digits = 0;
+        if (!valid) {
+            pos++;
+        }
+        while (pos < length) {
+            c = text.charAt(pos);
+            if (c >= '0' && c <= '9') {
+                if (++digits > 18) {
+                    valid = false;
+                }
+                value = value * 10 + (c - '0');
+                pos++;
+            } else if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                valid = false;
+                pos++;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            throw MALFORMED;
+        }
+        return valid ? value : -1L;
+    }
+
+    private void skipValue() {
+        char c = peek();
+        switch (c) {
+            case '"':
+                scanString();
+                return;
+            case '{':
+            case '[':
+                skipContainer();
+                return;
+            case 't':
+                skipLiteral("true");
+                return;
+            case 'f':
+                skipLiteral("false");
+                return;
+            case 'n':
+                skipLiteral("null");
+                return;
+            default:
+                readInteger();
+        }
+    }
+
+    /**
+     * Skips a nested object or array by bracket depth; string contents are stepped over so
+     * brackets inside strings do not count.
+     */
+    private void skipContainer() {
+        int depth = 0;
+        while (true) {
+            char c = next();
+            if (c == '"') {
+                pos--;
+                scanString();
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+                if (depth == 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void skipLiteral(String literal) {
+        if (!text.startsWith(literal, pos)) {
+            throw MALFORMED;
+        }
+        pos += literal.length();
+    }
+
+    private String decode(int start, int end, boolean escaped) {
+        if (!escaped) {
+            return text.substring(start, end);
+        }
+
+        StringBuilder sb = new StringBuilder(end - start);
+        int i = start;
+        while (i < end) {
+            char c = text.charAt(i++);
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            char e = text.charAt(i++);
+            switch (e) {
+                case '"':
+                case '\\':
+                case '/':
+                    sb.append(e);
+                    break;
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    if (i + 4 > end) {
+                        throw MALFORMED;
+                    }
+                    int code = 0;
+                    for (int k = 0; k < 4; k++) {
+                        int digit = Character.digit(text.charAt(i++), 16);
+                        if (digit < 0) {
+                            throw MALFORMED;
+                        }
+                        code = (code << 4) | digit;
+                    }
+                    sb.append((char) code);
+                    break;
+                default:
+                    throw MALFORMED;
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,396 @@
+package com.nospeak.app;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rolling per-relay health statistics and the locked-profile relay selection built on them.
+ *
+ * For every relay this tracks connect latency (EWMA), uptime, auth failures, and how the
+ * events it delivers relate to the other relays: an event is unique to the first relay that
+ * delivers it and a duplicate for every later one. The last {@code coverageWindow} event IDs
+ * also remember which relays delivered them, so {@link #selectRelays} can pick the set of
+ * relays that together cover the most recent events (greedy max coverage).
+ *
+ * Uptime is measured against the time the relay was wanted: intervals where the pool parked it
+ * on purpose ({@link #onParked} until {@link #onWanted}) do not count against it.
+ *
+ * All timestamps are supplied by the caller so the tracker can be driven from tests.
+ */
+public final class RelayHealthTracker {
+
+    private static final double LATENCY_EWMA_ALPHA = 0.3d;
+    // Relays beyond this many do not get a coverage bit; they are still scored.
+    private static final int MAX_COVERAGE_RELAYS = 64;
+
+    public static final class RelayStats {
+        public final String relayUrl;
+        public final long connectAttempts;
+        public final long connectLatencyEwmaMs;
+        public final double uptimeRatio;
+        public final long uniqueEvents;
+        public final long duplicateEvents;
+        public final long authFailures;
+        public final long bytesReceived;
+        public final double score;
+
+        RelayStats(String relayUrl, long connectAttempts, long connectLatencyEwmaMs, double uptimeRatio,
+                   long uniqueEvents, long duplicateEvents, long authFailures, long bytesReceived, double score) {
+            this.relayUrl = relayUrl;
+            this.connectAttempts = connectAttempts;
+            this.connectLatencyEwmaMs = connectLatencyEwmaMs;
+            this.uptimeRatio = uptimeRatio;
+            this.uniqueEvents = uniqueEvents;
+            this.duplicateEvents = duplicateEvents;
+            this.authFailures = authFailures;
+            this.bytesReceived = bytesReceived;
+            this.score = score;
+        }
+
+        public double getDuplicateRatio() {
+            long total = uniqueEvents + duplicateEvents;
+            return total > 0L ? (double) duplicateEvents / total : 0d;
+        }
+
+        /**
+         * Bytes received per event this relay delivered first, or -1 if it has not delivered any.
+         */
+        public long getBytesPerUniqueEvent() {
+            return uniqueEvents > 0L ? bytesReceived / uniqueEvents : -1L;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    Locale.ROOT,
+                    "%s latency=%dms uptime=%.2f unique=%d dup=%.2f auth_fail=%d bytes/unique=%d score=%.2f",
+                    relayUrl, connectLatencyEwmaMs, uptimeRatio, uniqueEvents, getDuplicateRatio(),
+                    authFailures, getBytesPerUniqueEvent(), score
+            );
+        }
+    }
+
+    private static final class Health {
+        final int coverageBit;
+        long connectAttempts;
+        long connectStartedAtMs = -1L;
+        double latencyEwmaMs = -1d;
+        long connectedAtMs = -1L;
+        long wantedSinceMs;
+        long wantedTotalMs;
+        long connectedTotalMs;
+        long uniqueEvents;
+        long duplicateEvents;
+        long authFailures;
+        long bytesReceived;
+
+        Health(int coverageBit, long nowMs) {
+            this.coverageBit = coverageBit;
+            this.wantedSinceMs = nowMs;
+        }
+    }
+
+    private final int coverageWindow;
+    private final Map<String, Health> relays = new HashMap<>();
+    // Event id -> bitmask of relays that delivered it, oldest first.
+    private final LinkedHashMap<String, Long> recentDeliveries;
+    private int nextCoverageBit = 0;
+
+    public RelayHealthTracker(final int coverageWindow) {
+        if (coverageWindow <= 0) {
+            throw new IllegalArgumentException("coverageWindow must be positive");
+        }
+        this.coverageWindow = coverageWindow;
+        this.recentDeliveries = new LinkedHashMap<String, Long>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > RelayHealthTracker.this.coverageWindow;
+            }
+        };
+    }
+
+    public synchronized void onConnectStarted(String relayUrl, long nowMs) {
+        Health health = health(relayUrl, nowMs);
+        health.connectAttempts++;
+        health.connectStartedAtMs = nowMs;
+    }
+
+    public synchronized void onConnected(String relayUrl, long nowMs) {
+        Health health = health(relayUrl, nowMs);
+        if (health.connectStartedAtMs >= 0L) {
+            long latencyMs = Math.max(0L, nowMs - health.connectStartedAtMs);
+            health.latencyEwmaMs = health.latencyEwmaMs < 0d
+                    ? latencyMs
+                    : LATENCY_EWMA_ALPHA * latencyMs + (1d - LATENCY_EWMA_ALPHA) * health.latencyEwmaMs;
+            health.connectStartedAtMs = -1L;
+        }
+        if (health.connectedAtMs < 0L) {
+            health.connectedAtMs = nowMs;
+        }
+    }
+
+    public synchronized void onDisconnected(String relayUrl, long nowMs) {
+        Health health = relays.get(relayUrl);
+        if (health == null) {
+            return;
+        }
+        health.connectStartedAtMs = -1L;
+        if (health.connectedAtMs >= 0L) {
+            health.connectedTotalMs += Math.max(0L, nowMs - health.connectedAtMs);
+            health.connectedAtMs = -1L;
+        }
+    }
+
+    /**
+     * The pool wants this relay connected again after parking it.
+     */
+    public synchronized void onWanted(String relayUrl, long nowMs) {
+        Health health = health(relayUrl, nowMs);
+        if (health.wantedSinceMs < 0L) {
+            health.wantedSinceMs = nowMs;
+        }
+    }
+
+    /**
+     * The pool parked this relay on purpose; the time until {@link #onWanted} is not held
+     * against its uptime.
+     */
+    public synchronized void onParked(String relayUrl, long nowMs) {
+        Health health = relays.get(relayUrl);
+        if (health == null) {
+            return;
+        }
+        if (health.connectedAtMs >= 0L) {
+            health.connectedTotalMs += Math.max(0L, nowMs - health.connectedAtMs);
+            health.connectedAtMs = -1L;
+        }
+        if (health.wantedSinceMs >= 0L) {
+            health.wantedTotalMs += Math.max(0L, nowMs - health.wantedSinceMs);
+            health.wantedSinceMs = -1L;
+        }
+    }
+
+    public synchronized void onAuthFailed(String relayUrl, long nowMs) {
+        health(relayUrl, nowMs).authFailures++;
+    }
+
+    /**
+     * Records an event delivered by a relay.
+     *
+     * @return true if no other relay delivered this event first (within the coverage window)
+     */
+    public synchronized boolean onEvent(String relayUrl, String eventId, int frameBytes, long nowMs) {
+        Health health = health(relayUrl, nowMs);
+        health.bytesReceived += Math.max(0, frameBytes);
+        if (eventId == null) {
+            return false;
+        }
+
+        String key = eventId.toLowerCase(Locale.ROOT);
+        long bit = coverageBitOf(health);
+        Long deliveredBy = recentDeliveries.get(key);
+        if (deliveredBy == null) {
+            recentDeliveries.put(key, bit);
+            health.uniqueEvents++;
+            return true;
+        }
+
+        recentDeliveries.put(key, deliveredBy | bit);
+        if ((deliveredBy & ~bit) != 0L) {
+            health.duplicateEvents++;
+            return false;
+        }
+        // Re-delivery by the same relay (e.g. a replay after reconnecting) is not a cross-relay duplicate.
+        return true;
+    }
+
+    /**
+     * Drops relays that are no longer configured.
+     */
+    public synchronized void retainRelays(Collection<String> relayUrls) {
+        relays.keySet().retainAll(new LinkedHashSet<>(relayUrls));
+    }
+
+    /**
+     * Chooses up to {@code maxRelays} relays to keep connected.
+     *
+     * All but the last slot go to the relays that together cover the most events in the
+     * coverage window, ties broken by {@link RelayStats#score}. The last slot rotates through
+     * the remaining relays by {@code rotation}, so parked relays keep being sampled and can earn
+     * their way back in. Returns every relay if there are no more than {@code maxRelays}.
+     */
+    public synchronized List<String> selectRelays(List<String> relayUrls, int maxRelays, int rotation, long nowMs) {
+        List<String> candidates = new ArrayList<>(new LinkedHashSet<>(relayUrls));
+        if (maxRelays <= 0 || candidates.size() <= maxRelays) {
+            return candidates;
+        }
+
+        Map<String, Double> scores = new HashMap<>();
+        for (String relayUrl : candidates) {
+            scores.put(relayUrl, score(relays.get(relayUrl), nowMs));
+        }
+
+        List<String> selected = new ArrayList<>();
+        List<String> remaining = new ArrayList<>(candidates);
+        long covered = 0L;
+        int coverageSlots = Math.max(1, maxRelays - 1);
+
+        while (selected.size() < coverageSlots && !remaining.isEmpty()) {
+            String best = null;
+            int bestGain = -1;
+            double bestScore = 0d;
+            for (String relayUrl : remaining) {
+                int gain = coverageGain(relays.get(relayUrl), covered);
+                double score = scores.get(relayUrl);
+                if (gain > bestGain || (gain == bestGain && score > bestScore)) {
+                    best = relayUrl;
+                    bestGain = gain;
+                    bestScore = score;
+                }
+            }
+            selected.add(best);
+            remaining.remove(best);
+            covered |= coverageBitOf(relays.get(best));
+        }
+
+        if (selected.size() < maxRelays && !remaining.isEmpty()) {
+            selected.add(remaining.get(Math.floorMod(rotation, remaining.size())));
+        }
+        return selected;
+    }
+
+    public synchronized RelayStats statsFor(String relayUrl, long nowMs) {
+        Health health = relays.get(relayUrl);
+        if (health == null) {
+            return null;
+        }
+        return new RelayStats(
+                relayUrl,
+                health.connectAttempts,
+                health.latencyEwmaMs >= 0d ? Math.round(health.latencyEwmaMs) : -1L,
+                uptimeRatio(health, nowMs),
+                health.uniqueEvents,
+                health.duplicateEvents,
+                health.authFailures,
+                health.bytesReceived,
+                score(health, nowMs)
+        );
+    }
+
+    public synchronized Set<String> getTrackedRelays() {
+        return new LinkedHashSet<>(relays.keySet());
+    }
+
+    public synchronized List<RelayStats> snapshot(long nowMs) {
+        List<RelayStats> stats = new ArrayList<>();
+        for (String relayUrl : relays.keySet()) {
+            stats.add(statsFor(relayUrl, nowMs));
+        }
+        return stats;
+    }
+
+    /**
+     * Higher is better: uptime and unique deliveries earn, slow connects, duplicate-only
+     * traffic and auth failures cost. Relays without data score neutrally.
+     */
+    private double score(Health health, long nowMs) {
+        if (health == null) {
+            return 0.5d;
+        }
+
+        double score = uptimeRatio(health, nowMs);
+        long total = health.uniqueEvents + health.duplicateEvents;
+        if (total > 0L) {
+            score += (double) health.uniqueEvents / total;
+        } else {
+            score += 0.5d;
+        }
+        if (health.latencyEwmaMs >= 0d) {
+            score -= Math.min(1d, health.latencyEwmaMs / 5000d);
+        }
+        score -= Math.min(1d, health.authFailures * 0.25d);
+        return score;
+    }
+
+    private double uptimeRatio(Health health, long nowMs) {
+        long observedMs = health.wantedTotalMs;
+        if (health.wantedSinceMs >= 0L) {
+            observedMs += Math.max(0L, nowMs - health.wantedSinceMs);
+        }
+        if (observedMs <= 0L) {
+            return health.connectedAtMs >= 0L ? 1d : 0d;
+        }
+        long connectedMs = health.connectedTotalMs;
+        if (health.connectedAtMs >= 0L) {
+            connectedMs += nowMs - health.connectedAtMs;
+        }
+        return Math.min(1d, (double) connectedMs / observedMs);
+    }
+
+    /**
+     * Counts window events this relay delivered that none of the relays in {@code covered} did.
+     */
+    private int coverageGain(Health health, long covered) {
+        long bit = coverageBitOf(health);
+        if (bit == 0L) {
+            return 0;
+        }
+        int gain = 0;
+        for (Long deliveredBy : recentDeliveries.values()) {
+            if ((deliveredBy & bit) != 0L && (deliveredBy & covered) == 0L) {
+                gain++;
+            }
+        }
+        return gain;
+    }
+
+    private static long coverageBitOf(Health health) {
+        return health != null && health.coverageBit >= 0 ? 1L << health.coverageBit : 0L;
+    }
+
+    private Health health(String relayUrl, long nowMs) {
+        Health health = relays.get(relayUrl);
+        if (health == null) {
+            health = new Health(allocateCoverageBit(), nowMs);
+            relays.put(relayUrl, health);
+        }
+        return health;
+    }
+
+    private int allocateCoverageBit() {
+        if (nextCoverageBit < MAX_COVERAGE_RELAYS) {
+            return nextCoverageBit++;
+        }
+
+        // Reuse a bit released by a relay that is no longer tracked.
+        boolean[] used = new boolean[MAX_COVERAGE_RELAYS];
+        for (Health health : relays.values()) {
+            if (health.coverageBit >= 0) {
+                used[health.coverageBit] = true;
+            }
+        }
+        for (int bit = 0; bit < MAX_COVERAGE_RELAYS; bit++) {
+            if (!used[bit]) {
+                clearCoverageBit(bit);
+                return bit;
+            }
+        }
+        return -1;
+    }
+
+    private void clearCoverageBit(int bit) {
+        long mask = ~(1L << bit);
+        for (Iterator<Map.Entry<String, Long>> it = recentDeliveries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Long> entry = it.next();
+            entry.setValue(entry.getValue() & mask);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.nospeak.app;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-relay traffic and cost counters for the background service, for field diagnostics.
+ *
+ * Hot-path counters (frames, events, duplicates, decrypts) are {@link LongAdder}s, so socket
+ * reader threads and decrypt workers never contend on a shared cache line; {@link #snapshot}
+ * sums them without stopping the writers. Connected time is accounted per energy profile from
+ * segments opened and closed by the relay pool actor.
+ *
+ * All timestamps are supplied by the caller so the metrics can be driven from tests.
+ */
+public final class RelayMetrics {
+
+    public static final String PROFILE_ACTIVE = "active";
+    public static final String PROFILE_LOCKED = "locked";
+
+    /** Upper bounds (inclusive, ms) of the decrypt time buckets; a last bucket takes the rest. */
+    static final long[] DECRYPT_BUCKET_BOUNDS_MS = {1L, 2L, 5L, 10L, 25L, 50L, 100L, 250L, 500L, 1000L};
+
+    private static final class Relay {
+        final LongAdder frames = new LongAdder();
+        final LongAdder bytesReceived = new LongAdder();
+        final LongAdder duplicates = new LongAdder();
+        final LongAdder decryptSuccesses = new LongAdder();
+        final LongAdder decryptFailures = new LongAdder();
+        final LongAdder authRoundTrips = new LongAdder();
+        final LongAdder connectAttempts = new LongAdder();
+        final LongAdder reconnects = new LongAdder();
+        final ConcurrentHashMap<Integer, LongAdder> eventsByKind = new ConcurrentHashMap<>();
+
+        // Guarded by this.
+        long connectedActiveMs;
+        long connectedLockedMs;
+        long connectedSinceMs = -1L;
+        boolean connectedLocked;
+
+        synchronized void closeSegment(long nowMs) {
+            if (connectedSinceMs < 0L) {
+                return;
+            }
+            long elapsed = Math.max(0L, nowMs - connectedSinceMs);
+            if (connectedLocked) {
+                connectedLockedMs += elapsed;
+            } else {
+                connectedActiveMs += elapsed;
+            }
+            connectedSinceMs = -1L;
+        }
+
+        synchronized void openSegment(long nowMs, boolean locked) {
+            if (connectedSinceMs >= 0L) {
+                return;
+            }
+            connectedSinceMs = nowMs;
+            connectedLocked = locked;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Relay> relays = new ConcurrentHashMap<>();
+    private final LongAdder[] decryptBuckets = new LongAdder[DECRYPT_BUCKET_BOUNDS_MS.length + 1];
+    private final LongAdder decryptTotalNanos = new LongAdder();
+    private final long startedAtMs;
+    private volatile boolean locked;
+
+    public RelayMetrics(long startedAtMs) {
+        this.startedAtMs = startedAtMs;
+        for (int i = 0; i < decryptBuckets.length; i++) {
+            decryptBuckets[i] = new LongAdder();
+        }
+    }
+
+    private Relay relay(String relayUrl) {
+        Relay relay = relays.get(relayUrl);
+        if (relay == null) {
+            Relay created = new Relay();
+            relay = relays.putIfAbsent(relayUrl, created);
+            if (relay == null) {
+                relay = created;
+            }
+        }
+        return relay;
+    }
+
+    // ---- Socket reader threads ----
+
+    public void onFrame(String relayUrl, int chars) {
+        Relay relay = relay(relayUrl);
+        relay.frames.increment();
+        relay.bytesReceived.add(chars);
+    }
+
+    public void onEvent(String relayUrl, int kind) {
+        ConcurrentHashMap<Integer, LongAdder> byKind = relay(relayUrl).eventsByKind;
+        LongAdder counter = byKind.get(kind);
+        if (counter == null) {
+            LongAdder created = new LongAdder();
+            counter = byKind.putIfAbsent(kind, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.increment();
+    }
+
+    /**
+     * An event this relay delivered after another relay (or an earlier replay) already had.
+     */
+    public void onDuplicate(String relayUrl) {
+        relay(relayUrl).duplicates.increment();
+    }
+
+    // ---- Decrypt workers ----
+
+    /**
+     * @param relayUrl the relay whose copy of the event was decrypted
+     */
+    public void onDecrypt(String relayUrl, boolean success, long elapsedNanos) {
+        Relay relay = relay(relayUrl);
+        if (success) {
+            relay.decryptSuccesses.increment();
+        } else {
+            relay.decryptFailures.increment();
+        }
+
+        long elapsedMs = elapsedNanos / 1_000_000L;
+        int bucket = 0;
+        while (bucket < DECRYPT_BUCKET_BOUNDS_MS.length && elapsedMs > DECRYPT_BUCKET_BOUNDS_MS[bucket]) {
+            bucket++;
+        }
+        decryptBuckets[bucket].increment();
+        decryptTotalNanos.add(Math.max(0L, elapsedNanos));
+    }
+
+    // ---- Relay pool actor ----
+
+    public void onConnectAttempt(String relayUrl) {
+        relay(relayUrl).connectAttempts.increment();
+    }
+
+    /**
+     * The relay is connected again after it dropped or failed (see
+     * {@link RelayReconnectScheduler#onConnected}).
+     */
+    public void onReconnected(String relayUrl) {
+        relay(relayUrl).reconnects.increment();
+    }
+
+    /**
+     * A NIP-42 AUTH was answered by the relay's OK (accepted or not).
+     */
+    public void onAuthRoundTrip(String relayUrl) {
+        relay(relayUrl).authRoundTrips.increment();
+    }
+
+    public void onConnected(String relayUrl, long nowMs) {
+        relay(relayUrl).openSegment(nowMs, locked);
+    }
+
+    public void onDisconnected(String relayUrl, long nowMs) {
+        relay(relayUrl).closeSegment(nowMs);
+    }
+
+    /**
+     * Connected time from here on counts toward the given profile.
+     */
+    public void onProfileChanged(boolean locked, long nowMs) {
+        if (this.locked == locked) {
+            return;
+        }
+        this.locked = locked;
+        for (Relay relay : relays.values()) {
+            synchronized (relay) {
+                if (relay.connectedSinceMs >= 0L) {
+                    relay.closeSegment(nowMs);
+                    relay.openSegment(nowMs, locked);
+                }
+            }
+        }
+    }
+
+    // ---- Snapshot (any thread) ----
+
+    public JSONObject snapshot(long nowMs) {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("sinceMs", startedAtMs);
+            json.put("uptimeMs", Math.max(0L, nowMs - startedAtMs));
+            json.put("profile", locked ? PROFILE_LOCKED : PROFILE_ACTIVE);
+
+            JSONObject decrypt = new JSONObject();
+            JSONArray bounds = new JSONArray();
+            for (long bound : DECRYPT_BUCKET_BOUNDS_MS) {
+                bounds.put(bound);
+            }
+            JSONArray counts = new JSONArray();
+            long decrypts = 0L;
+            for (LongAdder bucket : decryptBuckets) {
+                long count = bucket.sum();
+                counts.put(count);
+                decrypts += count;
+            }
+            decrypt.put("boundsMs", bounds);
+            decrypt.put("counts", counts);
+            decrypt.put("meanMs", decrypts > 0L ? decryptTotalNanos.sum() / decrypts / 1_000_000d : 0d);
+            json.put("decryptTime", decrypt);
+
+            List<String> urls = new ArrayList<>(relays.keySet());
+            Collections.sort(urls);
+            JSONArray relayArray = new JSONArray();
+            for (String url : urls) {
+                relayArray.put(relayJson(url, relays.get(url), nowMs));
+            }
+            json.put("relays", relayArray);
+        } catch (JSONException ignored) {
+            // ignore
+        }
+        return json;
+    }
+
+    private static JSONObject relayJson(String url, Relay relay, long nowMs) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("url", url);
+        json.put("frames", relay.frames.sum());
+        json.put("bytesReceived", relay.bytesReceived.sum());
+
+        JSONObject byKind = new JSONObject();
+        for (Map.Entry<Integer, LongAdder> entry : relay.eventsByKind.entrySet()) {
+            byKind.put(String.valueOf(entry.getKey()), entry.getValue().sum());
+        }
+        json.put("eventsByKind", byKind);
+        json.put("duplicates", relay.duplicates.sum());
+        json.put("decryptSuccesses", relay.decryptSuccesses.sum());
+        json.put("decryptFailures", relay.decryptFailures.sum());
+        json.put("authRoundTrips", relay.authRoundTrips.sum());
+
+        json.put("connectAttempts", relay.connectAttempts.sum());
+        json.put("reconnects", relay.reconnects.sum());
+
+        long activeMs;
+        long lockedMs;
+        synchronized (relay) {
+            activeMs = relay.connectedActiveMs;
+            lockedMs = relay.connectedLockedMs;
+            if (relay.connectedSinceMs >= 0L) {
+                long open = Math.max(0L, nowMs - relay.connectedSinceMs);
+                if (relay.connectedLocked) {
+                    lockedMs += open;
+                } else {
+                    activeMs += open;
+                }
+            }
+        }
+        JSONObject connected = new JSONObject();
+        connected.put(PROFILE_ACTIVE, activeMs);
+        connected.put(PROFILE_LOCKED, lockedMs);
+        json.put("connectedMs", connected);
+        return json;
+    }
+}
@@ -0,0 +1,1065 @@
+package com.nospeak.app;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Relay connection state for the background service, owned by a single-threaded actor.
+ *
+ * Each configured relay has a {@code RelayState} (its current socket, a re-pace replacement
+ * socket, NIP-42 auth state, parked flag) that is only touched on the {@link Scheduler}'s
+ * thread. Socket callbacks never mutate it directly: open/close and control frames (EOSE, AUTH,
+ * CLOSED, OK, NOTICE, NEG-MSG, NEG-ERR) are posted to the mailbox, so reconnects, re-pacing, auth
+ * retries and catch-up syncs cannot race.
+ *
+ * When the listener offers a {@link SyncPlan}, a (re)connect catches up with NIP-77 negentropy
+ * instead of replaying the whole {@code since} window: the live subscription is opened first
+ * with {@code limit:0}, the relay's stored events are reconciled against the locally known IDs,
+ * and only the missing IDs are fetched. The live subscription's EOSE is reported once that
+ * fetch is done. Relays that reject or ignore NEG-OPEN get the plain REQ and are not asked
+ * again until the next {@link #start}.
+ *
+ * EVENT frames are the exception: they are parsed and handed to {@link Listener#onEvent} on the
+ * socket reader thread, so the decrypt pipeline's backpressure still throttles the socket that
+ * is flooding instead of stalling the actor. The reader only reads the connection's volatile
+ * EOSE and discard flags, which the actor alone writes.
+ *
+ * Sockets and timers come from {@link Transport} and {@link Scheduler}, so the whole state
+ * machine can be driven deterministically from JVM tests.
+ */
+public final class RelayPool {
+
+    private static final String AUTH_NONE = "none";
+    private static final String AUTH_REQUIRED = "required";
+    private static final String AUTH_PENDING = "pending";
+    private static final String AUTH_AUTHENTICATED = "authenticated";
+    private static final String AUTH_FAILED = "failed";
+
+    private static final String NEG_SUBSCRIPTION_ID = "nospeak-neg";
+    private static final String FETCH_SUBSCRIPTION_ID = "nospeak-neg-fetch";
+
+    public interface RelaySocket {
+        boolean send(String text);
+
+        void close(int code, String reason);
+    }
+
+    /**
+     * Callbacks a {@link Transport} reports socket events to; safe to call from any thread.
+     */
+    public interface SocketCallbacks {
+        void onOpen();
+
+        void onMessage(String text);
+
+        void onClosed(String detail);
+    }
+
+    public interface Transport {
+        /**
+         * Starts connecting; every later event for the socket goes to {@code callbacks}.
+         *
+         * @return the socket, or null if the connection could not be started
+         */
+        RelaySocket open(String relayUrl, int pingSeconds, SocketCallbacks callbacks);
+    }
+
+    public interface Cancellable {
+        void cancel();
+    }
+
+    /**
+     * The actor's thread: {@link #execute} and {@link #schedule} must run tasks one at a time,
+     * in order, on the same thread.
+     */
+    public interface Scheduler {
+        void execute(Runnable task);
+
+        Cancellable schedule(Runnable task, long delayMs);
+
+        long nowMs();
+    }
+
+    /**
+     * What a relay should reconcile on connect: the NEG-OPEN filter and the IDs already known
+     * locally for it.
+     */
+    public static final class SyncPlan {
+        final JSONObject filter;
+        final Negentropy.Storage storage;
+
+        public SyncPlan(JSONObject filter, Negentropy.Storage storage) {
+            storage.seal();
+            this.filter = filter;
+            this.storage = storage;
+        }
+    }
+
+    /**
+     * Called on the actor thread, except {@link #onEvent}.
+     */
+    public interface Listener {
+        /**
+         * @param liveOnly true when a negentropy sync covers the backlog, so only new events
+         *                 ({@code limit:0}) are wanted
+         * @return the REQ to send on open and after authenticating, or null to send nothing
+         */
+        String buildSubscription(String relayUrl, boolean liveOnly);
+
+        /**
+         * @return what to reconcile with NIP-77 before going live, or null to send the plain REQ
+         */
+        SyncPlan planSync(String relayUrl);
+
+        /**
+         * @param missingCount IDs the relay had that were not known locally, now being fetched
+         */
+        void onSyncReconciled(String relayUrl, int missingCount);
+
+        /**
+         * The relay does not do NIP-77 (or the sync failed); it gets the plain REQ from now on.
+         */
+        void onSyncFallback(String relayUrl, String reason);
+
+        /**
+         * @return the signed NIP-42 AUTH event JSON, or null if it could not be signed
+         */
+        String signAuthEvent(String relayUrl, String challenge);
+
+        /**
+         * Called on the socket reader thread for events of the pool's event kind.
+         *
+         * @param backlog true if the relay has not sent EOSE on this connection yet
+         */
+        void onEvent(String relayUrl, RelayFrameParser.Frame frame, boolean backlog);
+
+        void onEose(String relayUrl);
+
+        void onConnected(String relayUrl);
+
+        /**
+         * @param wasOpen false if the socket failed before it opened
+         * @param detail why the socket closed, for logging
+         */
+        void onDisconnected(String relayUrl, boolean wasOpen, String detail);
+
+        void onConnectionCountChanged(int connectedCount);
+    }
+
+    public static final class Settings {
+        /** Wait this long after the last profile change before re-pacing live sockets. */
+        public long repaceDebounceMs = 30_000L;
+        /** Delay between successive re-paced relays. */
+        public long repaceStaggerMs = 2_000L;
+        public long authRetryDelayMs = 5_000L;
+        /** Relays kept connected in the locked profile (all relays when unlocked). */
+        public int lockedFanOut = 3;
+        public long lockedRotationMs = 30L * 60L * 1000L;
+        /** Give up on a negentropy round trip or fetch batch after this long. */
+        public long syncTimeoutMs = 15_000L;
+        /** Missing IDs requested per fetch REQ. */
+        public int syncFetchBatch = 250;
+        /** Largest negentropy message, in bytes before hex encoding. */
+        public int syncFrameSizeLimit = 60_000;
+    }
+
+    private static final class SyncState {
+        final Negentropy negentropy;
+        final List<String> missingIds = new ArrayList<>();
+        int requested;
+        boolean fetching;
+        boolean liveEose;
+        Cancellable timeout;
+
+        SyncState(Negentropy negentropy) {
+            this.negentropy = negentropy;
+        }
+    }
+
+    private final class Connection implements SocketCallbacks {
+        final RelayState relay;
+        final int pingSeconds;
+        RelaySocket socket;
+        boolean open;
+        boolean retired;
+        SyncState sync;
+        // Written on the actor, read by the socket reader thread.
+        volatile boolean pastEose;
+        volatile boolean discarded;
+
+        Connection(RelayState relay, int pingSeconds) {
+            this.relay = relay;
+            this.pingSeconds = pingSeconds;
+        }
+
+        @Override
+        public void onOpen() {
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    handleOpen(Connection.this);
+                }
+            });
+        }
+
+        @Override
+        public void onMessage(String text) {
+            receivedChars.addAndGet(text.length());
+            metrics.onFrame(relay.url, text.length());
+            handleMessage(this, text);
+        }
+
+        @Override
+        public void onClosed(final String detail) {
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    handleClosed(Connection.this, detail);
+                }
+            });
+        }
+    }
+
+    private static final class RelayState {
+        final String url;
+        boolean parked = true;
+        Connection current;
+        Connection replacement;
+        String authChallenge;
+        String authStatus = AUTH_NONE;
+        String pendingAuthEventId;
+        boolean authRetryScheduled;
+        boolean syncUnsupported;
+
+        RelayState(String url) {
+            this.url = url;
+        }
+    }
+
+    private final Transport transport;
+    private final Scheduler scheduler;
+    private final Listener listener;
+    private final RelayReconnectScheduler reconnects;
+    private final RelayHealthTracker health;
+    private final RelayMetrics metrics;
+    private final Settings settings;
+    private final int eventKind;
+
+    // Actor-confined state.
+    private final Map<String, RelayState> relays = new LinkedHashMap<>();
+    private boolean running = false;
+    private int pingSeconds;
+    private boolean locked;
+    private int rotation = 0;
+    private Cancellable repaceTimer;
+    private Cancellable rotationTimer;
+
+    private volatile int connectedCount = 0;
+    private final AtomicLong receivedChars = new AtomicLong();
+    private final AtomicLong sentChars = new AtomicLong();
+
+    public RelayPool(Transport transport, Scheduler scheduler, Listener listener,
+                     RelayReconnectScheduler reconnects, RelayHealthTracker health,
+                     RelayMetrics metrics, Settings settings, int eventKind) {
+        this.transport = transport;
+        this.scheduler = scheduler;
+        this.listener = listener;
+        this.reconnects = reconnects;
+        this.health = health;
+        this.metrics = metrics;
+        this.settings = settings;
+        this.eventKind = eventKind;
+    }
+
+    // ---- Commands (any thread) ----
+
+    /**
+     * Replaces the relay set: closes every socket and connects the relays the profile wants.
+     */
+    public void start(final String[] relayUrls, final int pingSeconds, final boolean locked) {
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                doStart(relayUrls, pingSeconds, locked);
+            }
+        });
+    }
+
+    /**
+     * Applies an energy profile: re-paces live sockets after the debounce and parks or resumes
+     * relays for the locked fan-out.
+     */
+    public void setProfile(final int pingSeconds, final boolean locked) {
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                doSetProfile(pingSeconds, locked);
+            }
+        });
+    }
+
+    public void onNetworkAvailable() {
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!running) {
+                    return;
+                }
+                for (RelayReconnectScheduler.Retry retry : reconnects.onNetworkAvailable()) {
+                    scheduleReconnect(retry);
+                }
+            }
+        });
+    }
+
+    public void onNetworkLost() {
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                reconnects.onNetworkLost();
+            }
+        });
+    }
+
+    /**
+     * Closes every socket; open relays are reported through {@link Listener#onDisconnected}.
+     */
+    public void stop() {
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                running = false;
+                cancel(repaceTimer);
+                cancel(rotationTimer);
+                repaceTimer = null;
+                rotationTimer = null;
+                closeAll("Service destroyed", true);
+                relays.clear();
+                reconnects.clear();
+                connectedCount = 0;
+            }
+        });
+    }
+
+    public int getConnectedCount() {
+        return connectedCount;
+    }
+
+    /**
+     * Frame text received from relays so far, in characters. Relay frames are JSON whose only
+     * large field (gift wrap content) is base64, so this is close to the payload bytes.
+     */
+    public long getBytesReceived() {
+        return receivedChars.get();
+    }
+
+    /**
+     * Frame text sent to relays so far, in characters.
+     */
+    public long getBytesSent() {
+        return sentChars.get();
+    }
+
+    public RelayReconnectScheduler.Stats getReconnectStats() {
+        return reconnects.snapshot();
+    }
+
+    public List<RelayHealthTracker.RelayStats> getHealthSnapshot() {
+        return health.snapshot(scheduler.nowMs());
+    }
+
+    // ---- Actor ----
+
+    private void doStart(String[] relayUrls, int pingSeconds, boolean locked) {
+        closeAll("Restarting connections", false);
+        relays.clear();
+        reconnects.clear();
+        cancel(repaceTimer);
+        repaceTimer = null;
+
+        running = true;
+        this.pingSeconds = pingSeconds;
+        this.locked = locked;
+        metrics.onProfileChanged(locked, scheduler.nowMs());
+
+        List<String> urls = relayUrls != null ? Arrays.asList(relayUrls) : new ArrayList<String>();
+        health.retainRelays(urls);
+        for (String url : new LinkedHashSet<>(urls)) {
+            if (url != null && !url.isEmpty()) {
+                relays.put(url, new RelayState(url));
+            }
+        }
+
+        applyFanOut();
+        scheduleRotation();
+        updateConnectedCount();
+    }
+
+    private void doSetProfile(int pingSeconds, boolean locked) {
+        if (!running || (pingSeconds == this.pingSeconds && locked == this.locked)) {
+            return;
+        }
+
+        boolean pingChanged = pingSeconds != this.pingSeconds;
+        this.pingSeconds = pingSeconds;
+        this.locked = locked;
+        metrics.onProfileChanged(locked, scheduler.nowMs());
+        if (pingChanged) {
+            scheduleRepace();
+        }
+        applyFanOut();
+        scheduleRotation();
+    }
+
+    private void connect(RelayState relay, boolean asReplacement) {
+        if (!running || relay.parked || relays.get(relay.url) != relay) {
+            return;
+        }
+
+        health.onConnectStarted(relay.url, scheduler.nowMs());
+        metrics.onConnectAttempt(relay.url);
+        reconnects.onAttemptStarted(relay.url);
+
+        Connection connection = new Connection(relay, pingSeconds);
+        if (asReplacement) {
+            relay.replacement = connection;
+        } else {
+            relay.current = connection;
+        }
+
+        connection.socket = transport.open(relay.url, pingSeconds, connection);
+        if (connection.socket == null) {
+            handleClosed(connection, "invalid relay URL");
+        }
+    }
+
+    private void handleOpen(Connection connection) {
+        RelayState relay = connection.relay;
+        if (connection.retired || connection.discarded) {
+            return;
+        }
+
+        if (connection == relay.replacement) {
+            // Make-before-break: the old socket goes once its successor is up.
+            relay.replacement = null;
+            Connection old = relay.current;
+            relay.current = connection;
+            if (old != null) {
+                boolean oldWasOpen = old.open;
+                retire(old, "Keepalive re-paced");
+                listener.onDisconnected(relay.url, oldWasOpen, "Keepalive re-paced");
+            }
+        } else if (connection != relay.current) {
+            retire(connection, "Superseded");
+            return;
+        }
+
+        long nowMs = scheduler.nowMs();
+        connection.open = true;
+        connection.pastEose = false;
+        resetAuth(relay);
+        if (reconnects.onConnected(relay.url, nowMs)) {
+            metrics.onReconnected(relay.url);
+        }
+        health.onConnected(relay.url, nowMs);
+        metrics.onConnected(relay.url, nowMs);
+
+        subscribe(relay, connection);
+
+        listener.onConnected(relay.url);
+        updateConnectedCount();
+    }
+
+    private void handleClosed(Connection connection, String detail) {
+        RelayState relay = connection.relay;
+        boolean wasOpen = connection.open;
+        connection.open = false;
+        connection.discarded = true;
+        if (connection.retired) {
+            return;
+        }
+
+        if (connection == relay.replacement) {
+            // The live socket is untouched; try again on the next re-pace pass.
+            relay.replacement = null;
+            scheduleRepace();
+            return;
+        }
+        if (connection != relay.current) {
+            return;
+        }
+
+        long nowMs = scheduler.nowMs();
+        relay.current = null;
+        cancelSync(connection);
+        resetAuth(relay);
+        if (wasOpen) {
+            health.onDisconnected(relay.url, nowMs);
+            metrics.onDisconnected(relay.url, nowMs);
+        }
+        listener.onDisconnected(relay.url, wasOpen, detail);
+        updateConnectedCount();
+
+        if (!running || relay.parked || relays.get(relay.url) != relay) {
+            return;
+        }
+
+        // Null while offline: the relay stays parked until a validated network comes back.
+        RelayReconnectScheduler.Retry retry = reconnects.onDisconnected(relay.url, nowMs);
+        if (retry != null) {
+            scheduleReconnect(retry);
+        }
+    }
+
+    private void scheduleReconnect(final RelayReconnectScheduler.Retry retry) {
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!running || !reconnects.claim(retry.relayUrl, retry.token)) {
+                    return;
+                }
+                RelayState relay = relays.get(retry.relayUrl);
+                if (relay == null || relay.parked || relay.current != null) {
+                    return;
+                }
+                connect(relay, false);
+            }
+        }, retry.delayMs);
+    }
+
+    /**
+     * Runs on the socket reader thread.
+     */
+    private void handleMessage(final Connection connection, String text) {
+        if (connection.discarded) {
+            return;
+        }
+
+        final RelayFrameParser.Frame frame = RelayFrameParser.parse(text, eventKind);
+        if (frame == null) {
+            return;
+        }
+
+        if (frame.type == RelayFrameParser.TYPE_EVENT) {
+            metrics.onEvent(connection.relay.url, frame.kind);
+            if (frame.kind != eventKind || frame.eventId == null) {
+                return;
+            }
+            health.onEvent(connection.relay.url, frame.eventId, text.length(), scheduler.nowMs());
+            listener.onEvent(connection.relay.url, frame, !connection.pastEose);
+            return;
+        }
+
+        if (frame.type == RelayFrameParser.TYPE_UNKNOWN) {
+            return;
+        }
+
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                handleControlFrame(connection, frame);
+            }
+        });
+    }
+
+    private void handleControlFrame(Connection connection, RelayFrameParser.Frame frame) {
+        RelayState relay = connection.relay;
+        if (connection != relay.current || !connection.open) {
+            return;
+        }
+
+        SyncState sync = connection.sync;
+        switch (frame.type) {
+            case RelayFrameParser.TYPE_EOSE:
+                if (sync != null) {
+                    if (!FETCH_SUBSCRIPTION_ID.equals(frame.subscriptionId)) {
+                        // The live subscription is caught up only once the sync's fetch is.
+                        sync.liveEose = true;
+                    } else if (sync.fetching) {
+                        fetchMissing(relay, connection);
+                    }
+                } else if (!connection.pastEose) {
+                    connection.pastEose = true;
+                    listener.onEose(relay.url);
+                }
+                break;
+            case RelayFrameParser.TYPE_AUTH:
+                if (frame.message != null && !frame.message.isEmpty()) {
+                    relay.authChallenge = frame.message;
+                }
+                break;
+            case RelayFrameParser.TYPE_CLOSED:
+                if (frame.message != null && frame.message.startsWith("auth-required:")) {
+                    // Authenticating subscribes (and syncs) again.
+                    cancelSync(connection);
+                    relay.authStatus = AUTH_REQUIRED;
+                    attemptAuthentication(relay);
+                } else if (sync != null && (NEG_SUBSCRIPTION_ID.equals(frame.subscriptionId)
+                        || FETCH_SUBSCRIPTION_ID.equals(frame.subscriptionId))) {
+                    fallBackToReq(relay, connection, "closed: " + frame.message);
+                }
+                break;
+            case RelayFrameParser.TYPE_NOTICE:
+                // Relays without NIP-77 answer NEG-OPEN with a NOTICE about the unknown command.
+                if (sync != null && !sync.fetching) {
+                    fallBackToReq(relay, connection, "notice: " + frame.message);
+                }
+                break;
+            case RelayFrameParser.TYPE_NEG_MSG:
+                if (sync != null && !sync.fetching && NEG_SUBSCRIPTION_ID.equals(frame.subscriptionId)) {
+                    continueSync(relay, connection, frame.message);
+                }
+                break;
+            case RelayFrameParser.TYPE_NEG_ERR:
+                if (sync == null || sync.fetching || !NEG_SUBSCRIPTION_ID.equals(frame.subscriptionId)) {
+                    break;
+                }
+                if (frame.message != null && frame.message.startsWith("auth-required:")) {
+                    cancelSync(connection);
+                    relay.authStatus = AUTH_REQUIRED;
+                    attemptAuthentication(relay);
+                } else {
+                    fallBackToReq(relay, connection, "error: " + frame.message);
+                }
+                break;
+            case RelayFrameParser.TYPE_OK:
+                if (frame.eventId != null && frame.eventId.equals(relay.pendingAuthEventId)) {
+                    relay.pendingAuthEventId = null;
+                    metrics.onAuthRoundTrip(relay.url);
+                    handleAuthResponse(relay, frame.accepted);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    // ---- NIP-42 ----
+
+    private void attemptAuthentication(RelayState relay) {
+        Connection connection = relay.current;
+        if (connection == null || !connection.open) {
+            return;
+        }
+
+        String challenge = relay.authChallenge;
+        if (challenge == null || challenge.isEmpty()) {
+            relay.authStatus = AUTH_FAILED;
+            return;
+        }
+
+        relay.authStatus = AUTH_PENDING;
+        String signedEventJson = listener.signAuthEvent(relay.url, challenge);
+        if (signedEventJson == null) {
+            relay.authStatus = AUTH_FAILED;
+            scheduleAuthRetry(relay);
+            return;
+        }
+
+        try {
+            JSONObject signedEvent = new JSONObject(signedEventJson);
+            relay.pendingAuthEventId = signedEvent.optString("id", null);
+
+            JSONArray authMsg = new JSONArray();
+            authMsg.put("AUTH");
+            authMsg.put(signedEvent);
+            send(connection, authMsg.toString());
+        } catch (JSONException e) {
+            relay.authStatus = AUTH_FAILED;
+            scheduleAuthRetry(relay);
+        }
+    }
+
+    private void handleAuthResponse(RelayState relay, boolean success) {
+        if (success) {
+            relay.authStatus = AUTH_AUTHENTICATED;
+            relay.authRetryScheduled = false;
+            // Re-subscribe after successful auth
+            if (relay.current != null) {
+                subscribe(relay, relay.current);
+            }
+        } else {
+            relay.authStatus = AUTH_FAILED;
+            health.onAuthFailed(relay.url, scheduler.nowMs());
+            scheduleAuthRetry(relay);
+        }
+    }
+
+    /**
+     * Schedules a single auth retry per connection.
+     */
+    private void scheduleAuthRetry(final RelayState relay) {
+        if (!running || relay.authRetryScheduled) {
+            return;
+        }
+        relay.authRetryScheduled = true;
+
+        final Connection connection = relay.current;
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                // A retry scheduled for an earlier connection must not touch its successor.
+                if (!running || connection == null || relay.current != connection || !connection.open) {
+                    return;
+                }
+                if (AUTH_FAILED.equals(relay.authStatus) || AUTH_REQUIRED.equals(relay.authStatus)) {
+                    attemptAuthentication(relay);
+                }
+            }
+        }, settings.authRetryDelayMs);
+    }
+
+    private static void resetAuth(RelayState relay) {
+        relay.authStatus = AUTH_NONE;
+        relay.authChallenge = null;
+        relay.pendingAuthEventId = null;
+        relay.authRetryScheduled = false;
+    }
+
+    // ---- Subscription and NIP-77 catch-up ----
+
+    private void subscribe(RelayState relay, Connection connection) {
+        cancelSync(connection);
+        connection.pastEose = false;
+
+        SyncPlan plan = relay.syncUnsupported ? null : listener.planSync(relay.url);
+        if (plan == null) {
+            sendSubscription(relay, connection, false);
+            return;
+        }
+
+        Negentropy negentropy = new Negentropy(plan.storage, settings.syncFrameSizeLimit);
+        String initialMessage = negentropy.initiate();
+        connection.sync = new SyncState(negentropy);
+
+        // Live first: the relay handles frames in order, so whatever it stores after the REQ is
+        // streamed and everything before the NEG-OPEN is in the reconciled set, leaving no gap.
+        sendSubscription(relay, connection, true);
+        send(connection, new JSONArray()
+                .put("NEG-OPEN")
+                .put(NEG_SUBSCRIPTION_ID)
+                .put(plan.filter)
+                .put(initialMessage)
+                .toString());
+        armSyncTimeout(relay, connection);
+    }
+
+    private void sendSubscription(RelayState relay, Connection connection, boolean liveOnly) {
+        String req = listener.buildSubscription(relay.url, liveOnly);
+        if (req != null) {
+            send(connection, req);
+        }
+    }
+
+    private void continueSync(RelayState relay, Connection connection, String message) {
+        SyncState sync = connection.sync;
+        List<String> needIds = new ArrayList<>();
+        String next;
+        try {
+            next = sync.negentropy.reconcile(message, null, needIds);
+        } catch (IllegalArgumentException e) {
+            send(connection, new JSONArray().put("NEG-CLOSE").put(NEG_SUBSCRIPTION_ID).toString());
+            fallBackToReq(relay, connection, "invalid NEG-MSG: " + e.getMessage());
+            return;
+        }
+        sync.missingIds.addAll(needIds);
+
+        if (next != null) {
+            send(connection, new JSONArray().put("NEG-MSG").put(NEG_SUBSCRIPTION_ID).put(next).toString());
+            armSyncTimeout(relay, connection);
+            return;
+        }
+
+        send(connection, new JSONArray().put("NEG-CLOSE").put(NEG_SUBSCRIPTION_ID).toString());
+        sync.fetching = true;
+        listener.onSyncReconciled(relay.url, sync.missingIds.size());
+        fetchMissing(relay, connection);
+    }
+
+    /**
+     * Requests the next batch of missing IDs, or finishes the sync once all have arrived.
+     */
+    private void fetchMissing(RelayState relay, Connection connection) {
+        SyncState sync = connection.sync;
+        int total = sync.missingIds.size();
+        if (sync.requested >= total) {
+            cancelSync(connection);
+            if (total > 0) {
+                send(connection, new JSONArray().put("CLOSE").put(FETCH_SUBSCRIPTION_ID).toString());
+            }
+            if (sync.liveEose) {
+                connection.pastEose = true;
+                listener.onEose(relay.url);
+            }
+            return;
+        }
+
+        int end = Math.min(total, sync.requested + Math.max(1, settings.syncFetchBatch));
+        try {
+            JSONObject filter = new JSONObject();
+            filter.put("ids", new JSONArray(sync.missingIds.subList(sync.requested, end)));
+            send(connection, new JSONArray().put("REQ").put(FETCH_SUBSCRIPTION_ID).put(filter).toString());
+        } catch (JSONException e) {
+            fallBackToReq(relay, connection, "fetch failed");
+            return;
+        }
+        sync.requested = end;
+        armSyncTimeout(relay, connection);
+    }
+
+    private void fallBackToReq(RelayState relay, Connection connection, String reason) {
+        cancelSync(connection);
+        relay.syncUnsupported = true;
+        listener.onSyncFallback(relay.url, reason);
+        // Same subscription id, so this replaces the live-only REQ and replays the backlog.
+        connection.pastEose = false;
+        sendSubscription(relay, connection, false);
+    }
+
+    private void armSyncTimeout(final RelayState relay, final Connection connection) {
+        final SyncState sync = connection.sync;
+        cancel(sync.timeout);
+        sync.timeout = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (connection.sync != sync || relay.current != connection || !connection.open) {
+                    return;
+                }
+                if (!sync.fetching) {
+                    send(connection, new JSONArray().put("NEG-CLOSE").put(NEG_SUBSCRIPTION_ID).toString());
+                }
+                fallBackToReq(relay, connection, "timeout");
+            }
+        }, settings.syncTimeoutMs);
+    }
+
+    private static void cancelSync(Connection connection) {
+        SyncState sync = connection.sync;
+        if (sync != null) {
+            cancel(sync.timeout);
+            connection.sync = null;
+        }
+    }
+
+    // ---- Re-pacing ----
+
+    private void scheduleRepace() {
+        cancel(repaceTimer);
+        repaceTimer = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                repaceTimer = null;
+                repaceLiveRelays();
+            }
+        }, settings.repaceDebounceMs);
+    }
+
+    /**
+     * Moves open relays whose socket has a different ping interval onto the current profile,
+     * one at a time; each replacement takes over once open, so the subscription never goes dark.
+     */
+    private void repaceLiveRelays() {
+        if (!running) {
+            return;
+        }
+
+        int slot = 0;
+        for (final RelayState relay : relays.values()) {
+            if (needsRepace(relay)) {
+                scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (running && needsRepace(relay) && relays.get(relay.url) == relay) {
+                            connect(relay, true);
+                        }
+                    }
+                }, slot * settings.repaceStaggerMs);
+                slot++;
+            }
+        }
+    }
+
+    private boolean needsRepace(RelayState relay) {
+        Connection current = relay.current;
+        return !relay.parked
+                && current != null
+                && current.open
+                && relay.replacement == null
+                && current.pingSeconds != pingSeconds;
+    }
+
+    // ---- Locked-profile fan-out ----
+
+    /**
+     * Parks or resumes relays so the connected set matches the profile: every relay when
+     * unlocked, the best-covering subset when locked.
+     */
+    private void applyFanOut() {
+        List<String> urls = new ArrayList<>(relays.keySet());
+        List<String> wanted = locked
+                ? health.selectRelays(urls, settings.lockedFanOut, rotation, scheduler.nowMs())
+                : urls;
+
+        for (RelayState relay : relays.values()) {
+            boolean isWanted = wanted.contains(relay.url);
+            if (isWanted && relay.parked) {
+                relay.parked = false;
+                health.onWanted(relay.url, scheduler.nowMs());
+                if (relay.current == null) {
+                    connect(relay, false);
+                }
+            } else if (!isWanted && !relay.parked) {
+                relay.parked = true;
+                reconnects.forget(relay.url);
+                closeRelay(relay, "Parked by energy profile", true);
+            }
+            if (!isWanted) {
+                // Also covers relays that start out parked after a restart.
+                health.onParked(relay.url, scheduler.nowMs());
+            }
+        }
+        updateConnectedCount();
+    }
+
+    private void scheduleRotation() {
+        cancel(rotationTimer);
+        rotationTimer = null;
+        if (!locked || !running) {
+            return;
+        }
+
+        rotationTimer = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                rotationTimer = null;
+                rotation++;
+                applyFanOut();
+                scheduleRotation();
+            }
+        }, settings.lockedRotationMs);
+    }
+
+    // ---- Helpers ----
+
+    private void closeAll(String reason, boolean notify) {
+        for (RelayState relay : relays.values()) {
+            closeRelay(relay, reason, notify);
+        }
+    }
+
+    private void closeRelay(RelayState relay, String reason, boolean notify) {
+        if (relay.replacement != null) {
+            retire(relay.replacement, reason);
+            relay.replacement = null;
+        }
+
+        Connection current = relay.current;
+        if (current == null) {
+            return;
+        }
+        relay.current = null;
+        boolean wasOpen = current.open;
+        cancelSync(current);
+        retire(current, reason);
+        resetAuth(relay);
+        if (wasOpen) {
+            long nowMs = scheduler.nowMs();
+            health.onDisconnected(relay.url, nowMs);
+            metrics.onDisconnected(relay.url, nowMs);
+        }
+        if (notify) {
+            listener.onDisconnected(relay.url, wasOpen, reason);
+        }
+    }
+
+    private void send(Connection connection, String text) {
+        if (connection.socket.send(text)) {
+            sentChars.addAndGet(text.length());
+        }
+    }
+
+    private static void retire(Connection connection, String reason) {
+        connection.retired = true;
+        connection.discarded = true;
+        connection.open = false;
+        if (connection.socket != null) {
+            connection.socket.close(1000, reason);
+        }
+    }
+
+    private void updateConnectedCount() {
+        int count = 0;
+        for (RelayState relay : relays.values()) {
+            if (relay.current != null && relay.current.open) {
+                count++;
+            }
+        }
+        if (count != connectedCount) {
+            connectedCount = count;
+            listener.onConnectionCountChanged(count);
+        }
+    }
+
+    private static void cancel(Cancellable cancellable) {
+        if (cancellable != null) {
+            cancellable.cancel();
+        }
+    }
+
+    /**
+     * Runs the actor on a single-threaded {@link ScheduledExecutorService}, whose thread serves
+     * both the mailbox and the timers.
+     */
+    public static final class ExecutorScheduler implements Scheduler {
+        private final ScheduledExecutorService executor;
+
+        public ExecutorScheduler(ScheduledExecutorService executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            try {
+                executor.execute(task);
+            } catch (RuntimeException ignored) {
+                // Rejected after shutdown
+            }
+        }
+
+        @Override
+        public Cancellable schedule(Runnable task, long delayMs) {
+            try {
+                final ScheduledFuture<?> future = executor.schedule(task, Math.max(0L, delayMs), TimeUnit.MILLISECONDS);
+                return new Cancellable() {
+                    @Override
+                    public void cancel() {
+                        future.cancel(false);
+                    }
+                };
+            } catch (RuntimeException e) {
+                return new Cancellable() {
+                    @Override
+                    public void cancel() {
+                    }
+                };
+            }
+        }
+
+        @Override
+        public long nowMs() {
+            return System.currentTimeMillis();
+        }
+    }
+}
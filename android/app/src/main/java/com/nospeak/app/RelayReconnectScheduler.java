@@ -0,0 +1,257 @@
+package com.nospeak.app;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Decides when dropped relays reconnect.
+ *
+ * While online, each relay backs off exponentially with jitter ("equal jitter": half the
+ * backoff fixed, half random), so relays that failed together do not retry in lockstep. While
+ * offline nothing is retried: failing relays, and retries that come due, are parked. When a
+ * validated network appears all backoff is reset and parked or pending relays reconnect in a
+ * shuffled, staggered wave.
+ *
+ * The caller owns the timers: every {@link Retry} carries a token, and the caller must
+ * {@link #claim} it when its timer fires. A newer retry for the same relay (e.g. from a wave)
+ * invalidates older tokens, so superseded timers simply do nothing.
+ */
+public final class RelayReconnectScheduler {
+
+    public static final class Retry {
+        public final String relayUrl;
+        public final long delayMs;
+        public final long token;
+
+        Retry(String relayUrl, long delayMs, long token) {
+            this.relayUrl = relayUrl;
+            this.delayMs = delayMs;
+            this.token = token;
+        }
+    }
+
+    public static final class Stats {
+        public final boolean offline;
+        public final int parkedRelays;
+        public final int pendingRetries;
+        public final long attempts;
+        public final long successes;
+        public final long failures;
+        public final long waves;
+        public final long avgReconnectMs;
+        public final long maxReconnectMs;
+
+        Stats(boolean offline, int parkedRelays, int pendingRetries, long attempts, long successes,
+              long failures, long waves, long avgReconnectMs, long maxReconnectMs) {
+            this.offline = offline;
+            this.parkedRelays = parkedRelays;
+            this.pendingRetries = pendingRetries;
+            this.attempts = attempts;
+            this.successes = successes;
+            this.failures = failures;
+            this.waves = waves;
+            this.avgReconnectMs = avgReconnectMs;
+            this.maxReconnectMs = maxReconnectMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    Locale.ROOT,
+                    "offline=%s parked=%d pending=%d attempts=%d ok=%d failed=%d waves=%d reconnect_avg=%dms reconnect_max=%dms",
+                    offline, parkedRelays, pendingRetries, attempts, successes, failures, waves,
+                    avgReconnectMs, maxReconnectMs
+            );
+        }
+    }
+
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final long waveStaggerMs;
+    private final Random random;
+
+    private final Map<String, Integer> attemptsByRelay = new HashMap<>();
+    private final Map<String, Long> pendingTokens = new HashMap<>();
+    private final Map<String, Long> disconnectedAtMs = new HashMap<>();
+    private final Set<String> parked = new LinkedHashSet<>();
+    private boolean offline = false;
+    private long nextToken = 1L;
+
+    private long attempts;
+    private long successes;
+    private long failures;
+    private long waves;
+    private long reconnectCount;
+    private long reconnectTotalMs;
+    private long reconnectMaxMs;
+
+    public RelayReconnectScheduler(long baseDelayMs, long maxDelayMs, long waveStaggerMs, Random random) {
+        if (baseDelayMs <= 0L || maxDelayMs < baseDelayMs || waveStaggerMs < 0L || random == null) {
+            throw new IllegalArgumentException("invalid reconnect parameters");
+        }
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.waveStaggerMs = waveStaggerMs;
+        this.random = random;
+    }
+
+    public synchronized void onAttemptStarted(String relayUrl) {
+        attempts++;
+    }
+
+    /**
+     * @return true if this connection ends an outage (the relay dropped or failed since it was
+     *         last connected); deliberate re-paces and resumed parked relays return false
+     */
+    public synchronized boolean onConnected(String relayUrl, long nowMs) {
+        successes++;
+        attemptsByRelay.remove(relayUrl);
+        pendingTokens.remove(relayUrl);
+        parked.remove(relayUrl);
+
+        Long since = disconnectedAtMs.remove(relayUrl);
+        if (since != null) {
+            long elapsed = Math.max(0L, nowMs - since);
+            reconnectCount++;
+            reconnectTotalMs += elapsed;
+            reconnectMaxMs = Math.max(reconnectMaxMs, elapsed);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records a dropped or failed connection.
+     *
+     * @return the retry to schedule, or null if the relay was parked because the device is offline
+     */
+    public synchronized Retry onDisconnected(String relayUrl, long nowMs) {
+        failures++;
+        if (!disconnectedAtMs.containsKey(relayUrl)) {
+            disconnectedAtMs.put(relayUrl, nowMs);
+        }
+
+        if (offline) {
+            pendingTokens.remove(relayUrl);
+            parked.add(relayUrl);
+            return null;
+        }
+
+        Integer previous = attemptsByRelay.get(relayUrl);
+        int attempt = previous != null ? previous : 0;
+        attemptsByRelay.put(relayUrl, attempt + 1);
+        return newRetry(relayUrl, backoffMs(attempt));
+    }
+
+    /**
+     * Called when a retry's timer fires.
+     *
+     * @return true if the caller should connect now; false if the retry was superseded or the
+     *         relay was parked because the device went offline
+     */
+    public synchronized boolean claim(String relayUrl, long token) {
+        Long current = pendingTokens.get(relayUrl);
+        if (current == null || current != token) {
+            return false;
+        }
+        pendingTokens.remove(relayUrl);
+        if (offline) {
+            parked.add(relayUrl);
+            return false;
+        }
+        return true;
+    }
+
+    public synchronized void onNetworkLost() {
+        offline = true;
+    }
+
+    /**
+     * Called when a validated network becomes the default (including a switch between networks).
+     * Resets all backoff and returns a staggered, jittered retry for every parked or pending relay.
+     */
+    public synchronized List<Retry> onNetworkAvailable() {
+        offline = false;
+        attemptsByRelay.clear();
+
+        List<String> relays = new ArrayList<>(parked);
+        for (String relayUrl : pendingTokens.keySet()) {
+            if (!parked.contains(relayUrl)) {
+                relays.add(relayUrl);
+            }
+        }
+        parked.clear();
+        if (relays.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        waves++;
+        Collections.shuffle(relays, random);
+        List<Retry> wave = new ArrayList<>(relays.size());
+        for (int i = 0; i < relays.size(); i++) {
+            long jitter = waveStaggerMs > 0L ? (long) (random.nextDouble() * waveStaggerMs) : 0L;
+            wave.add(newRetry(relays.get(i), i * waveStaggerMs + jitter));
+        }
+        return wave;
+    }
+
+    public synchronized boolean isOffline() {
+        return offline;
+    }
+
+    /**
+     * Stops tracking a relay (removed from the configuration or parked by the energy profile).
+     */
+    public synchronized void forget(String relayUrl) {
+        attemptsByRelay.remove(relayUrl);
+        pendingTokens.remove(relayUrl);
+        disconnectedAtMs.remove(relayUrl);
+        parked.remove(relayUrl);
+    }
+
+    /**
+     * Drops all per-relay state (e.g. when connections are restarted); stats are kept.
+     */
+    public synchronized void clear() {
+        attemptsByRelay.clear();
+        pendingTokens.clear();
+        disconnectedAtMs.clear();
+        parked.clear();
+    }
+
+    public synchronized Stats snapshot() {
+        return new Stats(
+                offline,
+                parked.size(),
+                pendingTokens.size(),
+                attempts,
+                successes,
+                failures,
+                waves,
+                reconnectCount > 0L ? reconnectTotalMs / reconnectCount : 0L,
+                reconnectMaxMs
+        );
+    }
+
+    private long backoffMs(int attempt) {
+        long ceiling = baseDelayMs << Math.min(attempt, 30);
+        if (ceiling <= 0L || ceiling > maxDelayMs) {
+            ceiling = maxDelayMs;
+        }
+        long half = ceiling / 2L;
+        return half + (long) (random.nextDouble() * (ceiling - half));
+    }
+
+    private Retry newRetry(String relayUrl, long delayMs) {
+        long token = nextToken++;
+        pendingTokens.put(relayUrl, token);
+        return new Retry(relayUrl, delayMs, token);
+    }
+}
@@ -0,0 +1,198 @@
+package com.nospeak.app;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Per-relay high-water marks used to send {@code since} on (re)subscription.
+ *
+ * A relay's mark is a point in time up to which it is known to have delivered everything:
+ * the time the REQ was sent once the relay reaches EOSE, the time a live (post-EOSE)
+ * connection drops, and the created_at of delivered gift wraps (clamped to now so a
+ * future-dated event cannot push the mark ahead). Marks only move forward, and progress made
+ * before EOSE is discarded if the connection drops first.
+ *
+ * The one exception: a gift wrap the service accepted but could not handle (its decrypt task
+ * was dropped under load) pulls the relay's mark back below its created_at and holds it there
+ * for the rest of the subscription, so the next subscription asks for it again.
+ *
+ * NIP-59 gift wraps carry a created_at randomized up to two days into the past, so the
+ * {@code since} sent to the relay is the mark minus that window and a clock-skew margin.
+ * Events replayed inside the window are caught by the seen-event dedupe.
+ */
+public final class RelaySinceCursors {
+
+    /** NIP-59: gift wrap timestamps are tweaked up to two days into the past. */
+    public static final long GIFT_WRAP_TIMESTAMP_WINDOW_SECONDS = 2L * 24L * 60L * 60L;
+
+    /**
+     * Extra slack for sender/relay clock skew, delayed publication, and the ping interval a dead
+     * socket can go unnoticed for before its disconnect is recorded.
+     */
+    public static final long CLOCK_SKEW_MARGIN_SECONDS = 15L * 60L;
+
+    private static final class PendingSubscription {
+        long subscribedAtSeconds;
+        long maxCreatedAtSeconds;
+        boolean live;
+        // The mark may not pass this during the subscription (an event was dropped).
+        long ceilingSeconds = Long.MAX_VALUE;
+    }
+
+    private final Map<String, Long> highWaterSeconds = new HashMap<>();
+    private final Map<String, PendingSubscription> pending = new HashMap<>();
+
+    /**
+     * Returns the {@code since} to send for this relay, or 0 if there is no mark yet.
+     */
+    public synchronized long sinceFor(String relayUrl) {
+        Long mark = highWaterSeconds.get(relayUrl);
+        if (mark == null) {
+            return 0L;
+        }
+        return Math.max(0L, mark - GIFT_WRAP_TIMESTAMP_WINDOW_SECONDS - CLOCK_SKEW_MARGIN_SECONDS);
+    }
+
+    public synchronized long highWaterFor(String relayUrl) {
+        Long mark = highWaterSeconds.get(relayUrl);
+        return mark != null ? mark : 0L;
+    }
+
+    /**
+     * Called when a REQ is sent; progress from a previous subscription on this relay is dropped.
+     */
+    public synchronized void onSubscribed(String relayUrl, long nowSeconds) {
+        PendingSubscription subscription = new PendingSubscription();
+        subscription.subscribedAtSeconds = nowSeconds;
+        pending.put(relayUrl, subscription);
+    }
+
+    public synchronized void onEvent(String relayUrl, long createdAtSeconds, long nowSeconds) {
+        PendingSubscription subscription = pending.get(relayUrl);
+        if (subscription == null || createdAtSeconds <= 0L) {
+            return;
+        }
+
+        long clamped = Math.min(createdAtSeconds, nowSeconds);
+        if (subscription.live) {
+            advance(relayUrl, Math.min(clamped, subscription.ceilingSeconds));
+        } else if (clamped > subscription.maxCreatedAtSeconds) {
+            subscription.maxCreatedAtSeconds = clamped;
+        }
+    }
+
+    /**
+     * @return true if the relay's mark moved forward
+     */
+    public synchronized boolean onEose(String relayUrl, long nowSeconds) {
+        PendingSubscription subscription = pending.get(relayUrl);
+        if (subscription == null || subscription.live) {
+            return false;
+        }
+
+        subscription.live = true;
+        long mark = Math.max(subscription.subscribedAtSeconds, subscription.maxCreatedAtSeconds);
+        return advance(relayUrl, Math.min(Math.min(mark, nowSeconds), subscription.ceilingSeconds));
+    }
+
+    /**
+     * @return true if the relay's mark moved forward
+     */
+    public synchronized boolean onDisconnected(String relayUrl, long nowSeconds) {
+        PendingSubscription subscription = pending.remove(relayUrl);
+        if (subscription == null || !subscription.live) {
+            return false;
+        }
+        return advance(relayUrl, Math.min(nowSeconds, subscription.ceilingSeconds));
+    }
+
+    /**
+     * An event delivered by this relay was accepted but will not be handled. Keeps the mark
+     * (and, if it already passed the event, pulls it back) below the event's created_at.
+     *
+     * @return true if the stored mark moved back
+     */
+    public synchronized boolean onEventDropped(String relayUrl, long createdAtSeconds) {
+        if (createdAtSeconds <= 0L) {
+            return false;
+        }
+
+        long ceiling = createdAtSeconds - 1L;
+        PendingSubscription subscription = pending.get(relayUrl);
+        if (subscription != null && ceiling < subscription.ceilingSeconds) {
+            subscription.ceilingSeconds = ceiling;
+        }
+
+        Long current = highWaterSeconds.get(relayUrl);
+        if (current == null || current <= ceiling) {
+            return false;
+        }
+        highWaterSeconds.put(relayUrl, ceiling);
+        return true;
+    }
+
+    /**
+     * Drops marks for relays that are no longer configured.
+     */
+    public synchronized void retainRelays(Collection<String> relayUrls) {
+        Set<String> keep = new HashSet<>(relayUrls);
+        for (Iterator<String> it = highWaterSeconds.keySet().iterator(); it.hasNext(); ) {
+            if (!keep.contains(it.next())) {
+                it.remove();
+            }
+        }
+        pending.keySet().retainAll(keep);
+    }
+
+    public synchronized void clear() {
+        highWaterSeconds.clear();
+        pending.clear();
+    }
+
+    public synchronized JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        for (Map.Entry<String, Long> entry : highWaterSeconds.entrySet()) {
+            try {
+                json.put(entry.getKey(), entry.getValue().longValue());
+            } catch (JSONException ignored) {
+                // ignore
+            }
+        }
+        return json;
+    }
+
+    /**
+     * Replaces the stored marks; marks in the future (beyond {@code nowSeconds}) are clamped.
+     */
+    public synchronized void load(JSONObject json, long nowSeconds) {
+        highWaterSeconds.clear();
+        if (json == null) {
+            return;
+        }
+
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            String relayUrl = keys.next();
+            long mark = json.optLong(relayUrl, 0L);
+            if (mark > 0L) {
+                highWaterSeconds.put(relayUrl, Math.min(mark, nowSeconds));
+            }
+        }
+    }
+
+    private boolean advance(String relayUrl, long markSeconds) {
+        Long current = highWaterSeconds.get(relayUrl);
+        if (current != null && current >= markSeconds) {
+            return false;
+        }
+        highWaterSeconds.put(relayUrl, markSeconds);
+        return true;
+    }
+}
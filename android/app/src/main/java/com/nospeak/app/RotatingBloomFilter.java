@@ -0,0 +1,256 @@
+package com.nospeak.app;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Persisted two-generation Bloom filter over event IDs.
+ *
+ * Inserts go into the current generation; once it holds {@code generationCapacity} entries the
+ * generations swap and the older one is cleared, so the filter remembers between one and two
+ * generations' worth of IDs without its false-positive rate degrading. Lookups check both
+ * generations, so the effective false-positive rate is about twice the configured one.
+ *
+ * The bit arrays live in a memory-mapped file (header + two generations), so inserts are
+ * persisted by the page cache without explicit writes; {@link #flush()} forces them to disk.
+ * Bit positions come from the ID bytes themselves (event IDs are SHA-256 outputs) using double
+ * hashing, so lookups do not allocate or rehash.
+ */
+public final class RotatingBloomFilter implements Closeable {
+
+    private static final int MAGIC = 0x4e534246; // "NSBF"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_HASHES = 8;
+    private static final int OFFSET_WORDS = 12;
+    private static final int OFFSET_GENERATION_CAPACITY = 16;
+    private static final int OFFSET_CURRENT = 20;
+    private static final int OFFSET_COUNT_0 = 24;
+    private static final int OFFSET_COUNT_1 = 28;
+
+    private final int generationCapacity;
+    private final int hashCount;
+    private final int wordsPerGeneration;
+    private final long bitsPerGeneration;
+    private final byte[] keyBuffer = new byte[SeenEventIdStore.ID_SIZE];
+
+    private RandomAccessFile file;
+    private ByteBuffer buffer;
+
+    private RotatingBloomFilter(int generationCapacity, double falsePositiveRate) {
+        if (generationCapacity <= 0 || falsePositiveRate <= 0d || falsePositiveRate >= 1d) {
+            throw new IllegalArgumentException("invalid bloom filter parameters");
+        }
+        this.generationCapacity = generationCapacity;
+
+        double ln2 = Math.log(2d);
+        long bits = (long) Math.ceil(-generationCapacity * Math.log(falsePositiveRate) / (ln2 * ln2));
+        this.wordsPerGeneration = (int) ((bits + 63L) / 64L);
+        this.bitsPerGeneration = wordsPerGeneration * 64L;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitsPerGeneration / generationCapacity * ln2));
+    }
+
+    /**
+     * Opens (or creates) the filter at {@code path}. A file written with different parameters
+     * or in an unknown format is reset. Never throws: on I/O failure the filter is memory-only.
+     */
+    public static RotatingBloomFilter open(File path, int generationCapacity, double falsePositiveRate) {
+        RotatingBloomFilter filter = new RotatingBloomFilter(generationCapacity, falsePositiveRate);
+        long size = filter.totalBytes();
+
+        if (path != null) {
+            try {
+                filter.file = new RandomAccessFile(path, "rw");
+                boolean existing = filter.file.length() == size;
+                if (!existing) {
+                    filter.file.setLength(0);
+                    filter.file.setLength(size);
+                }
+                MappedByteBuffer mapped = filter.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                filter.buffer = mapped;
+                if (!existing || !filter.headerMatches()) {
+                    filter.reset();
+                }
+                return filter;
+            } catch (IOException | RuntimeException e) {
+                filter.closeFileQuietly();
+            }
+        }
+
+        filter.buffer = ByteBuffer.allocate((int) size);
+        filter.reset();
+        return filter;
+    }
+
+    public synchronized boolean isPersistent() {
+        return file != null;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    /**
+     * Number of entries in the current (newest) generation.
+     */
+    public synchronized int getCurrentGenerationCount() {
+        return buffer.getInt(countOffset(buffer.getInt(OFFSET_CURRENT)));
+    }
+
+    public synchronized boolean mightContain(String eventId) {
+        if (eventId == null) {
+            return false;
+        }
+        byte[] key = SeenEventIdStore.toKey(eventId, keyBuffer);
+        return generationContains(0, key) || generationContains(1, key);
+    }
+
+    /**
+     * Records an event ID, rotating generations when the current one is full.
+     */
+    public synchronized void put(String eventId) {
+        if (eventId == null) {
+            return;
+        }
+        byte[] key = SeenEventIdStore.toKey(eventId, keyBuffer);
+
+        int current = buffer.getInt(OFFSET_CURRENT);
+        if (!setBits(current, key)) {
+            return; // already present in this generation
+        }
+
+        int countOffset = countOffset(current);
+        int count = buffer.getInt(countOffset) + 1;
+        if (count < generationCapacity) {
+            buffer.putInt(countOffset, count);
+            return;
+        }
+
+        int next = 1 - current;
+        clearGeneration(next);
+        buffer.putInt(countOffset(next), 0);
+        buffer.putInt(countOffset, count);
+        buffer.putInt(OFFSET_CURRENT, next);
+    }
+
+    public synchronized void flush() {
+        if (buffer instanceof MappedByteBuffer) {
+            try {
+                ((MappedByteBuffer) buffer).force();
+            } catch (RuntimeException ignored) {
+                // ignore
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        flush();
+        closeFileQuietly();
+    }
+
+    private boolean generationContains(int generation, byte[] key) {
+        long h1 = readLong(key, 0);
+        long h2 = readLong(key, 8) | 1L;
+        int base = generationOffset(generation);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitsPerGeneration;
+            int offset = base + (int) (bit >>> 6) * 8;
+            if ((buffer.getLong(offset) & (1L << (bit & 63))) == 0L) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if at least one bit changed
+     */
+    private boolean setBits(int generation, byte[] key) {
+        long h1 = readLong(key, 0);
+        long h2 = readLong(key, 8) | 1L;
+        int base = generationOffset(generation);
+        boolean changed = false;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitsPerGeneration;
+            int offset = base + (int) (bit >>> 6) * 8;
+            long word = buffer.getLong(offset);
+            long mask = 1L << (bit & 63);
+            if ((word & mask) == 0L) {
+                buffer.putLong(offset, word | mask);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private void reset() {
+        clearGeneration(0);
+        clearGeneration(1);
+        buffer.putInt(OFFSET_MAGIC, MAGIC);
+        buffer.putInt(OFFSET_VERSION, VERSION);
+        buffer.putInt(OFFSET_HASHES, hashCount);
+        buffer.putInt(OFFSET_WORDS, wordsPerGeneration);
+        buffer.putInt(OFFSET_GENERATION_CAPACITY, generationCapacity);
+        buffer.putInt(OFFSET_CURRENT, 0);
+        buffer.putInt(OFFSET_COUNT_0, 0);
+        buffer.putInt(OFFSET_COUNT_1, 0);
+    }
+
+    private boolean headerMatches() {
+        int current = buffer.getInt(OFFSET_CURRENT);
+        return buffer.getInt(OFFSET_MAGIC) == MAGIC
+                && buffer.getInt(OFFSET_VERSION) == VERSION
+                && buffer.getInt(OFFSET_HASHES) == hashCount
+                && buffer.getInt(OFFSET_WORDS) == wordsPerGeneration
+                && buffer.getInt(OFFSET_GENERATION_CAPACITY) == generationCapacity
+                && (current == 0 || current == 1);
+    }
+
+    private void clearGeneration(int generation) {
+        int base = generationOffset(generation);
+        for (int i = 0; i < wordsPerGeneration; i++) {
+            buffer.putLong(base + i * 8, 0L);
+        }
+    }
+
+    private int generationOffset(int generation) {
+        return HEADER_SIZE + generation * wordsPerGeneration * 8;
+    }
+
+    private static int countOffset(int generation) {
+        return generation == 0 ? OFFSET_COUNT_0 : OFFSET_COUNT_1;
+    }
+
+    private long totalBytes() {
+        return HEADER_SIZE + 2L * wordsPerGeneration * 8L;
+    }
+
+    private void closeFileQuietly() {
+        if (file == null) {
+            return;
+        }
+        try {
+            file.close();
+        } catch (IOException ignored) {
+            // ignore
+        }
+        file = null;
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0L;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFFL);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,206 @@
+package com.nospeak.app;
+
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.crypto.ec.CustomNamedCurves;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.FixedPointCombMultiplier;
+import org.bouncycastle.math.ec.FixedPointUtil;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Shared secp256k1 context for the native Nostr code paths.
+ *
+ * Curve parameters are built once (using BouncyCastle's custom field arithmetic for
+ * secp256k1), the generator carries a fixed-base comb precomputation for signing, and
+ * decompressed peer points are kept in a small LRU so repeated ECDH with the same peer
+ * skips point decompression and reuses the point's cached wNAF/GLV tables.
+ */
+public final class Secp256k1 {
+
+    private static final int PEER_POINT_CACHE_SIZE = 128;
+
+    private static final class Holder {
+        static final Secp256k1 INSTANCE = new Secp256k1();
+    }
+
+    private final ECCurve curve;
+    private final ECPoint generator;
+    private final BigInteger n;
+    private final FixedPointCombMultiplier baseMultiplier = new FixedPointCombMultiplier();
+
+    private final LinkedHashMap<ByteBuffer, ECPoint> peerPoints =
+            new LinkedHashMap<ByteBuffer, ECPoint>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ByteBuffer, ECPoint> eldest) {
+                    return size() > PEER_POINT_CACHE_SIZE;
+                }
+            };
+
+    private Secp256k1() {
+        X9ECParameters params = CustomNamedCurves.getByName("secp256k1");
+        if (params == null) {
+            throw new IllegalStateException("secp256k1 params not available");
+        }
+
+        curve = params.getCurve();
+        generator = params.getG();
+        n = params.getN();
+
+        FixedPointUtil.precompute(generator);
+    }
+
+    public static Secp256k1 getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    public BigInteger getN() {
+        return n;
+    }
+
+    /**
+     * Multiplies the generator by {@code k} using the precomputed comb table.
+     */
+    public ECPoint multiplyGenerator(BigInteger k) {
+        return baseMultiplier.multiply(generator, k).normalize();
+    }
+
+    /**
+     * Returns the BIP-340 x-only public key for a 32-byte private key.
+     */
+    public byte[] xOnlyPublicKey(byte[] privateKey) {
+        BigInteger d = new BigInteger(1, privateKey);
+        if (d.signum() == 0) {
+            throw new IllegalArgumentException("invalid private key");
+        }
+        return to32Bytes(multiplyGenerator(d).getAffineXCoord().getEncoded());
+    }
+
+    /**
+     * ECDH with an x-only peer key lifted to even Y (BIP-340 style); returns the shared X coordinate.
+     */
+    public byte[] ecdhX(byte[] privateKey, byte[] peerPubkeyX) {
+        if (peerPubkeyX == null || peerPubkeyX.length != 32) {
+            throw new IllegalArgumentException("invalid peer pubkey");
+        }
+
+        BigInteger scalar = new BigInteger(1, privateKey);
+        if (scalar.signum() == 0) {
+            throw new IllegalArgumentException("invalid private key");
+        }
+
+        ECPoint sharedPoint = liftX(peerPubkeyX).multiply(scalar).normalize();
+        return to32Bytes(sharedPoint.getAffineXCoord().getEncoded());
+    }
+
+    /**
+     * Schnorr signature (R.x || s) over a 32-byte message using SHA-256 derived nonces.
+     *
+     * @return the 64-byte signature, or null if signing failed
+     */
+    public byte[] schnorrSign(byte[] message, byte[] privateKey) {
+        try {
+            BigInteger d = new BigInteger(1, privateKey);
+            ECPoint P = multiplyGenerator(d);
+
+            // If P.y is odd, negate d
+            if (P.getAffineYCoord().testBitZero()) {
+                d = n.subtract(d);
+            }
+
+            byte[] pBytes = to32Bytes(P.getAffineXCoord().getEncoded());
+
+            // Generate deterministic nonce
+            byte[] dBytes = to32Bytes(d.toByteArray());
+            byte[] aux = sha256(dBytes);
+            byte[] t = xor(aux, sha256(concat(dBytes, pBytes, message)));
+            byte[] kHash = sha256(concat(t, pBytes, message));
+
+            BigInteger k = new BigInteger(1, kHash).mod(n);
+            if (k.equals(BigInteger.ZERO)) {
+                return null;
+            }
+
+            ECPoint R = multiplyGenerator(k);
+
+            // If R.y is odd, negate k
+            if (R.getAffineYCoord().testBitZero()) {
+                k = n.subtract(k);
+            }
+
+            byte[] rBytes = to32Bytes(R.getAffineXCoord().getEncoded());
+
+            // e = sha256(R.x || P.x || m) mod n
+            BigInteger e = new BigInteger(1, sha256(concat(rBytes, pBytes, message))).mod(n);
+
+            // s = (k + e * d) mod n
+            BigInteger s = k.add(e.multiply(d)).mod(n);
+
+            byte[] sig = new byte[64];
+            System.arraycopy(rBytes, 0, sig, 0, 32);
+            System.arraycopy(to32Bytes(s.toByteArray()), 0, sig, 32, 32);
+            return sig;
+        } catch (RuntimeException | NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    private ECPoint liftX(byte[] peerPubkeyX) {
+        ByteBuffer key = ByteBuffer.wrap(peerPubkeyX.clone());
+        synchronized (peerPoints) {
+            ECPoint cached = peerPoints.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        byte[] compressed = new byte[33];
+        compressed[0] = 0x02; // even Y
+        System.arraycopy(peerPubkeyX, 0, compressed, 1, 32);
+        ECPoint point = curve.decodePoint(compressed);
+
+        synchronized (peerPoints) {
+            peerPoints.put(key, point);
+        }
+        return point;
+    }
+
+    static byte[] to32Bytes(byte[] bytes) {
+        if (bytes.length == 32) {
+            return bytes;
+        }
+        if (bytes.length > 32) {
+            return Arrays.copyOfRange(bytes, bytes.length - 32, bytes.length);
+        }
+        byte[] out = new byte[32];
+        System.arraycopy(bytes, 0, out, 32 - bytes.length, bytes.length);
+        return out;
+    }
+
+    private static byte[] sha256(byte[] input) throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("SHA-256").digest(input);
+    }
+
+    private static byte[] xor(byte[] a, byte[] b) {
+        byte[] out = new byte[a.length];
+        for (int i = 0; i < a.length; i++) {
+            out[i] = (byte) (a[i] ^ b[i]);
+        }
+        return out;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b, byte[] c) {
+        byte[] out = new byte[a.length + b.length + c.length];
+        System.arraycopy(a, 0, out, 0, a.length);
+        System.arraycopy(b, 0, out, a.length, b.length);
+        System.arraycopy(c, 0, out, a.length + b.length, c.length);
+        return out;
+    }
+}
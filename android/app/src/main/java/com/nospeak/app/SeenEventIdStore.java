@@ -0,0 +1,415 @@
+package com.nospeak.app;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Fixed-size, append-only store of seen event IDs.
+ *
+ * IDs are kept as 40-byte binary records (32-byte ID, 8-byte created_at) in a ring file: a
+ * 32-byte header (magic, version, capacity, count, head) followed by {@code capacity} records.
+ * Appending writes one record and the header's count/head; once full, the oldest record is
+ * overwritten. The whole file is read once on open, and lookups go through an in-memory
+ * open-addressing (linear probing) table of ring slots, so neither add nor contains allocates.
+ *
+ * Writes land in the page cache immediately; the file is fsynced every {@link #SYNC_BATCH}
+ * appends and on {@link #flush()}/{@link #close()}. Losing the unsynced tail after a crash only
+ * means a few events may be seen again. If the file cannot be used, the store keeps working in
+ * memory only.
+ */
+public final class SeenEventIdStore implements Closeable {
+
+    public static final int ID_SIZE = 32;
+
+    static final int SYNC_BATCH = 32;
+
+    private static final int MAGIC = 0x4e534944; // "NSID"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = ID_SIZE + 8;
+    private static final int HEADER_COUNT_OFFSET = 12;
+
+    private final int capacity;
+    private final byte[] ring;
+    private final long[] createdAt;
+    private final int[] table;
+    private final int mask;
+    private final byte[] keyBuffer = new byte[ID_SIZE];
+    private final byte[] recordBuffer = new byte[RECORD_SIZE];
+
+    private RandomAccessFile file;
+    private int count;
+    private int head;
+    private int unsyncedAppends;
+
+    private SeenEventIdStore(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.ring = new byte[capacity * ID_SIZE];
+        this.createdAt = new long[capacity];
+
+        int tableSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        this.table = new int[Math.max(tableSize, 2)];
+        this.mask = table.length - 1;
+    }
+
+    /**
+     * Opens (or creates) the store at {@code path}. A file written with a different capacity is
+     * rewritten keeping its newest IDs; an unreadable file is reset. Never throws: on I/O failure
+     * the returned store is memory-only.
+     */
+    public static SeenEventIdStore open(File path, int capacity) {
+        SeenEventIdStore store = new SeenEventIdStore(capacity);
+        if (path == null) {
+            return store;
+        }
+
+        try {
+            store.file = new RandomAccessFile(path, "rw");
+            store.load();
+        } catch (IOException e) {
+            store.closeFileQuietly();
+        }
+        return store;
+    }
+
+    public static SeenEventIdStore inMemory(int capacity) {
+        return new SeenEventIdStore(capacity);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    public synchronized boolean isPersistent() {
+        return file != null;
+    }
+
+    public synchronized boolean contains(String eventId) {
+        return eventId != null && findTableIndex(toKey(eventId, keyBuffer), 0) >= 0;
+    }
+
+    /**
+     * Records an event ID.
+     *
+     * @return true if the ID was not already present
+     */
+    public synchronized boolean add(String eventId) {
+        return add(eventId, 0L);
+    }
+
+    /**
+     * Records an event ID with its created_at, so it can take part in set reconciliation.
+     *
+     * @return true if the ID was not already present
+     */
+    public synchronized boolean add(String eventId, long createdAtSeconds) {
+        if (eventId == null) {
+            return false;
+        }
+        return addKey(toKey(eventId, keyBuffer), createdAtSeconds);
+    }
+
+    /**
+     * Copies every stored ID created at or after {@code sinceSeconds} into {@code out}. IDs stored
+     * without a created_at are only included when {@code sinceSeconds} is 0.
+     *
+     * @return the number of IDs copied
+     */
+    public synchronized int exportSince(long sinceSeconds, Negentropy.Storage out) {
+        int copied = 0;
+        for (int slot = 0; slot < count; slot++) {
+            if (createdAt[slot] >= sinceSeconds) {
+                out.add(createdAt[slot], ring, slot * ID_SIZE);
+                copied++;
+            }
+        }
+        return copied;
+    }
+
+    /**
+     * Fsyncs pending appends.
+     */
+    public synchronized void flush() {
+        if (file == null || unsyncedAppends == 0) {
+            return;
+        }
+        try {
+            file.getFD().sync();
+            unsyncedAppends = 0;
+        } catch (IOException e) {
+            closeFileQuietly();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        flush();
+        closeFileQuietly();
+    }
+
+    // ---- Ring and file ----
+
+    private boolean addKey(byte[] key, long createdAtSeconds) {
+        if (findTableIndex(key, 0) >= 0) {
+            return false;
+        }
+
+        int slot = head;
+        if (count == capacity) {
+            removeSlot(slot);
+        } else {
+            count++;
+        }
+        System.arraycopy(key, 0, ring, slot * ID_SIZE, ID_SIZE);
+        createdAt[slot] = Math.max(0L, createdAtSeconds);
+        insertSlot(slot);
+        head = (head + 1) % capacity;
+
+        appendToFile(slot);
+        return true;
+    }
+
+    private void appendToFile(int slot) {
+        if (file == null) {
+            return;
+        }
+        try {
+            System.arraycopy(ring, slot * ID_SIZE, recordBuffer, 0, ID_SIZE);
+            writeLong(recordBuffer, ID_SIZE, createdAt[slot]);
+            file.seek(HEADER_SIZE + (long) slot * RECORD_SIZE);
+            file.write(recordBuffer);
+            file.seek(HEADER_COUNT_OFFSET);
+            file.writeInt(count);
+            file.writeInt(head);
+
+            if (++unsyncedAppends >= SYNC_BATCH) {
+                file.getFD().sync();
+                unsyncedAppends = 0;
+            }
+        } catch (IOException e) {
+            closeFileQuietly();
+        }
+    }
+
+    private void load() throws IOException {
+        long length = file.length();
+        if (length >= HEADER_SIZE) {
+            byte[] header = new byte[HEADER_SIZE];
+            file.seek(0);
+            file.readFully(header);
+
+            int magic = readInt(header, 0);
+            int version = readInt(header, 4);
+            int storedCapacity = readInt(header, 8);
+            int storedCount = readInt(header, 12);
+            int storedHead = readInt(header, 16);
+
+            boolean valid = magic == MAGIC
+                    && version == VERSION
+                    && storedCapacity > 0
+                    && storedCount >= 0 && storedCount <= storedCapacity
+                    && storedHead >= 0 && storedHead < storedCapacity
+                    && (storedCount == storedCapacity || storedHead == storedCount)
+                    && length >= HEADER_SIZE + (long) storedCapacity * RECORD_SIZE;
+
+            if (valid) {
+                byte[] records = new byte[storedCapacity * RECORD_SIZE];
+                file.readFully(records);
+
+                if (storedCapacity == capacity) {
+                    for (int slot = 0; slot < storedCount; slot++) {
+                        System.arraycopy(records, slot * RECORD_SIZE, ring, slot * ID_SIZE, ID_SIZE);
+                        createdAt[slot] = readLong(records, slot * RECORD_SIZE + ID_SIZE);
+                        insertSlot(slot);
+                    }
+                    count = storedCount;
+                    head = storedHead;
+                    return;
+                }
+
+                // Capacity changed: rewrite keeping the newest IDs, oldest first.
+                int oldest = storedCount == storedCapacity ? storedHead : 0;
+                int skip = Math.max(0, storedCount - capacity);
+                resetFile();
+                for (int i = skip; i < storedCount; i++) {
+                    int offset = ((oldest + i) % storedCapacity) * RECORD_SIZE;
+                    System.arraycopy(records, offset, keyBuffer, 0, ID_SIZE);
+                    addKey(keyBuffer, readLong(records, offset + ID_SIZE));
+                }
+                flush();
+                return;
+            }
+        }
+
+        resetFile();
+    }
+
+    private void resetFile() throws IOException {
+        count = 0;
+        head = 0;
+        unsyncedAppends = 0;
+        Arrays.fill(table, 0);
+
+        byte[] header = new byte[HEADER_SIZE];
+        writeInt(header, 0, MAGIC);
+        writeInt(header, 4, VERSION);
+        writeInt(header, 8, capacity);
+        file.setLength(0);
+        file.seek(0);
+        file.write(header);
+        file.setLength(HEADER_SIZE + (long) capacity * RECORD_SIZE);
+        file.getFD().sync();
+    }
+
+    private void closeFileQuietly() {
+        if (file == null) {
+            return;
+        }
+        try {
+            file.close();
+        } catch (IOException ignored) {
+            // ignore
+        }
+        file = null;
+    }
+
+    // ---- Open-addressing table of ring slots (value = slot + 1, 0 = empty) ----
+
+    private int findTableIndex(byte[] key, int keyOffset) {
+        int index = hash(key, keyOffset) & mask;
+        while (true) {
+            int value = table[index];
+            if (value == 0) {
+                return -1;
+            }
+            if (slotEquals(value - 1, key, keyOffset)) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    private void insertSlot(int slot) {
+        int index = hash(ring, slot * ID_SIZE) & mask;
+        while (table[index] != 0) {
+            index = (index + 1) & mask;
+        }
+        table[index] = slot + 1;
+    }
+
+    /**
+     * Removes a slot's entry using backward-shift deletion, so no tombstones accumulate.
+     */
+    private void removeSlot(int slot) {
+        int index = hash(ring, slot * ID_SIZE) & mask;
+        while (table[index] != slot + 1) {
+            if (table[index] == 0) {
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+
+        int hole = index;
+        int next = hole;
+        while (true) {
+            next = (next + 1) & mask;
+            int value = table[next];
+            if (value == 0) {
+                break;
+            }
+            int home = hash(ring, (value - 1) * ID_SIZE) & mask;
+            boolean stays = hole <= next
+                    ? (hole < home && home <= next)
+                    : (hole < home || home <= next);
+            if (!stays) {
+                table[hole] = value;
+                hole = next;
+            }
+        }
+        table[hole] = 0;
+    }
+
+    private boolean slotEquals(int slot, byte[] key, int keyOffset) {
+        int base = slot * ID_SIZE;
+        for (int i = 0; i < ID_SIZE; i++) {
+            if (ring[base + i] != key[keyOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(byte[] bytes, int offset) {
+        // Event IDs are SHA-256 outputs, so a few raw bytes are already well distributed.
+        int h = readInt(bytes, offset) ^ readInt(bytes, offset + 28);
+        return h ^ (h >>> 16);
+    }
+
+    // ---- Encoding ----
+
+    /**
+     * Decodes a 64-char hex event ID into {@code out}; any other string is hashed with SHA-256
+     * so it still maps to a stable 32-byte key.
+     */
+    static byte[] toKey(String eventId, byte[] out) {
+        if (eventId.length() == ID_SIZE * 2) {
+            boolean valid = true;
+            for (int i = 0; i < ID_SIZE && valid; i++) {
+                int hi = Character.digit(eventId.charAt(i * 2), 16);
+                int lo = Character.digit(eventId.charAt(i * 2 + 1), 16);
+                if (hi < 0 || lo < 0) {
+                    valid = false;
+                } else {
+                    out[i] = (byte) ((hi << 4) | lo);
+                }
+            }
+            if (valid) {
+                return out;
+            }
+        }
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(eventId.getBytes(StandardCharsets.UTF_8));
+            System.arraycopy(digest, 0, out, 0, ID_SIZE);
+        } catch (NoSuchAlgorithmException e) {
+            Arrays.fill(out, (byte) 0);
+        }
+        return out;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24)
+                | ((bytes[offset + 1] & 0xFF) << 16)
+                | ((bytes[offset + 2] & 0xFF) << 8)
+                | (bytes[offset + 3] & 0xFF);
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        return ((long) readInt(bytes, offset) << 32) | (readInt(bytes, offset + 4) & 0xFFFFFFFFL);
+    }
+
+    private static void writeLong(byte[] bytes, int offset, long value) {
+        writeInt(bytes, offset, (int) (value >>> 32));
+        writeInt(bytes, offset + 4, (int) value);
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}
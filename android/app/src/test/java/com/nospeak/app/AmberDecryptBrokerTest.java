@@ -0,0 +1,166 @@
+package com.nospeak.app;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AmberDecryptBrokerTest {
+
+    private static final String SENDER = "aa";
+    private static final String ME = "bb";
+
+    private AmberDecryptBroker broker;
+
+    @After
+    public void tearDown() {
+        if (broker != null) {
+            broker.shutdown();
+        }
+    }
+
+    @Test
+    public void concurrentIdenticalCiphertextsShareOneQuery() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger queries = new AtomicInteger();
+        broker = new AmberDecryptBroker(new AmberDecryptBroker.Signer() {
+            @Override
+            public String nip44Decrypt(String ciphertext, String senderPubkeyHex, String recipientPubkeyHex) {
+                queries.incrementAndGet();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "plain:" + ciphertext;
+            }
+        }, 2, 8, 16, 5_000L);
+
+        final AtomicReference<String> first = new AtomicReference<>();
+        final AtomicReference<String> second = new AtomicReference<>();
+        Thread a = decryptOn(first, "c1");
+        Thread b = decryptOn(second, "c1");
+        while (broker.snapshot().coalesced == 0L) {
+            Thread.sleep(2L);
+        }
+        release.countDown();
+        a.join(5_000L);
+        b.join(5_000L);
+
+        assertEquals("plain:c1", first.get());
+        assertEquals("plain:c1", second.get());
+        assertEquals(1, queries.get());
+        assertEquals(1L, broker.snapshot().ipc.count);
+    }
+
+    @Test
+    public void cachesSuccessesButNotFailures() {
+        final AtomicInteger queries = new AtomicInteger();
+        broker = new AmberDecryptBroker(new AmberDecryptBroker.Signer() {
+            @Override
+            public String nip44Decrypt(String ciphertext, String senderPubkeyHex, String recipientPubkeyHex) {
+                queries.incrementAndGet();
+                return ciphertext.startsWith("bad") ? null : "plain:" + ciphertext;
+            }
+        }, 1, 8, 2, 5_000L);
+
+        assertEquals("plain:c1", broker.decrypt("c1", SENDER, ME));
+        assertEquals("plain:c1", broker.decrypt("c1", SENDER, ME));
+        assertEquals(1, queries.get());
+
+        // A failure (signer locked, request rejected) is asked again.
+        assertNull(broker.decrypt("bad", SENDER, ME));
+        assertNull(broker.decrypt("bad", SENDER, ME));
+        assertEquals(3, queries.get());
+
+        // Least recently used results are evicted.
+        broker.decrypt("c2", SENDER, ME);
+        broker.decrypt("c3", SENDER, ME);
+        assertEquals(2, broker.size());
+        broker.decrypt("c1", SENDER, ME);
+        assertEquals(6, queries.get());
+
+        AmberDecryptBroker.Snapshot snapshot = broker.snapshot();
+        assertEquals(7L, snapshot.requests);
+        assertEquals(1L, snapshot.cacheHits);
+        assertEquals(2L, snapshot.failed);
+    }
+
+    @Test
+    public void timedOutRequestLeavesResultForTheNextCopy() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch answered = new CountDownLatch(1);
+        broker = new AmberDecryptBroker(new AmberDecryptBroker.Signer() {
+            @Override
+            public String nip44Decrypt(String ciphertext, String senderPubkeyHex, String recipientPubkeyHex) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                answered.countDown();
+                return "plain";
+            }
+        }, 1, 8, 16, 50L);
+
+        assertNull(broker.decrypt("c1", SENDER, ME));
+        assertEquals(1L, broker.snapshot().timedOut);
+        release.countDown();
+        assertTrue(answered.await(5, TimeUnit.SECONDS));
+        while (broker.size() == 0) {
+            Thread.sleep(2L);
+        }
+        assertEquals("plain", broker.decrypt("c1", SENDER, ME));
+    }
+
+    @Test
+    public void fullQueueRejectsInsteadOfPilingUpBehindAStalledSigner() {
+        final CountDownLatch release = new CountDownLatch(1);
+        broker = new AmberDecryptBroker(new AmberDecryptBroker.Signer() {
+            @Override
+            public String nip44Decrypt(String ciphertext, String senderPubkeyHex, String recipientPubkeyHex) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "plain";
+            }
+        }, 1, 1, 16, 50L);
+
+        // c1 stalls the only worker and c2 waits in the queue; both callers time out.
+        assertNull(broker.decrypt("c1", SENDER, ME));
+        assertNull(broker.decrypt("c2", SENDER, ME));
+        assertNull(broker.decrypt("c3", SENDER, ME));
+        release.countDown();
+
+        AmberDecryptBroker.Snapshot snapshot = broker.snapshot();
+        assertEquals(2L, snapshot.timedOut);
+        assertEquals(1L, snapshot.rejected);
+    }
+
+    @Test
+    public void keyCoversSenderAndRecipient() {
+        String key = AmberDecryptBroker.cacheKey("c", SENDER, ME);
+        assertEquals(64, key.length());
+        assertTrue(!key.equals(AmberDecryptBroker.cacheKey("c", ME, SENDER)));
+    }
+
+    private Thread decryptOn(final AtomicReference<String> out, final String ciphertext) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                out.set(broker.decrypt(ciphertext, SENDER, ME));
+            }
+        });
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,121 @@
+package com.nospeak.app;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AvatarDiskCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void evictsLeastRecentlyUsedBeyondQuota() throws Exception {
+        File dir = folder.newFolder("avatars");
+        AvatarDiskCache cache = new AvatarDiskCache(dir, 3_000L);
+        put(cache, "a", 1_000);
+        put(cache, "b", 1_000);
+        put(cache, "c", 1_000);
+        assertEquals(3_000L, cache.getSizeBytes());
+
+        // Touch "a" so "b" is the eldest.
+        assertNotNull(cache.get("a"));
+        put(cache, "d", 1_000);
+
+        assertFalse(cache.contains("b"));
+        assertFalse(new File(dir, "b.png").exists());
+        assertTrue(cache.contains("a"));
+        assertEquals(3, cache.getEntryCount());
+        assertEquals(3_000L, cache.getSizeBytes());
+        cache.close();
+    }
+
+    @Test
+    public void journalRestoresOrderAndSizes() throws Exception {
+        File dir = folder.newFolder("avatars");
+        AvatarDiskCache cache = new AvatarDiskCache(dir, 10_000L);
+        put(cache, "a", 1_000);
+        put(cache, "b", 2_000);
+        put(cache, "c", 500);
+        cache.get("a");
+        cache.remove("c");
+        cache.close();
+
+        AvatarDiskCache reopened = new AvatarDiskCache(dir, 2_500L);
+        // "b" was least recently used, so the smaller quota evicts it first.
+        assertFalse(reopened.contains("b"));
+        assertTrue(reopened.contains("a"));
+        assertFalse(reopened.contains("c"));
+        assertEquals(1_000L, reopened.getSizeBytes());
+        reopened.close();
+    }
+
+    @Test
+    public void indexesDirectoryWithoutJournal() throws Exception {
+        File dir = folder.newFolder("avatars");
+        write(new File(dir, "old.png"), 700);
+        write(new File(dir, "new.png"), 300);
+        assertTrue(new File(dir, "old.png").setLastModified(1_000L));
+        assertTrue(new File(dir, "new.png").setLastModified(2_000L));
+
+        AvatarDiskCache cache = new AvatarDiskCache(dir, 10_000L);
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(1_000L, cache.getSizeBytes());
+        assertTrue(new File(dir, AvatarDiskCache.JOURNAL_FILE_NAME).exists());
+        cache.close();
+    }
+
+    @Test
+    public void missingFileIsDroppedOnAccess() throws Exception {
+        File dir = folder.newFolder("avatars");
+        AvatarDiskCache cache = new AvatarDiskCache(dir, 10_000L);
+        put(cache, "a", 100);
+        assertTrue(cache.fileFor("a").delete());
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0L, cache.getSizeBytes());
+        cache.close();
+    }
+
+    @Test
+    public void compactsJournal() throws Exception {
+        File dir = folder.newFolder("avatars");
+        AvatarDiskCache cache = new AvatarDiskCache(dir, 10_000L);
+        put(cache, "a", 100);
+        for (int i = 0; i < 1_000; i++) {
+            cache.get("a");
+        }
+        cache.close();
+
+        File journal = new File(dir, AvatarDiskCache.JOURNAL_FILE_NAME);
+        assertTrue(journal.length() < 4_096L);
+        AvatarDiskCache reopened = new AvatarDiskCache(dir, 10_000L);
+        assertTrue(reopened.contains("a"));
+        reopened.close();
+    }
+
+    private static void put(AvatarDiskCache cache, String key, int bytes) throws IOException {
+        write(cache.fileFor(key), bytes);
+        cache.onWritten(key);
+    }
+
+    private static void write(File file, int bytes) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[bytes]);
+        } finally {
+            out.close();
+        }
+    }
+}
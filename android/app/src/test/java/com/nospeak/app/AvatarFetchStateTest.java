@@ -0,0 +1,95 @@
+package com.nospeak.app;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AvatarFetchStateTest {
+
+    private static final long TTL = 1_000L;
+    private static final long BASE = 100L;
+    private static final long MAX = 1_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void revalidatesStalePicturesWithStoredValidators() {
+        AvatarFetchState state = new AvatarFetchState(null, 16, TTL, BASE, MAX);
+        assertEquals(AvatarFetchState.Action.FETCH, state.decide("k", false, 0L));
+
+        state.onStored("k", "\"v1\"", "Mon, 01 Jan 2024 00:00:00 GMT", 0L);
+        assertEquals(AvatarFetchState.Action.USE_CACHED, state.decide("k", true, TTL - 1L));
+        assertEquals(AvatarFetchState.Action.REVALIDATE, state.decide("k", true, TTL));
+        assertEquals("\"v1\"", state.getEtag("k"));
+        assertEquals("Mon, 01 Jan 2024 00:00:00 GMT", state.getLastModified("k"));
+
+        // 304 restarts the TTL and keeps the validators.
+        state.onNotModified("k", TTL);
+        assertEquals(AvatarFetchState.Action.USE_CACHED, state.decide("k", true, 2 * TTL - 1L));
+        assertEquals("\"v1\"", state.getEtag("k"));
+
+        // A picture evicted from disk is fetched again in full.
+        assertEquals(AvatarFetchState.Action.FETCH, state.decide("k", false, TTL));
+    }
+
+    @Test
+    public void backsOffExponentiallyAfterFailures() {
+        AvatarFetchState state = new AvatarFetchState(null, 16, TTL, BASE, MAX);
+        assertEquals(100L, state.onFailed("dead", 0L));
+        assertEquals(AvatarFetchState.Action.BACK_OFF, state.decide("dead", false, 99L));
+        assertEquals(AvatarFetchState.Action.FETCH, state.decide("dead", false, 100L));
+
+        assertEquals(200L, state.onFailed("dead", 100L));
+        assertEquals(400L, state.onFailed("dead", 300L));
+        assertEquals(800L, state.onFailed("dead", 700L));
+        assertEquals(MAX, state.onFailed("dead", 1_500L));
+        assertEquals(MAX, state.onFailed("dead", 2_500L));
+
+        // Success resets the history.
+        state.onStored("dead", null, null, 4_000L);
+        assertEquals(100L, state.onFailed("dead", 5_000L));
+    }
+
+    @Test
+    public void failedRevalidationKeepsServingCachedPicture() {
+        AvatarFetchState state = new AvatarFetchState(null, 16, TTL, BASE, MAX);
+        state.onStored("k", "\"v1\"", null, 0L);
+        assertEquals(AvatarFetchState.Action.REVALIDATE, state.decide("k", true, TTL));
+
+        state.onFailed("k", TTL);
+        assertEquals(AvatarFetchState.Action.USE_CACHED, state.decide("k", true, TTL + BASE - 1L));
+        assertEquals(AvatarFetchState.Action.REVALIDATE, state.decide("k", true, TTL + BASE));
+    }
+
+    @Test
+    public void legacyCachedPictureStartsItsTtl() {
+        AvatarFetchState state = new AvatarFetchState(null, 16, TTL, BASE, MAX);
+        assertEquals(AvatarFetchState.Action.USE_CACHED, state.decide("old", true, 500L));
+        assertEquals(AvatarFetchState.Action.REVALIDATE, state.decide("old", true, 500L + TTL));
+        assertNull(state.getEtag("old"));
+    }
+
+    @Test
+    public void persistsAndBoundsEntries() throws Exception {
+        File file = new File(folder.getRoot(), "fetch-state.json");
+        AvatarFetchState state = new AvatarFetchState(file, 2, TTL, BASE, MAX);
+        state.onStored("a", "\"a\"", null, 0L);
+        state.onFailed("b", 0L);
+        state.onStored("c", null, "yesterday", 0L);
+        assertEquals(2, state.size());
+        state.flush();
+
+        AvatarFetchState reopened = new AvatarFetchState(file, 2, TTL, BASE, MAX);
+        assertEquals(2, reopened.size());
+        assertNull(reopened.getEtag("a"));
+        assertEquals(AvatarFetchState.Action.BACK_OFF, reopened.decide("b", false, BASE - 1L));
+        assertEquals("yesterday", reopened.getLastModified("c"));
+        assertNull(reopened.getEtag("c"));
+    }
+}
@@ -0,0 +1,117 @@
+package com.nospeak.app;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class AvatarPrefetchSchedulerTest {
+
+    private static final long DAY = 24L * 60L * 60L * 1000L;
+    private static final long NOW = 100L * DAY;
+
+    /** Records started URLs and lets the test finish them. */
+    private static final class RecordingFetcher implements AvatarPrefetchScheduler.Fetcher {
+        final List<String> started = new ArrayList<>();
+        final List<Runnable> done = new ArrayList<>();
+
+        @Override
+        public void fetch(String pictureUrl, Runnable onDone) {
+            started.add(pictureUrl);
+            done.add(onDone);
+        }
+
+        void finish(int index) {
+            done.get(index).run();
+        }
+    }
+
+    @Test
+    public void runsRecentConversationsFirstWithinConcurrencyLimit() {
+        RecordingFetcher fetcher = new RecordingFetcher();
+        AvatarPrefetchScheduler scheduler = new AvatarPrefetchScheduler(fetcher, 1, 7 * DAY, false);
+
+        // Occupies the only slot so the rest queue up.
+        scheduler.submit("first", "https://a/first.png", 0L, 0L, NOW);
+        scheduler.submit("stranger", "https://a/stranger.png", 0L, NOW - DAY, NOW);
+        scheduler.submit("oldchat", "https://a/oldchat.png", NOW - 30 * DAY, NOW, NOW);
+        scheduler.submit("chat", "https://a/chat.png", NOW - DAY, 0L, NOW);
+        scheduler.submit("newchat", "https://a/newchat.png", NOW - 60_000L, 0L, NOW);
+        assertEquals(1, fetcher.started.size());
+        assertEquals(4, scheduler.getPendingCount());
+
+        for (int i = 0; i < 5; i++) {
+            fetcher.finish(i);
+        }
+        // Recent conversations newest first, then the rest by profile update time.
+        assertEquals("https://a/newchat.png", fetcher.started.get(1));
+        assertEquals("https://a/chat.png", fetcher.started.get(2));
+        assertEquals("https://a/oldchat.png", fetcher.started.get(3));
+        assertEquals("https://a/stranger.png", fetcher.started.get(4));
+        assertEquals(0, scheduler.getRunningCount());
+    }
+
+    @Test
+    public void lowPriorityWaitsForUnmeteredNetwork() {
+        RecordingFetcher fetcher = new RecordingFetcher();
+        AvatarPrefetchScheduler scheduler = new AvatarPrefetchScheduler(fetcher, 4, 7 * DAY, true);
+
+        scheduler.submit("stranger", "https://a/stranger.png", 0L, NOW, NOW);
+        scheduler.submit("chat", "https://a/chat.png", NOW - DAY, 0L, NOW);
+        assertEquals(1, fetcher.started.size());
+        assertEquals("https://a/chat.png", fetcher.started.get(0));
+
+        scheduler.setUnmetered(true);
+        assertEquals(2, fetcher.started.size());
+        assertEquals("https://a/stranger.png", fetcher.started.get(1));
+    }
+
+    @Test
+    public void suspendingCancelsQueueAndLaterPictureReplacesEarlier() {
+        RecordingFetcher fetcher = new RecordingFetcher();
+        AvatarPrefetchScheduler scheduler = new AvatarPrefetchScheduler(fetcher, 1, 7 * DAY, false);
+
+        scheduler.submit("a", "https://a/a.png", 0L, 0L, NOW);
+        scheduler.submit("b", "https://a/old.png", 0L, 0L, NOW);
+        scheduler.submit("b", "https://a/new.png", 0L, 0L, NOW);
+        scheduler.submit("c", "https://a/c.png", 0L, 0L, NOW);
+        assertEquals(2, scheduler.getPendingCount());
+
+        scheduler.setSuspended(true);
+        assertEquals(0, scheduler.getPendingCount());
+        assertEquals(2L, scheduler.getCancelledCount());
+        scheduler.submit("d", "https://a/d.png", 0L, 0L, NOW);
+        assertEquals(0, scheduler.getPendingCount());
+
+        // The running download completes; finishing twice does not free two slots.
+        fetcher.finish(0);
+        fetcher.finish(0);
+        assertEquals(0, scheduler.getRunningCount());
+
+        scheduler.setSuspended(false);
+        scheduler.submit("b", "https://a/new.png", 0L, 0L, NOW);
+        assertEquals("https://a/new.png", fetcher.started.get(1));
+        assertEquals(2L, scheduler.getStartedCount());
+    }
+
+    @Test
+    public void synchronousCompletionDrainsQueue() {
+        final List<String> started = new ArrayList<>();
+        AvatarPrefetchScheduler scheduler = new AvatarPrefetchScheduler(new AvatarPrefetchScheduler.Fetcher() {
+            @Override
+            public void fetch(String pictureUrl, Runnable done) {
+                started.add(pictureUrl);
+                done.run();
+            }
+        }, 2, 7 * DAY, false);
+
+        for (int i = 0; i < 20; i++) {
+            scheduler.submit("p" + i, "https://a/" + i + ".png", 0L, i, NOW);
+        }
+        assertEquals(20, started.size());
+        assertEquals(0, scheduler.getRunningCount());
+        assertEquals(0, scheduler.getPendingCount());
+    }
+}
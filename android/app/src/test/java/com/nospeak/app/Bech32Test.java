@@ -0,0 +1,34 @@
+package com.nospeak.app;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class Bech32Test {
+
+    // NIP-19 example
+    private static final String PUBKEY_HEX = "3bf0c63fcb93463407af97a5e5ee64fa883d107ef9e558472c4eb9aaaefa459d";
+    private static final String NPUB = "npub180cvv07tjdrrgpa0j7j7tmnyl2yr6yr7l8j4s3evf6u64th6gkwsyjh6w6";
+
+    @Test
+    public void encodesAndDecodesNip19Example() {
+        assertEquals(NPUB, Bech32.pubkeyHexToNpub(PUBKEY_HEX));
+        assertEquals(PUBKEY_HEX, Bech32.npubToPubkeyHex(NPUB));
+        assertEquals(PUBKEY_HEX, Bech32.npubToPubkeyHex(NPUB.toUpperCase()));
+    }
+
+    @Test
+    public void rejectsInvalidNpubs() {
+        assertNull(Bech32.npubToPubkeyHex(null));
+        assertNull(Bech32.npubToPubkeyHex(NPUB.substring(0, NPUB.length() - 1)));
+        // Checksum mismatch
+        assertNull(Bech32.npubToPubkeyHex(NPUB.substring(0, NPUB.length() - 1) + "7"));
+        // Wrong prefix with a valid length
+        assertNull(Bech32.npubToPubkeyHex("nsec" + NPUB.substring(4)));
+        // Mixed case
+        assertNull(Bech32.npubToPubkeyHex("Npub" + NPUB.substring(4)));
+        // Character outside the bech32 alphabet
+        assertNull(Bech32.npubToPubkeyHex(NPUB.substring(0, 10) + "b" + NPUB.substring(11)));
+    }
+}
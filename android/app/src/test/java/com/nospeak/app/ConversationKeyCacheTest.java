@@ -0,0 +1,61 @@
+package com.nospeak.app;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ConversationKeyCacheTest {
+
+    private static byte[] key(int fill) {
+        byte[] out = new byte[32];
+        java.util.Arrays.fill(out, (byte) fill);
+        return out;
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedPeer() {
+        ConversationKeyCache cache = new ConversationKeyCache(2);
+
+        cache.put("aa", key(1));
+        cache.put("bb", key(2));
+        assertNotNull(cache.get("aa"));
+
+        cache.put("cc", key(3));
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("bb"));
+        assertArrayEquals(key(1), cache.get("aa"));
+        assertArrayEquals(key(3), cache.get("cc"));
+    }
+
+    @Test
+    public void countsHitsAndMissesAndNormalizesPubkeys() {
+        ConversationKeyCache cache = new ConversationKeyCache(4);
+
+        assertNull(cache.get("AB"));
+        cache.put("AB", key(7));
+        assertArrayEquals(key(7), cache.get("ab"));
+
+        assertEquals(1L, cache.getHitCount());
+        assertEquals(1L, cache.getMissCount());
+    }
+
+    @Test
+    public void returnsCopiesAndClearDropsEverything() {
+        ConversationKeyCache cache = new ConversationKeyCache(4);
+        byte[] original = key(9);
+        cache.put("aa", original);
+
+        java.util.Arrays.fill(original, (byte) 0);
+        byte[] first = cache.get("aa");
+        java.util.Arrays.fill(first, (byte) 0);
+        assertArrayEquals(key(9), cache.get("aa"));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get("aa"));
+    }
+}
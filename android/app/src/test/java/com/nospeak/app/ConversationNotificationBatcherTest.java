@@ -0,0 +1,48 @@
+package com.nospeak.app;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConversationNotificationBatcherTest {
+
+    @Test
+    public void burstRendersEachConversationOnce() {
+        ConversationNotificationBatcher batcher = new ConversationNotificationBatcher();
+
+        assertTrue(batcher.offer("alice", "alice"));
+        for (int i = 0; i < 199; i++) {
+            assertFalse(batcher.offer(i % 2 == 0 ? "group" : "alice", i % 2 == 0 ? "carol" : "alice"));
+        }
+        assertFalse(batcher.offer("group", "dave"));
+
+        List<ConversationNotificationBatcher.Update> updates = batcher.drain();
+        assertEquals(2, updates.size());
+        assertEquals("alice", updates.get(0).conversationId);
+        assertEquals("group", updates.get(1).conversationId);
+        // The latest sender is shown for a group.
+        assertEquals("dave", updates.get(1).senderPubkeyHex);
+        assertEquals(201L, batcher.getOfferedCount());
+        assertEquals(2L, batcher.getRenderedCount());
+        assertFalse(batcher.hasPending());
+
+        // The next message opens a new window.
+        assertTrue(batcher.offer("alice", "alice"));
+        assertTrue(batcher.hasPending());
+    }
+
+    @Test
+    public void clearDropsPendingUpdates() {
+        ConversationNotificationBatcher batcher = new ConversationNotificationBatcher();
+        batcher.offer("alice", "alice");
+
+        batcher.clear();
+        assertFalse(batcher.hasPending());
+        assertTrue(batcher.drain().isEmpty());
+        assertTrue(batcher.offer("alice", "alice"));
+    }
+}
@@ -0,0 +1,192 @@
+package com.nospeak.app;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GiftWrapDecryptPipelineTest {
+
+    @Test
+    public void backlogSubmissionsDropOldestWhenQueueIsFull() throws Exception {
+        GiftWrapDecryptPipeline pipeline = new GiftWrapDecryptPipeline(1, 2, 0L);
+        final CountDownLatch workerBusy = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> ran = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch allDone = new CountDownLatch(3);
+
+        pipeline.submit(new Runnable() {
+            @Override
+            public void run() {
+                workerBusy.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                    // ignore
+                }
+                allDone.countDown();
+            }
+        }, true);
+        assertTrue(workerBusy.await(5, TimeUnit.SECONDS));
+
+        for (int i = 1; i <= 3; i++) {
+            final int value = i;
+            pipeline.submit(new Runnable() {
+                @Override
+                public void run() {
+                    ran.add(value);
+                    allDone.countDown();
+                }
+            }, true);
+        }
+
+        assertEquals(2, pipeline.getQueueDepth());
+        release.countDown();
+        assertTrue(allDone.await(5, TimeUnit.SECONDS));
+
+        GiftWrapDecryptPipeline.Snapshot snapshot = pipeline.snapshot();
+        assertEquals(1L, snapshot.dropped);
+        assertEquals(4L, snapshot.submitted);
+        assertEquals(2, snapshot.maxQueueDepth);
+        assertEquals(java.util.Arrays.asList(2, 3), ran);
+
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void droppedAndDiscardedTasksRunTheirDropCallback() throws Exception {
+        GiftWrapDecryptPipeline pipeline = new GiftWrapDecryptPipeline(1, 1, 0L);
+        final CountDownLatch workerBusy = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> dropped = Collections.synchronizedList(new ArrayList<String>());
+
+        pipeline.submit(new Runnable() {
+            @Override
+            public void run() {
+                workerBusy.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                    // ignore
+                }
+            }
+        }, true);
+        assertTrue(workerBusy.await(5, TimeUnit.SECONDS));
+
+        for (final String id : new String[] {"a", "b"}) {
+            pipeline.submit(new Runnable() {
+                @Override
+                public void run() {
+                    throw new AssertionError("dropped work must not run");
+                }
+            }, new Runnable() {
+                @Override
+                public void run() {
+                    dropped.add(id);
+                }
+            }, true);
+        }
+        assertEquals(Collections.singletonList("a"), dropped);
+
+        // Work still queued at shutdown is reported too.
+        pipeline.shutdown();
+        release.countDown();
+        assertEquals(java.util.Arrays.asList("a", "b"), dropped);
+    }
+
+    @Test
+    public void liveSubmissionsWaitForCapacityBeforeDropping() throws Exception {
+        GiftWrapDecryptPipeline pipeline = new GiftWrapDecryptPipeline(1, 1, 2_000L);
+        final CountDownLatch workerBusy = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(3);
+
+        pipeline.submit(new Runnable() {
+            @Override
+            public void run() {
+                workerBusy.countDown();
+                try {
+                    Thread.sleep(100L);
+                } catch (InterruptedException ignored) {
+                    // ignore
+                }
+                done.countDown();
+            }
+        }, false);
+        assertTrue(workerBusy.await(5, TimeUnit.SECONDS));
+
+        Runnable countDown = new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        };
+        assertTrue(pipeline.submit(countDown, false));
+        assertTrue(pipeline.submit(countDown, false));
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0L, pipeline.snapshot().dropped);
+
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void liveWorkIsNeverEvictedAndRunsBeforeReplays() throws Exception {
+        GiftWrapDecryptPipeline pipeline = new GiftWrapDecryptPipeline(1, 2, 0L);
+        final CountDownLatch workerBusy = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> dropped = Collections.synchronizedList(new ArrayList<String>());
+
+        pipeline.submit(new Runnable() {
+            @Override
+            public void run() {
+                workerBusy.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                    // ignore
+                }
+            }
+        }, false);
+        assertTrue(workerBusy.await(5, TimeUnit.SECONDS));
+
+        assertTrue(pipeline.submit(record(ran, "b1"), record(dropped, "b1"), true));
+        assertTrue(pipeline.submit(record(ran, "b2"), record(dropped, "b2"), true));
+        // A full queue makes live work evict the oldest replay.
+        assertTrue(pipeline.submit(record(ran, "l1"), record(dropped, "l1"), false));
+        assertTrue(pipeline.submit(record(ran, "l2"), record(dropped, "l2"), false));
+        assertEquals(java.util.Arrays.asList("b1", "b2"), dropped);
+        // With no replay left to evict, live work is queued past the capacity...
+        assertTrue(pipeline.submit(record(ran, "l3"), record(dropped, "l3"), false));
+        // ...while a replay gives way instead of evicting it.
+        assertFalse(pipeline.submit(record(ran, "b3"), record(dropped, "b3"), true));
+        assertEquals(3, pipeline.getQueueDepth());
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 5_000L;
+        while (ran.size() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(2L);
+        }
+        assertEquals(java.util.Arrays.asList("l1", "l2", "l3"), ran);
+        assertEquals(java.util.Arrays.asList("b1", "b2"), dropped);
+        assertEquals(3L, pipeline.snapshot().dropped);
+
+        pipeline.shutdown();
+    }
+
+    private static Runnable record(final List<String> into, final String value) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                into.add(value);
+            }
+        };
+    }
+}
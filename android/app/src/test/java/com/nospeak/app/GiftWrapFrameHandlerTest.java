@@ -0,0 +1,131 @@
+package com.nospeak.app;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GiftWrapFrameHandlerTest {
+
+    private static final String RELAY_A = "wss://a.example";
+    private static final String RELAY_B = "wss://b.example";
+
+    private final GiftWrapDecryptPipeline pipeline = new GiftWrapDecryptPipeline(1, 1, 0L);
+    private final RelaySinceCursors cursors = new RelaySinceCursors();
+    private final InFlightEventCoalescer inFlight = new InFlightEventCoalescer(60_000L);
+    private final RelayMetrics metrics = new RelayMetrics(0L);
+    private final SeenEventIdStore processed = SeenEventIdStore.inMemory(64);
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger dropped = new AtomicInteger();
+    private final CountDownLatch decryptAttempted = new CountDownLatch(1);
+
+    private final GiftWrapFrameHandler frames = new GiftWrapFrameHandler(pipeline, cursors, inFlight, metrics,
+            new GiftWrapFrameHandler.Listener() {
+                @Override
+                public boolean isAcceptingGiftWraps() {
+                    return true;
+                }
+
+                @Override
+                public String decrypt(String ciphertext, String senderPubkeyHex) {
+                    return null;
+                }
+
+                @Override
+                public boolean isDecryptFailurePermanent() {
+                    return true;
+                }
+
+                @Override
+                public void onDecryptFailed(String relayUrl, String eventId) {
+                    failed.incrementAndGet();
+                    decryptAttempted.countDown();
+                }
+
+                @Override
+                public void onGiftWrapOpened(String relayUrl, String eventId, GiftWrap.Rumor rumor) {
+                }
+
+                @Override
+                public void onGiftWrapDropped(String eventId, boolean cursorsChanged) {
+                    dropped.incrementAndGet();
+                }
+            });
+
+    @After
+    public void tearDown() {
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void droppedFrameIsReleasedAndHoldsBackEveryDeliveringRelay() throws Exception {
+        frames.setProcessedStores(processed, null);
+        long nowSeconds = System.currentTimeMillis() / 1000L;
+        frames.onSubscribed(RELAY_A);
+        frames.onSubscribed(RELAY_B);
+
+        final CountDownLatch workerBusy = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        pipeline.submit(new Runnable() {
+            @Override
+            public void run() {
+                workerBusy.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                    // ignore
+                }
+            }
+        }, true);
+        assertTrue(workerBusy.await(5, TimeUnit.SECONDS));
+
+        // The first backlog frame (also delivered by B) is pushed out of the full queue.
+        frames.onFrame(RELAY_A, frame("aa", nowSeconds - 100L), true);
+        frames.onFrame(RELAY_B, frame("aa", nowSeconds - 100L), true);
+        frames.onFrame(RELAY_A, frame("bb", nowSeconds - 50L), true);
+        assertEquals(1, dropped.get());
+        assertEquals(1, inFlight.getInFlightCount());
+
+        assertTrue(frames.onEose(RELAY_A));
+        assertEquals(nowSeconds - 101L, cursors.highWaterFor(RELAY_A));
+        frames.onEose(RELAY_B);
+        assertEquals(nowSeconds - 101L, cursors.highWaterFor(RELAY_B));
+
+        // The dropped id is not suppressed when it is delivered again.
+        release.countDown();
+        assertTrue(decryptAttempted.await(5, TimeUnit.SECONDS));
+        frames.onFrame(RELAY_B, frame("aa", nowSeconds - 100L), false);
+        assertEquals(1L, pipeline.snapshot().dropped);
+        assertEquals(4L, pipeline.snapshot().submitted);
+    }
+
+    @Test
+    public void processedFramesAreSkippedAndPermanentFailuresRecorded() throws Exception {
+        frames.setProcessedStores(processed, RotatingBloomFilter.open(null, 64, 0.01d));
+        processed.add("aa", 1L);
+
+        frames.onFrame(RELAY_A, frame("aa", 1L), false);
+        assertEquals(0L, pipeline.snapshot().submitted);
+
+        frames.onFrame(RELAY_A, frame("bb", 2L), false);
+        assertTrue(decryptAttempted.await(5, TimeUnit.SECONDS));
+        assertEquals(1, failed.get());
+        assertTrue(frames.isProcessed("bb"));
+    }
+
+    private static RelayFrameParser.Frame frame(String id, long createdAt) {
+        RelayFrameParser.Frame frame = new RelayFrameParser.Frame();
+        frame.type = RelayFrameParser.TYPE_EVENT;
+        frame.kind = GiftWrap.KIND_GIFT_WRAP;
+        frame.eventId = id;
+        frame.pubkey = "00";
+        frame.content = "invalid";
+        frame.createdAt = createdAt;
+        return frame;
+    }
+}
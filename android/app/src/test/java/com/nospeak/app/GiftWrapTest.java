@@ -0,0 +1,86 @@
+package com.nospeak.app;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class GiftWrapTest {
+
+    private static final String RECIPIENT_SECRET = "7f7ff03d123792d6ac594bfa67bf6d0c0ab55b6b1fdb6249303fe861f1ccba9a";
+    private static final String SENDER_SECRET = "0beebd062ec8735f4243466049d7747ef5d6594ee838de147f8aab842b15e273";
+    private static final String EPHEMERAL_SECRET = "e2a8e2b7e0b1d7a6d2c8b6f5e4d3c2b1a0f9e8d7c6b5a4938271605f4e3d2c1b";
+
+    @Test
+    public void unwrapsGiftWrapToRumor() throws Exception {
+        byte[] recipientSecret = Nip44.hexToBytes(RECIPIENT_SECRET);
+        String recipientPubkey = xOnly(RECIPIENT_SECRET);
+        String senderPubkey = xOnly(SENDER_SECRET);
+
+        JSONObject rumor = new JSONObject();
+        rumor.put("kind", 14);
+        rumor.put("pubkey", senderPubkey);
+        rumor.put("created_at", 1700000000L);
+        rumor.put("tags", new JSONArray().put(new JSONArray().put("p").put(recipientPubkey)));
+        rumor.put("content", "hello");
+
+        JSONObject wrap = wrap(rumor, recipientPubkey);
+
+        final byte[] secret = recipientSecret;
+        GiftWrap.Rumor result = GiftWrap.unwrap(wrap.getString("pubkey"), wrap.getString("content"),
+                new GiftWrap.Decryptor() {
+                    @Override
+                    public String decrypt(String ciphertext, String senderPubkeyHex) {
+                        return Nip44.decrypt(ciphertext, Nip44.getConversationKey(secret, senderPubkeyHex));
+                    }
+                });
+
+        assertNotNull(result);
+        assertEquals(14, result.kind);
+        assertEquals(senderPubkey, result.pubkeyHex);
+        assertEquals("hello", result.content);
+        assertEquals(1700000000L, result.createdAtSeconds);
+        assertEquals(recipientPubkey, result.tags.getJSONArray(0).getString(1));
+    }
+
+    @Test
+    public void returnsNullWhenDecryptionFails() throws Exception {
+        JSONObject rumor = new JSONObject().put("kind", 14).put("content", "x");
+        JSONObject wrap = wrap(rumor, xOnly(RECIPIENT_SECRET));
+
+        assertNull(GiftWrap.unwrap(wrap.getString("pubkey"), wrap.getString("content"),
+                new GiftWrap.Decryptor() {
+                    @Override
+                    public String decrypt(String ciphertext, String senderPubkeyHex) {
+                        return null;
+                    }
+                }));
+        assertNull(GiftWrap.unwrap(null, wrap.getString("content"), null));
+    }
+
+    static JSONObject wrap(JSONObject rumor, String recipientPubkey) throws Exception {
+        byte[] sealKey = Nip44.getConversationKey(Nip44.hexToBytes(SENDER_SECRET), recipientPubkey);
+        JSONObject seal = new JSONObject();
+        seal.put("kind", GiftWrap.KIND_SEAL);
+        seal.put("pubkey", xOnly(SENDER_SECRET));
+        seal.put("created_at", 1700000000L);
+        seal.put("tags", new JSONArray());
+        seal.put("content", Nip44.encrypt(rumor.toString(), sealKey));
+
+        byte[] wrapKey = Nip44.getConversationKey(Nip44.hexToBytes(EPHEMERAL_SECRET), recipientPubkey);
+        JSONObject wrap = new JSONObject();
+        wrap.put("kind", GiftWrap.KIND_GIFT_WRAP);
+        wrap.put("pubkey", xOnly(EPHEMERAL_SECRET));
+        wrap.put("created_at", 1700000000L);
+        wrap.put("tags", new JSONArray().put(new JSONArray().put("p").put(recipientPubkey)));
+        wrap.put("content", Nip44.encrypt(seal.toString(), wrapKey));
+        return wrap;
+    }
+
+    private static String xOnly(String secretHex) {
+        return NostrEvents.bytesToHex(Secp256k1.getInstance().xOnlyPublicKey(Nip44.hexToBytes(secretHex)));
+    }
+}
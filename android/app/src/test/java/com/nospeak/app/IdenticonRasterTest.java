@@ -0,0 +1,95 @@
+package com.nospeak.app;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IdenticonRasterTest {
+
+    private static final String SEED = "x7f3k2qpl0";
+
+    @Test
+    public void matchesCanvasLayoutAtNotificationSize() {
+        int size = 192;
+        int[] pixels = new int[size * size];
+        assertTrue(IdenticonRaster.render(SEED, size, false, pixels));
+
+        int hash = IdenticonSeed.simpleHash(SEED);
+        int fg = IdenticonSeed.hslToArgb(((hash % 9) + 9) % 9 * 40, 95, 45);
+        int bg = IdenticonSeed.hslToArgb(IdenticonSeed.seedToHue(SEED), 80, 85);
+        float scale = size / 8f;
+        for (int py = 0; py < size; py++) {
+            for (int px = 0; px < size; px++) {
+                // The rects IdenticonGenerator used to draw on a Canvas, sampled at pixel centers.
+                boolean filled = false;
+                for (int i = 0; i < 25; i++) {
+                    if ((hash & (1 << (i % 15))) == 0) {
+                        continue;
+                    }
+                    int x = i > 14 ? 7 - (i / 5) : i / 5;
+                    int y = i % 5;
+                    float left = (x + 1.5f) * scale;
+                    float top = (y + 1.5f) * scale;
+                    if (px + 0.5f >= left && px + 0.5f < left + scale && py + 0.5f >= top && py + 0.5f < top + scale) {
+                        filled = true;
+                    }
+                }
+                assertEquals("pixel " + px + "," + py, filled ? fg : bg, pixels[py * size + px]);
+            }
+        }
+    }
+
+    @Test
+    public void maskIsMirrored() {
+        for (int hash : new int[] {0, 1, 0x7fff, 0x1234, -99}) {
+            int mask = IdenticonRaster.mask(hash);
+            for (int y = 0; y < 5; y++) {
+                assertEquals(bit(mask, 0, y), bit(mask, 4, y));
+                assertEquals(bit(mask, 1, y), bit(mask, 3, y));
+            }
+        }
+        assertEquals(0, IdenticonRaster.mask(0));
+        assertEquals((1 << 25) - 1, IdenticonRaster.mask(0x7fff));
+    }
+
+    @Test
+    public void circularCropClearsCornersAndKeepsCenter() {
+        int size = 108;
+        int[] pixels = new int[size * size];
+        assertTrue(IdenticonRaster.render(SEED, size, true, pixels));
+
+        assertEquals(0, pixels[0] >>> 24);
+        assertEquals(0, pixels[size * size - 1] >>> 24);
+        assertEquals(0xff, pixels[(size / 2) * size + size / 2] >>> 24);
+        assertEquals(0xff, pixels[(size / 2) * size + 2] >>> 24);
+
+        // The row spans skipped by the crop agree with a per-pixel evaluation.
+        int[] square = new int[size * size];
+        IdenticonRaster.render(SEED, size, false, square);
+        float radius = size / 2f;
+        for (int py = 0; py < size; py++) {
+            for (int px = 0; px < size; px++) {
+                float dx = px + 0.5f - radius;
+                float dy = py + 0.5f - radius;
+                float coverage = Math.max(0f, Math.min(1f, radius - (float) Math.sqrt(dx * dx + dy * dy) + 0.5f));
+                int alpha = (int) (0xff * coverage + 0.5f);
+                int expected = (alpha << 24) | (square[py * size + px] & 0x00ffffff);
+                int actual = pixels[py * size + px];
+                assertEquals("pixel " + px + "," + py, alpha == 0 ? 0 : expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void rejectsShortBufferAndEmptySeed() {
+        assertFalse(IdenticonRaster.render(SEED, 16, false, new int[255]));
+        assertFalse(IdenticonRaster.render("", 16, false, new int[256]));
+        assertTrue(IdenticonRaster.render(SEED, 16, false, new int[256]));
+    }
+
+    private static boolean bit(int mask, int x, int y) {
+        return (mask & (1 << (y * 5 + x))) != 0;
+    }
+}
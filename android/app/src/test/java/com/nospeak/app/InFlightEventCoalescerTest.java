@@ -0,0 +1,132 @@
+package com.nospeak.app;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InFlightEventCoalescerTest {
+
+    private static final String RELAY_A = "wss://a.example";
+    private static final String RELAY_B = "wss://b.example";
+    private static final String RELAY_C = "wss://c.example";
+
+    @Test
+    public void firstDeliveryLeadsAndCopiesAttach() {
+        InFlightEventCoalescer coalescer = new InFlightEventCoalescer(60_000L);
+
+        long leader = coalescer.begin("abc", RELAY_A, 1000L);
+        assertTrue(leader != InFlightEventCoalescer.ATTACHED);
+        assertEquals(InFlightEventCoalescer.ATTACHED, coalescer.begin("abc", RELAY_B, 1001L));
+        assertEquals(InFlightEventCoalescer.ATTACHED, coalescer.begin("ABC", RELAY_C, 1002L));
+        assertEquals(InFlightEventCoalescer.ATTACHED, coalescer.begin("abc", RELAY_B, 1003L));
+        assertEquals(RELAY_A, coalescer.leaderFor("abc"));
+
+        assertEquals(3, coalescer.complete("abc", leader));
+        assertNull(coalescer.leaderFor("abc"));
+        assertEquals(0, coalescer.getInFlightCount());
+
+        assertEquals(0L, coalescer.getSavedCount(RELAY_A));
+        assertEquals(2L, coalescer.getSavedCount(RELAY_B));
+        assertEquals(1L, coalescer.getSavedCount(RELAY_C));
+        assertEquals(3L, coalescer.getTotalSavedCount());
+
+        Map<String, Long> byRelay = coalescer.getSavedCountsByRelay();
+        assertEquals(2, byRelay.size());
+        assertEquals(Long.valueOf(2L), byRelay.get(RELAY_B));
+    }
+
+    @Test
+    public void completedEventCanLeadAgain() {
+        InFlightEventCoalescer coalescer = new InFlightEventCoalescer(60_000L);
+
+        long leader = coalescer.begin("abc", RELAY_A, 1000L);
+        assertEquals(0, coalescer.complete("abc", leader));
+        assertTrue(coalescer.begin("abc", RELAY_B, 1001L) != InFlightEventCoalescer.ATTACHED);
+        assertEquals(0, coalescer.complete("unknown", leader));
+    }
+
+    @Test
+    public void abandonReleasesTheEventAndReportsEveryDeliveringRelay() {
+        InFlightEventCoalescer coalescer = new InFlightEventCoalescer(60_000L);
+
+        long leader = coalescer.begin("abc", RELAY_A, 1000L);
+        assertEquals(InFlightEventCoalescer.ATTACHED, coalescer.begin("abc", RELAY_B, 1001L));
+        assertEquals(InFlightEventCoalescer.ATTACHED, coalescer.begin("abc", RELAY_B, 1002L));
+
+        assertEquals(java.util.Arrays.asList(RELAY_A, RELAY_B),
+                new java.util.ArrayList<>(coalescer.abandon("abc", leader)));
+        assertEquals(0, coalescer.getInFlightCount());
+        assertTrue(coalescer.abandon("abc", leader).isEmpty());
+        assertTrue(coalescer.begin("abc", RELAY_C, 1003L) != InFlightEventCoalescer.ATTACHED);
+    }
+
+    @Test
+    public void staleLeaderIsReplaced() {
+        InFlightEventCoalescer coalescer = new InFlightEventCoalescer(1000L);
+
+        long staleLeader = coalescer.begin("abc", RELAY_A, 0L);
+        assertEquals(InFlightEventCoalescer.ATTACHED, coalescer.begin("abc", RELAY_B, 999L));
+        long leader = coalescer.begin("abc", RELAY_C, 1000L);
+        assertTrue(leader != InFlightEventCoalescer.ATTACHED);
+        assertEquals(RELAY_C, coalescer.leaderFor("abc"));
+        assertEquals(InFlightEventCoalescer.ATTACHED, coalescer.begin("abc", RELAY_B, 1001L));
+
+        // The replaced leader reporting back late leaves its successor's entry alone.
+        assertTrue(coalescer.abandon("abc", staleLeader).isEmpty());
+        assertEquals(0, coalescer.complete("abc", staleLeader));
+        assertEquals(RELAY_C, coalescer.leaderFor("abc"));
+        assertEquals(java.util.Arrays.asList(RELAY_C, RELAY_B),
+                new java.util.ArrayList<>(coalescer.abandon("abc", leader)));
+
+        assertTrue(coalescer.begin("def", RELAY_A, 1500L) != InFlightEventCoalescer.ATTACHED);
+        coalescer.pruneStale(2000L);
+        assertNull(coalescer.leaderFor("abc"));
+        assertEquals(RELAY_A, coalescer.leaderFor("def"));
+
+        coalescer.clearInFlight();
+        assertEquals(0, coalescer.getInFlightCount());
+        assertEquals(2L, coalescer.getTotalSavedCount());
+    }
+
+    @Test
+    public void concurrentDeliveriesElectOneLeader() throws Exception {
+        final InFlightEventCoalescer coalescer = new InFlightEventCoalescer(60_000L);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger leaders = new AtomicInteger();
+        int threads = 8;
+        Thread[] workers = new Thread[threads];
+
+        for (int t = 0; t < threads; t++) {
+            final String relayUrl = "wss://relay" + t + ".example";
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 200; i++) {
+                        if (coalescer.begin("event" + i, relayUrl, 0L) != InFlightEventCoalescer.ATTACHED) {
+                            leaders.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(200, leaders.get());
+        assertEquals(200L * (threads - 1), coalescer.getTotalSavedCount());
+    }
+}
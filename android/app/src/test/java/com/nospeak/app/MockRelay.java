@@ -0,0 +1,414 @@
+package com.nospeak.app;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * In-process Nostr relay on {@link MockWebServer} WebSockets for JVM tests.
+ *
+ * Speaks REQ/EVENT/EOSE/AUTH/CLOSED/OK/CLOSE, and optionally NIP-77 NEG-OPEN/NEG-MSG/NEG-CLOSE.
+ * On REQ it replays its {@link EventSource} backlog (only the requested ones for an {@code ids}
+ * filter, none for {@code limit:0}) followed by EOSE; {@link #publish} streams live events to
+ * current subscribers. It can demand NIP-42 auth before serving a REQ and drop every connection
+ * on command. Other filter fields are ignored.
+ */
+final class MockRelay {
+
+    /**
+     * Events the relay serves, generated on demand so large floods need not be held in memory.
+     */
+    interface EventSource {
+        int size();
+
+        String get(int index);
+    }
+
+    static final EventSource EMPTY = new EventSource() {
+        @Override
+        public int size() {
+            return 0;
+        }
+
+        @Override
+        public String get(int index) {
+            return null;
+        }
+    };
+
+    // OkHttp fails a WebSocket whose outgoing queue exceeds 16 MiB; stay well below it.
+    private static final long MAX_QUEUED_BYTES = 1024L * 1024L;
+
+    private final class Session extends WebSocketListener {
+        final String challenge = "challenge-" + sessionCounter.incrementAndGet();
+        WebSocket socket;
+        boolean authenticated;
+        final Map<String, Boolean> subscriptions = new HashMap<>();
+        final Map<String, Negentropy> syncs = new HashMap<>();
+
+        @Override
+        public void onOpen(WebSocket webSocket, Response response) {
+            synchronized (MockRelay.this) {
+                socket = webSocket;
+                sessions.add(this);
+            }
+            connections.incrementAndGet();
+            if (requireAuth) {
+                webSocket.send(new JSONArray().put("AUTH").put(challenge).toString());
+            }
+        }
+
+        @Override
+        public void onMessage(WebSocket webSocket, String text) {
+            try {
+                JSONArray msg = new JSONArray(text);
+                String type = msg.getString(0);
+                if ("REQ".equals(type)) {
+                    handleReq(this, msg.getString(1), msg.optJSONObject(2));
+                } else if ("NEG-OPEN".equals(type) && negentropy) {
+                    handleNegOpen(this, msg.getString(1), msg.getString(3));
+                } else if ("NEG-MSG".equals(type) && negentropy) {
+                    handleNegMsg(this, msg.getString(1), msg.getString(2));
+                } else if ("NEG-CLOSE".equals(type) && negentropy) {
+                    syncs.remove(msg.getString(1));
+                } else if (type.startsWith("NEG-")) {
+                    webSocket.send(new JSONArray().put("NOTICE").put("ERROR: bad msg: unknown cmd").toString());
+                } else if ("AUTH".equals(type)) {
+                    handleAuth(this, msg.getJSONObject(1));
+                } else if ("CLOSE".equals(type)) {
+                    synchronized (MockRelay.this) {
+                        subscriptions.remove(msg.getString(1));
+                    }
+                } else if ("EVENT".equals(type)) {
+                    JSONObject event = msg.getJSONObject(1);
+                    webSocket.send(new JSONArray().put("OK").put(event.optString("id")).put(true).put("").toString());
+                }
+            } catch (JSONException e) {
+                webSocket.send(new JSONArray().put("NOTICE").put("invalid: malformed message").toString());
+            }
+        }
+
+        @Override
+        public void onClosing(WebSocket webSocket, int code, String reason) {
+            webSocket.close(1000, null);
+            remove(this);
+        }
+
+        @Override
+        public void onClosed(WebSocket webSocket, int code, String reason) {
+            remove(this);
+        }
+
+        @Override
+        public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+            remove(this);
+        }
+    }
+
+    private final MockWebServer server = new MockWebServer();
+    private final List<Session> sessions = new ArrayList<>();
+    private final AtomicInteger sessionCounter = new AtomicInteger();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger reqs = new AtomicInteger();
+    private final AtomicInteger authentications = new AtomicInteger();
+    private final AtomicInteger servedEvents = new AtomicInteger();
+    private final AtomicInteger syncCount = new AtomicInteger();
+    private volatile boolean requireAuth;
+    private volatile boolean negentropy;
+    private volatile EventSource backlog = EMPTY;
+    // Backlog index by event id and its negentropy items, built on first use.
+    private Map<String, Integer> backlogIndex;
+    private Negentropy.Storage backlogItems;
+
+    MockRelay() throws IOException {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().withWebSocketUpgrade(new Session());
+            }
+        });
+        server.start();
+    }
+
+    String url() {
+        return "ws://" + server.getHostName() + ":" + server.getPort() + "/";
+    }
+
+    void setRequireAuth(boolean requireAuth) {
+        this.requireAuth = requireAuth;
+    }
+
+    synchronized void setBacklog(EventSource backlog) {
+        this.backlog = backlog != null ? backlog : EMPTY;
+        backlogIndex = null;
+        backlogItems = null;
+    }
+
+    void setNegentropy(boolean negentropy) {
+        this.negentropy = negentropy;
+    }
+
+    /**
+     * Streams events to every live subscription, pacing on each socket's outgoing queue.
+     *
+     * @return the number of events sent
+     */
+    long publish(EventSource source) {
+        long sent = 0L;
+        for (int i = 0; i < source.size(); i++) {
+            String event = source.get(i);
+            for (Session session : liveSubscribers()) {
+                for (String subscriptionId : subscriptionIds(session)) {
+                    if (send(session.socket, eventFrame(subscriptionId, event))) {
+                        sent++;
+                    }
+                }
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * Drops every connection. Server-side MockWebServer sockets cannot be cancelled, so this
+     * closes them with 1001 (going away); the client sees the relay disconnect either way.
+     */
+    void dropConnections() {
+        List<Session> current;
+        synchronized (this) {
+            current = new ArrayList<>(sessions);
+            sessions.clear();
+        }
+        for (Session session : current) {
+            session.socket.close(1001, "dropped by test");
+        }
+    }
+
+    synchronized int getLiveSubscriberCount() {
+        return liveSubscribers().size();
+    }
+
+    /**
+     * Waits until at least {@code count} connections hold a served subscription.
+     */
+    boolean awaitSubscribers(int count, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (getLiveSubscriberCount() < count) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            Thread.sleep(10L);
+        }
+        return true;
+    }
+
+    int getConnectionCount() {
+        return connections.get();
+    }
+
+    int getReqCount() {
+        return reqs.get();
+    }
+
+    int getAuthenticationCount() {
+        return authentications.get();
+    }
+
+    /**
+     * Events sent in reply to REQs (backlog replays and id fetches), not counting publish().
+     */
+    int getServedEventCount() {
+        return servedEvents.get();
+    }
+
+    /**
+     * Completed NEG-OPEN sessions.
+     */
+    int getSyncCount() {
+        return syncCount.get();
+    }
+
+    void shutdown() throws IOException {
+        dropConnections();
+        server.shutdown();
+    }
+
+    private void handleReq(Session session, String subscriptionId, JSONObject filter) {
+        reqs.incrementAndGet();
+        if (requireAuth && !session.authenticated) {
+            session.socket.send(new JSONArray()
+                    .put("CLOSED")
+                    .put(subscriptionId)
+                    .put("auth-required: this relay only serves authenticated users")
+                    .toString());
+            return;
+        }
+
+        synchronized (this) {
+            session.subscriptions.put(subscriptionId, Boolean.FALSE);
+        }
+        EventSource source = backlog;
+        JSONArray ids = filter != null ? filter.optJSONArray("ids") : null;
+        if (ids != null) {
+            Map<String, Integer> index = backlogIndex();
+            for (int i = 0; i < ids.length(); i++) {
+                Integer position = index.get(ids.optString(i));
+                if (position != null) {
+                    if (!send(session.socket, eventFrame(subscriptionId, source.get(position)))) {
+                        return;
+                    }
+                    servedEvents.incrementAndGet();
+                }
+            }
+        } else if (filter == null || filter.optInt("limit", -1) != 0) {
+            for (int i = 0; i < source.size(); i++) {
+                if (!send(session.socket, eventFrame(subscriptionId, source.get(i)))) {
+                    return;
+                }
+                servedEvents.incrementAndGet();
+            }
+        }
+        session.socket.send(new JSONArray().put("EOSE").put(subscriptionId).toString());
+        synchronized (this) {
+            session.subscriptions.put(subscriptionId, Boolean.TRUE);
+        }
+    }
+
+    private void handleAuth(Session session, JSONObject event) {
+        boolean valid = event.optInt("kind") == NostrEvents.KIND_AUTH
+                && session.challenge.equals(tagValue(event, "challenge"))
+                && url().equals(tagValue(event, "relay"));
+        if (valid) {
+            session.authenticated = true;
+            authentications.incrementAndGet();
+        }
+        session.socket.send(new JSONArray()
+                .put("OK")
+                .put(event.optString("id"))
+                .put(valid)
+                .put(valid ? "" : "auth-required: invalid AUTH event")
+                .toString());
+    }
+
+    private void handleNegOpen(Session session, String subscriptionId, String initialMessage) {
+        if (requireAuth && !session.authenticated) {
+            session.socket.send(new JSONArray()
+                    .put("NEG-ERR")
+                    .put(subscriptionId)
+                    .put("auth-required: this relay only serves authenticated users")
+                    .toString());
+            return;
+        }
+        backlogIndex();
+        Negentropy responder;
+        synchronized (this) {
+            responder = new Negentropy(backlogItems, 0);
+        }
+        session.syncs.put(subscriptionId, responder);
+        syncCount.incrementAndGet();
+        handleNegMsg(session, subscriptionId, initialMessage);
+    }
+
+    private void handleNegMsg(Session session, String subscriptionId, String message) {
+        Negentropy responder = session.syncs.get(subscriptionId);
+        if (responder == null) {
+            session.socket.send(new JSONArray().put("NEG-ERR").put(subscriptionId).put("closed: no such sync").toString());
+            return;
+        }
+        try {
+            String reply = responder.reconcile(message, null, null);
+            session.socket.send(new JSONArray().put("NEG-MSG").put(subscriptionId).put(reply).toString());
+        } catch (IllegalArgumentException e) {
+            session.syncs.remove(subscriptionId);
+            session.socket.send(new JSONArray().put("NEG-ERR").put(subscriptionId).put("error: " + e.getMessage()).toString());
+        }
+    }
+
+    private synchronized Map<String, Integer> backlogIndex() {
+        if (backlogIndex == null) {
+            Map<String, Integer> index = new HashMap<>();
+            Negentropy.Storage items = new Negentropy.Storage();
+            for (int i = 0; i < backlog.size(); i++) {
+                try {
+                    JSONObject event = new JSONObject(backlog.get(i));
+                    index.put(event.getString("id"), i);
+                    items.add(event.getLong("created_at"), event.getString("id"));
+                } catch (JSONException e) {
+                    // Not indexable
+                }
+            }
+            items.seal();
+            backlogIndex = index;
+            backlogItems = items;
+        }
+        return backlogIndex;
+    }
+
+    private synchronized List<Session> liveSubscribers() {
+        List<Session> live = new ArrayList<>();
+        for (Session session : sessions) {
+            if (session.subscriptions.containsValue(Boolean.TRUE)) {
+                live.add(session);
+            }
+        }
+        return live;
+    }
+
+    private synchronized List<String> subscriptionIds(Session session) {
+        List<String> ids = new ArrayList<>();
+        for (Map.Entry<String, Boolean> entry : session.subscriptions.entrySet()) {
+            if (entry.getValue()) {
+                ids.add(entry.getKey());
+            }
+        }
+        return ids;
+    }
+
+    private synchronized void remove(Session session) {
+        sessions.remove(session);
+    }
+
+    private static boolean send(WebSocket socket, String frame) {
+        while (socket.queueSize() > MAX_QUEUED_BYTES) {
+            try {
+                Thread.sleep(1L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return socket.send(frame);
+    }
+
+    private static String eventFrame(String subscriptionId, String eventJson) {
+        return "[\"EVENT\"," + JSONObject.quote(subscriptionId) + "," + eventJson + "]";
+    }
+
+    private static String tagValue(JSONObject event, String name) {
+        JSONArray tags = event.optJSONArray("tags");
+        if (tags == null) {
+            return null;
+        }
+        for (int i = 0; i < tags.length(); i++) {
+            JSONArray tag = tags.optJSONArray(i);
+            if (tag != null && tag.length() > 1 && name.equals(tag.optString(0))) {
+                return tag.optString(1);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,269 @@
+package com.nospeak.app;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NegentropyTest {
+
+    private static final class Result {
+        final Set<String> have = new HashSet<>();
+        final Set<String> need = new HashSet<>();
+        int roundTrips;
+        int maxMessageBytes;
+    }
+
+    @Test
+    public void encodesVarintsMostSignificantGroupFirst() {
+        assertEquals("00", varint(0L));
+        assertEquals("7f", varint(127L));
+        assertEquals("8100", varint(128L));
+        assertEquals("818000", varint(16384L));
+    }
+
+    @Test
+    public void reconcilesOverlappingSets() {
+        Negentropy.Storage client = new Negentropy.Storage();
+        Negentropy.Storage relay = new Negentropy.Storage();
+        Set<String> clientOnly = new HashSet<>();
+        Set<String> relayOnly = new HashSet<>();
+        Random random = new Random(3L);
+        for (int i = 0; i < 3000; i++) {
+            long createdAt = 1_700_000_000L + random.nextInt(100_000);
+            int side = random.nextInt(10);
+            if (side != 0) {
+                relay.add(createdAt, id(i));
+            } else {
+                clientOnly.add(id(i));
+            }
+            if (side != 1) {
+                client.add(createdAt, id(i));
+            } else {
+                relayOnly.add(id(i));
+            }
+        }
+
+        Result result = sync(client, relay, 0);
+        assertEquals(clientOnly, result.have);
+        assertEquals(relayOnly, result.need);
+    }
+
+    @Test
+    public void identicalSetsFinishInOneRoundTrip() {
+        Negentropy.Storage client = new Negentropy.Storage();
+        Negentropy.Storage relay = new Negentropy.Storage();
+        for (int i = 0; i < 500; i++) {
+            client.add(1000L + i, id(i));
+            relay.add(1000L + i, id(i));
+        }
+
+        Result result = sync(client, relay, 0);
+        assertEquals(1, result.roundTrips);
+        assertTrue(result.have.isEmpty());
+        assertTrue(result.need.isEmpty());
+    }
+
+    @Test
+    public void emptyClientLearnsEveryIdWithinFrameLimit() {
+        Negentropy.Storage client = new Negentropy.Storage();
+        Negentropy.Storage relay = new Negentropy.Storage();
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < 2000; i++) {
+            // Shared timestamps force id-prefix bounds.
+            relay.add(1000L + i / 50, id(i));
+            expected.add(id(i));
+        }
+
+        Result result = sync(client, relay, 4096);
+        assertEquals(expected, result.need);
+        assertTrue(result.roundTrips > 1);
+        assertTrue(result.maxMessageBytes <= 4096);
+    }
+
+    @Test
+    public void duplicateItemsAreStoredOnce() {
+        Negentropy.Storage storage = new Negentropy.Storage();
+        storage.add(5L, id(1));
+        storage.add(5L, id(1));
+        storage.add(6L, id(1));
+        storage.seal();
+        assertEquals(2, storage.size());
+    }
+
+    @Test
+    public void initiatorRejectsOtherProtocolVersions() {
+        Negentropy.Storage storage = new Negentropy.Storage();
+        storage.seal();
+        Negentropy client = new Negentropy(storage, 0);
+        client.initiate();
+        try {
+            client.reconcile("62", new ArrayList<String>(), new ArrayList<String>());
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+
+        // A responder answers an unknown version with just its own version byte.
+        Negentropy relay = new Negentropy(storage, 0);
+        assertEquals("61", relay.reconcile("62", null, null));
+    }
+
+    @Test
+    public void initiatorIsDoneWhenReplyHasNoRanges() {
+        Negentropy.Storage storage = new Negentropy.Storage();
+        storage.seal();
+        Negentropy client = new Negentropy(storage, 0);
+        client.initiate();
+        assertNull(client.reconcile("61", new ArrayList<String>(), new ArrayList<String>()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedMessageIsRejected() {
+        Negentropy.Storage storage = new Negentropy.Storage();
+        storage.seal();
+        new Negentropy(storage, 0).reconcile("6101", null, null);
+    }
+
+    // Expected values below were computed independently with a port of the NIP-77 reference
+    // implementation (hoytech/negentropy), not with this class.
+
+    @Test
+    public void fingerprintsMatchReferenceImplementation() {
+        Negentropy.Storage empty = new Negentropy.Storage();
+        empty.seal();
+        assertEquals("7f9c9e31ac8256ca2f258583df262dbc", NostrEvents.bytesToHex(empty.fingerprint(0, 0)));
+
+        Negentropy.Storage three = new Negentropy.Storage();
+        for (int i = 0; i < 3; i++) {
+            three.add(1000L + i, id(i));
+        }
+        three.seal();
+        assertEquals("0533db2e4c9a02ed77bc17ac072a70a1", NostrEvents.bytesToHex(three.fingerprint(0, 3)));
+
+        // The id sum wraps around at 2^256.
+        Negentropy.Storage carry = new Negentropy.Storage();
+        carry.add(1L, "ff" + repeat("ff", 31));
+        carry.add(2L, "01" + repeat("00", 31));
+        carry.seal();
+        assertEquals("58cc2f44d3a27866874701fbad573da9", NostrEvents.bytesToHex(carry.fingerprint(0, 2)));
+    }
+
+    @Test
+    public void initialMessagesMatchReferenceImplementation() {
+        Negentropy.Storage small = new Negentropy.Storage();
+        small.add(1000L, id(0));
+        small.add(1000L, id(1));
+        small.add(1001L, id(2));
+        small.seal();
+        assertEquals(
+                "610000020329663b9a32ee32c2ca5a645117696ce0888c84b39f8fd91c0ec4eb" +
+                "cd09025df483787c5fbb5b4f70617932764a4194669193f76fe90ed9476c559d" +
+                "68bbb3ce6b202d8f41ba0873126306d60a310c5bc2598c6d1e6698d09747cd21" +
+                "8b284731e2",
+                new Negentropy(small, 0).initiate()
+        );
+
+        assertEquals(
+                "618769018301e9443e48337921c01159817dfe64cacd0201d701b97518940a3f" +
+                "3ce836f1b05398ec1ab502010f011f44e00cfb1e806e865adf670114591c0200" +
+                "0177d963207e25b81feda2bc8d6c1bc07e01017701c84644b822829f63615000" +
+                "8a84f12791020172012cb034330690ce51210111d878aa314002017c0181e40e" +
+                "72a43443c6783f3261abc0b262020001b451ec941458dbd78b25de4db2692bc4" +
+                "01018b01547d8e83aece1e1c84ea0c935928039f020001eee4908d0b8342491a" +
+                "e1282f1543410001016f01899c50c6ae941ac327942ee15be8a3a1020001cd4a" +
+                "c46a9df4e3ae4ce608687d8b5f6401014e0199c302c7fb4d7ae60e4fa3eccaac" +
+                "1215020001c9e6ce3428e49f0100028c609b70d49e01015501dee7330e2f101c" +
+                "4de8aa4818cbf541f3000001311c2338c248914c928f197bf543e524",
+                new Negentropy(referenceClientStorage(), 0).initiate()
+        );
+    }
+
+    @Test
+    public void reconcileReplyMatchesReferenceImplementation() {
+        String initial = new Negentropy(referenceClientStorage(), 0).initiate();
+
+        Negentropy.Storage relayItems = new Negentropy.Storage();
+        for (int i = 0; i < 40; i++) {
+            if (i != 5 && i != 17) {
+                relayItems.add(1000L + i / 4, id(i));
+            }
+        }
+        relayItems.add(1003L, id(100));
+        relayItems.add(1020L, id(101));
+        relayItems.seal();
+
+        assertEquals(
+                "61876a01d70002010f0202d7fefb21ddf9f1cbe37a0081ad00c92a4cae8c536c" +
+                "926a12a1e3a3682270e32e065277f5298360147ce525b9cdd764e32d78b8d113" +
+                "e8697c0ed736e04d8366830201770002017202037793d9857b406d23611ce9d9" +
+                "ca62e6560f88fa658ad161801af45ee69ebf4830fc5e8cd8148e593903ca16f1" +
+                "32ede9686136e9d43dd7df2431aeae091973e391267f7fd49c7269a8864c064e" +
+                "361690ecef9803ff7c137666f94977cf4994923f0601550000000203556e592a" +
+                "0b77b0b17318b41f0854783b73f98bd0ff735e156039274a5db15ec07bc8af53" +
+                "33b6d80cc1d11c5b4f5cc2d168e14c1ff02e7d1f0c79628cb9ab601ac6ba0834" +
+                "fb70e4c83381d76ec3f8358c8e580fed1ad69fbf2304522ebb405aa6",
+                new Negentropy(relayItems, 0).reconcile(initial, null, null)
+        );
+    }
+
+    private static Result sync(Negentropy.Storage clientItems, Negentropy.Storage relayItems, int frameSizeLimit) {
+        clientItems.seal();
+        relayItems.seal();
+        Negentropy client = new Negentropy(clientItems, frameSizeLimit);
+        Negentropy relay = new Negentropy(relayItems, frameSizeLimit);
+        Result result = new Result();
+
+        String message = client.initiate();
+        while (message != null) {
+            result.maxMessageBytes = Math.max(result.maxMessageBytes, message.length() / 2);
+            String reply = relay.reconcile(message, null, null);
+            result.maxMessageBytes = Math.max(result.maxMessageBytes, reply.length() / 2);
+            result.roundTrips++;
+            List<String> have = new ArrayList<>();
+            List<String> need = new ArrayList<>();
+            message = client.reconcile(reply, have, need);
+            result.have.addAll(have);
+            result.need.addAll(need);
+            assertTrue("no progress", result.roundTrips < 100);
+        }
+        return result;
+    }
+
+    private static String varint(long value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Negentropy.writeVarint(out, value);
+        return NostrEvents.bytesToHex(out.toByteArray());
+    }
+
+    private static Negentropy.Storage referenceClientStorage() {
+        Negentropy.Storage storage = new Negentropy.Storage();
+        for (int i = 0; i < 40; i++) {
+            // Four items per timestamp, so some bucket bounds need an id prefix.
+            storage.add(1000L + i / 4, id(i));
+        }
+        storage.seal();
+        return storage;
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            out.append(s);
+        }
+        return out.toString();
+    }
+
+    private static String id(int n) {
+        return NostrEvents.bytesToHex(NostrEvents.sha256(("event" + n).getBytes()));
+    }
+}
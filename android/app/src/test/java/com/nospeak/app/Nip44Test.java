@@ -0,0 +1,147 @@
+package com.nospeak.app;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Vectors taken from the official NIP-44 test vector set (nip44.vectors.json).
+ */
+public class Nip44Test {
+
+    private static final String SEC1 = "0000000000000000000000000000000000000000000000000000000000000001";
+    private static final String SEC2 = "0000000000000000000000000000000000000000000000000000000000000002";
+
+    // valid.get_conversation_key: { sec1, pub2, conversation_key }
+    private static final String[][] CONVERSATION_KEY_VECTORS = {
+            {
+                    "315e59ff51cb9209768cf7da80791ddcaae56ac9775eb25b6dee1234bc5d2268",
+                    "c2f9d9948dc8c7c38321e4b85c8558872eafa0641cd269db76848a6073e69133",
+                    "3dfef0ce2a4d80a25e7a328accf73448ef67096f65f79588e358d9a0eb9013f1"
+            },
+            {
+                    "a1e37752c9fdc1273be53f68c5f74be7c8905728e8de75800b94262f9497c86e",
+                    "03bb7947065dde12ba991ea045132581d0954f042c84e06d8c00066e23c1a800",
+                    "4d14f36e81b8452128da64fe6f1eae873baae2f444b02c950b90e43553f2178b"
+            },
+    };
+
+    // valid.encrypt_decrypt: { sec1, sec2, conversation_key, nonce, plaintext, payload }
+    private static final String[][] ENCRYPT_DECRYPT_VECTORS = {
+            {
+                    SEC1,
+                    SEC2,
+                    "c41c775356fd92eadc63ff5a0dc1da211b268cbea22316767095b2871ea1412d",
+                    "0000000000000000000000000000000000000000000000000000000000000001",
+                    "a",
+                    "AgAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAABee0G5VSK0/9YypIObAtDKfYEAjD35uVkHyB0F4DwrcNaCXlCWZKaArsGrY6M9wnuTMxWfp1RTN9Xga8no+kF5Vsb"
+            },
+            {
+                    SEC2,
+                    SEC1,
+                    "c41c775356fd92eadc63ff5a0dc1da211b268cbea22316767095b2871ea1412d",
+                    "f00000000000000000000000000000f00000000000000000000000000000000f",
+                    "🍕🫃",
+                    "AvAAAAAAAAAAAAAAAAAAAPAAAAAAAAAAAAAAAAAAAAAPSKSK6is9ngkX2+cSq85Th16oRTISAOfhStnixqZziKMDvB0QQzgFZdjLTPicCJaV8nDITO+QfaQ61+KbWQIOO2Yj"
+            },
+    };
+
+    // valid.calc_padded_len: { unpadded, padded }
+    private static final int[][] PADDED_LENGTH_VECTORS = {
+            {16, 32}, {32, 32}, {33, 64}, {37, 64}, {45, 64}, {49, 64}, {64, 64}, {65, 96},
+            {100, 128}, {111, 128}, {200, 224}, {250, 256}, {320, 320}, {383, 384}, {384, 384},
+            {400, 448}, {500, 512}, {512, 512}, {515, 640}, {700, 768}, {800, 896}, {900, 1024},
+            {1020, 1024}, {65536, 65536},
+    };
+
+    @Test
+    public void conversationKeyVectors() {
+        for (String[] vector : CONVERSATION_KEY_VECTORS) {
+            byte[] key = Nip44.getConversationKey(Nip44.hexToBytes(vector[0]), vector[1]);
+            assertEquals(vector[2], hex(key));
+        }
+    }
+
+    @Test
+    public void encryptDecryptVectors() {
+        for (String[] vector : ENCRYPT_DECRYPT_VECTORS) {
+            String pub2 = hex(Secp256k1.getInstance().xOnlyPublicKey(Nip44.hexToBytes(vector[1])));
+            byte[] conversationKey = Nip44.getConversationKey(Nip44.hexToBytes(vector[0]), pub2);
+            assertEquals(vector[2], hex(conversationKey));
+
+            String payload = Nip44.encrypt(vector[4], conversationKey, Nip44.hexToBytes(vector[3]));
+            assertEquals(vector[5], payload);
+            assertEquals(vector[4], Nip44.decrypt(vector[5], conversationKey));
+        }
+    }
+
+    @Test
+    public void decryptIntoCallerBuffer() {
+        byte[] conversationKey = Nip44.hexToBytes(ENCRYPT_DECRYPT_VECTORS[0][2]);
+        String plaintext = "表ポあA鷗ŒéＢ逍Üßªąñ丂㐀𠀀";
+        byte[] expected = plaintext.getBytes(StandardCharsets.UTF_8);
+        String payload = Nip44.encrypt(plaintext, conversationKey, Nip44.hexToBytes(ENCRYPT_DECRYPT_VECTORS[1][3]));
+
+        byte[] out = new byte[Nip44.MAX_PLAINTEXT_SIZE];
+        int length = Nip44.decrypt(payload, conversationKey, out);
+        assertEquals(expected.length, length);
+        assertEquals(plaintext, new String(out, 0, length, StandardCharsets.UTF_8));
+
+        assertEquals(-1, Nip44.decrypt(payload, conversationKey, new byte[expected.length - 1]));
+    }
+
+    @Test
+    public void calcPaddedLenVectors() {
+        for (int[] vector : PADDED_LENGTH_VECTORS) {
+            assertEquals("unpadded=" + vector[0], vector[1], Nip44.calcPaddedLen(vector[0]));
+        }
+    }
+
+    @Test
+    public void roundTripsLongPlaintextWithRandomNonce() {
+        byte[] conversationKey = Nip44.hexToBytes(ENCRYPT_DECRYPT_VECTORS[0][2]);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 4000; i++) {
+            sb.append((char) ('a' + (i % 26)));
+        }
+        String plaintext = sb.toString();
+
+        String payload = Nip44.encrypt(plaintext, conversationKey);
+        assertEquals(plaintext, Nip44.decrypt(payload, conversationKey));
+    }
+
+    @Test
+    public void rejectsInvalidPayloads() {
+        String[] vector = ENCRYPT_DECRYPT_VECTORS[0];
+        byte[] conversationKey = Nip44.hexToBytes(vector[2]);
+        String payload = vector[5];
+
+        // unknown version marker
+        assertNull(Nip44.decrypt("#" + payload.substring(1), conversationKey));
+        // version byte 1
+        assertNull(Nip44.decrypt("AQ" + payload.substring(2), conversationKey));
+        // tampered MAC
+        char last = payload.charAt(payload.length() - 1);
+        assertNull(Nip44.decrypt(payload.substring(0, payload.length() - 1) + (last == 'A' ? 'B' : 'A'), conversationKey));
+        // wrong key
+        byte[] otherKey = conversationKey.clone();
+        otherKey[0] ^= 1;
+        assertNull(Nip44.decrypt(payload, otherKey));
+        // too short / not base64
+        assertNull(Nip44.decrypt("AgAA", conversationKey));
+        assertNull(Nip44.decrypt(payload.replace('+', '*'), conversationKey));
+        assertNull(Nip44.decrypt("", conversationKey));
+        assertNull(Nip44.decrypt(null, conversationKey));
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,80 @@
+package com.nospeak.app;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PeriodicSyncCycleTest {
+
+    @Test
+    public void completesOnceEveryRelayCaughtUpOrFailed() {
+        PeriodicSyncCycle cycle = new PeriodicSyncCycle(Arrays.asList("wss://a", "wss://b", "wss://c", ""), 1_000L, 500L, 50L);
+
+        assertFalse(cycle.onEose("wss://a"));
+        // Repeated or unknown relays do not count twice.
+        assertFalse(cycle.onEose("wss://a"));
+        assertFalse(cycle.onRelayFailed("wss://unknown"));
+        assertFalse(cycle.onRelayFailed("wss://b"));
+        assertFalse(cycle.isComplete());
+        cycle.onEvent();
+        cycle.onEvent();
+        assertTrue(cycle.onEose("wss://c"));
+        assertTrue(cycle.isComplete());
+
+        PeriodicSyncCycle.Report report = cycle.finish(4_500L, 10_500L, 1_050L, true);
+        assertEquals(3_500L, report.wallTimeMs);
+        assertEquals(3, report.relayCount);
+        assertEquals(2, report.relaysCaughtUp);
+        assertEquals(1, report.relaysFailed);
+        assertFalse(report.timedOut);
+        assertTrue(report.isComplete());
+        assertEquals(2L, report.events);
+        assertEquals(10_000L, report.bytesReceived);
+        assertEquals(1_000L, report.bytesSent);
+    }
+
+    @Test
+    public void reportsTimeoutWhenRelaysArePending() throws Exception {
+        PeriodicSyncCycle cycle = new PeriodicSyncCycle(Arrays.asList("wss://a", "wss://b"), 0L, 0L, 0L);
+        cycle.onEose("wss://a");
+
+        PeriodicSyncCycle.Report report = cycle.finish(45_000L, 2_048L, 100L, true);
+        assertTrue(report.timedOut);
+        assertFalse(report.isComplete());
+
+        JSONObject json = new JSONObject(report.toJson().toString());
+        assertEquals(45_000L, json.getLong("wallTimeMs"));
+        assertEquals(1, json.getInt("relaysCaughtUp"));
+        assertEquals(2_048L, json.getLong("bytesReceived"));
+    }
+
+    @Test
+    public void drainTimeoutOrDroppedEventsMakeTheCycleIncomplete() throws Exception {
+        PeriodicSyncCycle cycle = new PeriodicSyncCycle(Collections.singletonList("wss://a"), 0L, 0L, 0L);
+        assertTrue(cycle.onEose("wss://a"));
+
+        PeriodicSyncCycle.Report undrained = cycle.finish(12_000L, 0L, 0L, false);
+        assertFalse(undrained.timedOut);
+        assertTrue(undrained.drainTimedOut);
+        assertFalse(undrained.isComplete());
+        assertFalse(new JSONObject(undrained.toJson().toString()).getBoolean("complete"));
+
+        cycle.onEventDropped();
+        PeriodicSyncCycle.Report dropped = cycle.finish(12_000L, 0L, 0L, true);
+        assertEquals(1L, dropped.droppedEvents);
+        assertFalse(dropped.isComplete());
+    }
+
+    @Test
+    public void cycleWithoutRelaysIsCompleteImmediately() {
+        PeriodicSyncCycle cycle = new PeriodicSyncCycle(Collections.<String>emptyList(), 0L, 0L, 0L);
+        assertTrue(cycle.isComplete());
+        assertEquals(0, cycle.finish(10L, 0L, 0L, true).relayCount);
+    }
+}
@@ -0,0 +1,130 @@
+package com.nospeak.app;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RelayFrameParserTest {
+
+    private static final String ID = "5c83da77af1dec6d7289834998ad7aafbd9e2191396d75ec3cc27f5a77226f36";
+    private static final String PUBKEY = "f7234bd4c1394dda46d09f35bd384dd30cc552ad5541990f98844fb06676e9ca";
+
+    @Test
+    public void extractsGiftWrapFieldsInAnyKeyOrder() {
+        String frame = "[\"EVENT\",\"nospeak-native-bg\",{\"content\":\"AgAB+/==\",\"tags\":[[\"p\",\"" + PUBKEY
+                + "\"],[\"x\",\"]}{\\\"\"]],\"sig\":\"00\",\"kind\":1059,\"created_at\":1700000000,"
+                + "\"pubkey\":\"" + PUBKEY + "\",\"id\":\"" + ID + "\",\"extra\":{\"a\":[1,2.5e3,true,null]}}]";
+
+        RelayFrameParser.Frame parsed = RelayFrameParser.parse(frame, 1059);
+
+        assertNotNull(parsed);
+        assertEquals(RelayFrameParser.TYPE_EVENT, parsed.type);
+        assertEquals("nospeak-native-bg", parsed.subscriptionId);
+        assertEquals(1059, parsed.kind);
+        assertEquals(ID, parsed.eventId);
+        assertEquals(PUBKEY, parsed.pubkey);
+        assertEquals("AgAB+/==", parsed.content);
+        assertEquals(1700000000L, parsed.createdAt);
+    }
+
+    @Test
+    public void decodesEscapesLikeOrgJson() throws Exception {
+        JSONObject event = new JSONObject();
+        event.put("id", ID);
+        event.put("pubkey", PUBKEY);
+        event.put("kind", 1059);
+        event.put("created_at", 1);
+        event.put("content", "line\nbreak \"quoted\" \\ / tab\t \u00e9 \ud83c\udf55 \u0001");
+        String frame = new JSONArray().put("EVENT").put("sub").put(event).toString();
+
+        RelayFrameParser.Frame parsed = RelayFrameParser.parse(frame, 1059);
+
+        assertNotNull(parsed);
+        assertEquals(event.getString("content"), parsed.content);
+        assertEquals("a\u00e9b", RelayFrameParser.parse(
+                "[\"EVENT\",\"s\",{\"kind\":1059,\"content\":\"a\\u00E9b\"}]", 1059).content);
+    }
+
+    @Test
+    public void otherKindsAreRejectedWithoutMaterializingFields() {
+        String frame = "[\"EVENT\",\"sub\",{\"id\":\"" + ID + "\",\"pubkey\":\"" + PUBKEY
+                + "\",\"content\":\"hello\",\"kind\":1}]";
+
+        RelayFrameParser.Frame parsed = RelayFrameParser.parse(frame, 1059);
+
+        assertNotNull(parsed);
+        assertEquals(RelayFrameParser.TYPE_EVENT, parsed.type);
+        assertEquals(1, parsed.kind);
+        assertNull(parsed.eventId);
+        assertNull(parsed.pubkey);
+        assertNull(parsed.content);
+
+        assertEquals(-1, RelayFrameParser.parse("[\"EVENT\",\"sub\",{\"kind\":1059.5}]", 1059).kind);
+        assertEquals(-1, RelayFrameParser.parse("[\"EVENT\",\"sub\",{\"kind\":\"1059\"}]", 1059).kind);
+    }
+
+    @Test
+    public void classifiesControlFrames() {
+        RelayFrameParser.Frame eose = RelayFrameParser.parse("[\"EOSE\",\"nospeak-native-bg\"]", 1059);
+        assertEquals(RelayFrameParser.TYPE_EOSE, eose.type);
+        assertEquals("nospeak-native-bg", eose.subscriptionId);
+
+        RelayFrameParser.Frame auth = RelayFrameParser.parse(" [ \"AUTH\" , \"challenge-123\" ] ", 1059);
+        assertEquals(RelayFrameParser.TYPE_AUTH, auth.type);
+        assertEquals("challenge-123", auth.message);
+
+        RelayFrameParser.Frame closed = RelayFrameParser.parse(
+                "[\"CLOSED\",\"sub\",\"auth-required: we only serve authenticated users\"]", 1059);
+        assertEquals(RelayFrameParser.TYPE_CLOSED, closed.type);
+        assertEquals("sub", closed.subscriptionId);
+        assertTrue(closed.message.startsWith("auth-required:"));
+
+        RelayFrameParser.Frame ok = RelayFrameParser.parse("[\"OK\",\"" + ID + "\",true,\"\"]", 1059);
+        assertEquals(RelayFrameParser.TYPE_OK, ok.type);
+        assertEquals(ID, ok.eventId);
+        assertTrue(ok.accepted);
+
+        RelayFrameParser.Frame rejected = RelayFrameParser.parse(
+                "[\"OK\",\"" + ID + "\",false,\"restricted: no\"]", 1059);
+        assertFalse(rejected.accepted);
+        assertEquals("restricted: no", rejected.message);
+
+        RelayFrameParser.Frame notice = RelayFrameParser.parse("[\"NOTICE\",\"slow down\"]", 1059);
+        assertEquals(RelayFrameParser.TYPE_NOTICE, notice.type);
+
+        RelayFrameParser.Frame negMsg = RelayFrameParser.parse("[\"NEG-MSG\",\"neg\",\"6100\"]", 1059);
+        assertEquals(RelayFrameParser.TYPE_NEG_MSG, negMsg.type);
+        assertEquals("neg", negMsg.subscriptionId);
+        assertEquals("6100", negMsg.message);
+
+        RelayFrameParser.Frame negErr = RelayFrameParser.parse("[\"NEG-ERR\",\"neg\",\"blocked: too many records\"]", 1059);
+        assertEquals(RelayFrameParser.TYPE_NEG_ERR, negErr.type);
+        assertEquals("blocked: too many records", negErr.message);
+
+        RelayFrameParser.Frame unknown = RelayFrameParser.parse("[\"COUNT\",{\"count\":3}]", 1059);
+        assertEquals(RelayFrameParser.TYPE_UNKNOWN, unknown.type);
+    }
+
+    @Test
+    public void malformedFramesReturnNull() {
+        assertNull(RelayFrameParser.parse(null, 1059));
+        assertNull(RelayFrameParser.parse("", 1059));
+        assertNull(RelayFrameParser.parse("{}", 1059));
+        assertNull(RelayFrameParser.parse("[\"EOSE\"]", 1059));
+        assertNull(RelayFrameParser.parse("[\"EVENT\",\"sub\"]", 1059));
+        assertNull(RelayFrameParser.parse("[\"EVENT\",\"sub\",{\"kind\":1059,\"content\":\"abc}]", 1059));
+        assertNull(RelayFrameParser.parse("[\"EVENT\",\"sub\",{\"kind\" 1059}]", 1059));
+        assertNull(RelayFrameParser.parse("[\"OK\",\"" + ID + "\"]", 1059));
+        assertNull(RelayFrameParser.parse("[\"EVENT\",\"sub\",{\"kind\":1059,\"content\":\"\\q\"}]", 1059));
+        // Invalid tokens used to recurse between readInteger and skipValue until the stack overflowed.
+        assertNull(RelayFrameParser.parse("[\"EVENT\",\"s\",{\"kind\":x}]", 1059));
+        assertNull(RelayFrameParser.parse("{\"foo\":}", 1059));
+        assertNull(RelayFrameParser.parse("[\"EVENT\",\"s\",{\"kind\":1059,\"foo\":}]", 1059));
+    }
+}
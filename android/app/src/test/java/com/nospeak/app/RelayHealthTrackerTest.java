@@ -0,0 +1,136 @@
+package com.nospeak.app;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RelayHealthTrackerTest {
+
+    private static final String A = "wss://a.example";
+    private static final String B = "wss://b.example";
+    private static final String C = "wss://c.example";
+    private static final String D = "wss://d.example";
+    private static final String E = "wss://e.example";
+
+    @Test
+    public void tracksLatencyUptimeAndAuthFailures() {
+        RelayHealthTracker tracker = new RelayHealthTracker(100);
+
+        tracker.onConnectStarted(A, 0L);
+        tracker.onConnected(A, 100L);
+        tracker.onDisconnected(A, 1100L);
+        tracker.onConnectStarted(A, 1100L);
+        tracker.onConnected(A, 1300L);
+        tracker.onAuthFailed(A, 1400L);
+
+        RelayHealthTracker.RelayStats stats = tracker.statsFor(A, 2100L);
+        assertEquals(2L, stats.connectAttempts);
+        // 0.3 * 200 + 0.7 * 100
+        assertEquals(130L, stats.connectLatencyEwmaMs);
+        // Connected 100..1100 and 1300..2100 out of 2100 ms.
+        assertEquals(1800d / 2100d, stats.uptimeRatio, 1e-9);
+        assertEquals(1L, stats.authFailures);
+        assertNull(tracker.statsFor(B, 2100L));
+    }
+
+    @Test
+    public void parkedIntervalsDoNotLowerUptimeOrScore() {
+        RelayHealthTracker tracker = new RelayHealthTracker(100);
+
+        tracker.onConnectStarted(A, 0L);
+        tracker.onConnected(A, 0L);
+        double scoreBeforeParking = tracker.statsFor(A, 1000L).score;
+        tracker.onDisconnected(A, 1000L);
+        tracker.onParked(A, 1000L);
+
+        // Parked for a long time, then wanted again and reconnected immediately.
+        tracker.onWanted(A, 60_000L);
+        tracker.onConnectStarted(A, 60_000L);
+        tracker.onConnected(A, 60_000L);
+
+        RelayHealthTracker.RelayStats stats = tracker.statsFor(A, 61_000L);
+        assertEquals(1d, stats.uptimeRatio, 1e-9);
+        assertEquals(scoreBeforeParking, stats.score, 1e-9);
+
+        // Time spent wanted but disconnected still counts.
+        tracker.onDisconnected(A, 61_000L);
+        assertEquals(2000d / 3000d, tracker.statsFor(A, 62_000L).uptimeRatio, 1e-9);
+    }
+
+    @Test
+    public void countsCrossRelayDuplicatesAndBytes() {
+        RelayHealthTracker tracker = new RelayHealthTracker(100);
+
+        assertTrue(tracker.onEvent(A, "e1", 400, 0L));
+        assertFalse(tracker.onEvent(B, "e1", 500, 0L));
+        assertTrue(tracker.onEvent(B, "e2", 500, 0L));
+        // Same relay re-delivering its own event is not a cross-relay duplicate.
+        assertTrue(tracker.onEvent(B, "E2", 500, 0L));
+
+        RelayHealthTracker.RelayStats a = tracker.statsFor(A, 0L);
+        RelayHealthTracker.RelayStats b = tracker.statsFor(B, 0L);
+        assertEquals(1L, a.uniqueEvents);
+        assertEquals(0d, a.getDuplicateRatio(), 0d);
+        assertEquals(400L, a.getBytesPerUniqueEvent());
+        assertEquals(1L, b.uniqueEvents);
+        assertEquals(1L, b.duplicateEvents);
+        assertEquals(0.5d, b.getDuplicateRatio(), 0d);
+        assertEquals(1500L, b.getBytesPerUniqueEvent());
+    }
+
+    @Test
+    public void selectsRelaysCoveringTheMostEventsPlusRotatingSlot() {
+        RelayHealthTracker tracker = new RelayHealthTracker(100);
+        // A sees e0..e9, B duplicates A, C alone sees e10..e12, D sees e0 only, E nothing.
+        for (int i = 0; i < 10; i++) {
+            tracker.onEvent(A, "e" + i, 100, 0L);
+            tracker.onEvent(B, "e" + i, 100, 0L);
+        }
+        for (int i = 10; i < 13; i++) {
+            tracker.onEvent(C, "e" + i, 100, 0L);
+        }
+        tracker.onEvent(D, "e0", 100, 0L);
+        tracker.onConnectStarted(E, 0L);
+
+        List<String> relays = Arrays.asList(A, B, C, D, E);
+        List<String> selected = tracker.selectRelays(relays, 3, 0, 0L);
+        assertEquals(3, selected.size());
+        assertEquals(A, selected.get(0));
+        assertEquals(C, selected.get(1));
+        // The last slot rotates through B, D, E.
+        assertEquals(B, selected.get(2));
+        assertEquals(D, tracker.selectRelays(relays, 3, 1, 0L).get(2));
+        assertEquals(E, tracker.selectRelays(relays, 3, 2, 0L).get(2));
+        assertEquals(B, tracker.selectRelays(relays, 3, 3, 0L).get(2));
+    }
+
+    @Test
+    public void keepsEveryRelayWhenFanOutIsLargeEnough() {
+        RelayHealthTracker tracker = new RelayHealthTracker(100);
+        List<String> relays = Arrays.asList(A, B, A);
+        assertEquals(Arrays.asList(A, B), tracker.selectRelays(relays, 3, 0, 0L));
+    }
+
+    @Test
+    public void coverageWindowForgetsOldEvents() {
+        RelayHealthTracker tracker = new RelayHealthTracker(4);
+        for (int i = 0; i < 4; i++) {
+            tracker.onEvent(A, "old" + i, 100, 0L);
+        }
+        for (int i = 0; i < 4; i++) {
+            tracker.onEvent(B, "new" + i, 100, 0L);
+        }
+        // A's events have left the window, so B now covers the most.
+        assertEquals(B, tracker.selectRelays(Arrays.asList(A, B, C), 2, 0, 0L).get(0));
+
+        tracker.retainRelays(Arrays.asList(B));
+        assertNull(tracker.statsFor(A, 0L));
+        assertEquals(1, tracker.getTrackedRelays().size());
+    }
+}
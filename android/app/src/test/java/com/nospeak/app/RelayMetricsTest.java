@@ -0,0 +1,94 @@
+package com.nospeak.app;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RelayMetricsTest {
+
+    private static final String A = "wss://a.example";
+    private static final String B = "wss://b.example";
+
+    @Test
+    public void countsTrafficPerRelay() throws Exception {
+        RelayMetrics metrics = new RelayMetrics(0L);
+        metrics.onFrame(A, 400);
+        metrics.onFrame(A, 600);
+        metrics.onFrame(B, 50);
+        metrics.onEvent(A, 1059);
+        metrics.onEvent(A, 1059);
+        metrics.onEvent(A, 1);
+        metrics.onDuplicate(B);
+        metrics.onDecrypt(A, true, 3_000_000L);
+        metrics.onDecrypt(A, false, 1_000_000L);
+        metrics.onAuthRoundTrip(B);
+        metrics.onConnectAttempt(A);
+        metrics.onConnectAttempt(A);
+        metrics.onConnectAttempt(A);
+        metrics.onReconnected(A);
+
+        JSONObject snapshot = metrics.snapshot(1_000L);
+        assertEquals(1_000L, snapshot.getLong("uptimeMs"));
+        JSONObject a = relay(snapshot, A);
+        assertEquals(2L, a.getLong("frames"));
+        assertEquals(1_000L, a.getLong("bytesReceived"));
+        assertEquals(2L, a.getJSONObject("eventsByKind").getLong("1059"));
+        assertEquals(1L, a.getJSONObject("eventsByKind").getLong("1"));
+        assertEquals(1L, a.getLong("decryptSuccesses"));
+        assertEquals(1L, a.getLong("decryptFailures"));
+        assertEquals(3L, a.getLong("connectAttempts"));
+        assertEquals(1L, a.getLong("reconnects"));
+
+        JSONObject b = relay(snapshot, B);
+        assertEquals(1L, b.getLong("duplicates"));
+        assertEquals(1L, b.getLong("authRoundTrips"));
+        assertEquals(0L, b.getLong("reconnects"));
+    }
+
+    @Test
+    public void splitsConnectedTimeByEnergyProfile() throws Exception {
+        RelayMetrics metrics = new RelayMetrics(0L);
+        metrics.onConnected(A, 1_000L);
+        metrics.onProfileChanged(true, 4_000L);
+        metrics.onConnected(B, 5_000L);
+        metrics.onDisconnected(A, 10_000L);
+
+        JSONObject snapshot = metrics.snapshot(12_000L);
+        assertEquals(RelayMetrics.PROFILE_LOCKED, snapshot.getString("profile"));
+        JSONObject a = relay(snapshot, A).getJSONObject("connectedMs");
+        assertEquals(3_000L, a.getLong(RelayMetrics.PROFILE_ACTIVE));
+        assertEquals(6_000L, a.getLong(RelayMetrics.PROFILE_LOCKED));
+        // An open segment counts up to the snapshot time.
+        JSONObject b = relay(snapshot, B).getJSONObject("connectedMs");
+        assertEquals(0L, b.getLong(RelayMetrics.PROFILE_ACTIVE));
+        assertEquals(7_000L, b.getLong(RelayMetrics.PROFILE_LOCKED));
+    }
+
+    @Test
+    public void bucketsDecryptTimes() throws Exception {
+        RelayMetrics metrics = new RelayMetrics(0L);
+        metrics.onDecrypt(A, true, 500_000L);
+        metrics.onDecrypt(A, true, 1_000_000L);
+        metrics.onDecrypt(A, true, 7_000_000L);
+        metrics.onDecrypt(A, true, 5_000_000_000L);
+
+        JSONObject decrypt = metrics.snapshot(0L).getJSONObject("decryptTime");
+        JSONArray counts = decrypt.getJSONArray("counts");
+        assertEquals(RelayMetrics.DECRYPT_BUCKET_BOUNDS_MS.length + 1, counts.length());
+        assertEquals(2L, counts.getLong(0));
+        assertEquals(1L, counts.getLong(3));
+        assertEquals(1L, counts.getLong(counts.length() - 1));
+    }
+
+    private static JSONObject relay(JSONObject snapshot, String url) throws Exception {
+        JSONArray relays = snapshot.getJSONArray("relays");
+        for (int i = 0; i < relays.length(); i++) {
+            if (url.equals(relays.getJSONObject(i).getString("url"))) {
+                return relays.getJSONObject(i);
+            }
+        }
+        throw new AssertionError("no metrics for " + url);
+    }
+}
@@ -0,0 +1,649 @@
+package com.nospeak.app;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays socket callback sequences against {@link RelayPool} on a virtual clock.
+ */
+public class RelayPoolTest {
+
+    private static final String A = "wss://a.example";
+    private static final String B = "wss://b.example";
+    private static final String C = "wss://c.example";
+    private static final String D = "wss://d.example";
+    private static final String E = "wss://e.example";
+
+    /**
+     * Single-threaded scheduler: tasks only run from {@link #runUntilIdle} / {@link #advanceBy},
+     * in time order, then submission order.
+     */
+    private static final class ManualScheduler implements RelayPool.Scheduler {
+        private final class Task implements Comparable<Task>, RelayPool.Cancellable {
+            final long dueMs;
+            final long seq;
+            final Runnable runnable;
+            boolean cancelled;
+
+            Task(long dueMs, long seq, Runnable runnable) {
+                this.dueMs = dueMs;
+                this.seq = seq;
+                this.runnable = runnable;
+            }
+
+            @Override
+            public int compareTo(Task other) {
+                if (dueMs != other.dueMs) {
+                    return dueMs < other.dueMs ? -1 : 1;
+                }
+                return Long.compare(seq, other.seq);
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+            }
+        }
+
+        private final PriorityQueue<Task> queue = new PriorityQueue<>();
+        private long nowMs = 0L;
+        private long nextSeq = 0L;
+
+        @Override
+        public void execute(Runnable task) {
+            queue.add(new Task(nowMs, nextSeq++, task));
+        }
+
+        @Override
+        public RelayPool.Cancellable schedule(Runnable task, long delayMs) {
+            Task scheduled = new Task(nowMs + Math.max(0L, delayMs), nextSeq++, task);
+            queue.add(scheduled);
+            return scheduled;
+        }
+
+        @Override
+        public long nowMs() {
+            return nowMs;
+        }
+
+        void runUntilIdle() {
+            advanceBy(0L);
+        }
+
+        void advanceBy(long ms) {
+            long until = nowMs + ms;
+            while (!queue.isEmpty() && queue.peek().dueMs <= until) {
+                Task task = queue.poll();
+                nowMs = Math.max(nowMs, task.dueMs);
+                if (!task.cancelled) {
+                    task.runnable.run();
+                }
+            }
+            nowMs = until;
+        }
+    }
+
+    private static final class FakeSocket implements RelayPool.RelaySocket {
+        final String relayUrl;
+        final int pingSeconds;
+        final RelayPool.SocketCallbacks callbacks;
+        final List<String> sent = new ArrayList<>();
+        String closeReason;
+
+        FakeSocket(String relayUrl, int pingSeconds, RelayPool.SocketCallbacks callbacks) {
+            this.relayUrl = relayUrl;
+            this.pingSeconds = pingSeconds;
+            this.callbacks = callbacks;
+        }
+
+        @Override
+        public boolean send(String text) {
+            sent.add(text);
+            return true;
+        }
+
+        @Override
+        public void close(int code, String reason) {
+            closeReason = reason;
+        }
+
+        String lastSentType() {
+            try {
+                return new JSONArray(sent.get(sent.size() - 1)).getString(0);
+            } catch (Exception e) {
+                return null;
+            }
+        }
+    }
+
+    private static final class FakeTransport implements RelayPool.Transport {
+        final List<FakeSocket> opened = new ArrayList<>();
+
+        @Override
+        public RelayPool.RelaySocket open(String relayUrl, int pingSeconds, RelayPool.SocketCallbacks callbacks) {
+            FakeSocket socket = new FakeSocket(relayUrl, pingSeconds, callbacks);
+            opened.add(socket);
+            return socket;
+        }
+
+        FakeSocket last(String relayUrl) {
+            for (int i = opened.size() - 1; i >= 0; i--) {
+                if (opened.get(i).relayUrl.equals(relayUrl)) {
+                    return opened.get(i);
+                }
+            }
+            return null;
+        }
+
+        int count(String relayUrl) {
+            int count = 0;
+            for (FakeSocket socket : opened) {
+                if (socket.relayUrl.equals(relayUrl)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    private static final class RecordingListener implements RelayPool.Listener {
+        final List<String> log = new ArrayList<>();
+        final List<Boolean> eventBacklogFlags = new ArrayList<>();
+        int authSignatures;
+        // IDs known locally, offered for negentropy; null means no sync.
+        List<String> knownIds;
+
+        @Override
+        public String buildSubscription(String relayUrl, boolean liveOnly) {
+            return liveOnly ? "[\"REQ\",\"sub\",{\"limit\":0}]" : "[\"REQ\",\"sub\",{}]";
+        }
+
+        @Override
+        public RelayPool.SyncPlan planSync(String relayUrl) {
+            if (knownIds == null) {
+                return null;
+            }
+            Negentropy.Storage storage = new Negentropy.Storage();
+            for (int i = 0; i < knownIds.size(); i++) {
+                storage.add(1000L + i, knownIds.get(i));
+            }
+            return new RelayPool.SyncPlan(new JSONObject(), storage);
+        }
+
+        @Override
+        public void onSyncReconciled(String relayUrl, int missingCount) {
+            log.add("reconciled " + relayUrl + " " + missingCount);
+        }
+
+        @Override
+        public void onSyncFallback(String relayUrl, String reason) {
+            log.add("fallback " + relayUrl);
+        }
+
+        @Override
+        public String signAuthEvent(String relayUrl, String challenge) {
+            authSignatures++;
+            try {
+                JSONObject event = new JSONObject();
+                event.put("id", "auth" + authSignatures);
+                event.put("kind", 22242);
+                return event.toString();
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        @Override
+        public void onEvent(String relayUrl, RelayFrameParser.Frame frame, boolean backlog) {
+            log.add("event " + relayUrl + " " + frame.eventId);
+            eventBacklogFlags.add(backlog);
+        }
+
+        @Override
+        public void onEose(String relayUrl) {
+            log.add("eose " + relayUrl);
+        }
+
+        @Override
+        public void onConnected(String relayUrl) {
+            log.add("connected " + relayUrl);
+        }
+
+        @Override
+        public void onDisconnected(String relayUrl, boolean wasOpen, String detail) {
+            log.add("disconnected " + relayUrl + " " + wasOpen);
+        }
+
+        @Override
+        public void onConnectionCountChanged(int connectedCount) {
+        }
+    }
+
+    private ManualScheduler scheduler;
+    private FakeTransport transport;
+    private RecordingListener listener;
+    private RelayHealthTracker health;
+    private RelayMetrics metrics;
+    private RelayPool pool;
+
+    @Before
+    public void setUp() {
+        scheduler = new ManualScheduler();
+        transport = new FakeTransport();
+        listener = new RecordingListener();
+        health = new RelayHealthTracker(100);
+        metrics = new RelayMetrics(0L);
+
+        RelayPool.Settings settings = new RelayPool.Settings();
+        settings.repaceDebounceMs = 30_000L;
+        settings.repaceStaggerMs = 2_000L;
+        settings.authRetryDelayMs = 5_000L;
+        settings.lockedFanOut = 2;
+        settings.lockedRotationMs = 60_000L;
+
+        pool = new RelayPool(
+                transport,
+                scheduler,
+                listener,
+                new RelayReconnectScheduler(1_000L, 60_000L, 500L, new Random(7L)),
+                health,
+                metrics,
+                settings,
+                GiftWrap.KIND_GIFT_WRAP
+        );
+    }
+
+    private static String eventFrame(String id) {
+        return "[\"EVENT\",\"sub\",{\"id\":\"" + id + "\",\"kind\":1059,\"pubkey\":\"p\",\"created_at\":1,\"content\":\"c\"}]";
+    }
+
+    private void open(FakeSocket socket) {
+        socket.callbacks.onOpen();
+        scheduler.runUntilIdle();
+    }
+
+    private void close(FakeSocket socket) {
+        socket.callbacks.onClosed("closed");
+        scheduler.runUntilIdle();
+    }
+
+    private void receive(FakeSocket socket, String frame) {
+        socket.callbacks.onMessage(frame);
+        scheduler.runUntilIdle();
+    }
+
+    private static String id(int n) {
+        return NostrEvents.bytesToHex(NostrEvents.sha256(("event" + n).getBytes()));
+    }
+
+    private static List<String> sentOfType(FakeSocket socket, String type) throws Exception {
+        List<String> frames = new ArrayList<>();
+        for (String frame : socket.sent) {
+            if (type.equals(new JSONArray(frame).getString(0))) {
+                frames.add(frame);
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * Plays the relay's side of a negentropy sync until the pool stops sending NEG-OPEN/NEG-MSG.
+     */
+    private void answerSync(FakeSocket socket, Negentropy relaySide) throws Exception {
+        int handled = 0;
+        while (true) {
+            String query = null;
+            for (int i = handled; i < socket.sent.size(); i++) {
+                JSONArray frame = new JSONArray(socket.sent.get(i));
+                if ("NEG-OPEN".equals(frame.getString(0))) {
+                    query = frame.getString(3);
+                } else if ("NEG-MSG".equals(frame.getString(0))) {
+                    query = frame.getString(2);
+                }
+            }
+            handled = socket.sent.size();
+            if (query == null) {
+                return;
+            }
+            String reply = relaySide.reconcile(query, null, null);
+            receive(socket, new JSONArray().put("NEG-MSG").put("nospeak-neg").put(reply).toString());
+        }
+    }
+
+    @Test
+    public void subscribesOnOpenAndFlagsBacklogUntilEose() {
+        pool.start(new String[] { A }, 120, false);
+        scheduler.runUntilIdle();
+
+        FakeSocket socket = transport.last(A);
+        assertNotNull(socket);
+        assertEquals(120, socket.pingSeconds);
+        open(socket);
+        assertEquals("REQ", socket.lastSentType());
+        assertEquals(1, pool.getConnectedCount());
+
+        receive(socket, eventFrame("e1"));
+        receive(socket, "[\"EOSE\",\"sub\"]");
+        receive(socket, eventFrame("e2"));
+        // Other kinds never reach the listener.
+        receive(socket, "[\"EVENT\",\"sub\",{\"id\":\"x\",\"kind\":1}]");
+
+        assertEquals(Arrays.asList("connected " + A, "event " + A + " e1", "eose " + A, "event " + A + " e2"), listener.log);
+        assertEquals(true, listener.eventBacklogFlags.get(0));
+        assertEquals(false, listener.eventBacklogFlags.get(1));
+        assertEquals(2L, health.statsFor(A, 0L).uniqueEvents);
+    }
+
+    @Test
+    public void catchesUpWithNegentropyAndFetchesOnlyMissingIds() throws Exception {
+        List<String> known = new ArrayList<>();
+        Negentropy.Storage relayItems = new Negentropy.Storage();
+        for (int i = 0; i < 100; i++) {
+            known.add(id(i));
+            relayItems.add(1000L + i, id(i));
+        }
+        List<String> missing = Arrays.asList(id(500), id(501), id(502));
+        for (int i = 0; i < missing.size(); i++) {
+            relayItems.add(2000L + i, missing.get(i));
+        }
+        relayItems.seal();
+        listener.knownIds = known;
+
+        pool.start(new String[] { A }, 120, false);
+        scheduler.runUntilIdle();
+        FakeSocket socket = transport.last(A);
+        open(socket);
+
+        // Live-only REQ goes out before NEG-OPEN; its EOSE is held back during the sync.
+        assertEquals("[\"REQ\",\"sub\",{\"limit\":0}]", socket.sent.get(0));
+        assertEquals("NEG-OPEN", new JSONArray(socket.sent.get(1)).getString(0));
+        receive(socket, "[\"EOSE\",\"sub\"]");
+        assertFalse(listener.log.contains("eose " + A));
+
+        answerSync(socket, new Negentropy(relayItems, 0));
+        assertTrue(listener.log.contains("reconciled " + A + " 3"));
+        assertEquals(1, sentOfType(socket, "NEG-CLOSE").size());
+
+        JSONArray fetch = new JSONArray(socket.sent.get(socket.sent.size() - 1));
+        assertEquals("REQ", fetch.getString(0));
+        assertEquals("nospeak-neg-fetch", fetch.getString(1));
+        JSONArray ids = fetch.getJSONObject(2).getJSONArray("ids");
+        HashSet<String> fetched = new HashSet<>();
+        for (int i = 0; i < ids.length(); i++) {
+            fetched.add(ids.getString(i));
+        }
+        assertEquals(new HashSet<>(missing), fetched);
+
+        receive(socket, eventFrame("m1"));
+        receive(socket, "[\"EOSE\",\"nospeak-neg-fetch\"]");
+        assertEquals("CLOSE", socket.lastSentType());
+        assertTrue(listener.log.contains("eose " + A));
+        receive(socket, eventFrame("live"));
+        assertEquals(Arrays.asList(true, false), listener.eventBacklogFlags);
+        assertEquals(1, sentOfType(socket, "REQ").size() - 1);
+    }
+
+    @Test
+    public void fallsBackToReqWhenRelayIgnoresNegOpen() throws Exception {
+        listener.knownIds = Arrays.asList(id(1), id(2));
+
+        pool.start(new String[] { A }, 120, false);
+        scheduler.runUntilIdle();
+        FakeSocket socket = transport.last(A);
+        open(socket);
+        receive(socket, "[\"NOTICE\",\"ERROR: bad msg: unknown cmd\"]");
+
+        assertTrue(listener.log.contains("fallback " + A));
+        assertEquals("[\"REQ\",\"sub\",{}]", socket.sent.get(socket.sent.size() - 1));
+        receive(socket, "[\"EOSE\",\"sub\"]");
+        assertTrue(listener.log.contains("eose " + A));
+
+        // Not asked again on reconnect.
+        close(socket);
+        scheduler.advanceBy(1_000L);
+        FakeSocket second = transport.last(A);
+        open(second);
+        assertEquals(Arrays.asList("[\"REQ\",\"sub\",{}]"), second.sent);
+    }
+
+    @Test
+    public void fallsBackToReqWhenSyncTimesOut() throws Exception {
+        listener.knownIds = new ArrayList<>();
+
+        pool.start(new String[] { A }, 120, false);
+        scheduler.runUntilIdle();
+        FakeSocket socket = transport.last(A);
+        open(socket);
+        receive(socket, "[\"EOSE\",\"sub\"]");
+
+        scheduler.advanceBy(15_000L);
+        assertEquals(1, sentOfType(socket, "NEG-CLOSE").size());
+        assertEquals("[\"REQ\",\"sub\",{}]", socket.sent.get(socket.sent.size() - 1));
+        assertFalse(listener.log.contains("eose " + A));
+
+        // A NEG-MSG arriving after the fallback is ignored.
+        receive(socket, "[\"NEG-MSG\",\"nospeak-neg\",\"61\"]");
+        receive(socket, "[\"EOSE\",\"sub\"]");
+        assertTrue(listener.log.contains("eose " + A));
+        assertEquals(2, sentOfType(socket, "REQ").size());
+    }
+
+    @Test
+    public void reconnectsAfterBackoffAndIgnoresStaleSocket() {
+        pool.start(new String[] { A }, 120, false);
+        scheduler.runUntilIdle();
+        FakeSocket first = transport.last(A);
+        open(first);
+
+        close(first);
+        assertEquals(0, pool.getConnectedCount());
+        assertTrue(listener.log.contains("disconnected " + A + " true"));
+        assertEquals(1, transport.count(A));
+
+        // Equal jitter on a 1 s base: the retry comes due within a second.
+        scheduler.advanceBy(1_000L);
+        assertEquals(2, transport.count(A));
+        FakeSocket second = transport.last(A);
+        open(second);
+
+        // Late frames and a duplicate close from the dead socket change nothing.
+        receive(first, eventFrame("late"));
+        close(first);
+        assertFalse(listener.log.contains("event " + A + " late"));
+        assertEquals(1, pool.getConnectedCount());
+        scheduler.advanceBy(120_000L);
+        assertEquals(2, transport.count(A));
+    }
+
+    @Test
+    public void authenticatesAndResubscribes() {
+        pool.start(new String[] { A }, 120, false);
+        scheduler.runUntilIdle();
+        FakeSocket socket = transport.last(A);
+        open(socket);
+
+        receive(socket, "[\"AUTH\",\"challenge-1\"]");
+        receive(socket, "[\"CLOSED\",\"sub\",\"auth-required: sign in\"]");
+        assertEquals("AUTH", socket.lastSentType());
+
+        // An OK for some other event is not an auth response.
+        receive(socket, "[\"OK\",\"other\",true,\"\"]");
+        assertEquals("AUTH", socket.lastSentType());
+
+        receive(socket, "[\"OK\",\"auth1\",true,\"\"]");
+        assertEquals("REQ", socket.lastSentType());
+        assertEquals(1, listener.authSignatures);
+    }
+
+    @Test
+    public void retriesRejectedAuthOncePerConnection() {
+        pool.start(new String[] { A }, 120, false);
+        scheduler.runUntilIdle();
+        FakeSocket socket = transport.last(A);
+        open(socket);
+
+        receive(socket, "[\"AUTH\",\"challenge-1\"]");
+        receive(socket, "[\"CLOSED\",\"sub\",\"auth-required: sign in\"]");
+        receive(socket, "[\"OK\",\"auth1\",false,\"restricted\"]");
+        assertEquals(1L, health.statsFor(A, 0L).authFailures);
+
+        scheduler.advanceBy(5_000L);
+        assertEquals(2, listener.authSignatures);
+        receive(socket, "[\"OK\",\"auth2\",false,\"restricted\"]");
+        scheduler.advanceBy(60_000L);
+        assertEquals(2, listener.authSignatures);
+    }
+
+    @Test
+    public void authRetryDoesNotLeakIntoNextConnection() {
+        pool.start(new String[] { A }, 120, false);
+        scheduler.runUntilIdle();
+        FakeSocket first = transport.last(A);
+        open(first);
+        receive(first, "[\"AUTH\",\"challenge-1\"]");
+        receive(first, "[\"CLOSED\",\"sub\",\"auth-required: sign in\"]");
+        receive(first, "[\"OK\",\"auth1\",false,\"restricted\"]");
+
+        // The relay drops and comes back before the retry fires.
+        close(first);
+        scheduler.advanceBy(1_000L);
+        FakeSocket second = transport.last(A);
+        open(second);
+        receive(second, "[\"AUTH\",\"challenge-2\"]");
+
+        scheduler.advanceBy(5_000L);
+        assertEquals(1, listener.authSignatures);
+        assertEquals("REQ", second.lastSentType());
+    }
+
+    @Test
+    public void repacesLiveSocketsAfterDebounceMakeBeforeBreak() {
+        pool.start(new String[] { A, B }, 120, false);
+        scheduler.runUntilIdle();
+        FakeSocket a1 = transport.last(A);
+        FakeSocket b1 = transport.last(B);
+        open(a1);
+        open(b1);
+
+        // A lock/unlock flap inside the debounce window opens nothing.
+        pool.setProfile(300, false);
+        scheduler.advanceBy(10_000L);
+        pool.setProfile(120, false);
+        scheduler.advanceBy(40_000L);
+        assertEquals(2, transport.opened.size());
+
+        pool.setProfile(300, false);
+        scheduler.advanceBy(30_000L);
+        FakeSocket a2 = transport.last(A);
+        assertEquals(300, a2.pingSeconds);
+        // Staggered: B's replacement is not opened yet.
+        assertEquals(1, transport.count(B));
+        scheduler.advanceBy(2_000L);
+        FakeSocket b2 = transport.last(B);
+        assertEquals(300, b2.pingSeconds);
+
+        // The old socket stays live until its successor opens.
+        assertEquals(null, a1.closeReason);
+        open(a2);
+        assertEquals("Keepalive re-paced", a1.closeReason);
+        assertEquals(2, pool.getConnectedCount());
+
+        // A failed replacement leaves the live socket alone.
+        close(b2);
+        assertEquals(null, b1.closeReason);
+        assertEquals(2, pool.getConnectedCount());
+
+        // The retired socket's close neither reconnects nor disconnects the relay.
+        close(a1);
+        scheduler.advanceBy(1_000L);
+        assertEquals(2, transport.count(A));
+        assertEquals(2, pool.getConnectedCount());
+    }
+
+    @Test
+    public void lockedProfileParksRelaysBeyondFanOut() {
+        pool.start(new String[] { A, B, C, D, E }, 120, false);
+        scheduler.runUntilIdle();
+        for (String relay : new String[] { A, B, C, D, E }) {
+            open(transport.last(relay));
+        }
+        assertEquals(5, pool.getConnectedCount());
+
+        pool.setProfile(300, true);
+        scheduler.runUntilIdle();
+        assertEquals(2, pool.getConnectedCount());
+
+        int closed = 0;
+        for (FakeSocket socket : transport.opened) {
+            if ("Parked by energy profile".equals(socket.closeReason)) {
+                closed++;
+            }
+        }
+        assertEquals(3, closed);
+
+        // Parked relays are not reconnected by backoff.
+        scheduler.advanceBy(20_000L);
+        assertEquals(5, transport.opened.size());
+
+        pool.setProfile(120, false);
+        scheduler.runUntilIdle();
+        assertEquals(8, transport.opened.size());
+    }
+
+    @Test
+    public void parksReconnectsWhileOfflineThenReconnectsInWave() {
+        pool.start(new String[] { A, B }, 120, false);
+        scheduler.runUntilIdle();
+        FakeSocket a1 = transport.last(A);
+        FakeSocket b1 = transport.last(B);
+        open(a1);
+        open(b1);
+
+        pool.onNetworkLost();
+        close(a1);
+        close(b1);
+        scheduler.advanceBy(600_000L);
+        assertEquals(2, transport.opened.size());
+        assertTrue(pool.getReconnectStats().offline);
+
+        pool.onNetworkAvailable();
+        scheduler.advanceBy(1_000L);
+        assertEquals(4, transport.opened.size());
+        assertEquals(1L, pool.getReconnectStats().waves);
+    }
+
+    @Test
+    public void stopClosesSocketsAndReportsOpenRelays() {
+        pool.start(new String[] { A, B }, 120, false);
+        scheduler.runUntilIdle();
+        FakeSocket a1 = transport.last(A);
+        open(a1);
+
+        pool.stop();
+        scheduler.runUntilIdle();
+        assertEquals("Service destroyed", a1.closeReason);
+        assertEquals("Service destroyed", transport.last(B).closeReason);
+        assertTrue(listener.log.contains("disconnected " + A + " true"));
+        assertTrue(listener.log.contains("disconnected " + B + " false"));
+        assertEquals(0, pool.getConnectedCount());
+
+        // Callbacks racing the shutdown are ignored.
+        close(a1);
+        scheduler.advanceBy(60_000L);
+        assertEquals(2, transport.opened.size());
+    }
+}
@@ -0,0 +1,126 @@
+package com.nospeak.app;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RelayReconnectSchedulerTest {
+
+    private static final String A = "wss://a.example";
+    private static final String B = "wss://b.example";
+    private static final String C = "wss://c.example";
+
+    private static RelayReconnectScheduler newScheduler() {
+        return new RelayReconnectScheduler(1000L, 300_000L, 500L, new Random(42L));
+    }
+
+    @Test
+    public void backoffGrowsWithJitterAndCaps() {
+        RelayReconnectScheduler scheduler = newScheduler();
+
+        for (int attempt = 0; attempt < 12; attempt++) {
+            RelayReconnectScheduler.Retry retry = scheduler.onDisconnected(A, 0L);
+            long ceiling = Math.min(300_000L, 1000L << attempt);
+            assertTrue("attempt " + attempt + ": " + retry.delayMs, retry.delayMs >= ceiling / 2);
+            assertTrue("attempt " + attempt + ": " + retry.delayMs, retry.delayMs <= ceiling);
+        }
+
+        scheduler.onConnected(A, 0L);
+        RelayReconnectScheduler.Retry reset = scheduler.onDisconnected(A, 0L);
+        assertTrue(reset.delayMs <= 1000L);
+    }
+
+    @Test
+    public void relaysFailingTogetherDoNotRetryInLockstep() {
+        RelayReconnectScheduler scheduler = newScheduler();
+        Set<Long> delays = new HashSet<>();
+        for (int i = 0; i < 8; i++) {
+            scheduler.onDisconnected("wss://r" + i + ".example", 0L);
+            delays.add(scheduler.onDisconnected("wss://r" + i + ".example", 0L).delayMs);
+        }
+        assertTrue(delays.size() > 1);
+    }
+
+    @Test
+    public void supersededRetryIsNotClaimed() {
+        RelayReconnectScheduler scheduler = newScheduler();
+
+        RelayReconnectScheduler.Retry first = scheduler.onDisconnected(A, 0L);
+        RelayReconnectScheduler.Retry second = scheduler.onDisconnected(A, 10L);
+        assertFalse(scheduler.claim(A, first.token));
+        assertTrue(scheduler.claim(A, second.token));
+        assertFalse(scheduler.claim(A, second.token));
+    }
+
+    @Test
+    public void parksWhileOfflineAndReconnectsInStaggeredWave() {
+        RelayReconnectScheduler scheduler = newScheduler();
+
+        RelayReconnectScheduler.Retry pending = scheduler.onDisconnected(A, 0L);
+        for (int i = 0; i < 5; i++) {
+            scheduler.onDisconnected(B, 0L);
+        }
+        scheduler.onNetworkLost();
+        assertTrue(scheduler.isOffline());
+
+        // A's timer fires while offline: parked instead of connecting.
+        assertFalse(scheduler.claim(A, pending.token));
+        // C fails while offline: nothing to schedule.
+        assertNull(scheduler.onDisconnected(C, 100L));
+        assertEquals(2, scheduler.snapshot().parkedRelays);
+
+        List<RelayReconnectScheduler.Retry> wave = scheduler.onNetworkAvailable();
+        assertFalse(scheduler.isOffline());
+        assertEquals(3, wave.size());
+
+        Set<String> relays = new HashSet<>();
+        for (int i = 0; i < wave.size(); i++) {
+            RelayReconnectScheduler.Retry retry = wave.get(i);
+            relays.add(retry.relayUrl);
+            assertTrue(retry.delayMs >= i * 500L && retry.delayMs < (i + 1) * 500L);
+            assertTrue(scheduler.claim(retry.relayUrl, retry.token));
+        }
+        assertEquals(3, relays.size());
+
+        // Backoff was reset by the network change: B starts again from the base delay.
+        assertTrue(scheduler.onDisconnected(B, 1000L).delayMs <= 1000L);
+        assertEquals(1L, scheduler.snapshot().waves);
+    }
+
+    @Test
+    public void recordsAttemptAndReconnectStats() {
+        RelayReconnectScheduler scheduler = newScheduler();
+
+        scheduler.onAttemptStarted(A);
+        assertFalse(scheduler.onConnected(A, 0L));
+        assertNotNull(scheduler.onDisconnected(A, 1000L));
+        scheduler.onAttemptStarted(A);
+        assertNotNull(scheduler.onDisconnected(A, 2000L));
+        scheduler.onAttemptStarted(A);
+        assertTrue(scheduler.onConnected(A, 4000L));
+        // A second connection without a drop in between (e.g. a re-pace) is not a reconnect.
+        assertFalse(scheduler.onConnected(A, 5000L));
+
+        RelayReconnectScheduler.Stats stats = scheduler.snapshot();
+        assertEquals(3L, stats.attempts);
+        assertEquals(3L, stats.successes);
+        assertEquals(2L, stats.failures);
+        // Down from the first disconnect (1000) until connected again (4000).
+        assertEquals(3000L, stats.avgReconnectMs);
+        assertEquals(3000L, stats.maxReconnectMs);
+
+        scheduler.onDisconnected(B, 0L);
+        scheduler.forget(B);
+        assertEquals(0, scheduler.snapshot().pendingRetries);
+        assertTrue(scheduler.onNetworkAvailable().isEmpty());
+    }
+}
@@ -0,0 +1,121 @@
+package com.nospeak.app;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RelaySinceCursorsTest {
+
+    private static final String RELAY = "wss://relay.example.com";
+    private static final long WINDOW = RelaySinceCursors.GIFT_WRAP_TIMESTAMP_WINDOW_SECONDS
+            + RelaySinceCursors.CLOCK_SKEW_MARGIN_SECONDS;
+
+    @Test
+    public void noSinceUntilFirstEose() {
+        RelaySinceCursors cursors = new RelaySinceCursors();
+        assertEquals(0L, cursors.sinceFor(RELAY));
+
+        cursors.onSubscribed(RELAY, 1_000_000L);
+        cursors.onEvent(RELAY, 999_000L, 1_000_010L);
+        // Dropped before EOSE: backlog may be incomplete, nothing is committed.
+        assertFalse(cursors.onDisconnected(RELAY, 1_000_020L));
+        assertEquals(0L, cursors.sinceFor(RELAY));
+    }
+
+    @Test
+    public void eoseCommitsSubscribeTimeAndLiveDisconnectCommitsNow() {
+        RelaySinceCursors cursors = new RelaySinceCursors();
+
+        cursors.onSubscribed(RELAY, 1_000_000L);
+        assertTrue(cursors.onEose(RELAY, 1_000_005L));
+        assertEquals(1_000_000L, cursors.highWaterFor(RELAY));
+        assertEquals(1_000_000L - WINDOW, cursors.sinceFor(RELAY));
+
+        assertTrue(cursors.onDisconnected(RELAY, 1_003_600L));
+        assertEquals(1_003_600L, cursors.highWaterFor(RELAY));
+    }
+
+    @Test
+    public void futureTimestampsAreClampedToNow() {
+        RelaySinceCursors cursors = new RelaySinceCursors();
+
+        cursors.onSubscribed(RELAY, 1_000_000L);
+        cursors.onEvent(RELAY, 9_999_999_999L, 1_000_001L);
+        cursors.onEose(RELAY, 1_000_002L);
+        assertEquals(1_000_001L, cursors.highWaterFor(RELAY));
+
+        cursors.onEvent(RELAY, 9_999_999_999L, 1_000_050L);
+        assertEquals(1_000_050L, cursors.highWaterFor(RELAY));
+    }
+
+    @Test
+    public void marksNeverMoveBackwards() {
+        RelaySinceCursors cursors = new RelaySinceCursors();
+
+        cursors.onSubscribed(RELAY, 2_000_000L);
+        cursors.onEose(RELAY, 2_000_000L);
+        cursors.onDisconnected(RELAY, 2_000_100L);
+
+        // Device clock jumped backwards.
+        cursors.onSubscribed(RELAY, 1_000_000L);
+        assertFalse(cursors.onEose(RELAY, 1_000_000L));
+        assertEquals(2_000_100L, cursors.highWaterFor(RELAY));
+    }
+
+    @Test
+    public void droppedEventHoldsTheMarkBelowItForTheRestOfTheSubscription() {
+        RelaySinceCursors cursors = new RelaySinceCursors();
+
+        cursors.onSubscribed(RELAY, 1_000_000L);
+        cursors.onEvent(RELAY, 1_000_500L, 1_000_600L);
+        cursors.onEventDropped(RELAY, 1_000_400L);
+        assertTrue(cursors.onEose(RELAY, 1_000_600L));
+        assertEquals(1_000_399L, cursors.highWaterFor(RELAY));
+
+        // Live events and the disconnect cannot move past the dropped event either.
+        cursors.onEvent(RELAY, 1_000_700L, 1_000_700L);
+        cursors.onDisconnected(RELAY, 1_000_800L);
+        assertEquals(1_000_399L, cursors.highWaterFor(RELAY));
+
+        // The next subscription is free to advance again.
+        cursors.onSubscribed(RELAY, 1_000_900L);
+        cursors.onEose(RELAY, 1_000_900L);
+        assertEquals(1_000_900L, cursors.highWaterFor(RELAY));
+    }
+
+    @Test
+    public void droppedEventPullsBackAMarkThatAlreadyPassedIt() {
+        RelaySinceCursors cursors = new RelaySinceCursors();
+
+        cursors.onSubscribed(RELAY, 1_000_000L);
+        cursors.onEose(RELAY, 1_000_000L);
+        assertTrue(cursors.onEventDropped(RELAY, 999_000L));
+        assertEquals(998_999L, cursors.highWaterFor(RELAY));
+        assertFalse(cursors.onEventDropped(RELAY, 999_500L));
+    }
+
+    @Test
+    public void roundTripsThroughJsonAndDropsUnconfiguredRelays() throws Exception {
+        RelaySinceCursors cursors = new RelaySinceCursors();
+        cursors.onSubscribed(RELAY, 1_000_000L);
+        cursors.onEose(RELAY, 1_000_000L);
+        cursors.onSubscribed("wss://other.example.com", 1_000_000L);
+        cursors.onEose("wss://other.example.com", 1_000_000L);
+
+        JSONObject json = new JSONObject(cursors.toJson().toString());
+        RelaySinceCursors restored = new RelaySinceCursors();
+        restored.load(json, 999_000L);
+
+        // Stored marks ahead of the current clock are clamped.
+        assertEquals(999_000L, restored.highWaterFor(RELAY));
+
+        restored.retainRelays(Collections.singletonList(RELAY));
+        assertEquals(0L, restored.sinceFor("wss://other.example.com"));
+        assertEquals(999_000L - WINDOW, restored.sinceFor(RELAY));
+    }
+}
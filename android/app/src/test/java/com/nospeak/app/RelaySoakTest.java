@@ -0,0 +1,574 @@
+package com.nospeak.app;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.OkHttpClient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives the relay pool and gift wrap decrypt path against in-process {@link MockRelay}s.
+ *
+ * The scenario tests run with every build. The soak test only runs when
+ * {@code nospeak.soak.events} is set, e.g.
+ * {@code ./gradlew :app:testDebugUnitTest --tests '*RelaySoakTest' -Pnospeak.soak.events=100000},
+ * and prints events/sec, decrypt p50/p99, heap growth and reconnect counts.
+ */
+public class RelaySoakTest {
+
+    private static final String RECIPIENT_SECRET = "7f7ff03d123792d6ac594bfa67bf6d0c0ab55b6b1fdb6249303fe861f1ccba9a";
+    private static final String SENDER_SECRET = "0beebd062ec8735f4243466049d7747ef5d6594ee838de147f8aab842b15e273";
+
+    private static final int EPHEMERAL_KEY_COUNT = 256;
+
+    private static final long AWAIT_TIMEOUT_MS = 60_000L;
+
+    private final List<MockRelay> relays = new ArrayList<>();
+    private Harness harness;
+
+    /**
+     * Generates gift wraps to the recipient, cycling through a fixed set of ephemeral keys so
+     * the receiving side still misses its conversation key cache most of the time. Ids depend
+     * only on the index, so relays serving the same range deliver duplicates.
+     */
+    private static final class GiftWrapSource implements MockRelay.EventSource {
+        private final String recipientPubkeyHex;
+        private final int firstIndex;
+        private final int count;
+        private final String senderPubkeyHex;
+        private final byte[] sealKey;
+        private final String[] ephemeralPubkeys = new String[EPHEMERAL_KEY_COUNT];
+        private final byte[][] wrapKeys = new byte[EPHEMERAL_KEY_COUNT][];
+
+        GiftWrapSource(String recipientPubkeyHex, int firstIndex, int count) {
+            this.recipientPubkeyHex = recipientPubkeyHex;
+            this.firstIndex = firstIndex;
+            this.count = count;
+            this.senderPubkeyHex = xOnly(Nip44.hexToBytes(SENDER_SECRET));
+            this.sealKey = Nip44.getConversationKey(Nip44.hexToBytes(SENDER_SECRET), recipientPubkeyHex);
+
+            Random random = new Random(42L);
+            for (int i = 0; i < EPHEMERAL_KEY_COUNT; i++) {
+                byte[] secret = new byte[32];
+                random.nextBytes(secret);
+                secret[0] = (byte) (secret[0] & 0x7F);
+                ephemeralPubkeys[i] = xOnly(secret);
+                wrapKeys[i] = Nip44.getConversationKey(secret, recipientPubkeyHex);
+            }
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+
+        @Override
+        public String get(int index) {
+            int n = firstIndex + index;
+            try {
+                long createdAt = 1_700_000_000L + n;
+                JSONArray pTags = new JSONArray().put(new JSONArray().put("p").put(recipientPubkeyHex));
+
+                JSONObject rumor = new JSONObject();
+                rumor.put("kind", 14);
+                rumor.put("pubkey", senderPubkeyHex);
+                rumor.put("created_at", createdAt);
+                rumor.put("tags", pTags);
+                rumor.put("content", "message " + n);
+
+                JSONObject seal = new JSONObject();
+                seal.put("kind", GiftWrap.KIND_SEAL);
+                seal.put("pubkey", senderPubkeyHex);
+                seal.put("created_at", createdAt);
+                seal.put("tags", new JSONArray());
+                seal.put("content", Nip44.encrypt(rumor.toString(), sealKey));
+
+                int key = n % EPHEMERAL_KEY_COUNT;
+                JSONObject wrap = new JSONObject();
+                wrap.put("id", wrapId(n));
+                wrap.put("kind", GiftWrap.KIND_GIFT_WRAP);
+                wrap.put("pubkey", ephemeralPubkeys[key]);
+                wrap.put("created_at", createdAt);
+                wrap.put("tags", pTags);
+                wrap.put("content", Nip44.encrypt(seal.toString(), wrapKeys[key]));
+                return wrap.toString();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * The service's relay and decrypt path without Android: RelayPool over OkHttp feeding the
+     * same {@link GiftWrapFrameHandler} the service uses (since cursors, seen-id store and Bloom
+     * filter, in-flight coalescing, the decrypt pipeline) with a {@link LocalNip44Decryptor}.
+     */
+    private static final class Harness implements RelayPool.Listener, GiftWrapFrameHandler.Listener {
+        final byte[] secretKey = Nip44.hexToBytes(RECIPIENT_SECRET);
+        final String pubkeyHex = xOnly(secretKey);
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        final RelayReconnectScheduler reconnects = new RelayReconnectScheduler(100L, 2_000L, 50L, new Random(1L));
+        final RelayPool pool;
+        final GiftWrapDecryptPipeline pipeline = new GiftWrapDecryptPipeline(
+                GiftWrapDecryptPipeline.defaultWorkerCount(GiftWrapFrameHandler.DECRYPT_MAX_WORKERS),
+                GiftWrapFrameHandler.DECRYPT_QUEUE_CAPACITY,
+                GiftWrapFrameHandler.DECRYPT_LIVE_BACKPRESSURE_MS);
+        final SeenEventIdStore processed = SeenEventIdStore.inMemory(1 << 18);
+        final RotatingBloomFilter processedFilter = RotatingBloomFilter.open(null, 1 << 16, 0.001d);
+        final RelaySinceCursors cursors = new RelaySinceCursors();
+        final InFlightEventCoalescer inFlight = new InFlightEventCoalescer(GiftWrapFrameHandler.IN_FLIGHT_EVENT_STALE_MS);
+        final LocalNip44Decryptor decryptor = new LocalNip44Decryptor(GiftWrapFrameHandler.CONVERSATION_KEY_CACHE_SIZE);
+        final RelayMetrics metrics = new RelayMetrics(System.currentTimeMillis());
+        final GiftWrapFrameHandler frames;
+
+        // Frames fully handed to the frame handler.
+        final AtomicLong received = new AtomicLong();
+        final AtomicLong decrypted = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        final AtomicLong syncMissing = new AtomicLong();
+        final AtomicLong syncFallbacks = new AtomicLong();
+        // Offer negentropy catch-up against the processed ids.
+        volatile boolean negentropy;
+        private long[] decryptNanos = new long[1024];
+        private int decryptSamples;
+
+        Harness() {
+            decryptor.setSecretKey(secretKey.clone());
+            frames = new GiftWrapFrameHandler(pipeline, cursors, inFlight, metrics, this);
+            frames.setProcessedStores(processed, processedFilter);
+            pool = new RelayPool(
+                    new OkHttpRelayTransport(new OkHttpClient.Builder().readTimeout(0, TimeUnit.MILLISECONDS).build()),
+                    new RelayPool.ExecutorScheduler(executor),
+                    this,
+                    reconnects,
+                    new RelayHealthTracker(1024),
+                    metrics,
+                    new RelayPool.Settings(),
+                    GiftWrap.KIND_GIFT_WRAP
+            );
+        }
+
+        void start(List<MockRelay> relays) {
+            String[] urls = new String[relays.size()];
+            for (int i = 0; i < urls.length; i++) {
+                urls[i] = relays.get(i).url();
+            }
+            pool.start(urls, 120, false);
+        }
+
+        void shutdown() {
+            pool.stop();
+            executor.shutdown();
+            try {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pipeline.shutdown();
+        }
+
+        boolean awaitDecrypted(long count) throws InterruptedException {
+            return await(decrypted, count);
+        }
+
+        boolean awaitReceived(long count) throws InterruptedException {
+            return await(received, count);
+        }
+
+        /**
+         * Waits until nothing is queued or being decrypted; dropped events never arrive.
+         */
+        boolean awaitIdle() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + AWAIT_TIMEOUT_MS;
+            while (pipeline.getQueueDepth() > 0 || inFlight.getInFlightCount() > 0) {
+                if (System.currentTimeMillis() >= deadline) {
+                    return false;
+                }
+                Thread.sleep(5L);
+            }
+            return true;
+        }
+
+        private static boolean await(AtomicLong counter, long count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + AWAIT_TIMEOUT_MS;
+            while (counter.get() < count) {
+                if (System.currentTimeMillis() >= deadline) {
+                    return false;
+                }
+                Thread.sleep(5L);
+            }
+            return true;
+        }
+
+        long relayMetricTotal(String key) throws JSONException {
+            JSONArray relayArray = metrics.snapshot(System.currentTimeMillis()).getJSONArray("relays");
+            long total = 0L;
+            for (int i = 0; i < relayArray.length(); i++) {
+                total += relayArray.getJSONObject(i).getLong(key);
+            }
+            return total;
+        }
+
+        synchronized long decryptPercentileMicros(double percentile) {
+            if (decryptSamples == 0) {
+                return 0L;
+            }
+            long[] sorted = Arrays.copyOf(decryptNanos, decryptSamples);
+            Arrays.sort(sorted);
+            int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1);
+            return sorted[Math.max(0, index)] / 1000L;
+        }
+
+        private synchronized void recordDecrypt(long nanos) {
+            if (decryptSamples == decryptNanos.length) {
+                decryptNanos = Arrays.copyOf(decryptNanos, decryptSamples * 2);
+            }
+            decryptNanos[decryptSamples++] = nanos;
+        }
+
+        @Override
+        public String buildSubscription(String relayUrl, boolean liveOnly) {
+            try {
+                JSONObject filter = giftWrapFilter();
+                if (liveOnly) {
+                    filter.put("limit", 0);
+                }
+                frames.onSubscribed(relayUrl);
+                return new JSONArray().put("REQ").put("nospeak-native-bg").put(filter).toString();
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        @Override
+        public RelayPool.SyncPlan planSync(String relayUrl) {
+            if (!negentropy) {
+                return null;
+            }
+            try {
+                Negentropy.Storage known = new Negentropy.Storage();
+                processed.exportSince(0L, known);
+                return new RelayPool.SyncPlan(giftWrapFilter(), known);
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        private JSONObject giftWrapFilter() throws Exception {
+            JSONObject filter = new JSONObject();
+            filter.put("kinds", new JSONArray().put(GiftWrap.KIND_GIFT_WRAP));
+            filter.put("#p", new JSONArray().put(pubkeyHex));
+            return filter;
+        }
+
+        @Override
+        public void onSyncReconciled(String relayUrl, int missingCount) {
+            syncMissing.addAndGet(missingCount);
+        }
+
+        @Override
+        public void onSyncFallback(String relayUrl, String reason) {
+            syncFallbacks.incrementAndGet();
+        }
+
+        @Override
+        public String signAuthEvent(String relayUrl, String challenge) {
+            String unsigned = NostrEvents.buildAuthEvent(pubkeyHex, relayUrl, challenge, System.currentTimeMillis() / 1000L);
+            return unsigned != null ? NostrEvents.signEvent(unsigned, secretKey) : null;
+        }
+
+        @Override
+        public void onEvent(String relayUrl, RelayFrameParser.Frame frame, boolean backlog) {
+            frames.onFrame(relayUrl, frame, backlog);
+            received.incrementAndGet();
+        }
+
+        @Override
+        public void onEose(String relayUrl) {
+            frames.onEose(relayUrl);
+        }
+
+        @Override
+        public boolean isAcceptingGiftWraps() {
+            return true;
+        }
+
+        @Override
+        public String decrypt(String ciphertext, String senderPubkeyHex) {
+            long start = System.nanoTime();
+            try {
+                return decryptor.decrypt(ciphertext, senderPubkeyHex);
+            } finally {
+                recordDecrypt(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public boolean isDecryptFailurePermanent() {
+            return true;
+        }
+
+        @Override
+        public void onDecryptFailed(String relayUrl, String eventId) {
+        }
+
+        @Override
+        public void onGiftWrapOpened(String relayUrl, String eventId, GiftWrap.Rumor rumor) {
+            decrypted.incrementAndGet();
+        }
+
+        @Override
+        public void onGiftWrapDropped(String eventId, boolean cursorsChanged) {
+            dropped.incrementAndGet();
+        }
+
+        @Override
+        public void onConnected(String relayUrl) {
+        }
+
+        @Override
+        public void onDisconnected(String relayUrl, boolean wasOpen, String detail) {
+            frames.onDisconnected(relayUrl);
+        }
+
+        @Override
+        public void onConnectionCountChanged(int connectedCount) {
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (harness != null) {
+            harness.shutdown();
+        }
+        for (MockRelay relay : relays) {
+            relay.shutdown();
+        }
+    }
+
+    private List<MockRelay> startRelays(int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            relays.add(new MockRelay());
+        }
+        return relays;
+    }
+
+    @Test
+    public void floodOfLiveGiftWrapsIsDecrypted() throws Exception {
+        MockRelay relay = startRelays(1).get(0);
+        harness = new Harness();
+        harness.start(relays);
+        assertTrue(relay.awaitSubscribers(1, AWAIT_TIMEOUT_MS));
+
+        relay.publish(new GiftWrapSource(harness.pubkeyHex, 0, 2_000));
+
+        assertTrue(harness.awaitDecrypted(2_000));
+        assertEquals(2_000L, harness.pipeline.snapshot().processed);
+        assertEquals(0L, harness.pipeline.snapshot().dropped);
+    }
+
+    @Test
+    public void duplicatesAcrossRelaysAreDecryptedOnce() throws Exception {
+        startRelays(3);
+        GiftWrapSource source = new GiftWrapSource(xOnly(RECIPIENT_SECRET), 0, 300);
+        for (MockRelay relay : relays) {
+            relay.setBacklog(source);
+        }
+        harness = new Harness();
+        harness.start(relays);
+
+        assertTrue(harness.awaitReceived(900));
+        assertTrue(harness.awaitIdle());
+
+        // Every copy beyond the first was either coalesced onto the in-flight decrypt or skipped
+        // as already processed.
+        assertEquals(300L, harness.decrypted.get());
+        assertEquals(300L, harness.pipeline.snapshot().submitted);
+        assertEquals(0L, harness.dropped.get());
+        assertEquals(600L, harness.relayMetricTotal("duplicates"));
+        assertTrue(harness.inFlight.getTotalSavedCount() <= 600L);
+        for (MockRelay relay : relays) {
+            assertTrue(harness.cursors.highWaterFor(relay.url()) > 0L);
+        }
+
+        assertEquals(300L, harness.relayMetricTotal("decryptSuccesses"));
+    }
+
+    @Test
+    public void reconnectsAfterDroppedConnections() throws Exception {
+        MockRelay relay = startRelays(1).get(0);
+        harness = new Harness();
+        harness.start(relays);
+        assertTrue(relay.awaitSubscribers(1, AWAIT_TIMEOUT_MS));
+        relay.publish(new GiftWrapSource(harness.pubkeyHex, 0, 100));
+        assertTrue(harness.awaitDecrypted(100));
+
+        relay.dropConnections();
+        assertTrue(relay.awaitSubscribers(1, AWAIT_TIMEOUT_MS));
+        relay.publish(new GiftWrapSource(harness.pubkeyHex, 100, 100));
+        assertTrue(harness.awaitDecrypted(200));
+
+        assertEquals(2, relay.getConnectionCount());
+        assertEquals(2, relay.getReqCount());
+        assertEquals(2L, harness.pool.getReconnectStats().successes);
+        assertEquals(1L, harness.pool.getReconnectStats().failures);
+        assertEquals(1L, harness.relayMetricTotal("reconnects"));
+    }
+
+    @Test
+    public void authenticatesWhenRelayDemandsIt() throws Exception {
+        MockRelay relay = startRelays(1).get(0);
+        relay.setRequireAuth(true);
+        harness = new Harness();
+        relay.setBacklog(new GiftWrapSource(harness.pubkeyHex, 0, 50));
+        harness.start(relays);
+
+        assertTrue(harness.awaitDecrypted(50));
+        assertEquals(1, relay.getAuthenticationCount());
+        // The first REQ is CLOSED with auth-required, the second is served.
+        assertEquals(2, relay.getReqCount());
+        assertEquals(1L, harness.relayMetricTotal("authRoundTrips"));
+    }
+
+    @Test
+    public void negentropyCatchUpFetchesOnlyMissingEvents() throws Exception {
+        MockRelay relay = startRelays(1).get(0);
+        relay.setNegentropy(true);
+        harness = new Harness();
+        harness.negentropy = true;
+        relay.setBacklog(new GiftWrapSource(harness.pubkeyHex, 0, 300));
+        for (int n = 0; n < 250; n++) {
+            harness.processed.add(wrapId(n), 1_700_000_000L + n);
+        }
+        harness.start(relays);
+
+        assertTrue(harness.awaitDecrypted(50));
+        assertTrue(relay.awaitSubscribers(1, AWAIT_TIMEOUT_MS));
+        assertEquals(1, relay.getSyncCount());
+        assertEquals(50L, harness.syncMissing.get());
+        assertEquals(50, relay.getServedEventCount());
+        assertEquals(50L, harness.received.get());
+
+        // Live events still arrive on the limit:0 subscription.
+        relay.publish(new GiftWrapSource(harness.pubkeyHex, 300, 20));
+        assertTrue(harness.awaitDecrypted(70));
+    }
+
+    @Test
+    public void relayWithoutNegentropyGetsPlainReq() throws Exception {
+        MockRelay relay = startRelays(1).get(0);
+        harness = new Harness();
+        harness.negentropy = true;
+        relay.setBacklog(new GiftWrapSource(harness.pubkeyHex, 0, 100));
+        harness.start(relays);
+
+        assertTrue(harness.awaitDecrypted(100));
+        assertEquals(1L, harness.syncFallbacks.get());
+        assertEquals(100, relay.getServedEventCount());
+    }
+
+    @Test
+    public void soak() throws Exception {
+        final int events = Integer.getInteger("nospeak.soak.events", 0);
+        Assume.assumeTrue("set nospeak.soak.events to run", events > 0);
+
+        startRelays(3);
+        harness = new Harness();
+        harness.start(relays);
+        for (MockRelay relay : relays) {
+            assertTrue(relay.awaitSubscribers(1, AWAIT_TIMEOUT_MS));
+        }
+
+        long heapBefore = usedHeapBytes();
+        long startNanos = System.nanoTime();
+
+        // Every relay floods the same events; one of them keeps dropping its connections.
+        List<Thread> publishers = new ArrayList<>();
+        for (final MockRelay relay : relays) {
+            Thread publisher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    relay.publish(new GiftWrapSource(harness.pubkeyHex, 0, events));
+                }
+            }, "soak-publisher");
+            publishers.add(publisher);
+            publisher.start();
+        }
+        Thread dropper = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Thread.sleep(2_000L);
+                        relays.get(2).dropConnections();
+                    }
+                } catch (InterruptedException ignored) {
+                    // Done
+                }
+            }
+        }, "soak-dropper");
+        dropper.start();
+
+        for (Thread publisher : publishers) {
+            publisher.join();
+        }
+        dropper.interrupt();
+        dropper.join();
+        harness.awaitIdle();
+
+        long elapsedMs = Math.max(1L, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        long heapGrowthKb = (usedHeapBytes() - heapBefore) / 1024L;
+        long decrypted = harness.decrypted.get();
+
+        System.out.println(String.format(
+                Locale.ROOT,
+                "soak: events=%d relays=%d received=%d decrypted=%d elapsed=%dms events/sec=%d"
+                        + " decrypt_p50=%dus decrypt_p99=%dus heap_growth=%dKB coalesced=%d",
+                events, relays.size(), harness.received.get(), decrypted, elapsedMs,
+                decrypted * 1000L / elapsedMs,
+                harness.decryptPercentileMicros(0.50), harness.decryptPercentileMicros(0.99),
+                heapGrowthKb, harness.inFlight.getTotalSavedCount()
+        ));
+        System.out.println("soak: reconnects " + harness.pool.getReconnectStats());
+        System.out.println("soak: pipeline " + harness.pipeline.snapshot());
+
+        assertTrue(decrypted > 0L);
+    }
+
+    private static String wrapId(int n) {
+        return NostrEvents.bytesToHex(NostrEvents.sha256(("wrap-" + n).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static long usedHeapBytes() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50L);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String xOnly(byte[] secretKey) {
+        return NostrEvents.bytesToHex(Secp256k1.getInstance().xOnlyPublicKey(secretKey));
+    }
+
+    private static String xOnly(String secretKeyHex) {
+        return xOnly(Nip44.hexToBytes(secretKeyHex));
+    }
+}
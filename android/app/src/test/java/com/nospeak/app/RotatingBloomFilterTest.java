@@ -0,0 +1,130 @@
+package com.nospeak.app;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RotatingBloomFilterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void containsEveryInsertedId() throws Exception {
+        RotatingBloomFilter filter = RotatingBloomFilter.open(folder.newFile("ids.bloom"), 1000, 1e-6);
+
+        assertTrue(filter.isPersistent());
+        assertEquals(20, filter.getHashCount());
+        for (int i = 0; i < 1000; i++) {
+            filter.put(id(i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(filter.mightContain(id(i)));
+        }
+        assertTrue(filter.mightContain(id(5).toUpperCase()));
+        assertFalse(filter.mightContain(null));
+
+        filter.close();
+    }
+
+    @Test
+    public void falsePositiveRateStaysNearConfiguredRate() {
+        RotatingBloomFilter filter = RotatingBloomFilter.open(null, 2000, 0.01);
+        for (int i = 0; i < 2000; i++) {
+            filter.put(id(i));
+        }
+
+        int falsePositives = 0;
+        for (int i = 2000; i < 22000; i++) {
+            if (filter.mightContain(id(i))) {
+                falsePositives++;
+            }
+        }
+        // Expected ~1% (200); allow generous slack.
+        assertTrue("false positives: " + falsePositives, falsePositives < 400);
+    }
+
+    @Test
+    public void rotationKeepsPreviousGenerationAndDropsOlder() {
+        RotatingBloomFilter filter = RotatingBloomFilter.open(null, 100, 1e-6);
+        for (int i = 0; i < 100; i++) {
+            filter.put(id(i));
+        }
+        // Generation 0 is full; these go into generation 1.
+        for (int i = 100; i < 150; i++) {
+            filter.put(id(i));
+        }
+        assertEquals(50, filter.getCurrentGenerationCount());
+        assertTrue(filter.mightContain(id(0)));
+        assertTrue(filter.mightContain(id(149)));
+
+        // Filling generation 1 clears generation 0.
+        for (int i = 150; i < 200; i++) {
+            filter.put(id(i));
+        }
+        assertEquals(0, filter.getCurrentGenerationCount());
+        assertFalse(filter.mightContain(id(0)));
+        assertFalse(filter.mightContain(id(99)));
+        assertTrue(filter.mightContain(id(100)));
+        assertTrue(filter.mightContain(id(199)));
+    }
+
+    @Test
+    public void duplicatePutsDoNotAdvanceGeneration() {
+        RotatingBloomFilter filter = RotatingBloomFilter.open(null, 10, 1e-6);
+        for (int i = 0; i < 50; i++) {
+            filter.put(id(1));
+        }
+        assertEquals(1, filter.getCurrentGenerationCount());
+    }
+
+    @Test
+    public void reopenRestoresBits() throws Exception {
+        File file = new File(folder.getRoot(), "ids.bloom");
+        RotatingBloomFilter filter = RotatingBloomFilter.open(file, 100, 1e-6);
+        for (int i = 0; i < 120; i++) {
+            filter.put(id(i));
+        }
+        filter.close();
+
+        RotatingBloomFilter reopened = RotatingBloomFilter.open(file, 100, 1e-6);
+        assertEquals(20, reopened.getCurrentGenerationCount());
+        for (int i = 0; i < 120; i++) {
+            assertTrue(reopened.mightContain(id(i)));
+        }
+        reopened.close();
+    }
+
+    @Test
+    public void parameterChangeOrCorruptHeaderResets() throws Exception {
+        File file = new File(folder.getRoot(), "ids.bloom");
+        RotatingBloomFilter filter = RotatingBloomFilter.open(file, 100, 1e-6);
+        filter.put(id(1));
+        filter.close();
+
+        RotatingBloomFilter resized = RotatingBloomFilter.open(file, 200, 1e-6);
+        assertFalse(resized.mightContain(id(1)));
+        resized.put(id(1));
+        resized.close();
+
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        raw.writeInt(0);
+        raw.close();
+
+        RotatingBloomFilter reset = RotatingBloomFilter.open(file, 200, 1e-6);
+        assertTrue(reset.isPersistent());
+        assertFalse(reset.mightContain(id(1)));
+        reset.close();
+    }
+
+    private static String id(int n) {
+        return NostrEvents.bytesToHex(NostrEvents.sha256(("event" + n).getBytes()));
+    }
+}
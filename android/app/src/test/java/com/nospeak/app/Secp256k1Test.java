@@ -0,0 +1,185 @@
+package com.nospeak.app;
+
+import org.bouncycastle.asn1.sec.SECNamedCurves;
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class Secp256k1Test {
+
+    private static final String[] PRIVATE_KEYS = {
+            "0000000000000000000000000000000000000000000000000000000000000001",
+            "0000000000000000000000000000000000000000000000000000000000000003",
+            "b7e151628aed2a6abf7158809cf4f3c762e7160f38b4da56a784d9045190cfef",
+            "c90fdaa22168c234c4c6628b80dc1cd129024e088a67cc74020bbea63b14e5c9",
+            "315e59ff51cb9209768cf7da80791ddcaae56ac9775eb25b6dee1234bc5d2268",
+            "fffffffffffffffffffffffffffffffebaaedce6af48a03bbfd25e8cd0364140",
+    };
+
+    @Test
+    public void xOnlyPublicKeyMatchesKnownVectors() {
+        Secp256k1 secp = Secp256k1.getInstance();
+
+        // BIP-340 test vectors 0 and 1
+        assertEquals(
+                "f9308a019258c31049344f85f89d5229b531c845836f99b08601f113bce036f9",
+                hex(secp.xOnlyPublicKey(bytes(PRIVATE_KEYS[1])))
+        );
+        assertEquals(
+                "dff1d77f2a671c5f36183726db2341be58feae1da2deced843240f7b502ba659",
+                hex(secp.xOnlyPublicKey(bytes(PRIVATE_KEYS[2])))
+        );
+        // 2G, the NIP-44 vector peer for sec1 = 1
+        assertEquals(
+                "c6047f9441ed7d6d3045406e95c07cd85c778e4b8cef3ca7abac09b95c709ee5",
+                hex(secp.xOnlyPublicKey(bytes("0000000000000000000000000000000000000000000000000000000000000002")))
+        );
+    }
+
+    @Test
+    public void ecdhMatchesReferenceImplementation() throws Exception {
+        Secp256k1 secp = Secp256k1.getInstance();
+
+        for (String privateHex : PRIVATE_KEYS) {
+            for (String peerPrivateHex : PRIVATE_KEYS) {
+                byte[] peerX = referencePublicKeyX(bytes(peerPrivateHex));
+                byte[] expected = referenceEcdh(bytes(privateHex), peerX);
+
+                assertArrayEquals(expected, secp.ecdhX(bytes(privateHex), peerX));
+                // Second call goes through the cached peer point.
+                assertArrayEquals(expected, secp.ecdhX(bytes(privateHex), peerX));
+            }
+        }
+    }
+
+    @Test
+    public void ecdhIsSymmetric() {
+        Secp256k1 secp = Secp256k1.getInstance();
+        byte[] a = bytes(PRIVATE_KEYS[2]);
+        byte[] b = bytes(PRIVATE_KEYS[3]);
+
+        assertArrayEquals(
+                secp.ecdhX(a, secp.xOnlyPublicKey(b)),
+                secp.ecdhX(b, secp.xOnlyPublicKey(a))
+        );
+    }
+
+    @Test
+    public void schnorrSignMatchesReferenceImplementation() throws Exception {
+        Secp256k1 secp = Secp256k1.getInstance();
+
+        for (String privateHex : PRIVATE_KEYS) {
+            byte[] message = sha256(("nospeak auth " + privateHex).getBytes(StandardCharsets.UTF_8));
+            byte[] expected = referenceSchnorrSign(message, bytes(privateHex));
+            byte[] actual = secp.schnorrSign(message, bytes(privateHex));
+
+            assertNotNull(actual);
+            assertArrayEquals(expected, actual);
+        }
+    }
+
+    // ---- Reference implementation (the pre-context code path, kept verbatim for comparison) ----
+
+    private static byte[] referencePublicKeyX(byte[] privateKey) {
+        X9ECParameters params = SECNamedCurves.getByName("secp256k1");
+        ECPoint p = params.getG().multiply(new BigInteger(1, privateKey)).normalize();
+        return fit32(p.getAffineXCoord().getEncoded());
+    }
+
+    private static byte[] referenceEcdh(byte[] privateKey, byte[] peerPubkeyX) {
+        X9ECParameters params = SECNamedCurves.getByName("secp256k1");
+
+        byte[] compressed = new byte[33];
+        compressed[0] = 0x02;
+        System.arraycopy(peerPubkeyX, 0, compressed, 1, 32);
+
+        ECPoint peerPoint = params.getCurve().decodePoint(compressed);
+        ECPoint sharedPoint = peerPoint.multiply(new BigInteger(1, privateKey)).normalize();
+        return fit32(sharedPoint.getAffineXCoord().getEncoded());
+    }
+
+    private static byte[] referenceSchnorrSign(byte[] message, byte[] privateKey) throws Exception {
+        X9ECParameters params = SECNamedCurves.getByName("secp256k1");
+        BigInteger n = params.getN();
+        ECPoint G = params.getG();
+
+        BigInteger d = new BigInteger(1, privateKey);
+        ECPoint P = G.multiply(d).normalize();
+        if (P.getAffineYCoord().testBitZero()) {
+            d = n.subtract(d);
+        }
+        byte[] pBytes = fit32(P.getAffineXCoord().getEncoded());
+
+        byte[] dBytes = fit32(d.toByteArray());
+        byte[] aux = sha256(dBytes);
+        byte[] inner = sha256(concat(dBytes, pBytes, message));
+        byte[] t = new byte[32];
+        for (int i = 0; i < 32; i++) {
+            t[i] = (byte) (aux[i] ^ inner[i]);
+        }
+
+        BigInteger k = new BigInteger(1, sha256(concat(t, pBytes, message))).mod(n);
+        ECPoint R = G.multiply(k).normalize();
+        if (R.getAffineYCoord().testBitZero()) {
+            k = n.subtract(k);
+        }
+        byte[] rBytes = fit32(R.getAffineXCoord().getEncoded());
+
+        BigInteger e = new BigInteger(1, sha256(concat(rBytes, pBytes, message))).mod(n);
+        BigInteger s = k.add(e.multiply(d)).mod(n);
+
+        byte[] sig = new byte[64];
+        System.arraycopy(rBytes, 0, sig, 0, 32);
+        System.arraycopy(fit32(s.toByteArray()), 0, sig, 32, 32);
+        return sig;
+    }
+
+    private static byte[] fit32(byte[] value) {
+        if (value.length == 32) {
+            return value;
+        }
+        if (value.length > 32) {
+            return Arrays.copyOfRange(value, value.length - 32, value.length);
+        }
+        byte[] out = new byte[32];
+        System.arraycopy(value, 0, out, 32 - value.length, value.length);
+        return out;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b, byte[] c) {
+        byte[] out = new byte[a.length + b.length + c.length];
+        System.arraycopy(a, 0, out, 0, a.length);
+        System.arraycopy(b, 0, out, a.length, b.length);
+        System.arraycopy(c, 0, out, a.length + b.length, c.length);
+        return out;
+    }
+
+    private static byte[] sha256(byte[] input) throws Exception {
+        return MessageDigest.getInstance("SHA-256").digest(input);
+    }
+
+    private static byte[] bytes(String hex) {
+        byte[] out = new byte[hex.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return out;
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,192 @@
+package com.nospeak.app;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SeenEventIdStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void addReportsNewIdsOnly() throws Exception {
+        SeenEventIdStore store = SeenEventIdStore.open(folder.newFile("ids.bin"), 8);
+
+        assertTrue(store.isPersistent());
+        assertTrue(store.add(id(1)));
+        assertFalse(store.add(id(1)));
+        assertFalse(store.add(id(1).toUpperCase()));
+        assertTrue(store.contains(id(1)));
+        assertFalse(store.contains(id(2)));
+
+        // Non-hex IDs still dedupe via their hash.
+        assertTrue(store.add("not-a-hex-id"));
+        assertFalse(store.add("not-a-hex-id"));
+        assertEquals(2, store.size());
+
+        store.close();
+    }
+
+    @Test
+    public void evictsOldestWhenFull() {
+        SeenEventIdStore store = SeenEventIdStore.inMemory(4);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(store.add(id(i)));
+        }
+
+        assertEquals(4, store.size());
+        assertFalse(store.contains(id(0)));
+        assertFalse(store.contains(id(1)));
+        for (int i = 2; i < 6; i++) {
+            assertTrue(store.contains(id(i)));
+        }
+    }
+
+    @Test
+    public void reopenRestoresRingState() throws Exception {
+        File file = new File(folder.getRoot(), "ids.bin");
+        SeenEventIdStore store = SeenEventIdStore.open(file, 4);
+        for (int i = 0; i < 6; i++) {
+            store.add(id(i));
+        }
+        store.close();
+
+        SeenEventIdStore reopened = SeenEventIdStore.open(file, 4);
+        assertEquals(4, reopened.size());
+        assertFalse(reopened.contains(id(1)));
+        assertTrue(reopened.contains(id(5)));
+
+        // Continues overwriting from the persisted head.
+        reopened.add(id(6));
+        assertFalse(reopened.contains(id(2)));
+        assertTrue(reopened.contains(id(3)));
+        reopened.close();
+
+        assertEquals(32 + 4 * 40, file.length());
+    }
+
+    @Test
+    public void exportSinceReturnsIdsWithCreatedAt() throws Exception {
+        File file = new File(folder.getRoot(), "ids.bin");
+        SeenEventIdStore store = SeenEventIdStore.open(file, 8);
+        store.add(id(1), 1000L);
+        store.add(id(2), 2000L);
+        store.add(id(3));
+        store.close();
+
+        SeenEventIdStore reopened = SeenEventIdStore.open(file, 8);
+        Negentropy.Storage recent = new Negentropy.Storage();
+        assertEquals(1, reopened.exportSince(1500L, recent));
+        Negentropy.Storage all = new Negentropy.Storage();
+        assertEquals(3, reopened.exportSince(0L, all));
+        reopened.close();
+    }
+
+    @Test
+    public void fileWithAnotherVersionIsReset() throws Exception {
+        File file = new File(folder.getRoot(), "ids.bin");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.writeInt(0x4e534944);
+        raf.writeInt(2);
+        raf.writeInt(4);
+        raf.writeInt(1);
+        raf.writeInt(1);
+        raf.write(new byte[12]);
+        raf.write(Nip44.hexToBytes(id(1)));
+        raf.write(new byte[8 + 3 * 40]);
+        raf.close();
+
+        SeenEventIdStore store = SeenEventIdStore.open(file, 4);
+        assertEquals(0, store.size());
+        assertFalse(store.contains(id(1)));
+        store.close();
+        assertEquals(32 + 4 * 40, file.length());
+    }
+
+    @Test
+    public void capacityChangeKeepsNewestIds() throws Exception {
+        File file = new File(folder.getRoot(), "ids.bin");
+        SeenEventIdStore store = SeenEventIdStore.open(file, 8);
+        for (int i = 0; i < 10; i++) {
+            store.add(id(i));
+        }
+        store.close();
+
+        SeenEventIdStore smaller = SeenEventIdStore.open(file, 3);
+        assertEquals(3, smaller.size());
+        assertTrue(smaller.contains(id(7)));
+        assertTrue(smaller.contains(id(9)));
+        assertFalse(smaller.contains(id(6)));
+        smaller.close();
+
+        SeenEventIdStore larger = SeenEventIdStore.open(file, 16);
+        assertEquals(3, larger.size());
+        assertTrue(larger.contains(id(8)));
+        larger.close();
+    }
+
+    @Test
+    public void corruptFileIsReset() throws Exception {
+        File file = new File(folder.getRoot(), "ids.bin");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20,
+                21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32, 33});
+        raf.close();
+
+        SeenEventIdStore store = SeenEventIdStore.open(file, 4);
+        assertTrue(store.isPersistent());
+        assertEquals(0, store.size());
+        assertTrue(store.add(id(1)));
+        store.close();
+    }
+
+    @Test
+    public void matchesReferenceSetUnderChurn() {
+        int capacity = 257;
+        SeenEventIdStore store = SeenEventIdStore.inMemory(capacity);
+        Set<String> reference = new HashSet<>();
+        ArrayDeque<String> order = new ArrayDeque<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 20000; i++) {
+            // Small id space so re-adds of present and evicted ids both happen.
+            String candidate = id(random.nextInt(600));
+            boolean expectedNew = !reference.contains(candidate);
+            assertEquals(expectedNew, store.add(candidate));
+            if (expectedNew) {
+                reference.add(candidate);
+                order.addLast(candidate);
+                if (order.size() > capacity) {
+                    reference.remove(order.removeFirst());
+                }
+            }
+        }
+
+        assertEquals(reference.size(), store.size());
+        for (int i = 0; i < 600; i++) {
+            assertEquals(reference.contains(id(i)), store.contains(id(i)));
+        }
+    }
+
+    private static String id(int n) {
+        // Spread ids over the hashed bytes, and give some of them colliding prefixes.
+        byte[] digest = NostrEvents.sha256(("event" + (n % 7 == 0 ? 0 : n)).getBytes());
+        if (n % 7 == 0) {
+            digest[31] = (byte) n;
+            digest[30] = (byte) (n >>> 8);
+        }
+        return NostrEvents.bytesToHex(digest);
+    }
+}
@@ -0,0 +1,50 @@
+package com.nospeak.app.benchmarks;
+
+import com.nospeak.app.Nip44;
+import com.nospeak.app.NostrEvents;
+import com.nospeak.app.Secp256k1;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NIP-42 AUTH in nsec mode: building the kind 22242 template, computing its id and signing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class AuthEventBenchmark {
+
+    private static final String RELAY_URL = "wss://relay.example.com";
+    private static final String CHALLENGE = "b7d3c0a1-7f1e-4e6a-9c9d-0a1b2c3d4e5f";
+
+    private byte[] secretKey;
+    private String pubkeyHex;
+    private byte[] eventId;
+
+    @Setup
+    public void setUp() {
+        secretKey = Nip44.hexToBytes(Fixtures.SENDER_SECRET);
+        pubkeyHex = Fixtures.pubkeyHex(Fixtures.SENDER_SECRET);
+        eventId = NostrEvents.sha256(CHALLENGE.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public String buildAndSignAuthEvent() {
+        String unsigned = NostrEvents.buildAuthEvent(pubkeyHex, RELAY_URL, CHALLENGE, Fixtures.CREATED_AT);
+        return NostrEvents.signEvent(unsigned, secretKey);
+    }
+
+    @Benchmark
+    public byte[] schnorrSign() {
+        return Secp256k1.getInstance().schnorrSign(eventId, secretKey);
+    }
+}
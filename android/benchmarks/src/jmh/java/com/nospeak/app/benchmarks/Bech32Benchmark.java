@@ -0,0 +1,38 @@
+package com.nospeak.app.benchmarks;
+
+import com.nospeak.app.Bech32;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class Bech32Benchmark {
+
+    private String pubkeyHex;
+    private String npub;
+
+    @Setup
+    public void setUp() {
+        pubkeyHex = Fixtures.pubkeyHex(Fixtures.SENDER_SECRET);
+        npub = Bech32.pubkeyHexToNpub(pubkeyHex);
+    }
+
+    @Benchmark
+    public String encodeNpub() {
+        return Bech32.pubkeyHexToNpub(pubkeyHex);
+    }
+
+    @Benchmark
+    public String decodeNpub() {
+        return Bech32.npubToPubkeyHex(npub);
+    }
+}
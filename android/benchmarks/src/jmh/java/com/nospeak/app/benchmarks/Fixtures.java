@@ -0,0 +1,69 @@
+package com.nospeak.app.benchmarks;
+
+import com.nospeak.app.GiftWrap;
+import com.nospeak.app.Nip44;
+import com.nospeak.app.NostrEvents;
+import com.nospeak.app.Secp256k1;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Fixed keys and event builders shared by the benchmarks.
+ */
+final class Fixtures {
+
+    static final String RECIPIENT_SECRET = "7f7ff03d123792d6ac594bfa67bf6d0c0ab55b6b1fdb6249303fe861f1ccba9a";
+    static final String SENDER_SECRET = "0beebd062ec8735f4243466049d7747ef5d6594ee838de147f8aab842b15e273";
+    static final String EPHEMERAL_SECRET = "e2a8e2b7e0b1d7a6d2c8b6f5e4d3c2b1a0f9e8d7c6b5a4938271605f4e3d2c1b";
+
+    static final long CREATED_AT = 1700000000L;
+
+    private Fixtures() {
+    }
+
+    static String pubkeyHex(String secretHex) {
+        return NostrEvents.bytesToHex(Secp256k1.getInstance().xOnlyPublicKey(Nip44.hexToBytes(secretHex)));
+    }
+
+    static String text(int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + (i % 26)));
+        }
+        return sb.toString();
+    }
+
+    static JSONObject rumor(String senderPubkey, String recipientPubkey, String content) throws JSONException {
+        JSONObject rumor = new JSONObject();
+        rumor.put("kind", 14);
+        rumor.put("pubkey", senderPubkey);
+        rumor.put("created_at", CREATED_AT);
+        rumor.put("tags", new JSONArray().put(new JSONArray().put("p").put(recipientPubkey)));
+        rumor.put("content", content);
+        return rumor;
+    }
+
+    static JSONObject seal(JSONObject rumor, String recipientPubkey) throws JSONException {
+        byte[] sealKey = Nip44.getConversationKey(Nip44.hexToBytes(SENDER_SECRET), recipientPubkey);
+        JSONObject seal = new JSONObject();
+        seal.put("kind", GiftWrap.KIND_SEAL);
+        seal.put("pubkey", pubkeyHex(SENDER_SECRET));
+        seal.put("created_at", CREATED_AT);
+        seal.put("tags", new JSONArray());
+        seal.put("content", Nip44.encrypt(rumor.toString(), sealKey));
+        return seal;
+    }
+
+    static JSONObject giftWrap(JSONObject seal, String recipientPubkey) throws JSONException {
+        byte[] wrapKey = Nip44.getConversationKey(Nip44.hexToBytes(EPHEMERAL_SECRET), recipientPubkey);
+        JSONObject wrap = new JSONObject();
+        wrap.put("kind", GiftWrap.KIND_GIFT_WRAP);
+        wrap.put("pubkey", pubkeyHex(EPHEMERAL_SECRET));
+        wrap.put("created_at", CREATED_AT);
+        wrap.put("tags", new JSONArray().put(new JSONArray().put("p").put(recipientPubkey)));
+        wrap.put("content", Nip44.encrypt(seal.toString(), wrapKey));
+        return wrap;
+    }
+}
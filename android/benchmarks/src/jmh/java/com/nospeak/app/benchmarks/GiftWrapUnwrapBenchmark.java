@@ -0,0 +1,105 @@
+package com.nospeak.app.benchmarks;
+
+import com.nospeak.app.GiftWrap;
+import com.nospeak.app.LocalNip44Decryptor;
+import com.nospeak.app.Nip44;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receiving one direct message: gift wrap -> seal -> rumor, as done by the background service
+ * in nsec mode. The end-to-end variants cover ECDH, HKDF, HMAC, ChaCha20, unpadding and both
+ * JSON parses; the remaining methods isolate the individual stages.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class GiftWrapUnwrapBenchmark {
+
+    @Param({"32", "1024", "16384"})
+    public int messageLength;
+
+    private byte[] recipientSecret;
+    private String wrapPubkeyHex;
+    private String wrapContent;
+    private byte[] wrapConversationKey;
+    private String sealJson;
+    private byte[] plaintextBuffer;
+
+    private GiftWrap.Decryptor derivingDecryptor;
+    private GiftWrap.Decryptor cachingDecryptor;
+
+    @Setup
+    public void setUp() throws Exception {
+        recipientSecret = Nip44.hexToBytes(Fixtures.RECIPIENT_SECRET);
+        String recipientPubkey = Fixtures.pubkeyHex(Fixtures.RECIPIENT_SECRET);
+
+        JSONObject rumor = Fixtures.rumor(Fixtures.pubkeyHex(Fixtures.SENDER_SECRET), recipientPubkey,
+                Fixtures.text(messageLength));
+        JSONObject seal = Fixtures.seal(rumor, recipientPubkey);
+        JSONObject wrap = Fixtures.giftWrap(seal, recipientPubkey);
+
+        wrapPubkeyHex = wrap.getString("pubkey");
+        wrapContent = wrap.getString("content");
+        wrapConversationKey = Nip44.getConversationKey(recipientSecret, wrapPubkeyHex);
+        sealJson = seal.toString();
+        plaintextBuffer = new byte[Nip44.MAX_PLAINTEXT_SIZE];
+
+        derivingDecryptor = new GiftWrap.Decryptor() {
+            @Override
+            public String decrypt(String ciphertext, String senderPubkeyHex) {
+                return Nip44.decrypt(ciphertext, Nip44.getConversationKey(recipientSecret, senderPubkeyHex));
+            }
+        };
+
+        // The decryptor the service uses in nsec mode; it takes ownership of the key it is given.
+        final LocalNip44Decryptor local = new LocalNip44Decryptor(128);
+        local.setSecretKey(recipientSecret.clone());
+        cachingDecryptor = new GiftWrap.Decryptor() {
+            @Override
+            public String decrypt(String ciphertext, String senderPubkeyHex) {
+                return local.decrypt(ciphertext, senderPubkeyHex);
+            }
+        };
+    }
+
+    @Benchmark
+    public GiftWrap.Rumor unwrapDerivingKeys() {
+        return GiftWrap.unwrap(wrapPubkeyHex, wrapContent, derivingDecryptor);
+    }
+
+    @Benchmark
+    public GiftWrap.Rumor unwrapCachedKeys() {
+        return GiftWrap.unwrap(wrapPubkeyHex, wrapContent, cachingDecryptor);
+    }
+
+    @Benchmark
+    public byte[] conversationKey() {
+        return Nip44.getConversationKey(recipientSecret, wrapPubkeyHex);
+    }
+
+    @Benchmark
+    public String decryptWrapLayer() {
+        return Nip44.decrypt(wrapContent, wrapConversationKey);
+    }
+
+    @Benchmark
+    public int decryptWrapLayerIntoBuffer() {
+        return Nip44.decrypt(wrapContent, wrapConversationKey, plaintextBuffer);
+    }
+
+    @Benchmark
+    public JSONObject parseSeal() throws Exception {
+        return new JSONObject(sealJson);
+    }
+}
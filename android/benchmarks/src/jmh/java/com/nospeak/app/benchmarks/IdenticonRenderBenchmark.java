@@ -0,0 +1,96 @@
+package com.nospeak.app.benchmarks;
+
+import com.nospeak.app.Bech32;
+import com.nospeak.app.IdenticonRaster;
+import com.nospeak.app.IdenticonSeed;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Identicon rendering at the 192px notification size.
+ *
+ * android.graphics is not available on the JVM, so the former Canvas path (new bitmap, Canvas,
+ * two anti-aliased Paints, up to 25 rects per call) is stood in for by the same steps on
+ * java.awt: a new BufferedImage and Graphics2D with anti-aliasing. Absolute numbers differ on
+ * a device; the ratio to the pixel-buffer renderer and the cache lookup is what to watch.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class IdenticonRenderBenchmark {
+
+    private static final int SIZE_PX = 192;
+
+    private String seed;
+    private int[] pixels;
+    private Map<String, int[]> cache;
+
+    @Setup
+    public void setUp() {
+        // Same seed the service uses: last 10 characters of the npub.
+        String npub = Bech32.pubkeyHexToNpub(Fixtures.pubkeyHex(Fixtures.SENDER_SECRET));
+        seed = npub.substring(npub.length() - 10);
+        pixels = new int[SIZE_PX * SIZE_PX];
+
+        cache = new HashMap<>();
+        int[] rendered = new int[SIZE_PX * SIZE_PX];
+        IdenticonRaster.render(seed, SIZE_PX, true, rendered);
+        cache.put("identicon:" + seed + "@" + SIZE_PX, rendered);
+    }
+
+    @Benchmark
+    public BufferedImage canvasStylePerCall() {
+        int hash = IdenticonSeed.simpleHash(seed);
+        int fgColor = IdenticonSeed.hslToArgb(((hash % 9) + 9) % 9 * 40, 95, 45);
+        int bgColor = IdenticonSeed.hslToArgb(IdenticonSeed.seedToHue(seed), 80, 85);
+
+        BufferedImage image = new BufferedImage(SIZE_PX, SIZE_PX, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D canvas = image.createGraphics();
+        canvas.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        float scale = SIZE_PX / 8f;
+        canvas.setColor(new Color(bgColor, true));
+        canvas.fill(new Rectangle2D.Float(0, 0, SIZE_PX, SIZE_PX));
+        canvas.setColor(new Color(fgColor, true));
+        for (int i = 0; i < 25; i++) {
+            if ((hash & (1 << (i % 15))) != 0) {
+                int x = i > 14 ? 7 - (i / 5) : i / 5;
+                int y = i % 5;
+                canvas.fill(new Rectangle2D.Float((x + 1.5f) * scale, (y + 1.5f) * scale, scale, scale));
+            }
+        }
+        canvas.dispose();
+        return image;
+    }
+
+    @Benchmark
+    public int[] pixelBufferReused() {
+        IdenticonRaster.render(seed, SIZE_PX, false, pixels);
+        return pixels;
+    }
+
+    @Benchmark
+    public int[] pixelBufferReusedCircular() {
+        IdenticonRaster.render(seed, SIZE_PX, true, pixels);
+        return pixels;
+    }
+
+    @Benchmark
+    public int[] cacheHit() {
+        return cache.get("identicon:" + seed + "@" + SIZE_PX);
+    }
+}
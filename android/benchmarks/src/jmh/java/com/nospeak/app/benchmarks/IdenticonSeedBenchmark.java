@@ -0,0 +1,44 @@
+package com.nospeak.app.benchmarks;
+
+import com.nospeak.app.Bech32;
+import com.nospeak.app.IdenticonSeed;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Seed hashing used by IdenticonGenerator; the bitmap drawing itself needs android.graphics.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class IdenticonSeedBenchmark {
+
+    private String seed;
+
+    @Setup
+    public void setUp() {
+        // Same seed the service uses: last 10 characters of the npub.
+        String npub = Bech32.pubkeyHexToNpub(Fixtures.pubkeyHex(Fixtures.SENDER_SECRET));
+        seed = npub.substring(npub.length() - 10);
+    }
+
+    @Benchmark
+    public int simpleHash() {
+        return IdenticonSeed.simpleHash(seed);
+    }
+
+    @Benchmark
+    public int colors() {
+        int hash = IdenticonSeed.simpleHash(seed);
+        return IdenticonSeed.hslToArgb((hash % 9) * 40, 95, 45)
+                ^ IdenticonSeed.hslToArgb(IdenticonSeed.seedToHue(seed), 80, 85);
+    }
+}
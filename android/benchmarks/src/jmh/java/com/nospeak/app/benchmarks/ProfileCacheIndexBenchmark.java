@@ -0,0 +1,56 @@
+package com.nospeak.app.benchmarks;
+
+import com.nospeak.app.AndroidProfileCacheIndex;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class ProfileCacheIndexBenchmark {
+
+    // Matches AndroidProfileCachePrefs.MAX_ENTRIES.
+    private static final int MAX_ENTRIES = 100;
+
+    @Param({"100", "1000", "10000"})
+    public int entries;
+
+    private JSONArray index;
+    private String[] pubkeys;
+    private int next;
+    private long updatedAt;
+
+    @Setup
+    public void setUp() throws Exception {
+        pubkeys = new String[entries];
+        index = new JSONArray();
+        for (int i = 0; i < entries; i++) {
+            pubkeys[i] = String.format("%064x", i);
+            index.put(new JSONObject().put("pubkeyHex", pubkeys[i]).put("updatedAt", (long) i));
+        }
+        updatedAt = entries;
+    }
+
+    @Benchmark
+    public JSONArray upsertExisting() {
+        String pubkeyHex = pubkeys[next];
+        next = (next + 1) % pubkeys.length;
+        return AndroidProfileCacheIndex.upsert(index, pubkeyHex, ++updatedAt);
+    }
+
+    @Benchmark
+    public AndroidProfileCacheIndex.PruneResult prune() {
+        return AndroidProfileCacheIndex.prune(index, MAX_ENTRIES);
+    }
+}
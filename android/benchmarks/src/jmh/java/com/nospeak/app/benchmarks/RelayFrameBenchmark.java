@@ -0,0 +1,66 @@
+package com.nospeak.app.benchmarks;
+
+import com.nospeak.app.GiftWrap;
+import com.nospeak.app.RelayFrameParser;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Relay frame handling on the socket thread: the streaming parser versus the org.json DOM it
+ * replaced, for a gift wrap and for an event of another kind.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class RelayFrameBenchmark {
+
+    private String giftWrapFrame;
+    private String otherKindFrame;
+
+    @Setup
+    public void setUp() throws Exception {
+        String recipientPubkey = Fixtures.pubkeyHex(Fixtures.RECIPIENT_SECRET);
+        JSONObject rumor = Fixtures.rumor(Fixtures.pubkeyHex(Fixtures.SENDER_SECRET), recipientPubkey,
+                Fixtures.text(256));
+        JSONObject wrap = Fixtures.giftWrap(Fixtures.seal(rumor, recipientPubkey), recipientPubkey);
+        wrap.put("id", Fixtures.pubkeyHex(Fixtures.SENDER_SECRET));
+        wrap.put("sig", Fixtures.pubkeyHex(Fixtures.SENDER_SECRET) + Fixtures.pubkeyHex(Fixtures.SENDER_SECRET));
+        giftWrapFrame = new JSONArray().put("EVENT").put("nospeak-native-bg").put(wrap).toString();
+
+        JSONObject note = new JSONObject(wrap.toString());
+        note.put("kind", 1);
+        otherKindFrame = new JSONArray().put("EVENT").put("nospeak-native-bg").put(note).toString();
+    }
+
+    @Benchmark
+    public RelayFrameParser.Frame streamingGiftWrap() {
+        return RelayFrameParser.parse(giftWrapFrame, GiftWrap.KIND_GIFT_WRAP);
+    }
+
+    @Benchmark
+    public RelayFrameParser.Frame streamingOtherKind() {
+        return RelayFrameParser.parse(otherKindFrame, GiftWrap.KIND_GIFT_WRAP);
+    }
+
+    @Benchmark
+    public String orgJsonGiftWrap() throws Exception {
+        JSONObject event = new JSONArray(giftWrapFrame).optJSONObject(2);
+        return event.optInt("kind", -1) == GiftWrap.KIND_GIFT_WRAP ? event.optString("content", null) : null;
+    }
+
+    @Benchmark
+    public String orgJsonOtherKind() throws Exception {
+        JSONObject event = new JSONArray(otherKindFrame).optJSONObject(2);
+        return event.optInt("kind", -1) == GiftWrap.KIND_GIFT_WRAP ? event.optString("content", null) : null;
+    }
+}
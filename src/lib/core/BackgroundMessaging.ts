@@ -13,6 +13,9 @@ interface NospeakSettings {
     notificationsEnabled?: boolean;
     urlPreviewsEnabled?: boolean;
     backgroundMessagingEnabled?: boolean;
+    // 'periodic' syncs in WorkManager batches instead of keeping relay sockets open.
+    backgroundSyncMode?: 'persistent' | 'periodic';
+    backgroundSyncIntervalMinutes?: number;
 }
 
 function loadSettings(): NospeakSettings {
@@ -71,6 +74,21 @@ function buildConnectedRelaySummary(healths: RelayHealth[]): string {
 let relayHealthUnsubscribe: (() => void) | null = null;
 let lastNotificationSummary: string | null = null;
 
+export interface AndroidSyncCycleReport {
+    startedAtMs: number;
+    wallTimeMs: number;
+    relayCount: number;
+    relaysCaughtUp: number;
+    relaysFailed: number;
+    timedOut: boolean;
+    drainTimedOut: boolean;
+    complete: boolean;
+    events: number;
+    droppedEvents: number;
+    bytesReceived: number;
+    bytesSent: number;
+}
+
 interface AndroidBackgroundMessagingPlugin {
     start(options: {
         mode: 'nsec' | 'amber';
@@ -78,10 +96,17 @@ interface AndroidBackgroundMessagingPlugin {
         readRelays: string[]; // keeps native interface name but will carry messaging relays
         summary: string;
         notificationsEnabled: boolean;
+        // 'periodic' replaces persistent sockets with WorkManager batch syncs (min 15 minutes).
+        syncMode?: 'persistent' | 'periodic';
+        syncIntervalMinutes?: number;
     }): Promise<void>;
     update(options: { summary: string }): Promise<void>;
     stop(): Promise<void>;
     setActiveConversation(options: { pubkeyHex: string | null }): Promise<void>;
+    getLastSyncCycle(): Promise<{ cycle?: AndroidSyncCycleReport }>;
+    // Per-relay traffic, duplicate, decrypt, auth and connection-time counters; absent while the
+    // native service is not running.
+    getMetrics(): Promise<{ running: boolean; metrics?: Record<string, unknown> }>;
 
     getBatteryOptimizationStatus(): Promise<{ isIgnoringBatteryOptimizations: boolean }>;
     requestIgnoreBatteryOptimizations(): Promise<{ started: boolean; reason?: string }>;
@@ -226,13 +251,16 @@ async function startNativeForegroundService(summary: string, readRelays: string[
  
       const settings = loadSettings();
       const notificationsEnabled = settings.notificationsEnabled !== false;
+      const syncMode = settings.backgroundSyncMode === 'periodic' ? 'periodic' : 'persistent';
 
       await AndroidBackgroundMessaging.start({
           mode,
           pubkeyHex,
           readRelays,
           summary,
-          notificationsEnabled
+          notificationsEnabled,
+          syncMode,
+          syncIntervalMinutes: settings.backgroundSyncIntervalMinutes
       });
  }
 
@@ -380,7 +380,10 @@ const de = {
             label: 'Background Messaging',
             description:
                 'Halte nospeak mit deinen Messaging-Relays verbunden und erhalte Nachrichten-/Reaktionsbenachrichtigungen, während die App im Hintergrund ist. Android zeigt hierfür eine dauerhafte Benachrichtigung an. Funktioniert sowohl mit lokalem Schlüssel (nsec) als auch mit Amber-Login. Vorschauen können durch deine Android-Sperrbildschirm-Einstellungen eingeschränkt sein.',
-            openBatterySettings: 'Batterieeinstellungen öffnen'
+            openBatterySettings: 'Batterieeinstellungen öffnen',
+            periodicSyncLabel: 'Gebündelte Synchronisierung',
+            periodicSyncDescription:
+                'Statt dauerhaft verbunden zu bleiben, werden deine Messaging-Relays alle 15 Minuten abgefragt. Spart Akku; neue Nachrichten kommen verzögert an.'
         },
         urlPreviews: {
             label: 'URL-Vorschauen',
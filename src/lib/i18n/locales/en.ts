@@ -378,7 +378,10 @@ const en = {
             label: 'Background Messaging',
             description:
                 'Keep nospeak connected to your messaging relays and receive message/reaction notifications while the app is in the background. Android will show a persistent notification when this is enabled. Works with both local-key (nsec) and Amber logins. Notification previews may be limited by your Android lockscreen privacy settings.',
-            openBatterySettings: 'Open battery settings'
+            openBatterySettings: 'Open battery settings',
+            periodicSyncLabel: 'Batch sync',
+            periodicSyncDescription:
+                'Instead of staying connected, check your messaging relays every 15 minutes. Uses less battery; new messages arrive with a delay.'
         },
         urlPreviews: {
             label: 'URL Previews',
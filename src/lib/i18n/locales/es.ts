@@ -370,7 +370,10 @@ const es = {
         backgroundMessaging: {
             label: 'Mensajería en segundo plano',
             description: 'Mantén nospeak conectado a tus relays de mensajería y recibe notificaciones de mensajes/reacciones mientras la app está en segundo plano. Android mostrará una notificación persistente cuando esto esté habilitado. Funciona tanto con clave local (nsec) como con inicios de sesión con Amber. Las vistas previas de notificaciones pueden estar limitadas por la configuración de privacidad de la pantalla de bloqueo de Android.',
-            openBatterySettings: 'Abrir ajustes de batería'
+            openBatterySettings: 'Abrir ajustes de batería',
+            periodicSyncLabel: 'Sincronización por lotes',
+            periodicSyncDescription:
+                'En lugar de mantenerse conectado, consulta tus relays de mensajería cada 15 minutos. Consume menos batería; los mensajes nuevos llegan con retraso.'
         },
         urlPreviews: {
             label: 'Vistas previas de URL',
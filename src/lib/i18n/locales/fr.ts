@@ -370,7 +370,10 @@ const fr = {
         backgroundMessaging: {
             label: 'Messagerie en arrière-plan',
             description: "Gardez nospeak connecté à vos relays de messagerie et recevez des notifications de message/réaction lorsque l’application est en arrière-plan. Android affichera une notification persistante lorsque cette option est activée. Fonctionne avec les connexions par clé locale (nsec) et Amber. Les aperçus de notifications peuvent être limités par les paramètres de confidentialité de l’écran de verrouillage Android.",
-            openBatterySettings: 'Ouvrir les paramètres de batterie'
+            openBatterySettings: 'Ouvrir les paramètres de batterie',
+            periodicSyncLabel: 'Synchronisation groupée',
+            periodicSyncDescription:
+                'Au lieu de rester connecté, interroge vos relays de messagerie toutes les 15 minutes. Consomme moins de batterie ; les nouveaux messages arrivent avec un délai.'
         },
         urlPreviews: {
             label: "Aperçus d’URL",
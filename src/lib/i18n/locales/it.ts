@@ -370,7 +370,10 @@ const it = {
         backgroundMessaging: {
             label: 'Messaggistica in background',
             description: 'Mantieni nospeak connesso ai tuoi relays di messaggistica e ricevi notifiche di messaggi/reazioni mentre l’app è in background. Android mostrerà una notifica persistente quando questa opzione è abilitata. Funziona sia con login con chiave locale (nsec) sia con Amber. Le anteprime delle notifiche potrebbero essere limitate dalle impostazioni di privacy della schermata di blocco di Android.',
-            openBatterySettings: 'Apri impostazioni batteria'
+            openBatterySettings: 'Apri impostazioni batteria',
+            periodicSyncLabel: 'Sincronizzazione a intervalli',
+            periodicSyncDescription:
+                'Invece di restare connesso, controlla i tuoi relays di messaggistica ogni 15 minuti. Consuma meno batteria; i nuovi messaggi arrivano con un ritardo.'
         },
         urlPreviews: {
             label: 'Anteprime URL',
@@ -370,7 +370,10 @@ const pt = {
         backgroundMessaging: {
             label: 'Mensagens em segundo plano',
             description: 'Mantenha o nospeak ligado aos seus relays de mensagens e receba notificações de mensagens/reações enquanto a aplicação está em segundo plano. O Android mostrará uma notificação persistente quando isto estiver ativado. Funciona tanto com chave local (nsec) como com logins do Amber. As pré-visualizações de notificações podem ser limitadas pelas definições de privacidade do ecrã de bloqueio do Android.',
-            openBatterySettings: 'Abrir definições da bateria'
+            openBatterySettings: 'Abrir definições da bateria',
+            periodicSyncLabel: 'Sincronização em lotes',
+            periodicSyncDescription:
+                'Em vez de ficar ligado, verifica os seus relays de mensagens a cada 15 minutos. Gasta menos bateria; as novas mensagens chegam com atraso.'
         },
         urlPreviews: {
             label: 'Pré-visualizações de URL',